@@ -1,5 +1,6 @@
 package com.cimparato.csbm.config;
 
+import com.cimparato.csbm.config.properties.AppProperties;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import org.springframework.context.annotation.Bean;
@@ -9,11 +10,16 @@ import java.time.Duration;
 @Configuration
 public class CacheConfig {
 
+    /**
+     * Cache in-memory davanti al MessageDeduplicationStore: gli ID dei messaggi elaborati di recente vengono
+     * riconosciuti senza accedere all'archivio.
+     */
     @Bean
-    public Cache<String, Boolean> processedMessageCache() {
+    public Cache<String, Boolean> processedMessageCache(AppProperties appProperties) {
+        var deduplication = appProperties.getNotification().getDeduplication();
         return Caffeine.newBuilder()
-                .expireAfterWrite(Duration.ofHours(24))
-                .maximumSize(100_000)
+                .expireAfterWrite(Duration.ofHours(deduplication.getTtlHours()))
+                .maximumSize(deduplication.getNearCacheMaxSize())
                 .recordStats()
                 .build();
     }
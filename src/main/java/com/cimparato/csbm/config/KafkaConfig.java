@@ -1,14 +1,25 @@
 package com.cimparato.csbm.config;
 
+import com.cimparato.csbm.config.properties.KafkaAppProperties;
+import com.cimparato.csbm.dto.notification.NotificationDTO;
 import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.kafka.DefaultKafkaProducerFactoryCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.kafka.annotation.EnableKafka;
+import org.springframework.kafka.core.KafkaOperations;
 import org.springframework.kafka.core.KafkaTemplate;
-import org.springframework.kafka.retrytopic.DltStrategy;
-import org.springframework.kafka.retrytopic.RetryTopicConfiguration;
-import org.springframework.kafka.retrytopic.RetryTopicConfigurationBuilder;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.listener.DeadLetterPublishingRecoverer;
+import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.kafka.support.ExponentialBackOffWithMaxRetries;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 @Configuration
 @EnableKafka
@@ -30,26 +41,63 @@ public class KafkaConfig {
         return new NewTopic(topicName, numPartitions, replicationFactor);
     }
 
+    /**
+     * Error handler del listener batch delle notifiche.
+     *
+     * Gli invii falliti vengono già salvati per singolo record dal KafkaConsumer: qui arrivano solo gli errori che
+     * impediscono di completare il batch (ad esempio il database non raggiungibile), per i quali il batch viene
+     * riconsegnato con backoff esponenziale. Quando il listener indica il record fallito con una
+     * BatchListenerFailedException, i record precedenti vengono committati e solo quello e i successivi vengono
+     * riconsegnati.
+     *
+     * Esauriti i tentativi, e subito per i messaggi non decodificabili, il record viene pubblicato sul dead letter
+     * topic del topic di origine (stesso nome con il suffisso ".DLT", come per gli invii falliti del KafkaProducer)
+     * invece di essere scartato. I messaggi non decodificabili vengono pubblicati con i byte originali.
+     */
     @Bean
-    public RetryTopicConfiguration retryTopicConfiguration(
-            KafkaTemplate<String, String> kafkaTemplate,
+    public DefaultErrorHandler kafkaErrorHandler(
+            KafkaTemplate<String, NotificationDTO> kafkaTemplate,
+            ProducerFactory<String, NotificationDTO> producerFactory,
             @Value("${app.kafka.consumer.retry.attempts}") int attempts,
             @Value("${app.kafka.consumer.retry.backoff.delay}") long delay,
-            @Value("${app.kafka.consumer.retry.backoff.multiplier}") double multiplier,
-            @Value("${app.kafka.topic.notification}") String notificationTopic,
-            @Value("${app.kafka.topic.partitions}") int numPartitions,
-            @Value("${app.kafka.topic.replicationFactor}") int replicationFactor) {
-
-        return RetryTopicConfigurationBuilder
-                .newInstance()
-                .exponentialBackoff(delay, multiplier, 300000) // max backoff 5 minuti
-                .maxAttempts(attempts)
-                .includeTopic(notificationTopic)
-                .retryTopicSuffix("-retry") // suffisso per i topic di retry
-                .dltSuffix("-dlt") // suffisso per i dead letter topic
-                .autoCreateTopics(true, numPartitions, (short) replicationFactor)
-                .dltProcessingFailureStrategy(DltStrategy.FAIL_ON_ERROR)
-                .create(kafkaTemplate);
+            @Value("${app.kafka.consumer.retry.backoff.multiplier}") double multiplier) {
+
+        var backOff = new ExponentialBackOffWithMaxRetries(Math.max(attempts - 1, 0));
+        backOff.setInitialInterval(delay);
+        backOff.setMultiplier(multiplier);
+        backOff.setMaxInterval(300000); // max backoff 5 minuti
+        return new DefaultErrorHandler(deadLetterPublishingRecoverer(kafkaTemplate, producerFactory), backOff);
+    }
+
+    private static DeadLetterPublishingRecoverer deadLetterPublishingRecoverer(
+            KafkaTemplate<String, NotificationDTO> kafkaTemplate,
+            ProducerFactory<String, NotificationDTO> producerFactory) {
+
+        // i record non decodificabili hanno come valore i byte ricevuti, da pubblicare senza serializzarli di nuovo
+        var rawTemplate = new KafkaTemplate<>(producerFactory,
+                Map.<String, Object>of(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class));
+
+        Map<Class<?>, KafkaOperations<?, ?>> templates = new LinkedHashMap<>();
+        templates.put(byte[].class, rawTemplate);
+        templates.put(NotificationDTO.class, kafkaTemplate);
+
+        // partizione scelta dal producer: il DLT può avere meno partizioni del topic di origine
+        return new DeadLetterPublishingRecoverer(templates,
+                (record, ex) -> new TopicPartition(record.topic() + ".DLT", -1));
+    }
+
+    /**
+     * Applica al producer le impostazioni di batching di app.kafka.producer.batch: i messaggi inviati in blocco
+     * dalle regole di notifica vengono raggruppati e compressi in meno richieste verso il broker.
+     */
+    @Bean
+    public DefaultKafkaProducerFactoryCustomizer producerBatchingCustomizer(KafkaAppProperties kafkaAppProperties) {
+        var batch = kafkaAppProperties.getProducer().getBatch();
+        return producerFactory -> producerFactory.updateConfigs(Map.of(
+                ProducerConfig.LINGER_MS_CONFIG, batch.getLingerMs(),
+                ProducerConfig.BATCH_SIZE_CONFIG, batch.getBatchSizeBytes(),
+                ProducerConfig.COMPRESSION_TYPE_CONFIG, batch.getCompressionType()
+        ));
     }
 
 }
@@ -0,0 +1,14 @@
+package com.cimparato.csbm.config;
+
+import org.springframework.boot.autoconfigure.mail.MailProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Rende disponibili le proprietà spring.mail al pool di connessioni SMTP anche quando il JavaMailSender non viene
+ * creato dall'autoconfigurazione (es. nei test, dove viene sostituito da un mock).
+ */
+@Configuration
+@EnableConfigurationProperties(MailProperties.class)
+public class MailConfig {
+}
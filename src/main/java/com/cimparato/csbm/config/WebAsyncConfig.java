@@ -0,0 +1,31 @@
+package com.cimparato.csbm.config;
+
+import com.cimparato.csbm.config.async.ReportExportTaskExecutor;
+import com.cimparato.csbm.config.properties.AppProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Esegue le risposte asincrone di Spring MVC (StreamingResponseBody delle esportazioni del report) sull'executor
+ * dedicato invece che su un nuovo thread per ogni richiesta.
+ */
+@Configuration
+public class WebAsyncConfig implements WebMvcConfigurer {
+
+    private final ReportExportTaskExecutor reportExportExecutor;
+    private final AppProperties appProperties;
+
+    public WebAsyncConfig(ReportExportTaskExecutor reportExportExecutor, AppProperties appProperties) {
+        this.reportExportExecutor = reportExportExecutor;
+        this.appProperties = appProperties;
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(reportExportExecutor);
+        configurer.setDefaultTimeout(TimeUnit.SECONDS.toMillis(appProperties.getReport().getExport().getTimeoutSeconds()));
+    }
+}
@@ -25,11 +25,40 @@ public class AsyncConfig {
         return new FileProcessingTaskExecutor();
     }
 
+    @Bean(name = "fileChunkExecutor")
+    public FileChunkTaskExecutor fileChunkExecutor() {
+        return new FileChunkTaskExecutor(appProperties.getFileProcessing().getParallelism());
+    }
+
     @Bean(name = "notificationExecutor")
     public NotificationTaskExecutor notificationExecutor() {
         return new NotificationTaskExecutor();
     }
 
+    @Bean(name = "notificationRetryExecutor")
+    public NotificationRetryTaskExecutor notificationRetryExecutor() {
+        int poolSize = appProperties.getNotification().getRetry().getParallelism().values().stream()
+                .mapToInt(Integer::intValue)
+                .sum();
+        return new NotificationRetryTaskExecutor(poolSize);
+    }
+
+    @Bean(name = "emailDeliveryExecutor")
+    public EmailDeliveryTaskExecutor emailDeliveryExecutor() {
+        return new EmailDeliveryTaskExecutor(appProperties.getNotification().getEmailDelivery().getPoolSize());
+    }
+
+    @Bean(name = "reportExportExecutor")
+    public ReportExportTaskExecutor reportExportExecutor() {
+        return new ReportExportTaskExecutor(appProperties.getReport().getExport().getMaxConcurrentExports());
+    }
+
+    @Bean(name = "reportGenerationExecutor")
+    public ReportGenerationTaskExecutor reportGenerationExecutor() {
+        var jobs = appProperties.getReport().getJobs();
+        return new ReportGenerationTaskExecutor(jobs.getPoolSize(), jobs.getQueueCapacity());
+    }
+
     /**
      * Bean per monitorare lo stato dei processi schedulati
      */
@@ -37,11 +66,21 @@ public class AsyncConfig {
     public ScheduledTasksMonitor scheduledTasksMonitor(
             TaskScheduler taskScheduler,
             FileProcessingTaskExecutor fileProcessingExecutor,
-            NotificationTaskExecutor notificationExecutor) {
+            FileChunkTaskExecutor fileChunkExecutor,
+            NotificationTaskExecutor notificationExecutor,
+            NotificationRetryTaskExecutor notificationRetryExecutor,
+            EmailDeliveryTaskExecutor emailDeliveryExecutor,
+            ReportExportTaskExecutor reportExportExecutor,
+            ReportGenerationTaskExecutor reportGenerationExecutor) {
 
         Map<String, ThreadPoolTaskExecutor> executors = new HashMap<>();
         executors.put("File Processing Executor", fileProcessingExecutor);
+        executors.put("File Chunk Executor", fileChunkExecutor);
         executors.put("Notification Executor", notificationExecutor);
+        executors.put("Notification Retry Executor", notificationRetryExecutor);
+        executors.put("Email Delivery Executor", emailDeliveryExecutor);
+        executors.put("Report Export Executor", reportExportExecutor);
+        executors.put("Report Generation Executor", reportGenerationExecutor);
 
         return new ScheduledTasksMonitor((ThreadPoolTaskScheduler) taskScheduler, executors);
     }
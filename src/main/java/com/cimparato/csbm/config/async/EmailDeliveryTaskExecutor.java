@@ -0,0 +1,35 @@
+package com.cimparato.csbm.config.async;
+
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Executor dedicato all'invio delle email.
+ *
+ * Ogni task invia un gruppo di email su una connessione del pool SMTP: il pool ha un thread per ogni connessione,
+ * così che gli invii non occupino i thread del listener Kafka o dei job schedulati.
+ */
+public class EmailDeliveryTaskExecutor extends ThreadPoolTaskExecutor {
+
+    /**
+     * - corePoolSize/maxPoolSize: pari al numero di connessioni SMTP del pool
+     * - queueCapacity: limita i gruppi di email in attesa di una connessione
+     * - rejectedExecutionHandler: AbortPolicy rifiuta i gruppi eccedenti se la coda è piena, così che l'invio non
+     *   venga mai eseguito nel thread chiamante (es. il listener Kafka); i gruppi rifiutati risultano non inviati
+     */
+    public EmailDeliveryTaskExecutor(int poolSize) {
+
+        int size = Math.max(1, poolSize);
+
+        setCorePoolSize(size);
+        setMaxPoolSize(size);
+        setQueueCapacity(size * 4);
+        setThreadNamePrefix("email-delivery-");
+        setKeepAliveSeconds(60);
+        setAllowCoreThreadTimeOut(true);
+        setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+
+        initialize();
+    }
+}
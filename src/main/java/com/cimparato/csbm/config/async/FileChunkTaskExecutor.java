@@ -0,0 +1,35 @@
+package com.cimparato.csbm.config.async;
+
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Executor dedicato all'elaborazione in parallelo delle porzioni di un singolo file.
+ *
+ * È separato da FileProcessingTaskExecutor, i cui thread restano in attesa del completamento delle porzioni:
+ * usare lo stesso pool potrebbe esaurirne i thread e bloccare l'elaborazione.
+ */
+public class FileChunkTaskExecutor extends ThreadPoolTaskExecutor {
+
+    /**
+     * - corePoolSize/maxPoolSize: pari al grado di parallelismo configurato
+     * - queueCapacity: porzioni in attesa oltre a quelle in esecuzione
+     * - rejectedExecutionHandler: CallerRunsPolicy fa eseguire la porzione nel thread del file se la coda è piena,
+     *      così che l'elaborazione rallenti invece di fallire
+     */
+    public FileChunkTaskExecutor(int parallelism) {
+
+        int poolSize = Math.max(1, parallelism);
+
+        setCorePoolSize(poolSize);
+        setMaxPoolSize(poolSize);
+        setQueueCapacity(poolSize * 4);
+        setThreadNamePrefix("file-chunk-");
+        setKeepAliveSeconds(60);
+        setAllowCoreThreadTimeOut(true);
+        setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+
+        initialize();
+    }
+}
@@ -0,0 +1,33 @@
+package com.cimparato.csbm.config.async;
+
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Executor dedicato ai nuovi tentativi di invio delle notifiche FAILED sui canali sincroni (es. email).
+ *
+ * Il numero di invii contemporanei per canale è limitato da NotificationRetryService: il pool ha un thread per
+ * ogni invio che può essere in corso, così che nessun invio resti in coda.
+ */
+public class NotificationRetryTaskExecutor extends ThreadPoolTaskExecutor {
+
+    /**
+     * - corePoolSize/maxPoolSize: pari al numero massimo di invii contemporanei
+     * - rejectedExecutionHandler: CallerRunsPolicy fa eseguire l'invio nel thread del job se la coda è piena
+     */
+    public NotificationRetryTaskExecutor(int poolSize) {
+
+        int size = Math.max(1, poolSize);
+
+        setCorePoolSize(size);
+        setMaxPoolSize(size);
+        setQueueCapacity(size);
+        setThreadNamePrefix("notif-retry-");
+        setKeepAliveSeconds(60);
+        setAllowCoreThreadTimeOut(true);
+        setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+
+        initialize();
+    }
+}
@@ -0,0 +1,35 @@
+package com.cimparato.csbm.config.async;
+
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Executor delle risposte asincrone di Spring MVC, usato dalle esportazioni in streaming del report.
+ *
+ * Ogni esportazione legge un cursore sul database e scrive sulla risposta fino al termine: il numero di thread
+ * limita le esportazioni contemporanee, e quindi le connessioni al database occupate.
+ */
+public class ReportExportTaskExecutor extends ThreadPoolTaskExecutor {
+
+    /**
+     * - corePoolSize/maxPoolSize: pari al numero di esportazioni contemporanee
+     * - queueCapacity: esportazioni in attesa di un thread libero
+     * - rejectedExecutionHandler: CallerRunsPolicy fa eseguire l'esportazione nel thread della richiesta se la coda
+     *   è piena
+     */
+    public ReportExportTaskExecutor(int maxConcurrentExports) {
+
+        int size = Math.max(1, maxConcurrentExports);
+
+        setCorePoolSize(size);
+        setMaxPoolSize(size);
+        setQueueCapacity(size * 4);
+        setThreadNamePrefix("report-export-");
+        setKeepAliveSeconds(60);
+        setAllowCoreThreadTimeOut(true);
+        setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+
+        initialize();
+    }
+}
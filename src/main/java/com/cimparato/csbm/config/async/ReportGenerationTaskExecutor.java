@@ -0,0 +1,40 @@
+package com.cimparato.csbm.config.async;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Executor dei job di generazione asincrona dei report (/v1/report/jobs), separato da quello delle esportazioni in
+ * streaming: la generazione non occupa un thread della richiesta HTTP e il numero di report generati
+ * contemporaneamente resta limitato.
+ */
+@Slf4j
+public class ReportGenerationTaskExecutor extends ThreadPoolTaskExecutor {
+
+    /**
+     * - corePoolSize/maxPoolSize: report generati contemporaneamente
+     * - queueCapacity: job in attesa di un thread libero
+     * - rejectedExecutionHandler: con la coda piena il job viene rifiutato, come in FileProcessingTaskExecutor,
+     *   invece di essere eseguito nel thread della richiesta
+     */
+    public ReportGenerationTaskExecutor(int poolSize, int queueCapacity) {
+
+        int size = Math.max(1, poolSize);
+
+        setCorePoolSize(size);
+        setMaxPoolSize(size);
+        setQueueCapacity(Math.max(0, queueCapacity));
+        setThreadNamePrefix("report-gen-");
+        setKeepAliveSeconds(60);
+        setAllowCoreThreadTimeOut(true);
+
+        setRejectedExecutionHandler((r, executor) -> {
+            log.error("Report generation task rejected. Thread pool saturated.");
+            throw new RejectedExecutionException("Report generation task rejected due to system overload");
+        });
+
+        initialize();
+    }
+}
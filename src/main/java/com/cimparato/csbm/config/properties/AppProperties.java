@@ -1,5 +1,6 @@
 package com.cimparato.csbm.config.properties;
 
+import com.cimparato.csbm.domain.notification.NotificationType;
 import jakarta.validation.constraints.NotEmpty;
 import jakarta.validation.constraints.NotNull;
 import lombok.Data;
@@ -7,6 +8,9 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.validation.annotation.Validated;
 
+import java.util.EnumMap;
+import java.util.Map;
+
 @Data
 @Configuration
 @ConfigurationProperties(prefix = "app")
@@ -15,6 +19,7 @@ public class AppProperties {
     private FileProcessing fileProcessing;
     private Notification notification;
     private Scheduling scheduling;
+    private Report report = new Report();
     
     @Data
     @Validated
@@ -22,6 +27,25 @@ public class AppProperties {
         private @NotNull String uploadDir;
         private @NotNull @NotEmpty String[] allowedExtensions;
         private int batchSize;
+        // dimensione minima (in byte) oltre la quale il file viene caricato tramite COPY, 0 per disabilitare
+        private long copyIngestionThresholdBytes;
+        // numero di porzioni elaborate in parallelo per un singolo file, 0 o 1 per disabilitare
+        private int parallelism;
+        // dimensione minima (in byte) oltre la quale il file viene suddiviso in porzioni elaborate in parallelo
+        private long parallelThresholdBytes;
+        private ChunkedUpload chunkedUpload = new ChunkedUpload();
+    }
+
+    // Caricamento a porzioni (/v1/files/uploads)
+    @Data
+    @Validated
+    public static class ChunkedUpload {
+        // dimensione massima (in byte) del file caricato a porzioni
+        private long maxFileSizeBytes = 10L * 1024 * 1024 * 1024;
+        // dimensione massima (in byte) di una singola porzione
+        private long maxChunkSizeBytes = 16L * 1024 * 1024;
+        // ore dopo le quali un caricamento non completato viene eliminato
+        private int sessionTtlHours = 24;
     }
 
     // Notification properties
@@ -29,8 +53,120 @@ public class AppProperties {
     @Validated
     public static class Notification {
             private Rule rule;
+            private Deduplication deduplication = new Deduplication();
+            private Outbox outbox = new Outbox();
+            private NotificationRetry retry = new NotificationRetry();
+            private EmailDelivery emailDelivery = new EmailDelivery();
+    }
+
+    // Deduplicazione dei messaggi del topic delle notifiche
+    @Data
+    @Validated
+    public static class Deduplication {
+        // archivio degli ID elaborati: "database" (condiviso fra le istanze) oppure "local"
+        private String store = "database";
+        // ore dopo le quali un ID elaborato viene rimosso dall'archivio e dalla cache
+        private int ttlHours = 24;
+        // numero massimo di ID mantenuti nella cache in-memory davanti all'archivio
+        private long nearCacheMaxSize = 100_000;
     }
     
+    // Outbox transazionale delle notifiche generate dalle regole
+    @Data
+    @Validated
+    public static class Outbox {
+        // notifiche scritte nell'outbox con un'unica transazione
+        private int writeBatchSize = 500;
+        // notifiche prelevate e pubblicate su Kafka dal relay in ogni blocco
+        private int relayBatchSize = 500;
+        // blocchi pubblicati al massimo da una singola esecuzione del relay
+        private int maxBatchesPerRun = 100;
+        // tentativi di pubblicazione oltre i quali la notifica passa in stato FAILED
+        private int maxAttempts = 5;
+        // durata del lease sulle notifiche in pubblicazione, deve superare l'attesa delle conferme di Kafka
+        private int leaseSeconds = 300;
+    }
+
+    // Nuovi tentativi di invio delle notifiche FAILED (numero di tentativi e backoff in app.kafka.consumer.retry)
+    @Data
+    @Validated
+    public static class NotificationRetry {
+        // notifiche prelevate con un lease in ogni blocco
+        private int batchSize = 100;
+        // blocchi elaborati al massimo da una singola esecuzione del job
+        private int maxBatchesPerRun = 10;
+        // durata del lease: scaduto il lease, la notifica può essere prelevata da un'altra istanza
+        private int leaseSeconds = 300;
+        // attesa massima degli invii di un blocco, deve essere inferiore alla durata del lease
+        private int sendTimeoutSeconds = 60;
+        // invii contemporanei per canale
+        private Map<NotificationType, Integer> parallelism = new EnumMap<>(Map.of(
+                NotificationType.EMAIL, 4,
+                NotificationType.KAFKA, 16));
+    }
+
+    // Invio delle email tramite un pool di connessioni SMTP (server e credenziali in spring.mail)
+    @Data
+    @Validated
+    public static class EmailDelivery {
+        // connessioni SMTP autenticate mantenute aperte, pari agli invii contemporanei
+        private int poolSize = 4;
+        // email inviate in sequenza sulla stessa connessione da un singolo invio
+        private int batchSize = 50;
+        // attesa massima di una connessione libera del pool
+        private int borrowTimeoutSeconds = 30;
+        // attesa dell'invio di una email; per un gruppo, oltre questa attesa viene registrato un avviso e l'esito
+        // viene comunque atteso (la durata di ogni invio è limitata dai timeout SMTP)
+        private int sendTimeoutSeconds = 60;
+    }
+
+    // Report di riepilogo
+    @Data
+    @Validated
+    public static class Report {
+        private Cache cache = new Cache();
+        private Export export = new Export();
+        private Jobs jobs = new Jobs();
+    }
+
+    // Cache del report di riepilogo, invalidata al termine dell'elaborazione di ogni file
+    @Data
+    @Validated
+    public static class Cache {
+        // secondi dopo i quali il report viene comunque rigenerato, 0 per disabilitare la cache
+        private int maxAgeSeconds = 3600;
+        // clienti nella spesa media oltre i quali il report non viene conservato in memoria, ma rigenerato a ogni richiesta
+        private int maxCachedCustomers = 10000;
+        // directory in cui viene conservato il PDF del report
+        private String pdfDir = "/tmp/reports/summary";
+    }
+
+    // Esportazioni in streaming del report (/v1/report/summary/pdf/stream, /v1/report/average-spend/export)
+    @Data
+    @Validated
+    public static class Export {
+        // esportazioni eseguite contemporaneamente, ciascuna tiene aperta una connessione al database
+        private int maxConcurrentExports = 2;
+        // durata massima di un'esportazione, dopo la quale la risposta viene interrotta
+        private int timeoutSeconds = 600;
+    }
+
+    // Generazione asincrona dei report (/v1/report/jobs)
+    @Data
+    @Validated
+    public static class Jobs {
+        // directory in cui vengono salvati i report generati
+        private String artifactDir = "/tmp/reports";
+        // ore dopo le quali un report generato viene eliminato
+        private int artifactTtlHours = 24;
+        // report generati contemporaneamente
+        private int poolSize = 2;
+        // job in attesa di un thread libero, oltre i quali le richieste vengono rifiutate
+        private int queueCapacity = 20;
+        // minuti dopo i quali un job non ancora completato (es. interrotto da un riavvio) viene considerato fallito
+        private int timeoutMinutes = 30;
+    }
+
     @Data
     @Validated
     public static class Rule {
@@ -112,6 +248,11 @@ public class AppProperties {
         @NotNull String notificationProcessingCron;
         @NotNull String failedNotificationsRetryCron;
         @NotNull String reportSchedulerStatusCron;
+        String expiredUploadSessionsCleanupCron;
+        String processedMessagesCleanupCron;
+        String notificationOutboxRelayCron;
+        String summaryStatsCheckCron;
+        String reportJobsCleanupCron;
     }
 
 }
@@ -24,6 +24,17 @@ public class KafkaAppProperties {
     @Data
     public static class ProducerConfig {
         private RetryConfig retry;
+        private BatchConfig batch = new BatchConfig();
+    }
+
+    @Data
+    public static class BatchConfig {
+        private int size = 500; // record inviati prima di ogni flush del batch
+        private int maxInFlight = 1000; // invii non ancora confermati oltre i quali il chiamante resta in attesa
+        private long flushTimeoutMs = 30000; // attesa massima delle conferme a ogni flush
+        private int lingerMs = 20; // linger.ms del producer
+        private int batchSizeBytes = 65536; // batch.size del producer
+        private String compressionType = "lz4"; // compression.type del producer
     }
 
     @Data
@@ -0,0 +1,27 @@
+package com.cimparato.csbm.domain.enumeration;
+
+/**
+ * Report generabili in modo asincrono, con il tipo di contenuto e l'estensione del file prodotto.
+ */
+public enum ReportJobType {
+
+    SUMMARY_PDF("application/pdf", "pdf"),
+    AVERAGE_SPEND_CSV("text/csv", "csv"),
+    AVERAGE_SPEND_NDJSON("application/x-ndjson", "ndjson");
+
+    private final String contentType;
+    private final String extension;
+
+    ReportJobType(String contentType, String extension) {
+        this.contentType = contentType;
+        this.extension = extension;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+}
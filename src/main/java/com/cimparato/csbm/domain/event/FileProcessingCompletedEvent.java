@@ -9,13 +9,23 @@ public class FileProcessingCompletedEvent extends DomainEvent {
     private final String filename;
     private final String jobId;
     private final JobStatus jobStatus;
+    private final Long fileUploadId;
 
     public FileProcessingCompletedEvent(FileUploadJobDTO fileUploadJobDTO) {
+        this(fileUploadJobDTO, null);
+    }
+
+    /**
+     * @param fileUploadId id del file elaborato, usato per individuare i clienti interessati dal file;
+     *                     se null le regole di notifica vengono valutate su tutti i clienti
+     */
+    public FileProcessingCompletedEvent(FileUploadJobDTO fileUploadJobDTO, Long fileUploadId) {
         super(fileUploadJobDTO);
         this.fileHash = fileUploadJobDTO.getFileHash();
         this.filename = fileUploadJobDTO.getFilename();
         this.jobId = fileUploadJobDTO.getJobId();
         this.jobStatus = fileUploadJobDTO.getJobStatus();
+        this.fileUploadId = fileUploadId;
     }
 
     public String getFileHash() {
@@ -33,4 +43,8 @@ public class FileProcessingCompletedEvent extends DomainEvent {
     public JobStatus getJobStatus() {
         return jobStatus;
     }
+
+    public Long getFileUploadId() {
+        return fileUploadId;
+    }
 }
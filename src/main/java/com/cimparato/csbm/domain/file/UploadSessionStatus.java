@@ -0,0 +1,5 @@
+package com.cimparato.csbm.domain.file;
+
+public enum UploadSessionStatus {
+    OPEN, COMPLETED, ABORTED, EXPIRED
+}
@@ -22,7 +22,8 @@ import java.util.Set;
 @AllArgsConstructor
 public class CloudService {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "cloud_services_seq")
+    @SequenceGenerator(name = "cloud_services_seq", sequenceName = "cloud_services_seq", allocationSize = 50)
     private Long id;
 
     @Column(name = "customer_id", nullable = false)
@@ -48,6 +49,13 @@ public class CloudService {
     @Column(name = "last_updated")
     private LocalDateTime lastUpdated;
 
+    // file e riga che hanno scritto per ultimi il servizio, usati per applicare la regola "vince l'ultima riga"
+    @Column(name = "last_file_upload_id")
+    private Long lastFileUploadId;
+
+    @Column(name = "last_line_number")
+    private Integer lastLineNumber;
+
     @OneToMany(mappedBy = "service", cascade = CascadeType.ALL)
     private Set<ServiceFileRelation> fileMappings = new HashSet<>();
 
@@ -17,7 +17,8 @@ import java.util.Set;
 @Builder
 public class FileUpload {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "file_uploads_seq")
+    @SequenceGenerator(name = "file_uploads_seq", sequenceName = "file_uploads_seq", allocationSize = 50)
     private Long id;
 
     @Column(nullable = false)
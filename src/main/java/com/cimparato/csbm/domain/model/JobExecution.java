@@ -16,7 +16,8 @@ import java.time.LocalDateTime;
 public class JobExecution {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "job_execution_seq")
+    @SequenceGenerator(name = "job_execution_seq", sequenceName = "job_execution_seq", allocationSize = 50)
     private Long id;
 
     @Column(name = "job_id", nullable = false, unique = true)
@@ -15,13 +15,17 @@ import java.time.LocalDateTime;
 @AllArgsConstructor
 public class Notification {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "notifications_seq")
+    @SequenceGenerator(name = "notifications_seq", sequenceName = "notifications_seq", allocationSize = 50)
     private Long id;
 
     @Enumerated(EnumType.STRING)
     @Column(name = "type", nullable = false)
     private NotificationType type;
 
+    @Column(name = "sender")
+    private String sender;
+
     @Column(name = "recipient")
     private String recipient;
 
@@ -44,6 +48,11 @@ public class Notification {
     @Column(name = "retry_count", nullable = false)
     private int retryCount = 0;
 
+    // istante del prossimo tentativo per le notifiche FAILED, scadenza del lease per quelle in PROCESSING e per
+    // quelle PENDING in pubblicazione dal relay dell'outbox
+    @Column(name = "next_attempt_at")
+    private LocalDateTime nextAttemptAt;
+
     @Column(name = "additional_data")
     private String additionalData;
 
@@ -0,0 +1,27 @@
+package com.cimparato.csbm.domain.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Messaggio Kafka già elaborato, identificato dall'hash del suo contenuto: la tabella è condivisa da tutte le
+ * istanze dell'applicazione e sopravvive ai riavvii, così che un messaggio riconsegnato non venga elaborato due volte.
+ */
+@Entity
+@Table(name = "processed_messages")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProcessedMessage {
+
+    @Id
+    @Column(name = "message_id", length = 64)
+    private String messageId;
+
+    @Column(name = "processed_at", nullable = false)
+    private LocalDateTime processedAt;
+
+}
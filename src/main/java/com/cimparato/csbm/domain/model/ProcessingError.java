@@ -15,7 +15,8 @@ import java.time.LocalDateTime;
 @Builder
 public class ProcessingError {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "processing_errors_seq")
+    @SequenceGenerator(name = "processing_errors_seq", sequenceName = "processing_errors_seq", allocationSize = 50)
     private Long id;
 
     @ManyToOne
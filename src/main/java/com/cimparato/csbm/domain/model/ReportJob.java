@@ -0,0 +1,69 @@
+package com.cimparato.csbm.domain.model;
+
+import com.cimparato.csbm.domain.enumeration.JobStatus;
+import com.cimparato.csbm.domain.enumeration.ReportJobType;
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Generazione asincrona di un report: il file prodotto resta scaricabile fino a expiresAt, dopo di che viene
+ * eliminato insieme al job.
+ */
+@Entity
+@Table(name = "report_jobs")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ReportJob {
+
+    @Id
+    @Column(name = "job_id", length = 36)
+    private String jobId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "report_type", nullable = false)
+    private ReportJobType reportType;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false)
+    private JobStatus status;
+
+    @Column(name = "created_by", nullable = false)
+    private String createdBy;
+
+    @Column(name = "start_time", nullable = false)
+    private LocalDateTime startTime;
+
+    @Column(name = "end_time")
+    private LocalDateTime endTime;
+
+    @Column(name = "file_path")
+    private String filePath;
+
+    @Column(name = "file_size")
+    private Long fileSize;
+
+    @Column(name = "error_message")
+    private String errorMessage;
+
+    @Column(name = "expires_at", nullable = false)
+    private LocalDateTime expiresAt;
+
+    @PrePersist
+    public void prePersist() {
+        if (startTime == null) {
+            startTime = LocalDateTime.now();
+        }
+        if (status == null) {
+            status = JobStatus.PENDING;
+        }
+    }
+
+    public boolean isRunning() {
+        return status == JobStatus.PENDING || status == JobStatus.PROCESSING;
+    }
+}
@@ -14,7 +14,8 @@ import lombok.*;
 @Builder
 public class ServiceFileRelation {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "service_file_relation_seq")
+    @SequenceGenerator(name = "service_file_relation_seq", sequenceName = "service_file_relation_seq", allocationSize = 50)
     private Long id;
 
     @ManyToOne
@@ -0,0 +1,48 @@
+package com.cimparato.csbm.domain.model;
+
+import com.cimparato.csbm.domain.enumeration.CloudServiceType;
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Servizio di un cliente già segnalato al marketing come opportunità di upselling.
+ *
+ * activation_date è il watermark: i servizi con data di attivazione successiva (es. un servizio riattivato) non
+ * sono ancora stati segnalati e vengono inclusi nella notifica riepilogativa successiva.
+ */
+@Entity
+@Table(name = "upselling_watermarks")
+@IdClass(UpsellingWatermark.Key.class)
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class UpsellingWatermark {
+
+    @Id
+    @Column(name = "customer_id", nullable = false)
+    private String customerId;
+
+    @Id
+    @Enumerated(EnumType.STRING)
+    @Column(name = "service_type", nullable = false)
+    private CloudServiceType serviceType;
+
+    @Column(name = "activation_date", nullable = false)
+    private LocalDate activationDate;
+
+    @Column(name = "notified_at", nullable = false)
+    private LocalDateTime notifiedAt;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private String customerId;
+        private CloudServiceType serviceType;
+    }
+}
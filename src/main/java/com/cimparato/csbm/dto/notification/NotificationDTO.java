@@ -1,13 +1,17 @@
 package com.cimparato.csbm.dto.notification;
 
 import com.cimparato.csbm.domain.notification.NotificationType;
+import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 import java.time.LocalDateTime;
 
 @Data
 @Builder
+@NoArgsConstructor
+@AllArgsConstructor
 public class NotificationDTO {
     private NotificationType type;
     private String customerId;
@@ -0,0 +1,32 @@
+package com.cimparato.csbm.dto.report;
+
+import com.cimparato.csbm.domain.enumeration.JobStatus;
+import com.cimparato.csbm.domain.enumeration.ReportJobType;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ReportJobDTO {
+    private String jobId;
+    private ReportJobType reportType;
+    private JobStatus status;
+    private LocalDateTime startTime;
+    private LocalDateTime endTime;
+    // istante dopo il quale il job e il report generato vengono eliminati
+    private LocalDateTime expiresAt;
+
+    @JsonInclude(Include.NON_NULL)
+    private Long fileSize;
+
+    @JsonInclude(Include.NON_NULL)
+    private String errorMessage;
+}
@@ -0,0 +1,20 @@
+package com.cimparato.csbm.dto.uploadsession;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Positive;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class UploadSessionCreateDTO {
+    @NotBlank
+    private String filename;
+
+    @Positive
+    private long totalSize;
+}
@@ -0,0 +1,25 @@
+package com.cimparato.csbm.dto.uploadsession;
+
+import com.cimparato.csbm.domain.file.UploadSessionStatus;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class UploadSessionDTO {
+    private String uploadId;
+    private String filename;
+    private long totalSize;
+    // posizione da cui inviare la prossima porzione
+    private long receivedBytes;
+    private long maxChunkSize;
+    private UploadSessionStatus status;
+    private LocalDateTime expiresAt;
+    private String jobId;
+}
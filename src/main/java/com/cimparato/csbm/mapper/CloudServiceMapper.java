@@ -14,6 +14,8 @@ public interface CloudServiceMapper {
     CloudServiceDTO toDto(CloudService entity);
 
     @Mapping(target = "fileMappings", ignore = true)
+    @Mapping(target = "lastFileUploadId", ignore = true)
+    @Mapping(target = "lastLineNumber", ignore = true)
     @Mapping(target = "lastUpdated", expression = "java(getCurrentTime())")
     CloudService toEntity(CloudServiceDTO dto);
 
@@ -0,0 +1,143 @@
+package com.cimparato.csbm.messaging;
+
+import com.cimparato.csbm.config.properties.KafkaAppProperties;
+import com.cimparato.csbm.dto.notification.NotificationDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Pubblica grandi quantità di notifiche su Kafka raggruppandoli in batch.
+ *
+ * Ogni invio occupa un permesso di un semaforo condiviso fino alla sua conferma (o al fallimento dell'ultimo
+ * tentativo): raggiunto il numero massimo di invii in corso, il chiamante resta in attesa invece di riempire il
+ * buffer del producer e lo scheduler dei retry. Ogni {@code size} record il batch forza l'invio dei record
+ * accumulati, ne attende le conferme e registra nel log quanti invii sono riusciti e quanti falliti.
+ */
+@Slf4j
+@Component
+public class KafkaBatchPublisher {
+
+    private final KafkaProducer kafkaProducer;
+    private final int batchSize;
+    private final long flushTimeoutMs;
+    private final Semaphore inFlightSends;
+
+    public KafkaBatchPublisher(KafkaProducer kafkaProducer, KafkaAppProperties kafkaAppProperties) {
+        var batch = kafkaAppProperties.getProducer().getBatch();
+        this.kafkaProducer = kafkaProducer;
+        this.batchSize = Math.max(1, batch.getSize());
+        this.flushTimeoutMs = batch.getFlushTimeoutMs();
+        this.inFlightSends = new Semaphore(Math.max(1, batch.getMaxInFlight()));
+    }
+
+    /**
+     * Apre un nuovo batch; va chiuso al termine degli invii per inviare e confermare i record rimanenti.
+     *
+     * @param name nome del batch, usato nei log
+     */
+    public Batch openBatch(String name) {
+        return new Batch(name);
+    }
+
+    public class Batch implements AutoCloseable {
+
+        private final String name;
+        private final List<CompletableFuture<SendResult<String, NotificationDTO>>> pending = new ArrayList<>();
+        private int flushes;
+        private long succeeded;
+        private long failed;
+
+        private Batch(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Invia una notifica, attendendo se il numero di invii in corso ha raggiunto il limite configurato.
+         */
+        public CompletableFuture<SendResult<String, NotificationDTO>> send(String topic, String key, NotificationDTO notification) {
+            try {
+                inFlightSends.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failed++;
+                return CompletableFuture.failedFuture(e);
+            }
+
+            CompletableFuture<SendResult<String, NotificationDTO>> future;
+            try {
+                future = kafkaProducer.send(topic, key, notification);
+            } catch (RuntimeException e) {
+                inFlightSends.release();
+                throw e;
+            }
+            future.whenComplete((result, ex) -> inFlightSends.release());
+
+            pending.add(future);
+            if (pending.size() >= batchSize) {
+                flush();
+            }
+            return future;
+        }
+
+        /**
+         * Forza l'invio dei record accumulati dal producer e ne attende le conferme.
+         */
+        public void flush() {
+            if (pending.isEmpty()) {
+                return;
+            }
+
+            kafkaProducer.flush();
+
+            long batchSucceeded = 0;
+            long batchFailed = 0;
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushTimeoutMs);
+            for (CompletableFuture<SendResult<String, NotificationDTO>> future : pending) {
+                try {
+                    future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    batchSucceeded++;
+                } catch (ExecutionException | TimeoutException e) {
+                    batchFailed++;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    batchFailed++;
+                }
+            }
+
+            flushes++;
+            succeeded += batchSucceeded;
+            failed += batchFailed;
+            pending.clear();
+
+            if (batchFailed > 0) {
+                log.warn("Batch {} #{}: {} messages sent, {} failed or not confirmed within {} ms",
+                        name, flushes, batchSucceeded, batchFailed, flushTimeoutMs);
+            } else {
+                log.info("Batch {} #{}: {} messages sent", name, flushes, batchSucceeded);
+            }
+        }
+
+        @Override
+        public void close() {
+            flush();
+            log.info("Batch {} completed: {} messages sent, {} failed", name, succeeded, failed);
+        }
+
+        public long getSucceeded() {
+            return succeeded;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+    }
+}
@@ -1,97 +1,179 @@
 package com.cimparato.csbm.messaging;
 
+import com.cimparato.csbm.domain.notification.NotificationType;
 import com.cimparato.csbm.dto.notification.NotificationDTO;
 import com.cimparato.csbm.service.MessageDeduplicationService;
 import com.cimparato.csbm.service.notification.NotificationManager;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.cimparato.csbm.service.notification.NotificationService;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.core.log.LogAccessor;
 import org.springframework.kafka.annotation.KafkaListener;
-import org.springframework.kafka.support.KafkaHeaders;
-import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.kafka.listener.BatchListenerFailedException;
+import org.springframework.kafka.support.serializer.DeserializationException;
+import org.springframework.kafka.support.serializer.SerializationUtils;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
 @Slf4j
 @Component
 public class KafkaConsumer {
 
-    private final ObjectMapper mapper;
+    private static final LogAccessor LOG_ACCESSOR = new LogAccessor(KafkaConsumer.class);
+
     private final NotificationManager notificationManager;
+    private final NotificationService notificationService;
     private final MessageDeduplicationService messageDeduplicationService;
 
     public KafkaConsumer(
-            ObjectMapper mapper,
             NotificationManager notificationManager,
+            NotificationService notificationService,
             MessageDeduplicationService messageDeduplicationService
     ) {
-        this.mapper = mapper;
         this.notificationManager = notificationManager;
+        this.notificationService = notificationService;
         this.messageDeduplicationService = messageDeduplicationService;
     }
 
     /**
-     * Consuma e processa i messaggi di notifica dal topic Kafka configurato.
+     * Consuma e processa in blocco i messaggi di notifica ricevuti da una poll sul topic Kafka configurato.
+     *
+     * Il batch viene elaborato come segue:
      *
-     * Questo metodo implementa un meccanismo di deduplicazione per garantire che ogni notifica
-     * venga elaborata una sola volta, anche in presenza di messaggi duplicati o ritrasmissioni
-     * dovute al meccanismo di retry di Kafka. Il processo è il seguente:
+     * 1. Genera l'ID univoco di ogni notifica e scarta i duplicati all'interno del batch
+     * 2. Registra le notifiche come elaborate con un'unica chiamata al MessageDeduplicationService, che restituisce
+     *    solo quelle non ancora elaborate da questa o da un'altra istanza
+     * 3. Raggruppa le notifiche rimanenti per NotificationType e le invia tramite il relativo handler, attendendo
+     *    l'esito degli invii (le email vengono inviate in blocchi sul pool di connessioni SMTP)
+     * 4. Salva le notifiche non inviate in stato FAILED con un'unica scrittura sul database
      *
-     * 1. Rimuove eventuali caratteri di escape dal messaggio JSON
-     * 2. Deserializza il messaggio in un oggetto NotificationDTO
-     * 3. Genera un ID univoco basato sul contenuto del messaggio
-     * 4. Verifica se il messaggio è già stato elaborato in precedenza
-     * 5. Se il messaggio è nuovo, lo elabora e lo marca come processato
-     * 6. Se il messaggio è già stato elaborato, lo salta ma committa comunque l'offset
+     * Gli errori vengono gestiti per singolo record: una notifica non inviata viene salvata per un nuovo tentativo
+     * senza che l'intero batch venga rielaborato, e l'offset viene committato una sola volta al termine del batch.
      *
-     * In caso di errore durante l'elaborazione, viene lanciata un'eccezione che attiva
-     * il meccanismo di retry configurato in RetryTopicConfiguration. Questo garantisce
-     * che i messaggi che falliscono temporaneamente possano essere riprocessati.
+     * Un messaggio non decodificabile interrompe il batch con una BatchListenerFailedException che ne indica la
+     * posizione: l'error handler committa i record precedenti, già elaborati, scarta il messaggio e riconsegna
+     * i successivi.
      *
-     * @param message Il messaggio JSON ricevuto dal topic Kafka
-     * @throws RuntimeException Se si verifica un errore durante l'elaborazione del messaggio,
-     * attivando il meccanismo di retry
+     * Le notifiche vengono registrate prima dell'invio, così che un messaggio riconsegnato a un'altra istanza
+     * non generi un secondo invio. Quelle che non raggiungono un esito, inviate o salvate come FAILED, vengono
+     * rilasciate al termine del batch anche in caso di errore, così che vengano elaborate alla riconsegna.
+     *
+     * @param records i record ricevuti dal topic Kafka, nell'ordine della poll
+     * @throws RuntimeException se l'invio o il salvataggio delle notifiche non inviate fallisce, così che il batch
+     * venga riconsegnato: le notifiche senza esito vengono rilasciate, quelle già inviate non vengono inviate di nuovo
      */
     @KafkaListener(
             topics = "${app.kafka.topic.notification}",
-            groupId = "${app.kafka.consumer.group.notification}"
+            groupId = "${app.kafka.consumer.group.notification}",
+            batch = "true"
     )
-    public void consumeNotification(String message,
-                                    @Header(KafkaHeaders.RECEIVED_TOPIC) String topic,
-                                    @Header(KafkaHeaders.RECEIVED_PARTITION) int partition,
-                                    @Header(KafkaHeaders.OFFSET) long offset) {
-
-        log.info("Consuming message: topic={}, partition={}, offset={}, message={}", topic, partition, offset, message);
+    public void consumeNotifications(List<ConsumerRecord<String, NotificationDTO>> records) {
 
-        try {
+        int undecodableIndex = indexOfUndecodable(records);
 
-            message = removeEscape(message);
+        processNotifications(records.subList(0, undecodableIndex));
 
-            NotificationDTO notification = mapper.readValue(message, NotificationDTO.class);
+        if (undecodableIndex < records.size()) {
+            ConsumerRecord<String, NotificationDTO> record = records.get(undecodableIndex);
+            DeserializationException exception = SerializationUtils.getExceptionFromHeader(
+                    record, SerializationUtils.VALUE_DESERIALIZER_EXCEPTION_HEADER, LOG_ACCESSOR);
+            log.error("Undecodable message: topic={}, partition={}, offset={}",
+                    record.topic(), record.partition(), record.offset(), exception);
+            throw new BatchListenerFailedException("Undecodable notification message", exception, undecodableIndex);
+        }
+    }
 
-            String messageId = messageDeduplicationService.generateMessageId(notification);
+    private void processNotifications(List<ConsumerRecord<String, NotificationDTO>> records) {
+        if (records.isEmpty()) {
+            return;
+        }
 
-            if (messageDeduplicationService.isProcessed(messageId)) {
-                log.info("Skipping already processed notification: {}", messageId);
-                return;
+        // deduplicazione all'interno del batch: a parità di contenuto resta il primo record
+        Map<String, NotificationDTO> notificationsById = new LinkedHashMap<>();
+        for (ConsumerRecord<String, NotificationDTO> record : records) {
+            if (record.value() != null) {
+                NotificationDTO notification = record.value();
+                notificationsById.putIfAbsent(messageDeduplicationService.generateMessageId(notification), notification);
             }
+        }
+
+        // deduplicazione rispetto ai messaggi già elaborati, anche da altre istanze
+        notificationsById.keySet().retainAll(messageDeduplicationService.claim(new HashSet<>(notificationsById.keySet())));
+
+        Map<NotificationType, Map<String, NotificationDTO>> notificationsByType = new EnumMap<>(NotificationType.class);
+        notificationsById.forEach((messageId, notification) -> notificationsByType
+                .computeIfAbsent(notification.getType(), type -> new LinkedHashMap<>())
+                .put(messageId, notification));
 
-            notificationManager.notifyUser(notification);
+        // ID delle notifiche che hanno raggiunto un esito: tutti gli altri vengono rilasciati al termine del batch
+        Set<String> settled = new HashSet<>(notificationsById.size() * 2);
+        // l'esito può essere segnalato dai thread dell'handler: notifyUsers ritorna solo quando ogni esito è noto
+        Map<NotificationDTO, String> failed = Collections.synchronizedMap(new LinkedHashMap<>());
 
-            messageDeduplicationService.markAsProcessed(messageId);
+        BiConsumer<NotificationDTO, Exception> onFailure = (notification, e) -> {
+            log.warn("Error processing notification for customer {}: {}", notification.getCustomerId(), e.getMessage());
+            failed.put(notification, e.getMessage());
+        };
 
-        } catch (Exception e) {
-            log.error("Error processing notification: {}", e.getMessage(), e);
-            // L'eccezione attiverà il meccanismo di retry
-            throw new RuntimeException("Failed to process notification", e);
+        try {
+            notificationsByType.forEach((type, notifications) -> {
+                notificationManager.notifyUsers(type, notifications.values(), onFailure);
+                notifications.forEach((messageId, notification) -> {
+                    if (!failed.containsKey(notification)) {
+                        settled.add(messageId);
+                    }
+                });
+            });
+
+            if (!failed.isEmpty()) {
+                notificationService.saveFailed(failed);
+                settled.addAll(notificationsById.keySet());
+            }
+        } finally {
+            releaseUnsettled(notificationsById, settled);
         }
 
+        log.info("Consumed batch of {} messages: {} sent, {} failed, {} duplicates skipped",
+                records.size(), notificationsById.size() - failed.size(), failed.size(),
+                records.size() - notificationsById.size());
     }
 
-    private String removeEscape(String message) throws JsonProcessingException {
-        if (message.startsWith("\"") && message.endsWith("\"")) {
-            message = mapper.readValue(message, String.class);
-            log.debug("Unescaped message: [{}]", message);
+    private void releaseUnsettled(Map<String, NotificationDTO> notificationsById, Set<String> settled) {
+        List<String> unsettled = new ArrayList<>();
+        for (String messageId : notificationsById.keySet()) {
+            if (!settled.contains(messageId)) {
+                unsettled.add(messageId);
+            }
+        }
+        if (unsettled.isEmpty()) {
+            return;
+        }
+
+        try {
+            messageDeduplicationService.release(unsettled);
+        } catch (RuntimeException e) {
+            // gli ID restano registrati fino alla scadenza del TTL di deduplicazione
+            log.error("Could not release {} unprocessed notifications: {}", unsettled.size(), e.getMessage(), e);
+        }
+    }
+
+    private static int indexOfUndecodable(List<ConsumerRecord<String, NotificationDTO>> records) {
+        for (int i = 0; i < records.size(); i++) {
+            ConsumerRecord<String, NotificationDTO> record = records.get(i);
+            if (record.value() == null
+                    && record.headers().lastHeader(SerializationUtils.VALUE_DESERIALIZER_EXCEPTION_HEADER) != null) {
+                return i;
+            }
         }
-        return message;
+        return records.size();
     }
 }
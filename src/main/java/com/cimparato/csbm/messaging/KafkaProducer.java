@@ -1,8 +1,7 @@
 package com.cimparato.csbm.messaging;
 
 import com.cimparato.csbm.config.properties.KafkaAppProperties;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.cimparato.csbm.dto.notification.NotificationDTO;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -19,55 +18,48 @@ import java.util.concurrent.CompletableFuture;
 @Component
 public class KafkaProducer {
 
-    private final KafkaTemplate<String, String> kafkaTemplate;
-    private final ObjectMapper mapper;
+    private final KafkaTemplate<String, NotificationDTO> kafkaTemplate;
     private final TaskScheduler kafkaRetryScheduler;
     private final KafkaAppProperties kafkaAppProperties;
 
     public KafkaProducer(
-            KafkaTemplate<String, String> kafkaTemplate,
-            ObjectMapper mapper,
+            KafkaTemplate<String, NotificationDTO> kafkaTemplate,
             @Qualifier("kafkaRetryScheduler") TaskScheduler kafkaRetryScheduler,
             KafkaAppProperties kafkaAppProperties
     ) {
         this.kafkaTemplate = kafkaTemplate;
-        this.mapper = mapper;
         this.kafkaRetryScheduler = kafkaRetryScheduler;
         this.kafkaAppProperties = kafkaAppProperties;
     }
 
     /**
-     * Invia un messaggio a Kafka con una chiave di partizione e un numero specifico di tentativi
+     * Invia una notifica a Kafka con una chiave di partizione e un numero specifico di tentativi
      *
-     * Questo metodo serializza l'oggetto payload in formato JSON e lo invia al topic Kafka
-     * specificato, utilizzando la chiave fornita per determinare la partizione. In caso di
-     * errori durante l'invio, verrà riprovato l'invio fino a raggiungere il numero
+     * La notifica viene codificata una sola volta dal NotificationSerializer configurato sul producer
+     * e inviata al topic Kafka specificato, utilizzando la chiave fornita per determinare la partizione.
+     * In caso di errori durante l'invio, verrà riprovato l'invio fino a raggiungere il numero
      * massimo di tentativi specificato.
      *
      * @param topic Il topic Kafka a cui inviare il messaggio
      * @param key La chiave di partizione del messaggio
-     * @param payload L'oggetto da serializzare e inviare come messaggio
+     * @param notification La notifica da inviare
      * @return CompletableFuture che si completa con il risultato dell'invio o con un'eccezione
      */
-    public CompletableFuture<SendResult<String, String>> send(String topic, String key, Object payload) {
-        try {
+    public CompletableFuture<SendResult<String, NotificationDTO>> send(String topic, String key, NotificationDTO notification) {
+        CompletableFuture<SendResult<String, NotificationDTO>> resultFuture = new CompletableFuture<>();
 
-            String message = mapper.writeValueAsString(payload);
+        var totalAttempts = kafkaAppProperties.getProducer().getRetry().getAttempts();
 
-            CompletableFuture<SendResult<String, String>> resultFuture = new CompletableFuture<>();
+        sendWithRetry(topic, key, notification, 0, totalAttempts, resultFuture);
 
-            var totalAttempts = kafkaAppProperties.getProducer().getRetry().getAttempts();
-
-            sendWithRetry(topic, key, message, 0, totalAttempts, resultFuture);
-
-            return resultFuture;
+        return resultFuture;
+    }
 
-        } catch (JsonProcessingException e) {
-            log.error("Failed to serialize message for topic: {}, key: {}", topic, key, e);
-            CompletableFuture<SendResult<String, String>> future = new CompletableFuture<>();
-            future.completeExceptionally(e);
-            return future;
-        }
+    /**
+     * Forza l'invio immediato dei record accumulati dal producer, senza attendere linger.ms.
+     */
+    public void flush() {
+        kafkaTemplate.flush();
     }
 
     /**
@@ -90,19 +82,19 @@ public class KafkaProducer {
      *
      * @param topic topic Kafka a cui inviare il messaggio
      * @param key chiave di partizione del messaggio
-     * @param message contenuto del messaggio da inviare
+     * @param notification notifica da inviare
      * @param currentAttempt numero del tentativo corrente
      * @param totalAttempts numero totale di tentativi da effettuare
      * @param resultFuture CompletableFuture che verrà completato con il risultato finale
      */
     private void sendWithRetry(
-            String topic, String key, String message, int currentAttempt, int totalAttempts,
-            CompletableFuture<SendResult<String, String>> resultFuture) {
+            String topic, String key, NotificationDTO notification, int currentAttempt, int totalAttempts,
+            CompletableFuture<SendResult<String, NotificationDTO>> resultFuture) {
 
         log.debug("Sending message to topic: {}, key: {}, attempt: {}/{}",
                 topic, key, currentAttempt + 1, totalAttempts);
 
-        kafkaTemplate.send(topic, key, message)
+        kafkaTemplate.send(topic, key, notification)
                 .whenComplete((result, ex) -> {
                     if (ex == null) {
 
@@ -126,7 +118,7 @@ public class KafkaProducer {
 
                             // usa lo scheduler dedicato per i retry
                             kafkaRetryScheduler.schedule(
-                                    () -> sendWithRetry(topic, key, message, currentAttempt + 1, totalAttempts, resultFuture),
+                                    () -> sendWithRetry(topic, key, notification, currentAttempt + 1, totalAttempts, resultFuture),
                                     Instant.now().plusMillis(backoffMs)
                             );
 
@@ -134,7 +126,7 @@ public class KafkaProducer {
 
                             log.error("Max attempts reached for topic: {}, key: {}", topic, key);
                             log.debug("Completing future exceptionally with exception: {}", ex.getMessage());
-                            handleError(topic, key, message, ex);
+                            handleError(topic, key, notification, ex);
                             resultFuture.completeExceptionally(ex);
 
                         }
@@ -172,13 +164,13 @@ public class KafkaProducer {
      *
      * @param topic topic originale a cui si stava tentando di inviare il messaggio
      * @param key chiave di partizione del messaggio
-     * @param message contenuto del messaggio
+     * @param notification notifica non inviata
      * @param ex eccezione che ha causato il fallimento
      */
-    private void handleError(String topic, String key, String message, Throwable ex) {
+    private void handleError(String topic, String key, NotificationDTO notification, Throwable ex) {
         String deadLetterTopic = topic + ".DLT";
 
-        ProducerRecord<String, String> record = new ProducerRecord<>(deadLetterTopic, key, message);
+        ProducerRecord<String, NotificationDTO> record = new ProducerRecord<>(deadLetterTopic, key, notification);
         record.headers().add("error-message", ex.getMessage().getBytes(StandardCharsets.UTF_8));
         record.headers().add("original-topic", topic.getBytes(StandardCharsets.UTF_8));
         record.headers().add("timestamp", Instant.now().toString().getBytes(StandardCharsets.UTF_8));
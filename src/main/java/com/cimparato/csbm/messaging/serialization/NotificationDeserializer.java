@@ -0,0 +1,25 @@
+package com.cimparato.csbm.messaging.serialization;
+
+import com.cimparato.csbm.dto.notification.NotificationDTO;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Deserializer;
+
+import java.io.IOException;
+
+/**
+ * Legge una notifica dai byte JSON prodotti da {@link NotificationSerializer}.
+ */
+public class NotificationDeserializer implements Deserializer<NotificationDTO> {
+
+    @Override
+    public NotificationDTO deserialize(String topic, byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        try {
+            return NotificationJson.READER.readValue(data);
+        } catch (IOException e) {
+            throw new SerializationException("Failed to deserialize notification from topic " + topic, e);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.cimparato.csbm.messaging.serialization;
+
+import com.cimparato.csbm.dto.notification.NotificationDTO;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+/**
+ * Formato JSON dei messaggi NotificationDTO sui topic delle notifiche, condiviso da serializer e deserializer.
+ *
+ * Serializer e deserializer vengono istanziati dal client Kafka e non dal contesto Spring: reader e writer,
+ * immutabili e thread-safe, vengono quindi costruiti una sola volta per tutte le istanze.
+ */
+final class NotificationJson {
+
+    private static final JsonMapper MAPPER = JsonMapper.builder()
+            .addModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+            .build();
+
+    static final ObjectWriter WRITER = MAPPER.writerFor(NotificationDTO.class);
+    static final ObjectReader READER = MAPPER.readerFor(NotificationDTO.class);
+
+    private NotificationJson() {
+    }
+}
@@ -0,0 +1,24 @@
+package com.cimparato.csbm.messaging.serialization;
+
+import com.cimparato.csbm.dto.notification.NotificationDTO;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Serializer;
+
+/**
+ * Serializza una notifica in JSON UTF-8 direttamente nei byte del record Kafka, con un'unica codifica.
+ */
+public class NotificationSerializer implements Serializer<NotificationDTO> {
+
+    @Override
+    public byte[] serialize(String topic, NotificationDTO notification) {
+        if (notification == null) {
+            return null;
+        }
+        try {
+            return NotificationJson.WRITER.writeValueAsBytes(notification);
+        } catch (JsonProcessingException e) {
+            throw new SerializationException("Failed to serialize notification for topic " + topic, e);
+        }
+    }
+}
@@ -1,22 +1,29 @@
 package com.cimparato.csbm.repository;
 
 import com.cimparato.csbm.domain.model.CloudService;
+import com.cimparato.csbm.repository.projection.ActiveServiceSummary;
 import com.cimparato.csbm.repository.projection.CustomerAverageSpend;
 import com.cimparato.csbm.repository.projection.CustomerWithExpiredService;
 import com.cimparato.csbm.repository.projection.ServiceTypeCount;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
-public interface CloudServiceRepository extends JpaRepository<CloudService, Long> {
+public interface CloudServiceRepository extends JpaRepository<CloudService, Long>, CloudServiceRepositoryCustom,
+        CloudServiceSummaryStatsRepository {
 
     Page<CloudService> findByCustomerId(String customerId, Pageable peageble);
 
@@ -27,6 +34,14 @@ public interface CloudServiceRepository extends JpaRepository<CloudService, Long
             """, nativeQuery = true)
     Optional<CloudService> findByCustomerIdAndServiceType(String customerId, String serviceType);
 
+    // numero di righe lette dal database per ogni round trip quando i risultati vengono letti in streaming
+    String STREAM_FETCH_SIZE = "1000";
+
+    /**
+     * Servizi scaduti dei clienti con più di maxExpiredServicesCount servizi scaduti, ordinati per cliente.
+     * Lo stream va consumato e chiuso all'interno di una transazione.
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE))
     @Query(value = """
            SELECT   cs.customer_id as customerId,
                     cs.service_type as serviceType,
@@ -42,15 +57,67 @@ public interface CloudServiceRepository extends JpaRepository<CloudService, Long
            )
            ORDER BY cs.customer_id, cs.service_type
             """, nativeQuery = true)
-    List<CustomerWithExpiredService> findCustomersWithMaxExpiredServices(@Param("maxExpiredServicesCount") int maxExpiredServicesCount);
+    Stream<CustomerWithExpiredService> streamCustomersWithMaxExpiredServices(
+            @Param("maxExpiredServicesCount") int maxExpiredServicesCount);
 
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE))
     @Query(value = """
-                select *
-                from
-                cloud_services 
-                where status = 'ACTIVE' AND activation_date <= :threeYearsAgo
+           SELECT   cs.customer_id as customerId,
+                    cs.service_type as serviceType,
+                    cs.expiration_date as expirationDate
+           FROM cloud_services cs
+           WHERE cs.status = 'EXPIRED'
+           AND cs.customer_id IN (
+               SELECT customer_id
+               FROM cloud_services
+               WHERE status = 'EXPIRED'
+               AND customer_id IN (:customerIds)
+               GROUP BY customer_id
+               HAVING COUNT(*) > :maxExpiredServicesCount
+           )
+           ORDER BY cs.customer_id, cs.service_type
+            """, nativeQuery = true)
+    Stream<CustomerWithExpiredService> streamCustomersWithMaxExpiredServicesIn(
+            @Param("maxExpiredServicesCount") int maxExpiredServicesCount,
+            @Param("customerIds") Collection<String> customerIds);
+
+    /**
+     * Servizi attivi da prima della data indicata non ancora segnalati dalla regola di upselling, cioè senza un
+     * watermark in upselling_watermarks con data di attivazione uguale o successiva, ordinati per cliente.
+     * Le righe vengono lette come proiezione senza caricare le entità; lo stream va consumato e chiuso all'interno
+     * di una transazione.
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE))
+    @Query(value = """
+                select cs.customer_id as customerId, cs.service_type as serviceType, cs.activation_date as activationDate
+                from cloud_services cs
+                where cs.status = 'ACTIVE' AND cs.activation_date <= :yearsAgo
+                AND NOT EXISTS (
+                    select 1
+                    from upselling_watermarks w
+                    where w.customer_id = cs.customer_id AND w.service_type = cs.service_type
+                    AND w.activation_date >= cs.activation_date
+                )
+                order by cs.customer_id, cs.service_type
+                """, nativeQuery = true)
+    Stream<ActiveServiceSummary> streamUnnotifiedActiveServicesOlderThan(@Param("yearsAgo") LocalDate yearsAgo);
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE))
+    @Query(value = """
+                select cs.customer_id as customerId, cs.service_type as serviceType, cs.activation_date as activationDate
+                from cloud_services cs
+                where cs.status = 'ACTIVE' AND cs.activation_date <= :yearsAgo
+                AND cs.customer_id IN (:customerIds)
+                AND NOT EXISTS (
+                    select 1
+                    from upselling_watermarks w
+                    where w.customer_id = cs.customer_id AND w.service_type = cs.service_type
+                    AND w.activation_date >= cs.activation_date
+                )
+                order by cs.customer_id, cs.service_type
                 """, nativeQuery = true)
-    List<CloudService> findActiveServicesOlderThan(LocalDate threeYearsAgo);
+    Stream<ActiveServiceSummary> streamUnnotifiedActiveServicesOlderThanIn(@Param("yearsAgo") LocalDate yearsAgo,
+                                                                          @Param("customerIds") Collection<String> customerIds);
 
     @Query(value = """
                 select service_type, count(*)
@@ -69,6 +136,19 @@ public interface CloudServiceRepository extends JpaRepository<CloudService, Long
         """, nativeQuery = true)
     List<CustomerAverageSpend> calculateAverageSpendPerCustomer();
 
+    /**
+     * Spesa media per cliente, ordinata per cliente, letta in streaming.
+     * Lo stream va consumato e chiuso all'interno di una transazione.
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE))
+    @Query(value = """
+            select customer_id as customerId, AVG(amount)::NUMERIC(10,2) as averageAmount
+            from cloud_services
+            group by customer_id
+            order by customer_id
+        """, nativeQuery = true)
+    Stream<CustomerAverageSpend> streamAverageSpendPerCustomer();
+
     @Query(value = """
             select distinct customer_id
             from cloud_services
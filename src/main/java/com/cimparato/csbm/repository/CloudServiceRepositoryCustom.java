@@ -0,0 +1,25 @@
+package com.cimparato.csbm.repository;
+
+import com.cimparato.csbm.domain.model.CloudService;
+import com.cimparato.csbm.repository.projection.CloudServiceUpsertResult;
+
+import java.util.List;
+
+/**
+ * Operazioni di scrittura massiva sui servizi cloud non esprimibili tramite query derivate.
+ */
+public interface CloudServiceRepositoryCustom {
+
+    /**
+     * Inserisce o aggiorna in modo set-based un insieme di servizi sfruttando il vincolo
+     * univoco uk_customer_service (customer_id, service_type).
+     *
+     * Se la stessa coppia customer_id/service_type compare più volte nella lista, viene
+     * scritta l'ultima occorrenza. Viene restituito un risultato per ogni coppia distinta.
+     *
+     * @param services i servizi da scrivere (non gestiti dal persistence context)
+     * @return per ogni coppia distinta l'id della riga e se questa è stata creata o aggiornata
+     */
+    List<CloudServiceUpsertResult> upsertAll(List<CloudService> services);
+
+}
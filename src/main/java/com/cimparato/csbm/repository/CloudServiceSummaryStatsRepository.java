@@ -0,0 +1,54 @@
+package com.cimparato.csbm.repository;
+
+import com.cimparato.csbm.repository.projection.CustomerAverageSpend;
+import com.cimparato.csbm.repository.projection.ServiceTypeCount;
+import com.cimparato.csbm.repository.projection.SummaryStatsDrift;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Lettura degli aggregati del report di riepilogo (service_type_stats e customer_stats), aggiornati dai trigger su
+ * cloud_services a ogni scrittura invece di essere ricalcolati a ogni report.
+ *
+ * Gli aggregati esistono solo su PostgreSQL: sugli altri database (es. H2 usato nei test)
+ * {@link #isSummaryStatsSupported()} restituisce false e i valori vanno calcolati con le query su cloud_services.
+ */
+public interface CloudServiceSummaryStatsRepository {
+
+    boolean isSummaryStatsSupported();
+
+    /**
+     * Numero di servizi attivi per tipo, ordinati per numero decrescente.
+     */
+    List<ServiceTypeCount> findActiveServicesByTypeFromStats();
+
+    /**
+     * Spesa media per cliente, ordinata per spesa decrescente.
+     */
+    List<CustomerAverageSpend> findAverageSpendPerCustomerFromStats();
+
+    /**
+     * Spesa media per cliente, ordinata per cliente, letta con un cursore sul database.
+     * Lo stream va consumato e chiuso all'interno di una transazione.
+     */
+    Stream<CustomerAverageSpend> streamAverageSpendPerCustomerFromStats();
+
+    /**
+     * Clienti con più di un servizio scaduto, ordinati per cliente.
+     */
+    List<String> findCustomersWithMultipleExpiredServicesFromStats();
+
+    /**
+     * Confronta gli aggregati con i valori calcolati su cloud_services in un'unica istruzione, quindi sulla stessa
+     * vista consistente dei dati.
+     */
+    SummaryStatsDrift checkSummaryStats();
+
+    /**
+     * Ricalcola gli aggregati da cloud_services. Le scritture su cloud_services restano bloccate fino al termine
+     * della transazione, che deve essere già aperta dal chiamante.
+     */
+    void rebuildSummaryStats();
+
+}
@@ -4,13 +4,80 @@ import com.cimparato.csbm.domain.model.Notification;
 import com.cimparato.csbm.domain.notification.NotificationStatus;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
-public interface NotificationRepository extends JpaRepository<Notification, Long> {
+public interface NotificationRepository extends JpaRepository<Notification, Long>, NotificationRepositoryCustom {
     List<Notification> findByStatus(NotificationStatus status, PageRequest pageRequest);
     List<Notification> findByStatusAndRetryCountLessThan(NotificationStatus status, Integer maxRetries, PageRequest pageRequest);
     List<Notification> findByCustomerId(String customerId);
+
+    /**
+     * Preleva dall'outbox le prime {@code limit} notifiche in stato PENDING non coperte da un lease ancora valido,
+     * bloccandole fino al termine della transazione corrente.
+     *
+     * Le righe già bloccate da un'altra transazione vengono saltate (SKIP LOCKED): più istanze possono svuotare
+     * l'outbox in parallelo, ognuna su righe diverse, senza attendersi a vicenda e senza inviare due volte la
+     * stessa notifica. Va invocato all'interno di una transazione.
+     */
+    @Query(value = """
+            SELECT *
+            FROM notifications
+            WHERE status = 'PENDING'
+            AND (next_attempt_at IS NULL OR next_attempt_at <= :now)
+            ORDER BY id
+            LIMIT :limit
+            FOR UPDATE SKIP LOCKED
+            """, nativeQuery = true)
+    List<Notification> lockPending(@Param("now") LocalDateTime now, @Param("limit") int limit);
+
+    /**
+     * Preleva le prime {@code limit} notifiche da ritentare, bloccandole fino al termine della transazione corrente:
+     * quelle in stato FAILED il cui backoff è trascorso e quelle in PROCESSING il cui lease è scaduto (ad esempio
+     * perché l'istanza che le stava inviando si è arrestata). Come {@link #lockPending}, salta le righe
+     * bloccate da altre transazioni.
+     */
+    @Query(value = """
+            SELECT *
+            FROM notifications
+            WHERE status IN ('FAILED', 'PROCESSING')
+            AND retry_count < :maxAttempts
+            AND (next_attempt_at IS NULL OR next_attempt_at <= :now)
+            ORDER BY id
+            LIMIT :limit
+            FOR UPDATE SKIP LOCKED
+            """, nativeQuery = true)
+    List<Notification> lockRetryable(@Param("maxAttempts") int maxAttempts,
+                                     @Param("now") LocalDateTime now,
+                                     @Param("limit") int limit);
+
+    /**
+     * Porta in stato FAILED le notifiche in PROCESSING il cui lease è scaduto dopo l'ultimo tentativo disponibile:
+     * il tentativo è conteggiato al prelievo, quindi {@link #lockRetryable} non le preleverebbe più e resterebbero
+     * in PROCESSING.
+     */
+    @Modifying
+    @Query(value = """
+            UPDATE notifications
+            SET status = 'FAILED', error_message = :errorMessage, next_attempt_at = NULL
+            WHERE status = 'PROCESSING'
+            AND retry_count >= :maxAttempts
+            AND next_attempt_at <= :now
+            """, nativeQuery = true)
+    int failExhaustedLeases(@Param("maxAttempts") int maxAttempts,
+                            @Param("now") LocalDateTime now,
+                            @Param("errorMessage") String errorMessage);
+
+    @Modifying
+    @Query("UPDATE Notification n SET n.status = :status, n.sentAt = :sentAt WHERE n.id IN :ids")
+    int updateStatusAndSentAt(@Param("ids") Collection<Long> ids,
+                              @Param("status") NotificationStatus status,
+                              @Param("sentAt") LocalDateTime sentAt);
 }
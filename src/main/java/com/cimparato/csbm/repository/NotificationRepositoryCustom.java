@@ -0,0 +1,36 @@
+package com.cimparato.csbm.repository;
+
+import com.cimparato.csbm.domain.model.Notification;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+
+/**
+ * Aggiornamenti delle notifiche in blocco, non esprimibili tramite query derivate.
+ */
+public interface NotificationRepositoryCustom {
+
+    /**
+     * Registra con un unico batch JDBC l'esito dei tentativi di invio delle notifiche prelevate con un lease.
+     *
+     * Vengono aggiornate solo le notifiche ancora in PROCESSING con il lease indicato: se il lease è scaduto e la
+     * notifica è stata prelevata da un'altra istanza, il suo nuovo lease è diverso e l'esito viene ignorato.
+     *
+     * @param notifications le notifiche con stato, data di invio, errore e prossimo tentativo aggiornati
+     * @param leaseUntil la scadenza del lease con cui le notifiche sono state prelevate
+     * @return il numero di notifiche aggiornate
+     */
+    int completeLeased(Collection<Notification> notifications, LocalDateTime leaseUntil);
+
+    /**
+     * Registra con un unico batch JDBC l'esito della pubblicazione delle notifiche prelevate dall'outbox con un lease.
+     *
+     * Come {@link #completeLeased}, vengono aggiornate solo le notifiche ancora in PENDING con il lease indicato.
+     *
+     * @param notifications le notifiche con stato, data di invio, errore, tentativi e prossimo tentativo aggiornati
+     * @param leaseUntil la scadenza del lease con cui le notifiche sono state prelevate
+     * @return il numero di notifiche aggiornate
+     */
+    int completeRelayed(Collection<Notification> notifications, LocalDateTime leaseUntil);
+
+}
@@ -0,0 +1,19 @@
+package com.cimparato.csbm.repository;
+
+import com.cimparato.csbm.domain.model.ProcessedMessage;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+
+@Repository
+public interface ProcessedMessageRepository extends JpaRepository<ProcessedMessage, String>, ProcessedMessageRepositoryCustom {
+
+    @Modifying
+    @Query("DELETE FROM ProcessedMessage m WHERE m.processedAt < :threshold")
+    int deleteProcessedBefore(@Param("threshold") LocalDateTime threshold);
+
+}
@@ -0,0 +1,24 @@
+package com.cimparato.csbm.repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Registrazione atomica dei messaggi elaborati, non esprimibile tramite query derivate.
+ */
+public interface ProcessedMessageRepositoryCustom {
+
+    /**
+     * Registra gli ID non ancora presenti nella tabella processed_messages.
+     *
+     * Se più istanze registrano lo stesso ID nello stesso momento, solo una lo riceve fra quelli restituiti:
+     * in questo modo l'ID restituito può essere usato come diritto esclusivo a elaborare il messaggio.
+     *
+     * @param messageIds gli ID da registrare
+     * @param processedAt l'istante di registrazione, usato per la pulizia periodica
+     * @return gli ID registrati da questa chiamata, esclusi quelli già presenti
+     */
+    Set<String> insertIfAbsent(Collection<String> messageIds, LocalDateTime processedAt);
+
+}
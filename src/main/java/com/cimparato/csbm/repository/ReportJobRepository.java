@@ -0,0 +1,103 @@
+package com.cimparato.csbm.repository;
+
+import com.cimparato.csbm.domain.enumeration.JobStatus;
+import com.cimparato.csbm.domain.model.ReportJob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Gli aggiornamenti di stato dei job sono condizionati allo stato atteso: la generazione e la pulizia dei job
+ * bloccati possono agire sullo stesso job, e ciascuna aggiorna il job solo se l'altra non lo ha già fatto.
+ */
+@Repository
+public interface ReportJobRepository extends JpaRepository<ReportJob, String> {
+    List<ReportJob> findByExpiresAtBefore(LocalDateTime expiresAt);
+
+    List<ReportJob> findByStatusInAndStartTimeBefore(Collection<JobStatus> statuses, LocalDateTime startTime);
+
+    /**
+     * Porta un job PENDING in PROCESSING, registrando in start_time l'inizio della generazione.
+     *
+     * @return 1 se il job era ancora PENDING, 0 altrimenti
+     */
+    @Transactional
+    @Modifying
+    @Query("""
+            UPDATE ReportJob j SET j.status = :processing, j.startTime = :startTime
+            WHERE j.jobId = :jobId AND j.status = :pending
+            """)
+    int markProcessing(@Param("jobId") String jobId,
+                       @Param("startTime") LocalDateTime startTime,
+                       @Param("pending") JobStatus pending,
+                       @Param("processing") JobStatus processing);
+
+    /**
+     * Registra il file generato da un job ancora in PROCESSING.
+     *
+     * @return 1 se il job era ancora in PROCESSING, 0 altrimenti
+     */
+    @Transactional
+    @Modifying
+    @Query("""
+            UPDATE ReportJob j
+            SET j.status = :completed, j.endTime = :endTime, j.filePath = :filePath, j.fileSize = :fileSize,
+                j.expiresAt = :expiresAt
+            WHERE j.jobId = :jobId AND j.status = :processing
+            """)
+    int markCompleted(@Param("jobId") String jobId,
+                      @Param("endTime") LocalDateTime endTime,
+                      @Param("filePath") String filePath,
+                      @Param("fileSize") Long fileSize,
+                      @Param("expiresAt") LocalDateTime expiresAt,
+                      @Param("processing") JobStatus processing,
+                      @Param("completed") JobStatus completed);
+
+    /**
+     * Registra come FAILED un job che si trova ancora nello stato atteso.
+     *
+     * @return 1 se il job era ancora nello stato atteso, 0 altrimenti
+     */
+    @Transactional
+    @Modifying
+    @Query("""
+            UPDATE ReportJob j
+            SET j.status = :failed, j.endTime = :endTime, j.errorMessage = :errorMessage, j.expiresAt = :expiresAt
+            WHERE j.jobId = :jobId AND j.status = :expectedStatus
+            """)
+    int markFailed(@Param("jobId") String jobId,
+                   @Param("expectedStatus") JobStatus expectedStatus,
+                   @Param("endTime") LocalDateTime endTime,
+                   @Param("errorMessage") String errorMessage,
+                   @Param("expiresAt") LocalDateTime expiresAt,
+                   @Param("failed") JobStatus failed);
+
+    /**
+     * Registra come FAILED un job bloccato, se si trova ancora nello stato letto dalla pulizia e il suo start_time
+     * precede ancora startedBefore: un job passato nel frattempo in PROCESSING ha un nuovo start_time e non viene
+     * toccato.
+     *
+     * @return 1 se il job è stato registrato come FAILED, 0 altrimenti
+     */
+    @Transactional
+    @Modifying
+    @Query("""
+            UPDATE ReportJob j
+            SET j.status = :failed, j.endTime = :endTime, j.errorMessage = :errorMessage, j.expiresAt = :expiresAt
+            WHERE j.jobId = :jobId AND j.status = :expectedStatus AND j.startTime < :startedBefore
+            """)
+    int markStale(@Param("jobId") String jobId,
+                  @Param("expectedStatus") JobStatus expectedStatus,
+                  @Param("startedBefore") LocalDateTime startedBefore,
+                  @Param("endTime") LocalDateTime endTime,
+                  @Param("errorMessage") String errorMessage,
+                  @Param("expiresAt") LocalDateTime expiresAt,
+                  @Param("failed") JobStatus failed);
+}
@@ -2,8 +2,42 @@ package com.cimparato.csbm.repository;
 
 import com.cimparato.csbm.domain.model.ServiceFileRelation;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
+
 @Repository
 public interface ServiceFileRelationRepository extends JpaRepository<ServiceFileRelation, Long> {
+
+    @Modifying
+    @Query(value = """
+            UPDATE service_file_relation
+            SET operation_type = CASE
+                    WHEN line_number = (
+                        SELECT MIN(r2.line_number)
+                        FROM service_file_relation r2
+                        WHERE r2.file_upload_id = service_file_relation.file_upload_id
+                        AND r2.service_id = service_file_relation.service_id
+                    ) THEN 'CREATE'
+                    ELSE 'UPDATE'
+                END
+            WHERE file_upload_id = :fileUploadId
+            AND service_id IN (
+                SELECT r3.service_id
+                FROM service_file_relation r3
+                WHERE r3.file_upload_id = :fileUploadId AND r3.operation_type = 'CREATE'
+            )
+            """, nativeQuery = true)
+    int normalizeOperationTypes(@Param("fileUploadId") Long fileUploadId);
+
+    @Query(value = """
+            SELECT DISTINCT cs.customer_id
+            FROM service_file_relation r
+            JOIN cloud_services cs ON cs.id = r.service_id
+            WHERE r.file_upload_id = :fileUploadId
+            """, nativeQuery = true)
+    List<String> findCustomerIdsByFileUploadId(@Param("fileUploadId") Long fileUploadId);
 }
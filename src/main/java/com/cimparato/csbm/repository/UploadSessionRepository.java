@@ -0,0 +1,14 @@
+package com.cimparato.csbm.repository;
+
+import com.cimparato.csbm.domain.file.UploadSessionStatus;
+import com.cimparato.csbm.domain.model.UploadSession;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface UploadSessionRepository extends JpaRepository<UploadSession, String> {
+    List<UploadSession> findByStatusAndExpiresAtBefore(UploadSessionStatus status, LocalDateTime expiresAt);
+}
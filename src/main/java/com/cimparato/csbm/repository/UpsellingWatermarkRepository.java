@@ -0,0 +1,10 @@
+package com.cimparato.csbm.repository;
+
+import com.cimparato.csbm.domain.model.UpsellingWatermark;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface UpsellingWatermarkRepository
+        extends JpaRepository<UpsellingWatermark, UpsellingWatermark.Key>, UpsellingWatermarkRepositoryCustom {
+}
@@ -0,0 +1,20 @@
+package com.cimparato.csbm.repository;
+
+import com.cimparato.csbm.domain.model.UpsellingWatermark;
+
+import java.util.Collection;
+
+/**
+ * Aggiornamento in blocco dei watermark della regola di upselling, non esprimibile tramite query derivate.
+ */
+public interface UpsellingWatermarkRepositoryCustom {
+
+    /**
+     * Registra i servizi segnalati, inserendo i watermark mancanti e aggiornando quelli esistenti.
+     *
+     * @param watermarks i servizi segnalati, con la data di attivazione segnalata e l'istante della notifica
+     * @return il numero di watermark registrati
+     */
+    int advance(Collection<UpsellingWatermark> watermarks);
+
+}
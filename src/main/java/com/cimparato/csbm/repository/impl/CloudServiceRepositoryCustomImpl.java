@@ -0,0 +1,301 @@
+package com.cimparato.csbm.repository.impl;
+
+import com.cimparato.csbm.domain.model.CloudService;
+import com.cimparato.csbm.repository.CloudServiceRepositoryCustom;
+import com.cimparato.csbm.repository.projection.CloudServiceUpsertResult;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
+
+import java.sql.DatabaseMetaData;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Implementazione JDBC dell'upsert massivo dei servizi cloud.
+ *
+ * Su PostgreSQL ogni blocco di righe viene scritto con un'unica istruzione
+ * INSERT ... ON CONFLICT (customer_id, service_type) DO UPDATE ... RETURNING, dove la colonna
+ * di sistema xmax permette di distinguere le righe inserite (xmax = 0) da quelle aggiornate.
+ *
+ * Sugli altri database (es. H2 usato nei test) viene usata una variante portabile che risolve
+ * le chiavi esistenti con una sola select e scrive inserimenti e aggiornamenti in batch JDBC.
+ *
+ * Ogni riga registra il file e la riga da cui proviene (last_file_upload_id, last_line_number): una riga già
+ * scritta da una riga successiva dello stesso file non viene sovrascritta. In questo modo la regola
+ * "vince l'ultima riga" vale anche quando porzioni diverse dello stesso file vengono scritte in parallelo.
+ *
+ * Gli id vengono assegnati esplicitamente, e solo alle chiavi non ancora presenti: ogni valore letto da
+ * cloud_services_seq riserva un blocco di 50 id, come per l'ottimizzatore pooled di Hibernate, per cui affidarsi al
+ * default della colonna consumerebbe un blocco intero per ogni riga, anche per quelle che finiscono in aggiornamento.
+ */
+@Slf4j
+public class CloudServiceRepositoryCustomImpl implements CloudServiceRepositoryCustom {
+
+    // limite prudenziale di righe per istruzione (10 parametri per riga, PostgreSQL ne accetta al massimo 65535)
+    private static final int MAX_ROWS_PER_STATEMENT = 1000;
+
+    // allineato all'incremento di cloud_services_seq e all'allocationSize di CloudService
+    private static final int ID_BLOCK_SIZE = 50;
+
+    private static final String COLUMNS = "id, customer_id, service_type, activation_date, expiration_date, amount, status, "
+            + "last_updated, last_file_upload_id, last_line_number";
+
+    private static final String ROW_PLACEHOLDERS = "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String POSTGRES_UPSERT_SQL = """
+            INSERT INTO cloud_services (%s)
+            VALUES %s
+            ON CONFLICT (customer_id, service_type) DO UPDATE SET
+                activation_date = EXCLUDED.activation_date,
+                expiration_date = EXCLUDED.expiration_date,
+                amount = EXCLUDED.amount,
+                status = EXCLUDED.status,
+                last_updated = EXCLUDED.last_updated,
+                last_file_upload_id = EXCLUDED.last_file_upload_id,
+                last_line_number = EXCLUDED.last_line_number
+            WHERE cloud_services.last_file_upload_id IS DISTINCT FROM EXCLUDED.last_file_upload_id
+                OR cloud_services.last_line_number IS NULL
+                OR cloud_services.last_line_number < EXCLUDED.last_line_number
+            RETURNING id, customer_id, service_type, (xmax = 0) AS inserted
+            """;
+
+    private static final String SELECT_KEYS_SQL = """
+            SELECT id, customer_id, service_type, last_file_upload_id, last_line_number
+            FROM cloud_services
+            WHERE customer_id IN (%s)
+            """;
+
+    private static final String INSERT_SQL = "INSERT INTO cloud_services (" + COLUMNS + ") VALUES " + ROW_PLACEHOLDERS;
+
+    private static final String POSTGRES_NEXT_ID_BLOCKS_SQL = "SELECT nextval('cloud_services_seq') FROM generate_series(1, ?)";
+
+    private static final String NEXT_ID_BLOCK_SQL = "SELECT NEXT VALUE FOR cloud_services_seq";
+
+    private static final String UPDATE_SQL = """
+            UPDATE cloud_services
+            SET activation_date = ?, expiration_date = ?, amount = ?, status = ?, last_updated = ?,
+                last_file_upload_id = ?, last_line_number = ?
+            WHERE id = ?
+            """;
+
+    private static final Comparator<CloudService> KEY_ORDER = Comparator
+            .comparing(CloudService::getCustomerId)
+            .thenComparing(service -> service.getServiceType().name());
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private volatile Boolean postgres;
+
+    public CloudServiceRepositoryCustomImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public List<CloudServiceUpsertResult> upsertAll(List<CloudService> services) {
+        if (services == null || services.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        // a parità di chiave vince l'ultima occorrenza, come avverrebbe scrivendo le righe in sequenza
+        Map<String, CloudService> distinctServices = new HashMap<>();
+        for (CloudService service : services) {
+            distinctServices.put(keyOf(service), service);
+        }
+
+        // l'ordinamento per chiave fa acquisire i lock sulle righe sempre nello stesso ordine,
+        // evitando deadlock fra transazioni concorrenti che scrivono chiavi in comune
+        List<CloudService> rows = new ArrayList<>(distinctServices.values());
+        rows.sort(KEY_ORDER);
+        LocalDateTime now = LocalDateTime.now();
+
+        List<CloudServiceUpsertResult> results = new ArrayList<>(rows.size());
+        for (int from = 0; from < rows.size(); from += MAX_ROWS_PER_STATEMENT) {
+            List<CloudService> chunk = rows.subList(from, Math.min(from + MAX_ROWS_PER_STATEMENT, rows.size()));
+            results.addAll(isPostgres() ? upsertPostgres(chunk, now) : upsertPortable(chunk, now));
+        }
+
+        log.debug("Upserted {} cloud services ({} input rows)", results.size(), services.size());
+
+        return results;
+    }
+
+    private List<CloudServiceUpsertResult> upsertPostgres(List<CloudService> rows, LocalDateTime now) {
+        String values = String.join(", ", Collections.nCopies(rows.size(), ROW_PLACEHOLDERS));
+        String sql = POSTGRES_UPSERT_SQL.formatted(COLUMNS, values);
+
+        // le chiavi esistenti conservano il proprio id; se una di esse viene eliminata nel frattempo la riga viene
+        // reinserita con lo stesso id, se una chiave nuova viene inserita nel frattempo l'id allocato resta inutilizzato
+        Map<String, ExistingRow> existingRows = findExistingRows(rows);
+        Iterator<Long> newIds = allocateIds((int) rows.stream()
+                .filter(row -> !existingRows.containsKey(keyOf(row)))
+                .count()).iterator();
+
+        List<Object> args = new ArrayList<>(rows.size() * 10);
+        for (CloudService row : rows) {
+            ExistingRow existing = existingRows.get(keyOf(row));
+            args.add(existing != null ? existing.id() : newIds.next());
+            args.add(row.getCustomerId());
+            args.add(row.getServiceType().name());
+            args.add(row.getActivationDate());
+            args.add(row.getExpirationDate());
+            args.add(row.getAmount());
+            args.add(row.getStatus().name());
+            args.add(now);
+            args.add(row.getLastFileUploadId());
+            args.add(row.getLastLineNumber());
+        }
+
+        List<CloudServiceUpsertResult> results = new ArrayList<>(jdbcTemplate.query(sql, (rs, rowNum) ->
+                new CloudServiceUpsertResult(
+                        rs.getLong("id"),
+                        rs.getString("customer_id"),
+                        rs.getString("service_type"),
+                        rs.getBoolean("inserted")
+                ), args.toArray()));
+
+        // le righe già scritte da una riga successiva dello stesso file non vengono restituite da RETURNING
+        if (results.size() < rows.size()) {
+            Set<String> returnedKeys = results.stream().map(CloudServiceUpsertResult::key).collect(Collectors.toSet());
+            List<CloudService> skipped = rows.stream()
+                    .filter(row -> !returnedKeys.contains(keyOf(row)))
+                    .collect(Collectors.toList());
+
+            Map<String, ExistingRow> skippedRows = skipped.stream().allMatch(row -> existingRows.containsKey(keyOf(row)))
+                    ? existingRows
+                    : findExistingRows(skipped);
+            for (CloudService row : skipped) {
+                ExistingRow existing = skippedRows.get(keyOf(row));
+                Long id = existing != null ? existing.id() : null;
+                results.add(new CloudServiceUpsertResult(id, row.getCustomerId(), row.getServiceType().name(), false));
+            }
+        }
+
+        return results;
+    }
+
+    private List<CloudServiceUpsertResult> upsertPortable(List<CloudService> rows, LocalDateTime now) {
+        Map<String, ExistingRow> existingRows = findExistingRows(rows);
+
+        Iterator<Long> newIds = allocateIds((int) rows.stream()
+                .filter(row -> !existingRows.containsKey(keyOf(row)))
+                .count()).iterator();
+
+        Map<String, Long> createdIds = new HashMap<>();
+        List<Object[]> inserts = new ArrayList<>();
+        List<Object[]> updates = new ArrayList<>();
+        for (CloudService row : rows) {
+            ExistingRow existing = existingRows.get(keyOf(row));
+            if (existing == null) {
+                Long id = newIds.next();
+                createdIds.put(keyOf(row), id);
+                inserts.add(new Object[]{id, row.getCustomerId(), row.getServiceType().name(), row.getActivationDate(),
+                        row.getExpirationDate(), row.getAmount(), row.getStatus().name(), now,
+                        row.getLastFileUploadId(), row.getLastLineNumber()});
+            } else if (existing.isOverwrittenBy(row)) {
+                updates.add(new Object[]{row.getActivationDate(), row.getExpirationDate(), row.getAmount(),
+                        row.getStatus().name(), now, row.getLastFileUploadId(), row.getLastLineNumber(), existing.id()});
+            }
+        }
+
+        if (!updates.isEmpty()) {
+            jdbcTemplate.batchUpdate(UPDATE_SQL, updates);
+        }
+
+        if (!inserts.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT_SQL, inserts);
+        }
+
+        List<CloudServiceUpsertResult> results = new ArrayList<>(rows.size());
+        for (CloudService row : rows) {
+            String key = keyOf(row);
+            ExistingRow existing = existingRows.get(key);
+            boolean created = existing == null;
+            Long id = created ? createdIds.get(key) : existing.id();
+            results.add(new CloudServiceUpsertResult(id, row.getCustomerId(), row.getServiceType().name(), created));
+        }
+        return results;
+    }
+
+    /**
+     * Riserva count id da cloud_services_seq leggendo un valore ogni ID_BLOCK_SIZE id.
+     *
+     * Come per l'ottimizzatore pooled di Hibernate, il valore letto è l'estremo superiore del blocco: gli id
+     * restano quindi disgiunti da quelli assegnati da Hibernate alle entità CloudService. Gli id non usati
+     * dell'ultimo blocco vengono scartati.
+     */
+    private List<Long> allocateIds(int count) {
+        List<Long> ids = new ArrayList<>(count);
+        while (ids.size() < count) {
+            int blocks = (count - ids.size() + ID_BLOCK_SIZE - 1) / ID_BLOCK_SIZE;
+            for (Long hi : nextIdBlocks(blocks)) {
+                // il primo valore di una sequenza appena creata non ha id validi sotto di sé
+                for (long id = Math.max(1, hi - ID_BLOCK_SIZE + 1); id <= hi && ids.size() < count; id++) {
+                    ids.add(id);
+                }
+            }
+        }
+        return ids;
+    }
+
+    private List<Long> nextIdBlocks(int blocks) {
+        if (isPostgres()) {
+            return jdbcTemplate.queryForList(POSTGRES_NEXT_ID_BLOCKS_SQL, Long.class, blocks);
+        }
+
+        List<Long> values = new ArrayList<>(blocks);
+        for (int i = 0; i < blocks; i++) {
+            values.add(jdbcTemplate.queryForObject(NEXT_ID_BLOCK_SQL, Long.class));
+        }
+        return values;
+    }
+
+    private Map<String, ExistingRow> findExistingRows(List<CloudService> rows) {
+        Set<String> customerIds = rows.stream().map(CloudService::getCustomerId).collect(Collectors.toSet());
+        Set<String> keys = rows.stream().map(CloudServiceRepositoryCustomImpl::keyOf).collect(Collectors.toSet());
+
+        String sql = SELECT_KEYS_SQL.formatted(String.join(", ", Collections.nCopies(customerIds.size(), "?")));
+
+        Map<String, ExistingRow> existingRows = new HashMap<>();
+        jdbcTemplate.query(sql, rs -> {
+            String key = CloudServiceUpsertResult.keyOf(rs.getString("customer_id"), rs.getString("service_type"));
+            if (keys.contains(key)) {
+                existingRows.put(key, new ExistingRow(
+                        rs.getLong("id"),
+                        rs.getObject("last_file_upload_id", Long.class),
+                        rs.getObject("last_line_number", Integer.class)));
+            }
+        }, customerIds.toArray());
+        return existingRows;
+    }
+
+    private boolean isPostgres() {
+        if (postgres == null) {
+            try {
+                String productName = JdbcUtils.extractDatabaseMetaData(
+                        jdbcTemplate.getDataSource(), DatabaseMetaData::getDatabaseProductName);
+                postgres = "PostgreSQL".equalsIgnoreCase(productName);
+            } catch (MetaDataAccessException e) {
+                log.warn("Unable to detect database product, falling back to portable upsert: {}", e.getMessage());
+                postgres = false;
+            }
+        }
+        return postgres;
+    }
+
+    private static String keyOf(CloudService service) {
+        return CloudServiceUpsertResult.keyOf(service.getCustomerId(), service.getServiceType().name());
+    }
+
+    private record ExistingRow(Long id, Long lastFileUploadId, Integer lastLineNumber) {
+
+        // stessa condizione della clausola WHERE dell'upsert PostgreSQL
+        boolean isOverwrittenBy(CloudService row) {
+            return !Objects.equals(lastFileUploadId, row.getLastFileUploadId())
+                    || lastLineNumber == null
+                    || (row.getLastLineNumber() != null && lastLineNumber < row.getLastLineNumber());
+        }
+    }
+}
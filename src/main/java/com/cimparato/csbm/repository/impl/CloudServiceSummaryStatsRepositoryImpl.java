@@ -0,0 +1,177 @@
+package com.cimparato.csbm.repository.impl;
+
+import com.cimparato.csbm.repository.CloudServiceSummaryStatsRepository;
+import com.cimparato.csbm.repository.projection.CustomerAverageSpend;
+import com.cimparato.csbm.repository.projection.ServiceTypeCount;
+import com.cimparato.csbm.repository.projection.SummaryStatsDrift;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
+
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Implementazione JDBC della lettura degli aggregati del report di riepilogo.
+ *
+ * Il conteggio dei servizi attivi per tipo è suddiviso su più righe (slot) per ridurre la contesa fra transazioni
+ * di ingestion concorrenti, e viene quindi sommato in lettura.
+ */
+@Slf4j
+public class CloudServiceSummaryStatsRepositoryImpl implements CloudServiceSummaryStatsRepository {
+
+    private static final String ACTIVE_SERVICES_BY_TYPE_SQL = """
+            SELECT service_type, SUM(active_count)::BIGINT AS active_count
+            FROM service_type_stats
+            GROUP BY service_type
+            HAVING SUM(active_count) > 0
+            ORDER BY SUM(active_count) DESC
+            """;
+
+    private static final String AVERAGE_SPEND_PER_CUSTOMER_SQL = """
+            SELECT customer_id, (total_amount / service_count)::NUMERIC(10,2) AS average_amount
+            FROM customer_stats
+            WHERE service_count > 0
+            ORDER BY total_amount / service_count DESC
+            """;
+
+    private static final String STREAM_AVERAGE_SPEND_PER_CUSTOMER_SQL = """
+            SELECT customer_id, (total_amount / service_count)::NUMERIC(10,2) AS average_amount
+            FROM customer_stats
+            WHERE service_count > 0
+            ORDER BY customer_id
+            """;
+
+    // righe lette dal database per ogni round trip dal cursore
+    private static final int STREAM_FETCH_SIZE = 1000;
+
+    private static final String CUSTOMERS_WITH_MULTIPLE_EXPIRED_SQL = """
+            SELECT customer_id
+            FROM customer_stats
+            WHERE expired_count > 1
+            ORDER BY customer_id
+            """;
+
+    private static final String CHECK_SQL = """
+            WITH live_types AS (
+                SELECT service_type, COUNT(*) AS active_count
+                FROM cloud_services
+                WHERE status = 'ACTIVE'
+                GROUP BY service_type
+            ), stats_types AS (
+                SELECT service_type, SUM(active_count) AS active_count
+                FROM service_type_stats
+                GROUP BY service_type
+                HAVING SUM(active_count) <> 0
+            ), live_customers AS (
+                SELECT customer_id, COUNT(*) AS service_count, SUM(amount) AS total_amount,
+                       COUNT(*) FILTER (WHERE status = 'EXPIRED') AS expired_count
+                FROM cloud_services
+                GROUP BY customer_id
+            ), stats_customers AS (
+                SELECT customer_id, service_count, total_amount, expired_count
+                FROM customer_stats
+                WHERE service_count <> 0 OR total_amount <> 0 OR expired_count <> 0
+            )
+            SELECT
+                (SELECT COUNT(*)
+                 FROM live_types l FULL JOIN stats_types s ON s.service_type = l.service_type
+                 WHERE l.active_count IS DISTINCT FROM s.active_count) AS service_types,
+                (SELECT COUNT(*)
+                 FROM live_customers l FULL JOIN stats_customers s ON s.customer_id = l.customer_id
+                 WHERE l.service_count IS DISTINCT FROM s.service_count
+                    OR l.total_amount IS DISTINCT FROM s.total_amount
+                    OR l.expired_count IS DISTINCT FROM s.expired_count) AS customers
+            """;
+
+    private static final String LOCK_SQL = "LOCK TABLE cloud_services IN SHARE MODE";
+
+    private static final String REBUILD_SERVICE_TYPE_STATS_SQL = """
+            INSERT INTO service_type_stats (service_type, slot, active_count)
+            SELECT service_type, 0, COUNT(*)
+            FROM cloud_services
+            WHERE status = 'ACTIVE'
+            GROUP BY service_type
+            """;
+
+    private static final String REBUILD_CUSTOMER_STATS_SQL = """
+            INSERT INTO customer_stats (customer_id, service_count, total_amount, expired_count)
+            SELECT customer_id, COUNT(*), SUM(amount), COUNT(*) FILTER (WHERE status = 'EXPIRED')
+            FROM cloud_services
+            GROUP BY customer_id
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private volatile Boolean postgres;
+
+    public CloudServiceSummaryStatsRepositoryImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public boolean isSummaryStatsSupported() {
+        return isPostgres();
+    }
+
+    @Override
+    public List<ServiceTypeCount> findActiveServicesByTypeFromStats() {
+        return jdbcTemplate.query(ACTIVE_SERVICES_BY_TYPE_SQL, (rs, rowNum) ->
+                new ServiceTypeCount(rs.getString("service_type"), rs.getLong("active_count")));
+    }
+
+    @Override
+    public List<CustomerAverageSpend> findAverageSpendPerCustomerFromStats() {
+        return jdbcTemplate.query(AVERAGE_SPEND_PER_CUSTOMER_SQL, (rs, rowNum) ->
+                new CustomerAverageSpend(rs.getString("customer_id"), rs.getBigDecimal("average_amount")));
+    }
+
+    @Override
+    public Stream<CustomerAverageSpend> streamAverageSpendPerCustomerFromStats() {
+        // con l'autocommit disabilitato dalla transazione il driver legge le righe a blocchi di STREAM_FETCH_SIZE
+        return jdbcTemplate.queryForStream(con -> {
+            PreparedStatement ps = con.prepareStatement(STREAM_AVERAGE_SPEND_PER_CUSTOMER_SQL);
+            ps.setFetchSize(STREAM_FETCH_SIZE);
+            return ps;
+        }, (rs, rowNum) -> new CustomerAverageSpend(rs.getString("customer_id"), rs.getBigDecimal("average_amount")));
+    }
+
+    @Override
+    public List<String> findCustomersWithMultipleExpiredServicesFromStats() {
+        return jdbcTemplate.queryForList(CUSTOMERS_WITH_MULTIPLE_EXPIRED_SQL, String.class);
+    }
+
+    @Override
+    public SummaryStatsDrift checkSummaryStats() {
+        return jdbcTemplate.queryForObject(CHECK_SQL, (rs, rowNum) ->
+                new SummaryStatsDrift(rs.getLong("service_types"), rs.getLong("customers")));
+    }
+
+    @Override
+    public void rebuildSummaryStats() {
+        // SHARE MODE blocca le scritture (e quindi i trigger) ma non le letture per tutta la ricostruzione
+        jdbcTemplate.execute(LOCK_SQL);
+        jdbcTemplate.update("DELETE FROM service_type_stats");
+        jdbcTemplate.update("DELETE FROM customer_stats");
+        int serviceTypes = jdbcTemplate.update(REBUILD_SERVICE_TYPE_STATS_SQL);
+        int customers = jdbcTemplate.update(REBUILD_CUSTOMER_STATS_SQL);
+        log.info("Rebuilt summary stats: {} service types, {} customers", serviceTypes, customers);
+    }
+
+    private boolean isPostgres() {
+        if (postgres == null) {
+            try {
+                String productName = JdbcUtils.extractDatabaseMetaData(
+                        jdbcTemplate.getDataSource(), DatabaseMetaData::getDatabaseProductName);
+                postgres = "PostgreSQL".equalsIgnoreCase(productName);
+            } catch (MetaDataAccessException e) {
+                log.warn("Unable to detect database product, falling back to live summary queries: {}", e.getMessage());
+                postgres = false;
+            }
+        }
+        return postgres;
+    }
+}
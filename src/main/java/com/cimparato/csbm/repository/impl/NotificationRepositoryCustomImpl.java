@@ -0,0 +1,92 @@
+package com.cimparato.csbm.repository.impl;
+
+import com.cimparato.csbm.domain.model.Notification;
+import com.cimparato.csbm.repository.NotificationRepositoryCustom;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Implementazione JDBC degli aggiornamenti in blocco delle notifiche.
+ */
+@Slf4j
+public class NotificationRepositoryCustomImpl implements NotificationRepositoryCustom {
+
+    private static final String COMPLETE_LEASED_SQL = """
+            UPDATE notifications
+            SET status = ?, sent_at = ?, error_message = ?, next_attempt_at = ?
+            WHERE id = ? AND status = 'PROCESSING' AND next_attempt_at = ?
+            """;
+
+    private static final String COMPLETE_RELAYED_SQL = """
+            UPDATE notifications
+            SET status = ?, sent_at = ?, error_message = ?, retry_count = ?, next_attempt_at = ?
+            WHERE id = ? AND status = 'PENDING' AND next_attempt_at = ?
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public NotificationRepositoryCustomImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public int completeLeased(Collection<Notification> notifications, LocalDateTime leaseUntil) {
+        if (notifications == null || notifications.isEmpty()) {
+            return 0;
+        }
+
+        Timestamp lease = Timestamp.valueOf(leaseUntil);
+        int[][] counts = jdbcTemplate.batchUpdate(COMPLETE_LEASED_SQL, notifications, notifications.size(), (ps, notification) -> {
+            ps.setString(1, notification.getStatus().name());
+            ps.setTimestamp(2, toTimestamp(notification.getSentAt()));
+            ps.setString(3, notification.getErrorMessage());
+            ps.setTimestamp(4, toTimestamp(notification.getNextAttemptAt()));
+            ps.setLong(5, notification.getId());
+            ps.setTimestamp(6, lease);
+        });
+
+        int updated = updatedRows(counts);
+
+        log.debug("Completed {} of {} leased notifications", updated, notifications.size());
+
+        return updated;
+    }
+
+    @Override
+    public int completeRelayed(Collection<Notification> notifications, LocalDateTime leaseUntil) {
+        if (notifications == null || notifications.isEmpty()) {
+            return 0;
+        }
+
+        Timestamp lease = Timestamp.valueOf(leaseUntil);
+        int[][] counts = jdbcTemplate.batchUpdate(COMPLETE_RELAYED_SQL, notifications, notifications.size(), (ps, notification) -> {
+            ps.setString(1, notification.getStatus().name());
+            ps.setTimestamp(2, toTimestamp(notification.getSentAt()));
+            ps.setString(3, notification.getErrorMessage());
+            ps.setInt(4, notification.getRetryCount());
+            ps.setTimestamp(5, toTimestamp(notification.getNextAttemptAt()));
+            ps.setLong(6, notification.getId());
+            ps.setTimestamp(7, lease);
+        });
+
+        int updated = updatedRows(counts);
+
+        log.debug("Completed {} of {} relayed notifications", updated, notifications.size());
+
+        return updated;
+    }
+
+    // alcuni driver restituiscono SUCCESS_NO_INFO (-2) per le istruzioni eseguite in batch
+    private static int updatedRows(int[][] counts) {
+        return Arrays.stream(counts).flatMapToInt(Arrays::stream).map(count -> count < 0 ? 1 : count).sum();
+    }
+
+    private static Timestamp toTimestamp(LocalDateTime dateTime) {
+        return dateTime != null ? Timestamp.valueOf(dateTime) : null;
+    }
+}
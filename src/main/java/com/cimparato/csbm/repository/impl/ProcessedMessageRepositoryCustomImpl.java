@@ -0,0 +1,110 @@
+package com.cimparato.csbm.repository.impl;
+
+import com.cimparato.csbm.repository.ProcessedMessageRepositoryCustom;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
+
+import java.sql.DatabaseMetaData;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Implementazione JDBC della registrazione dei messaggi elaborati.
+ *
+ * Su PostgreSQL ogni blocco di ID viene scritto con un'unica istruzione
+ * INSERT ... ON CONFLICT (message_id) DO NOTHING RETURNING message_id: il vincolo di chiave primaria rende la
+ * registrazione atomica anche fra istanze diverse e la clausola RETURNING restituisce solo gli ID effettivamente
+ * inseriti.
+ *
+ * Sugli altri database (es. H2 usato nei test) viene usata una variante portabile che esclude gli ID già presenti
+ * con una sola select e inserisce i rimanenti in batch JDBC.
+ */
+@Slf4j
+public class ProcessedMessageRepositoryCustomImpl implements ProcessedMessageRepositoryCustom {
+
+    // limite prudenziale di righe per istruzione (2 parametri per riga, PostgreSQL ne accetta al massimo 65535)
+    private static final int MAX_ROWS_PER_STATEMENT = 1000;
+
+    private static final String POSTGRES_INSERT_SQL = """
+            INSERT INTO processed_messages (message_id, processed_at)
+            VALUES %s
+            ON CONFLICT (message_id) DO NOTHING
+            RETURNING message_id
+            """;
+
+    private static final String SELECT_EXISTING_SQL = "SELECT message_id FROM processed_messages WHERE message_id IN (%s)";
+
+    private static final String INSERT_SQL = "INSERT INTO processed_messages (message_id, processed_at) VALUES (?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private volatile Boolean postgres;
+
+    public ProcessedMessageRepositoryCustomImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public Set<String> insertIfAbsent(Collection<String> messageIds, LocalDateTime processedAt) {
+        if (messageIds == null || messageIds.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        // l'ordinamento fa acquisire i lock sulle chiavi sempre nello stesso ordine fra transazioni concorrenti
+        List<String> ids = new ArrayList<>(new TreeSet<>(messageIds));
+        Timestamp timestamp = Timestamp.valueOf(processedAt);
+
+        Set<String> inserted = new HashSet<>();
+        for (int from = 0; from < ids.size(); from += MAX_ROWS_PER_STATEMENT) {
+            List<String> chunk = ids.subList(from, Math.min(from + MAX_ROWS_PER_STATEMENT, ids.size()));
+            inserted.addAll(isPostgres() ? insertPostgres(chunk, timestamp) : insertPortable(chunk, timestamp));
+        }
+
+        log.debug("Registered {} of {} processed messages", inserted.size(), ids.size());
+
+        return inserted;
+    }
+
+    private List<String> insertPostgres(List<String> ids, Timestamp processedAt) {
+        String sql = POSTGRES_INSERT_SQL.formatted(String.join(", ", Collections.nCopies(ids.size(), "(?, ?)")));
+
+        List<Object> args = new ArrayList<>(ids.size() * 2);
+        for (String id : ids) {
+            args.add(id);
+            args.add(processedAt);
+        }
+
+        return jdbcTemplate.queryForList(sql, String.class, args.toArray());
+    }
+
+    private List<String> insertPortable(List<String> ids, Timestamp processedAt) {
+        String sql = SELECT_EXISTING_SQL.formatted(String.join(", ", Collections.nCopies(ids.size(), "?")));
+        Set<String> existing = new HashSet<>(jdbcTemplate.queryForList(sql, String.class, ids.toArray()));
+
+        List<String> missing = ids.stream().filter(id -> !existing.contains(id)).toList();
+        if (!missing.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT_SQL, missing, missing.size(), (ps, id) -> {
+                ps.setString(1, id);
+                ps.setTimestamp(2, processedAt);
+            });
+        }
+        return missing;
+    }
+
+    private boolean isPostgres() {
+        if (postgres == null) {
+            try {
+                String productName = JdbcUtils.extractDatabaseMetaData(
+                        jdbcTemplate.getDataSource(), DatabaseMetaData::getDatabaseProductName);
+                postgres = "PostgreSQL".equalsIgnoreCase(productName);
+            } catch (MetaDataAccessException e) {
+                log.warn("Unable to detect database product, falling back to portable insert: {}", e.getMessage());
+                postgres = false;
+            }
+        }
+        return postgres;
+    }
+}
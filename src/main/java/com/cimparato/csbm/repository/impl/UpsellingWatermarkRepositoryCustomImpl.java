@@ -0,0 +1,118 @@
+package com.cimparato.csbm.repository.impl;
+
+import com.cimparato.csbm.domain.model.UpsellingWatermark;
+import com.cimparato.csbm.repository.UpsellingWatermarkRepositoryCustom;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
+
+import java.sql.DatabaseMetaData;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Implementazione JDBC dell'aggiornamento dei watermark.
+ *
+ * Su PostgreSQL i watermark vengono scritti in batch JDBC con INSERT ... ON CONFLICT DO UPDATE. Sugli altri
+ * database (es. H2 usato nei test) viene usata una variante portabile che aggiorna i watermark esistenti in batch e
+ * inserisce in batch quelli per cui l'aggiornamento non ha trovato righe.
+ */
+@Slf4j
+public class UpsellingWatermarkRepositoryCustomImpl implements UpsellingWatermarkRepositoryCustom {
+
+    private static final String POSTGRES_UPSERT_SQL = """
+            INSERT INTO upselling_watermarks (customer_id, service_type, activation_date, notified_at)
+            VALUES (?, ?, ?, ?)
+            ON CONFLICT (customer_id, service_type)
+            DO UPDATE SET activation_date = EXCLUDED.activation_date, notified_at = EXCLUDED.notified_at
+            """;
+
+    private static final String UPDATE_SQL = """
+            UPDATE upselling_watermarks SET activation_date = ?, notified_at = ?
+            WHERE customer_id = ? AND service_type = ?
+            """;
+
+    private static final String INSERT_SQL = """
+            INSERT INTO upselling_watermarks (customer_id, service_type, activation_date, notified_at)
+            VALUES (?, ?, ?, ?)
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private volatile Boolean postgres;
+
+    public UpsellingWatermarkRepositoryCustomImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public int advance(Collection<UpsellingWatermark> watermarks) {
+        if (watermarks == null || watermarks.isEmpty()) {
+            return 0;
+        }
+
+        // l'ordinamento fa acquisire i lock sulle chiavi sempre nello stesso ordine fra transazioni concorrenti
+        List<UpsellingWatermark> sorted = new ArrayList<>(watermarks);
+        sorted.sort(Comparator.comparing(UpsellingWatermark::getCustomerId)
+                .thenComparing(watermark -> watermark.getServiceType().name()));
+
+        if (isPostgres()) {
+            jdbcTemplate.batchUpdate(POSTGRES_UPSERT_SQL, sorted, sorted.size(), (ps, watermark) -> {
+                ps.setString(1, watermark.getCustomerId());
+                ps.setString(2, watermark.getServiceType().name());
+                ps.setDate(3, Date.valueOf(watermark.getActivationDate()));
+                ps.setTimestamp(4, Timestamp.valueOf(watermark.getNotifiedAt()));
+            });
+        } else {
+            advancePortable(sorted);
+        }
+
+        log.debug("Advanced {} upselling watermarks", sorted.size());
+
+        return sorted.size();
+    }
+
+    private void advancePortable(List<UpsellingWatermark> watermarks) {
+        int[][] updated = jdbcTemplate.batchUpdate(UPDATE_SQL, watermarks, watermarks.size(), (ps, watermark) -> {
+            ps.setDate(1, Date.valueOf(watermark.getActivationDate()));
+            ps.setTimestamp(2, Timestamp.valueOf(watermark.getNotifiedAt()));
+            ps.setString(3, watermark.getCustomerId());
+            ps.setString(4, watermark.getServiceType().name());
+        });
+
+        List<UpsellingWatermark> missing = new ArrayList<>();
+        for (int i = 0; i < watermarks.size(); i++) {
+            if (updated[0][i] == 0) {
+                missing.add(watermarks.get(i));
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT_SQL, missing, missing.size(), (ps, watermark) -> {
+                ps.setString(1, watermark.getCustomerId());
+                ps.setString(2, watermark.getServiceType().name());
+                ps.setDate(3, Date.valueOf(watermark.getActivationDate()));
+                ps.setTimestamp(4, Timestamp.valueOf(watermark.getNotifiedAt()));
+            });
+        }
+    }
+
+    private boolean isPostgres() {
+        if (postgres == null) {
+            try {
+                String productName = JdbcUtils.extractDatabaseMetaData(
+                        jdbcTemplate.getDataSource(), DatabaseMetaData::getDatabaseProductName);
+                postgres = "PostgreSQL".equalsIgnoreCase(productName);
+            } catch (MetaDataAccessException e) {
+                log.warn("Unable to detect database product, falling back to portable upsert: {}", e.getMessage());
+                postgres = false;
+            }
+        }
+        return postgres;
+    }
+}
@@ -0,0 +1,9 @@
+package com.cimparato.csbm.repository.projection;
+
+import java.time.LocalDate;
+
+public interface ActiveServiceSummary {
+    String getCustomerId();
+    String getServiceType();
+    LocalDate getActivationDate();
+}
@@ -0,0 +1,16 @@
+package com.cimparato.csbm.repository.projection;
+
+/**
+ * Esito dell'upsert di un singolo servizio: id della riga risultante e flag che indica
+ * se la riga è stata inserita (true) o aggiornata (false).
+ */
+public record CloudServiceUpsertResult(Long id, String customerId, String serviceType, boolean created) {
+
+    public String key() {
+        return keyOf(customerId, serviceType);
+    }
+
+    public static String keyOf(String customerId, String serviceType) {
+        return customerId + '|' + serviceType;
+    }
+}
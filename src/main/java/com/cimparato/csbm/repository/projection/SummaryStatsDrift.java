@@ -0,0 +1,14 @@
+package com.cimparato.csbm.repository.projection;
+
+/**
+ * Differenze fra gli aggregati del report di riepilogo e i valori calcolati su cloud_services.
+ *
+ * @param serviceTypes numero di tipi di servizio con conteggio dei servizi attivi diverso
+ * @param customers numero di clienti con numero di servizi, importo totale o servizi scaduti diversi
+ */
+public record SummaryStatsDrift(long serviceTypes, long customers) {
+
+    public boolean isEmpty() {
+        return serviceTypes == 0 && customers == 0;
+    }
+}
@@ -1,14 +1,17 @@
 package com.cimparato.csbm.service;
 
+import com.cimparato.csbm.domain.enumeration.CloudServiceStatus;
 import com.cimparato.csbm.domain.enumeration.CloudServiceType;
-import com.cimparato.csbm.dto.cloudservice.CustomerWithExpiredServicesDTO;
 import com.cimparato.csbm.dto.cloudservice.ServiceWithExpirationDTO;
 import com.cimparato.csbm.mapper.CloudServiceMapper;
 import com.cimparato.csbm.repository.CloudServiceRepository;
+import com.cimparato.csbm.repository.ServiceFileRelationRepository;
 import com.cimparato.csbm.dto.cloudservice.CloudServiceDTO;
+import com.cimparato.csbm.repository.projection.ActiveServiceSummary;
 import com.cimparato.csbm.repository.projection.CustomerAverageSpend;
 import com.cimparato.csbm.repository.projection.CustomerWithExpiredService;
 import com.cimparato.csbm.repository.projection.ServiceTypeCount;
+import com.cimparato.csbm.repository.projection.SummaryStatsDrift;
 import com.cimparato.csbm.web.rest.errors.ResourceNotFoundException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
@@ -18,16 +21,26 @@ import org.springframework.transaction.annotation.Transactional;
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class CloudServiceService {
 
+    // numero massimo di clienti passati in una singola clausola IN
+    private static final int CUSTOMER_BATCH_SIZE = 1000;
+
     private final CloudServiceRepository cloudServiceRepository;
+    private final ServiceFileRelationRepository serviceFileRelationRepository;
     private final CloudServiceMapper cloudServiceMapper;
 
-    public CloudServiceService(CloudServiceRepository cloudServiceRepository, CloudServiceMapper cloudServiceMapper) {
+    public CloudServiceService(CloudServiceRepository cloudServiceRepository,
+                               ServiceFileRelationRepository serviceFileRelationRepository,
+                               CloudServiceMapper cloudServiceMapper) {
         this.cloudServiceRepository = cloudServiceRepository;
+        this.serviceFileRelationRepository = serviceFileRelationRepository;
         this.cloudServiceMapper = cloudServiceMapper;
     }
 
@@ -52,35 +65,148 @@ public class CloudServiceService {
                 .orElseThrow(() -> new ResourceNotFoundException("CloudService not found with customerId: " + customerId + ", serviceType: " + serviceType));
     }
 
+    /**
+     * Passa all'action, un cliente alla volta, i servizi scaduti dei clienti con più di maxExpiredServicesCount
+     * servizi scaduti. Le righe vengono lette in streaming, quindi in memoria ci sono solo i servizi del cliente
+     * corrente, indipendentemente dal numero di clienti trovati.
+     *
+     * @return il numero di clienti trovati
+     */
     @Transactional(readOnly = true)
-    public CustomerWithExpiredServicesDTO getCustomersWithMaxExpiredServices(int maxExpiredServicesCount) {
-        List<CustomerWithExpiredService> results = cloudServiceRepository.findCustomersWithMaxExpiredServices(maxExpiredServicesCount);
-
-        Map<String, Set<ServiceWithExpirationDTO>> customerServicesMap = results.stream()
-                .collect(Collectors.groupingBy(
-                        CustomerWithExpiredService::getCustomerId,
-                        Collectors.mapping(
-                                es -> new ServiceWithExpirationDTO(
-                                        CloudServiceType.valueOf(es.getServiceType()),
-                                        es.getExpirationDate()
-                                ),
-                                Collectors.toSet()
-                        )
-                ));
-        return new CustomerWithExpiredServicesDTO(customerServicesMap);
+    public int forEachCustomerWithMaxExpiredServices(int maxExpiredServicesCount,
+                                                     BiConsumer<String, Set<ServiceWithExpirationDTO>> action) {
+        try (Stream<CustomerWithExpiredService> rows =
+                     cloudServiceRepository.streamCustomersWithMaxExpiredServices(maxExpiredServicesCount)) {
+            return groupByCustomer(rows, action);
+        }
     }
 
+    /**
+     * Come {@link #forEachCustomerWithMaxExpiredServices(int, BiConsumer)}, limitando la ricerca ai clienti indicati.
+     */
     @Transactional(readOnly = true)
-    public List<CloudServiceDTO> getActiveServicesOlderThan(LocalDate yearsAgo) {
-        return cloudServiceRepository.findActiveServicesOlderThan(yearsAgo)
-                .stream()
-                .map(cloudServiceMapper::toDto)
-                .toList();
+    public int forEachCustomerWithMaxExpiredServices(int maxExpiredServicesCount, Collection<String> customerIds,
+                                                     BiConsumer<String, Set<ServiceWithExpirationDTO>> action) {
+        int customers = 0;
+        for (List<String> batch : partition(customerIds)) {
+            try (Stream<CustomerWithExpiredService> rows =
+                         cloudServiceRepository.streamCustomersWithMaxExpiredServicesIn(maxExpiredServicesCount, batch)) {
+                customers += groupByCustomer(rows, action);
+            }
+        }
+        return customers;
+    }
+
+    // raggruppa le righe consecutive dello stesso cliente: le query le restituiscono ordinate per cliente
+    private static int groupByCustomer(Stream<CustomerWithExpiredService> rows,
+                                       BiConsumer<String, Set<ServiceWithExpirationDTO>> action) {
+        int customers = 0;
+        String customerId = null;
+        Set<ServiceWithExpirationDTO> expiredServices = new HashSet<>();
+
+        Iterator<CustomerWithExpiredService> iterator = rows.iterator();
+        while (iterator.hasNext()) {
+            CustomerWithExpiredService row = iterator.next();
+            if (customerId != null && !customerId.equals(row.getCustomerId())) {
+                action.accept(customerId, expiredServices);
+                customers++;
+                expiredServices = new HashSet<>();
+            }
+            customerId = row.getCustomerId();
+            expiredServices.add(new ServiceWithExpirationDTO(
+                    CloudServiceType.valueOf(row.getServiceType()),
+                    row.getExpirationDate()
+            ));
+        }
+
+        if (customerId != null) {
+            action.accept(customerId, expiredServices);
+            customers++;
+        }
+        return customers;
     }
 
+    /**
+     * Passa all'action, un cliente alla volta, i servizi attivi da prima della data indicata non ancora segnalati
+     * dalla regola di upselling (vedi UpsellingWatermark). Le righe vengono lette in streaming come proiezione,
+     * quindi in memoria ci sono solo i servizi del cliente corrente.
+     *
+     * @return il numero di clienti trovati
+     */
+    @Transactional(readOnly = true)
+    public int forEachCustomerWithUnnotifiedActiveServicesOlderThan(LocalDate yearsAgo,
+                                                                    BiConsumer<String, List<CloudServiceDTO>> action) {
+        try (Stream<ActiveServiceSummary> rows = cloudServiceRepository.streamUnnotifiedActiveServicesOlderThan(yearsAgo)) {
+            return groupActiveServicesByCustomer(rows, action);
+        }
+    }
+
+    /**
+     * Come {@link #forEachCustomerWithUnnotifiedActiveServicesOlderThan(LocalDate, BiConsumer)}, limitando la
+     * ricerca ai clienti indicati.
+     */
+    @Transactional(readOnly = true)
+    public int forEachCustomerWithUnnotifiedActiveServicesOlderThan(LocalDate yearsAgo, Collection<String> customerIds,
+                                                                    BiConsumer<String, List<CloudServiceDTO>> action) {
+        int customers = 0;
+        for (List<String> batch : partition(customerIds)) {
+            try (Stream<ActiveServiceSummary> rows =
+                         cloudServiceRepository.streamUnnotifiedActiveServicesOlderThanIn(yearsAgo, batch)) {
+                customers += groupActiveServicesByCustomer(rows, action);
+            }
+        }
+        return customers;
+    }
+
+    // raggruppa le righe consecutive dello stesso cliente: le query le restituiscono ordinate per cliente
+    private static int groupActiveServicesByCustomer(Stream<ActiveServiceSummary> rows,
+                                                     BiConsumer<String, List<CloudServiceDTO>> action) {
+        int customers = 0;
+        String customerId = null;
+        List<CloudServiceDTO> services = new ArrayList<>();
+
+        Iterator<ActiveServiceSummary> iterator = rows.iterator();
+        while (iterator.hasNext()) {
+            ActiveServiceSummary row = iterator.next();
+            if (customerId != null && !customerId.equals(row.getCustomerId())) {
+                action.accept(customerId, services);
+                customers++;
+                services = new ArrayList<>();
+            }
+            customerId = row.getCustomerId();
+            CloudServiceDTO service = new CloudServiceDTO();
+            service.setCustomerId(row.getCustomerId());
+            service.setServiceType(CloudServiceType.valueOf(row.getServiceType()));
+            service.setActivationDate(row.getActivationDate());
+            service.setStatus(CloudServiceStatus.ACTIVE);
+            services.add(service);
+        }
+
+        if (customerId != null) {
+            action.accept(customerId, services);
+            customers++;
+        }
+        return customers;
+    }
+
+    /**
+     * Restituisce i clienti che hanno almeno un servizio creato o aggiornato dal file indicato.
+     */
+    @Transactional(readOnly = true)
+    public Set<String> getCustomerIdsByFileUpload(Long fileUploadId) {
+        return new HashSet<>(serviceFileRelationRepository.findCustomerIdsByFileUploadId(fileUploadId));
+    }
+
+    /**
+     * Numero di servizi attivi per tipo. Su PostgreSQL viene letto dagli aggregati mantenuti dai trigger su
+     * cloud_services, altrimenti viene calcolato sulla tabella.
+     */
     @Transactional(readOnly = true)
     public Map<String, Long> getActiveServicesByType() {
-        return cloudServiceRepository.findActiveServicesByType().stream()
+        List<ServiceTypeCount> counts = cloudServiceRepository.isSummaryStatsSupported()
+                ? cloudServiceRepository.findActiveServicesByTypeFromStats()
+                : cloudServiceRepository.findActiveServicesByType();
+        return counts.stream()
                 .collect(Collectors.toMap(
                         ServiceTypeCount::serviceType,
                         ServiceTypeCount::count,
@@ -89,9 +215,15 @@ public class CloudServiceService {
                 ));
     }
 
+    /**
+     * Spesa media per cliente, letta dagli aggregati quando disponibili.
+     */
     @Transactional(readOnly = true)
     public Map<String, BigDecimal> getAverageSpendPerCustomer() {
-        return cloudServiceRepository.calculateAverageSpendPerCustomer().stream()
+        List<CustomerAverageSpend> averages = cloudServiceRepository.isSummaryStatsSupported()
+                ? cloudServiceRepository.findAverageSpendPerCustomerFromStats()
+                : cloudServiceRepository.calculateAverageSpendPerCustomer();
+        return averages.stream()
                 .collect(Collectors.toMap(
                         CustomerAverageSpend::customerId,
                         CustomerAverageSpend::averageAmount,
@@ -100,9 +232,55 @@ public class CloudServiceService {
                 ));
     }
 
+    /**
+     * Legge in streaming la spesa media di tutti i clienti, ordinata per cliente, senza caricarla in memoria.
+     * Le righe vengono lette con un cursore dagli aggregati quando disponibili, altrimenti calcolate sulla tabella;
+     * lo stream è valido solo all'interno di reader e viene chiuso al suo termine.
+     */
+    @Transactional(readOnly = true)
+    public void readAverageSpendPerCustomer(Consumer<Stream<CustomerAverageSpend>> reader) {
+        try (Stream<CustomerAverageSpend> rows = cloudServiceRepository.isSummaryStatsSupported()
+                ? cloudServiceRepository.streamAverageSpendPerCustomerFromStats()
+                : cloudServiceRepository.streamAverageSpendPerCustomer()) {
+            reader.accept(rows);
+        }
+    }
+
+    /**
+     * Clienti con più di un servizio scaduto, letti dagli aggregati quando disponibili.
+     */
     @Transactional(readOnly = true)
     public List<String> getCustomersWithMultipleExpiredServices() {
-        return cloudServiceRepository.findCustomersWithMultipleExpiredServices();
+        return cloudServiceRepository.isSummaryStatsSupported()
+                ? cloudServiceRepository.findCustomersWithMultipleExpiredServicesFromStats()
+                : cloudServiceRepository.findCustomersWithMultipleExpiredServices();
+    }
+
+    /**
+     * Confronta gli aggregati del report di riepilogo con i valori calcolati su cloud_services e, se differiscono
+     * (es. dopo scritture eseguite con i trigger disabilitati), li ricostruisce.
+     *
+     * @return le differenze trovate, vuote se gli aggregati sono allineati o non disponibili
+     */
+    @Transactional
+    public SummaryStatsDrift verifySummaryStats() {
+        if (!cloudServiceRepository.isSummaryStatsSupported()) {
+            return new SummaryStatsDrift(0, 0);
+        }
+        SummaryStatsDrift drift = cloudServiceRepository.checkSummaryStats();
+        if (!drift.isEmpty()) {
+            cloudServiceRepository.rebuildSummaryStats();
+        }
+        return drift;
+    }
+
+    private static List<List<String>> partition(Collection<String> customerIds) {
+        List<String> ids = new ArrayList<>(customerIds);
+        List<List<String>> batches = new ArrayList<>();
+        for (int from = 0; from < ids.size(); from += CUSTOMER_BATCH_SIZE) {
+            batches.add(ids.subList(from, Math.min(from + CUSTOMER_BATCH_SIZE, ids.size())));
+        }
+        return batches;
     }
 
 }
@@ -1,47 +1,123 @@
 package com.cimparato.csbm.service;
 
+import com.cimparato.csbm.config.properties.AppProperties;
 import com.cimparato.csbm.dto.notification.NotificationDTO;
+import com.cimparato.csbm.service.deduplication.MessageDeduplicationStore;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.stats.CacheStats;
-import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.springframework.stereotype.Service;
 
+import java.time.LocalDateTime;
+import java.util.*;
+
 /**
  * Servizio per la deduplicazione dei messaggi in un sistema di messaggistica distribuito.
  *
  * Questo servizio risolve il problema della duplicazione dei messaggi in Kafka, garantendo
  * che ogni messaggio venga elaborato una sola volta anche in presenza di ritrasmissioni,
- * retry o elaborazioni parallele.
+ * retry, riavvii o elaborazioni su più istanze dell'applicazione.
  *
- * Utilizza una cache in-memory con TTL (Time-To-Live) per tenere traccia dei messaggi
- * già elaborati, identificati tramite un hash MD5 del loro contenuto. Questo approccio
- * è efficiente e non richiede infrastrutture esterne come database relazionali.
+ * Gli ID dei messaggi elaborati, ottenuti tramite un hash MD5 del loro contenuto, vengono registrati in un
+ * MessageDeduplicationStore (di default la tabella processed_messages, condivisa fra le istanze). Una cache
+ * Caffeine in-memory con TTL fa da near-cache davanti all'archivio: gli ID elaborati di recente vengono
+ * riconosciuti senza accedere al database.
  *
- * La cache è configurata per mantenere gli ID dei messaggi per un periodo limitato
- * (tipicamente 24 ore), dopo il quale vengono automaticamente rimossi per evitare
- * una crescita illimitata della memoria utilizzata.
+ * Gli ID restano nell'archivio per un periodo limitato (app.notification.deduplication.ttl-hours), dopo il quale
+ * vengono rimossi dalla pulizia periodica per evitarne la crescita illimitata.
  */
+@Slf4j
 @Service
-@RequiredArgsConstructor
 public class MessageDeduplicationService {
 
     private final Cache<String, Boolean> processedMessageCache;
+    private final MessageDeduplicationStore messageDeduplicationStore;
+    private final AppProperties appProperties;
+
+    public MessageDeduplicationService(
+            Cache<String, Boolean> processedMessageCache,
+            MessageDeduplicationStore messageDeduplicationStore,
+            AppProperties appProperties
+    ) {
+        this.processedMessageCache = processedMessageCache;
+        this.messageDeduplicationStore = messageDeduplicationStore;
+        this.appProperties = appProperties;
+    }
 
     public boolean isProcessed(String messageId) {
-        return processedMessageCache.getIfPresent(messageId) != null;
+        if (processedMessageCache.getIfPresent(messageId) != null) {
+            return true;
+        }
+        boolean processed = messageDeduplicationStore.contains(messageId);
+        if (processed) {
+            processedMessageCache.put(messageId, Boolean.TRUE);
+        }
+        return processed;
     }
 
     public void markAsProcessed(String messageId) {
-        processedMessageCache.put(messageId, Boolean.TRUE);
+        claim(List.of(messageId));
+    }
+
+    /**
+     * Registra come elaborati i messaggi indicati e restituisce solo quelli che il chiamante deve elaborare.
+     *
+     * Gli ID presenti nella cache vengono scartati senza accedere all'archivio; i rimanenti vengono registrati
+     * nell'archivio con un'unica scrittura, che restituisce solo quelli non ancora presenti. Un ID restituito
+     * non viene restituito a nessun'altra chiamata, anche da un'altra istanza, finché non viene rilasciato con
+     * {@link #release(Collection)}.
+     *
+     * @param messageIds gli ID dei messaggi di un batch
+     * @return gli ID dei messaggi non ancora elaborati, registrati da questa chiamata
+     */
+    public Set<String> claim(Collection<String> messageIds) {
+        Set<String> candidates = new HashSet<>(messageIds);
+        candidates.removeAll(processedMessageCache.getAllPresent(messageIds).keySet());
+        if (candidates.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        Set<String> claimed = messageDeduplicationStore.claim(candidates);
+
+        // dopo la registrazione tutti i candidati risultano elaborati, da questa o da una precedente elaborazione
+        Map<String, Boolean> processed = new HashMap<>(candidates.size() * 2);
+        candidates.forEach(messageId -> processed.put(messageId, Boolean.TRUE));
+        processedMessageCache.putAll(processed);
+
+        log.debug("Claimed {} of {} messages ({} already processed)",
+                claimed.size(), messageIds.size(), messageIds.size() - claimed.size());
+
+        return claimed;
+    }
+
+    /**
+     * Rilascia gli ID registrati con {@link #claim(Collection)} per messaggi che non sono stati elaborati,
+     * così che possano essere elaborati alla prossima consegna.
+     */
+    public void release(Collection<String> messageIds) {
+        if (messageIds.isEmpty()) {
+            return;
+        }
+        processedMessageCache.invalidateAll(messageIds);
+        messageDeduplicationStore.release(messageIds);
+    }
+
+    /**
+     * Rimuove dall'archivio gli ID registrati da più del TTL configurato.
+     *
+     * @return il numero di ID rimossi
+     */
+    public int deleteExpired() {
+        int ttlHours = appProperties.getNotification().getDeduplication().getTtlHours();
+        return messageDeduplicationStore.deleteOlderThan(LocalDateTime.now().minusHours(ttlHours));
     }
 
     /**
      * Genera un identificatore univoco (hash MD5) per una notifica basato sul suo contenuto.
      *
      * L'hash MD5 generato dalle proprietà della notifica (customerId, type, content, recipient)
-     * è deterministico e univoco, permettendo l'implementazione dell'idempotenza senza dipendere
-     * da database esterni.
+     * è deterministico e univoco: la stessa notifica riconsegnata produce sempre lo stesso ID.
      *
      * @param notification l'oggetto NotificationDTO da cui generare l'ID
      * @return hash MD5 che rappresenta univocamente il contenuto della notifica
@@ -0,0 +1,34 @@
+package com.cimparato.csbm.service.deduplication;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Archivio degli ID dei messaggi già elaborati, usato da MessageDeduplicationService dietro la cache in-memory.
+ *
+ * L'implementazione viene scelta con app.notification.deduplication.store: "database" (default) condivide gli ID
+ * fra tutte le istanze e li conserva ai riavvii, "local" li mantiene nella sola memoria dell'istanza.
+ */
+public interface MessageDeduplicationStore {
+
+    /**
+     * Registra gli ID non ancora presenti e restituisce solo quelli registrati da questa chiamata.
+     */
+    Set<String> claim(Collection<String> messageIds);
+
+    boolean contains(String messageId);
+
+    /**
+     * Rimuove gli ID indicati, così che i relativi messaggi possano essere elaborati di nuovo.
+     */
+    void release(Collection<String> messageIds);
+
+    /**
+     * Rimuove gli ID registrati prima della soglia indicata.
+     *
+     * @return il numero di ID rimossi
+     */
+    int deleteOlderThan(LocalDateTime threshold);
+
+}
@@ -0,0 +1,49 @@
+package com.cimparato.csbm.service.deduplication.impl;
+
+import com.cimparato.csbm.repository.ProcessedMessageRepository;
+import com.cimparato.csbm.service.deduplication.MessageDeduplicationStore;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Archivio degli ID elaborati sulla tabella processed_messages, condiviso da tutte le istanze dell'applicazione.
+ */
+@Component
+@ConditionalOnProperty(name = "app.notification.deduplication.store", havingValue = "database", matchIfMissing = true)
+public class DatabaseMessageDeduplicationStore implements MessageDeduplicationStore {
+
+    private final ProcessedMessageRepository processedMessageRepository;
+
+    public DatabaseMessageDeduplicationStore(ProcessedMessageRepository processedMessageRepository) {
+        this.processedMessageRepository = processedMessageRepository;
+    }
+
+    @Override
+    @Transactional
+    public Set<String> claim(Collection<String> messageIds) {
+        return processedMessageRepository.insertIfAbsent(messageIds, LocalDateTime.now());
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public boolean contains(String messageId) {
+        return processedMessageRepository.existsById(messageId);
+    }
+
+    @Override
+    @Transactional
+    public void release(Collection<String> messageIds) {
+        processedMessageRepository.deleteAllByIdInBatch(messageIds);
+    }
+
+    @Override
+    @Transactional
+    public int deleteOlderThan(LocalDateTime threshold) {
+        return processedMessageRepository.deleteProcessedBefore(threshold);
+    }
+}
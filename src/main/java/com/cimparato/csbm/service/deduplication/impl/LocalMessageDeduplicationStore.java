@@ -0,0 +1,53 @@
+package com.cimparato.csbm.service.deduplication.impl;
+
+import com.cimparato.csbm.service.deduplication.MessageDeduplicationStore;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Archivio degli ID elaborati nella sola memoria dell'istanza, per le installazioni con una singola istanza.
+ *
+ * Gli ID non sopravvivono ai riavvii e non sono condivisi fra le istanze.
+ */
+@Component
+@ConditionalOnProperty(name = "app.notification.deduplication.store", havingValue = "local")
+public class LocalMessageDeduplicationStore implements MessageDeduplicationStore {
+
+    private final Map<String, LocalDateTime> processedMessages = new ConcurrentHashMap<>();
+
+    @Override
+    public Set<String> claim(Collection<String> messageIds) {
+        LocalDateTime now = LocalDateTime.now();
+        Set<String> claimed = new HashSet<>();
+        for (String messageId : messageIds) {
+            if (processedMessages.putIfAbsent(messageId, now) == null) {
+                claimed.add(messageId);
+            }
+        }
+        return claimed;
+    }
+
+    @Override
+    public boolean contains(String messageId) {
+        return processedMessages.containsKey(messageId);
+    }
+
+    @Override
+    public void release(Collection<String> messageIds) {
+        messageIds.forEach(processedMessages::remove);
+    }
+
+    @Override
+    public int deleteOlderThan(LocalDateTime threshold) {
+        int sizeBefore = processedMessages.size();
+        processedMessages.values().removeIf(processedAt -> processedAt.isBefore(threshold));
+        return sizeBefore - processedMessages.size();
+    }
+}
@@ -0,0 +1,262 @@
+package com.cimparato.csbm.service.file;
+
+import com.cimparato.csbm.domain.enumeration.JobStatus;
+import com.cimparato.csbm.domain.event.DomainEventPublisher;
+import com.cimparato.csbm.domain.event.FileProcessingCompletedEvent;
+import com.cimparato.csbm.domain.file.FileErrorType;
+import com.cimparato.csbm.domain.file.FileOperationType;
+import com.cimparato.csbm.domain.file.FileUploadStatus;
+import com.cimparato.csbm.domain.model.*;
+import com.cimparato.csbm.dto.cloudservice.CloudServiceDTO;
+import com.cimparato.csbm.dto.fileupload.FileUploadJobDTO;
+import com.cimparato.csbm.dto.processingerror.ProcessingErrorCreateDTO;
+import com.cimparato.csbm.mapper.CloudServiceMapper;
+import com.cimparato.csbm.mapper.ProcessingErrorMapper;
+import com.cimparato.csbm.repository.CloudServiceRepository;
+import com.cimparato.csbm.repository.FileUploadRepository;
+import com.cimparato.csbm.repository.ProcessingErrorRepository;
+import com.cimparato.csbm.repository.ServiceFileRelationRepository;
+import com.cimparato.csbm.repository.projection.CloudServiceUpsertResult;
+import com.cimparato.csbm.service.JobExecutionService;
+import com.cimparato.csbm.service.file.parser.ParsingError;
+import jakarta.persistence.EntityManager;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.util.Pair;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.CollectionUtils;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Esegue le scritture dell'elaborazione di un file, ciascuna nella propria transazione.
+ *
+ * Le operazioni sono state estratte da FileProcessorService perché i metodi privati annotati con
+ * {@code @Transactional} non passano dal proxy di Spring: ogni chiamata ai repository veniva eseguita in una
+ * transazione autonoma e il persistence context non veniva mai svuotato. Qui ogni batch viene scritto in
+ * un'unica transazione insieme alle sue ServiceFileRelation, e il persistence context viene svuotato
+ * (flush + clear) a fine batch, così che la memoria resti costante indipendentemente dalla dimensione del file.
+ */
+@Slf4j
+@Component
+public class FileProcessingBatchWriter {
+
+    private final JobExecutionService jobExecutionService;
+
+    private final FileUploadRepository fileUploadRepository;
+    private final CloudServiceRepository cloudServiceRepository;
+    private final ProcessingErrorRepository processingErrorRepository;
+    private final ServiceFileRelationRepository serviceFileRelationRepository;
+
+    private final CloudServiceMapper cloudServiceMapper;
+    private final ProcessingErrorMapper processingErrorMapper;
+
+    private final DomainEventPublisher eventPublisher;
+
+    private final EntityManager entityManager;
+
+    public FileProcessingBatchWriter(
+            JobExecutionService jobExecutionService,
+            FileUploadRepository fileUploadRepository,
+            CloudServiceRepository cloudServiceRepository,
+            ProcessingErrorRepository processingErrorRepository,
+            ServiceFileRelationRepository serviceFileRelationRepository,
+            CloudServiceMapper cloudServiceMapper,
+            ProcessingErrorMapper processingErrorMapper,
+            DomainEventPublisher eventPublisher,
+            EntityManager entityManager
+    ) {
+        this.jobExecutionService = jobExecutionService;
+        this.fileUploadRepository = fileUploadRepository;
+        this.cloudServiceRepository = cloudServiceRepository;
+        this.processingErrorRepository = processingErrorRepository;
+        this.serviceFileRelationRepository = serviceFileRelationRepository;
+        this.cloudServiceMapper = cloudServiceMapper;
+        this.processingErrorMapper = processingErrorMapper;
+        this.eventPublisher = eventPublisher;
+        this.entityManager = entityManager;
+    }
+
+    /**
+     * Salva un batch con un upsert set-based sul vincolo uk_customer_service, invece di cercare riga per riga
+     * il servizio esistente, e crea le relazioni con il file caricato nella stessa transazione.
+     *
+     * L'esito dell'upsert indica per ogni coppia customer_id/service_type se la riga è stata creata o
+     * aggiornata. Se la stessa coppia compare più volte nel batch, solo la prima occorrenza può risultare
+     * una CREATE, le successive sono UPDATE (in scrittura vince l'ultima occorrenza).
+     *
+     * @param records I record validi del batch
+     * @param fileUpload L'entità che rappresenta il file in elaborazione
+     * @return gli errori di processing relativi ai record che non è stato possibile associare a un servizio
+     */
+    @Transactional
+    public List<ProcessingErrorCreateDTO> writeBatch(List<CloudServiceDTO> records, FileUpload fileUpload) {
+        List<CloudService> services = records.stream()
+                .map(dto -> {
+                    CloudService service = cloudServiceMapper.toEntity(dto);
+                    service.setLastFileUploadId(fileUpload.getId());
+                    service.setLastLineNumber(dto.getLineNumber());
+                    return service;
+                })
+                .collect(Collectors.toList());
+
+        Map<String, CloudServiceUpsertResult> upsertResults = cloudServiceRepository.upsertAll(services).stream()
+                .collect(Collectors.toMap(CloudServiceUpsertResult::key, result -> result));
+
+        Set<String> batchKeys = new HashSet<>();
+        List<ServiceFileRelation> relations = new ArrayList<>(records.size());
+        List<ProcessingErrorCreateDTO> errors = new ArrayList<>();
+
+        for (CloudServiceDTO dto : records) {
+            String key = CloudServiceUpsertResult.keyOf(dto.getCustomerId(), String.valueOf(dto.getServiceType()));
+            CloudServiceUpsertResult result = upsertResults.get(key);
+
+            if (result == null || result.id() == null) {
+                errors.add(toProcessingError(dto, "Unable to resolve cloud service after upsert"));
+                continue;
+            }
+
+            boolean firstInBatch = batchKeys.add(key);
+            boolean isCreate = result.created() && firstInBatch;
+
+            // Crea la relazione fra CloudService e FileUpload
+            relations.add(ServiceFileRelation.builder()
+                    .service(cloudServiceRepository.getReferenceById(result.id()))
+                    .fileUpload(fileUpload)
+                    .operationType(isCreate ? FileOperationType.CREATE : FileOperationType.UPDATE)
+                    .lineNumber(dto.getLineNumber())
+                    .build());
+        }
+
+        serviceFileRelationRepository.saveAll(relations);
+
+        flushAndClear();
+
+        return errors;
+    }
+
+    /**
+     * Riallinea il tipo di operazione delle relazioni di un file elaborato a porzioni in parallelo.
+     *
+     * Quando un servizio nuovo compare in più porzioni, la CREATE viene registrata dalla porzione che ha scritto
+     * per prima, non necessariamente da quella con la riga più bassa: la CREATE viene quindi riassegnata alla
+     * prima riga del file in cui il servizio compare, tutte le altre diventano UPDATE.
+     *
+     * @param fileUpload L'entità che rappresenta il file elaborato
+     * @return il numero di relazioni aggiornate
+     */
+    @Transactional
+    public int normalizeOperationTypes(FileUpload fileUpload) {
+        return serviceFileRelationRepository.normalizeOperationTypes(fileUpload.getId());
+    }
+
+    /**
+     * Salva nel database gli errori riscontrati durante il parsing e l'elaborazione del file.
+     *
+     * @param parsingErrors Lista degli errori riscontrati durante il parsing del file
+     * @param processingErrorDTOs Lista degli errori riscontrati durante il processing del file
+     * @param fileUpload L'entità che rappresenta il file a cui associare gli errori
+     * @return il numero di errori salvati
+     */
+    @Transactional
+    public int saveErrors(List<ParsingError> parsingErrors,
+                          List<ProcessingErrorCreateDTO> processingErrorDTOs,
+                          FileUpload fileUpload) {
+
+        if (CollectionUtils.isEmpty(parsingErrors) && CollectionUtils.isEmpty(processingErrorDTOs)) {
+            return 0;
+        }
+
+        List<ProcessingError> allErrors = new ArrayList<>();
+
+        // Converte ProcessingErrorDTOs in entità ProcessingError
+        if (!CollectionUtils.isEmpty(processingErrorDTOs)) {
+            allErrors = processingErrorDTOs.stream()
+                    .map(dto -> {
+                        ProcessingError entity = processingErrorMapper.toEntity(dto);
+                        entity.setFileUpload(fileUpload);
+                        return entity;
+                    })
+                    .collect(Collectors.toList());
+        }
+
+        // Converte ParsingError in entità ProcessingError
+        if (!CollectionUtils.isEmpty(parsingErrors)) {
+            allErrors.addAll(processingErrorMapper.convertParsingErrorsTo(parsingErrors, fileUpload));
+        }
+
+        processingErrorRepository.saveAll(allErrors);
+
+        flushAndClear();
+
+        return allErrors.size();
+    }
+
+    /**
+     * Completa l'elaborazione del file aggiornando, nella stessa transazione, lo stato del file caricato e
+     * dell'esecuzione del job. L'evento di completamento viene pubblicato dopo il commit.
+     *
+     * @param job L'entità JobExecution associata all'elaborazione del file
+     * @param fileUpload L'entità che rappresenta il file elaborato
+     * @param validRecordsCount Il numero di record validi elaborati
+     * @param invalidRecordsCount Il numero di record non validi riscontrati durante l'elaborazione
+     * @return le entità FileUpload e JobExecution aggiornate
+     */
+    @Transactional
+    public Pair<FileUpload, JobExecution> completeProcessing(JobExecution job, FileUpload fileUpload,
+                                                             int validRecordsCount, int invalidRecordsCount) {
+        int totalRecordsCount = validRecordsCount + invalidRecordsCount;
+
+        fileUpload.setStatus(FileUploadStatus.COMPLETED);
+        fileUpload.setInvalidRecords(invalidRecordsCount);
+        fileUpload.setValidRecords(validRecordsCount);
+        fileUpload.setTotalRecords(totalRecordsCount);
+        var fileUploadSaved = fileUploadRepository.save(fileUpload);
+
+        var jobExecutionSaved = jobExecutionService.updateJobStatus(job.getJobId(), JobStatus.COMPLETED, null);
+
+        log.info("Completed processing of job: {}. Total Records: {}, Valid: {}, Invalid: {}",
+                job.getJobId(), totalRecordsCount, validRecordsCount, invalidRecordsCount);
+
+        var fileUploadJobDTO = FileUploadJobDTO.builder()
+                .fileHash(fileUploadSaved.getFileHash())
+                .filename(fileUploadSaved.getFilename())
+                .jobId(jobExecutionSaved.getJobId())
+                .jobStatus(jobExecutionSaved.getStatus())
+                .build();
+
+        log.info("Publishing event `FileProcessingCompletedEvent` for file with hash: {}", fileUploadSaved.getFileHash());
+
+        eventPublisher.publish(new FileProcessingCompletedEvent(fileUploadJobDTO, fileUploadSaved.getId()));
+
+        return Pair.of(fileUploadSaved, jobExecutionSaved);
+    }
+
+    /**
+     * Aggiorna a FAILED, nella stessa transazione, lo stato del job e del file caricato.
+     */
+    @Transactional
+    public void markFailed(JobExecution job, FileUpload fileUpload, String errorMessage) {
+        jobExecutionService.updateJobStatus(job.getJobId(), JobStatus.FAILED, errorMessage);
+
+        fileUpload.setStatus(FileUploadStatus.FAILED);
+        fileUploadRepository.save(fileUpload);
+    }
+
+    private ProcessingErrorCreateDTO toProcessingError(CloudServiceDTO dto, String errorMessage) {
+        log.warn("Error processing record at line {}: {}", dto.getLineNumber(), errorMessage);
+
+        return ProcessingErrorCreateDTO.builder()
+                .lineNumber(dto.getLineNumber())
+                .rawData(dto.toString())
+                .errorMessage(errorMessage)
+                .errorType(FileErrorType.PROCESSING_ERROR)
+                .build();
+    }
+
+    private void flushAndClear() {
+        entityManager.flush();
+        entityManager.clear();
+    }
+}
@@ -1,48 +1,40 @@
 package com.cimparato.csbm.service.file;
 
 import com.cimparato.csbm.config.properties.AppProperties;
+import com.cimparato.csbm.config.async.FileChunkTaskExecutor;
 import com.cimparato.csbm.config.async.FileProcessingTaskExecutor;
 import com.cimparato.csbm.domain.enumeration.JobStatus;
-import com.cimparato.csbm.domain.event.FileProcessingCompletedEvent;
 import com.cimparato.csbm.domain.event.JobCreatedEvent;
 import com.cimparato.csbm.domain.file.FileErrorType;
-import com.cimparato.csbm.domain.file.FileOperationType;
-import com.cimparato.csbm.domain.file.FileUploadStatus;
 import com.cimparato.csbm.domain.model.*;
 import com.cimparato.csbm.dto.cloudservice.CloudServiceDTO;
-import com.cimparato.csbm.dto.fileupload.FileUploadJobDTO;
 import com.cimparato.csbm.dto.processingerror.ProcessingErrorCreateDTO;
-import com.cimparato.csbm.mapper.CloudServiceMapper;
-import com.cimparato.csbm.mapper.ProcessingErrorMapper;
-import com.cimparato.csbm.repository.CloudServiceRepository;
-import com.cimparato.csbm.repository.FileUploadRepository;
-import com.cimparato.csbm.repository.ProcessingErrorRepository;
-import com.cimparato.csbm.repository.ServiceFileRelationRepository;
-import com.cimparato.csbm.service.CloudServiceService;
+import com.cimparato.csbm.service.file.chunk.FileChunk;
+import com.cimparato.csbm.service.file.chunk.FileChunkSplitter;
+import com.cimparato.csbm.service.file.chunk.FileRangeInputStream;
+import com.cimparato.csbm.service.file.ingestion.CopyIngestionService;
 import com.cimparato.csbm.service.file.parser.FileParser;
 import com.cimparato.csbm.service.file.parser.FileParserStrategy;
-import com.cimparato.csbm.service.file.parser.ParsingError;
+import com.cimparato.csbm.service.file.parser.ParseOptions;
+import com.cimparato.csbm.util.FileCompression;
 import com.cimparato.csbm.service.file.storage.FileStorageService;
 import com.cimparato.csbm.service.JobExecutionService;
-import com.cimparato.csbm.domain.event.DomainEventPublisher;
 import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.core.io.Resource;
-import org.springframework.data.util.Pair;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.event.TransactionPhase;
 import org.springframework.transaction.event.TransactionalEventListener;
-import org.springframework.util.CollectionUtils;
 
+import java.io.IOException;
 import java.io.InputStream;
-import java.time.LocalDateTime;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
 import java.util.List;
-import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.RejectedExecutionException;
-import java.util.stream.Collectors;
 
 @Slf4j
 @Service
@@ -54,49 +46,33 @@ public class FileProcessorService {
 
     private final JobExecutionService jobExecutionService;
     private final FileStorageService fileStorageService;
-    private final CloudServiceService cloudServiceService;
-
-    private final FileUploadRepository fileUploadRepository;
-    private final CloudServiceRepository cloudServiceRepository;
-    private final ProcessingErrorRepository processingErrorRepository;
-    private final ServiceFileRelationRepository serviceFileRelationRepository;
-
-    private final CloudServiceMapper cloudServiceMapper;
-    private final ProcessingErrorMapper processingErrorMapper;
 
     private final FileParserStrategy fileParserStrategy;
-    private final DomainEventPublisher eventPublisher;
+    private final FileProcessingBatchWriter batchWriter;
 
     private final FileProcessingTaskExecutor fileProcessingTaskExecutor;
+    private final FileChunkTaskExecutor fileChunkTaskExecutor;
+
+    private final CopyIngestionService copyIngestionService;
 
     public FileProcessorService(
             AppProperties appProperties,
             JobExecutionService jobExecutionService,
             FileStorageService fileStorageService,
-            CloudServiceService cloudServiceService,
-            FileUploadRepository fileUploadRepository,
-            CloudServiceRepository cloudServiceRepository,
-            ProcessingErrorRepository processingErrorRepository,
-            ServiceFileRelationRepository serviceFileRelationRepository,
-            CloudServiceMapper cloudServiceMapper,
-            ProcessingErrorMapper processingErrorMapper,
             FileParserStrategy fileParserStrategy,
-            DomainEventPublisher eventPublisher,
-            FileProcessingTaskExecutor fileProcessingTaskExecutor
+            FileProcessingBatchWriter batchWriter,
+            FileProcessingTaskExecutor fileProcessingTaskExecutor,
+            FileChunkTaskExecutor fileChunkTaskExecutor,
+            CopyIngestionService copyIngestionService
     ) {
         this.appProperties = appProperties;
         this.jobExecutionService = jobExecutionService;
         this.fileStorageService = fileStorageService;
-        this.cloudServiceService = cloudServiceService;
-        this.fileUploadRepository = fileUploadRepository;
-        this.cloudServiceRepository = cloudServiceRepository;
-        this.processingErrorRepository = processingErrorRepository;
-        this.serviceFileRelationRepository = serviceFileRelationRepository;
-        this.cloudServiceMapper = cloudServiceMapper;
-        this.processingErrorMapper = processingErrorMapper;
         this.fileParserStrategy = fileParserStrategy;
-        this.eventPublisher = eventPublisher;
+        this.batchWriter = batchWriter;
         this.fileProcessingTaskExecutor = fileProcessingTaskExecutor;
+        this.fileChunkTaskExecutor = fileChunkTaskExecutor;
+        this.copyIngestionService = copyIngestionService;
     }
 
     @PostConstruct
@@ -160,7 +136,8 @@ public class FileProcessorService {
      * senza problemi di memoria.
      *
      * Per ottimizzare le operazioni di database, i record vengono salvati in batch di dimensione predefinita,
-     * ogni batch viene salvato in una propria transazione tramite il metodo saveCurrentBatch.
+     * ogni batch viene salvato in una propria transazione tramite FileProcessingBatchWriter, che al termine
+     * svuota il persistence context.
      * Questo approccio offre diversi vantaggi:
      * - Evita timeout con file molto grandi
      * - Riduce il consumo di memoria e risorse del database
@@ -169,10 +146,22 @@ public class FileProcessorService {
      *
      * Gli errori di parsing e di elaborazione vengono salvati ma non interrompono il processo, permettendo di
      * identificare tutti i problemi presenti nel file. Al termine dell'elaborazione, lo stato del job e del file
-     * viene aggiornato in una transazione separata tramite il metodo completeProcessing.
+     * viene aggiornato in una transazione separata tramite FileProcessingBatchWriter.completeProcessing.
      *
      * In caso di errori parziali, l'utente può correggere il file e ricaricarlo.
      *
+     * Se il caricamento tramite COPY è abilitato (app.file-processing.copy-ingestion-threshold-bytes maggiore di 0,
+     * disabilitato di default), il file supera la soglia configurata e il database è PostgreSQL, i record validi vengono invece caricati tramite COPY in una tabella di staging e uniti alle
+     * tabelle definitive con istruzioni set-based (vedi CopyIngestionService).
+     *
+     * Altrimenti, se il file supera la soglia app.file-processing.parallel-threshold-bytes e il parallelismo è
+     * abilitato, il file viene suddiviso in porzioni delimitate da fine riga ed elaborate in parallelo
+     * (vedi processChunks).
+     *
+     * I file compressi (.csv.gz, .csv.zst) vengono decompressi in streaming durante la lettura; non potendo
+     * essere suddivisi in porzioni a partire da una posizione arbitraria, vengono sempre letti da un solo thread.
+     * Le soglie vengono confrontate con la dimensione del file salvato, quindi compresso.
+     *
      * @param jobId L'identificativo univoco del job di elaborazione
      */
     private void processFile(String jobId) {
@@ -185,6 +174,7 @@ public class FileProcessorService {
             jobExecutionService.updateJobStatus(jobId, JobStatus.PROCESSING, null);
 
             String fileExtension = getFileExtension(fileUpload.getFilename());
+            FileCompression compression = FileCompression.fromFilename(fileUpload.getFilename());
 
             FileParser<CloudServiceDTO> parser = fileParserStrategy.getParser(fileExtension, CloudServiceDTO.class);
 
@@ -194,19 +184,31 @@ public class FileProcessorService {
 
             Resource fileResource = fileStorageService.loadFileAsResource(job.getFilePath());
 
-            try (InputStream inputStream = fileResource.getInputStream()) {
+            if (useCopyIngestion(fileResource)) {
+                log.info("Using COPY ingestion for job: {}", jobId);
+                try (InputStream inputStream = compression.decompress(fileResource.getInputStream())) {
+                    context.validRecords = copyIngestionService.ingest(parser, inputStream, fileUpload);
+                }
+                context.parsingErrors.addAll(parser.getParsingErrors());
+
+            } else if (compression == FileCompression.NONE && useParallelProcessing(fileResource)) {
+                processChunks(parser, fileResource.getFile().toPath(), fileUpload, context);
 
-                parser.parse(inputStream, dto -> processRecord(dto, fileUpload, context));
+            } else {
+                try (InputStream inputStream = compression.decompress(fileResource.getInputStream())) {
+                    parser.parse(inputStream, dto -> processRecord(dto, fileUpload, context));
 
-                if (!context.batchServices.isEmpty()) {
-                    log.debug("Saving final batch of {} records", context.batchServices.size());
-                    saveCurrentBatch(context.batchServices, context.batchRelations);
+                    if (!context.batchRecords.isEmpty()) {
+                        log.debug("Saving final batch of {} records", context.batchRecords.size());
+                        saveCurrentBatch(context.batchRecords, fileUpload, context);
+                    }
                 }
+                context.parsingErrors.addAll(parser.getParsingErrors());
             }
 
-            List<ProcessingError> allErrors = processErrors(parser.getParsingErrors(), context.processingErrors, fileUpload);
+            int invalidRecords = batchWriter.saveErrors(context.parsingErrors, context.processingErrors, fileUpload);
 
-            completeProcessing(job, fileUpload, context, allErrors.size());
+            batchWriter.completeProcessing(job, fileUpload, context.validRecords, invalidRecords);
 
             clearProcessingContext(context);
 
@@ -217,13 +219,106 @@ public class FileProcessorService {
     }
 
     private void clearProcessingContext(ProcessingContext processingContext) {
-        processingContext.batchServices.clear();
-        processingContext.batchRelations.clear();
+        processingContext.batchRecords.clear();
         processingContext.processingErrors.clear();
+        processingContext.parsingErrors.clear();
         processingContext.validRecords = 0;
     }
 
+    /**
+     * Elabora il file suddividendolo in porzioni delimitate da fine riga, ciascuna letta, validata e scritta a
+     * batch da un thread del FileChunkTaskExecutor con un proprio ProcessingContext.
+     *
+     * Ogni porzione conosce il numero della propria prima riga, per cui numerazione delle righe ed errori
+     * restano identici all'elaborazione sequenziale. Le scritture concorrenti sullo stesso servizio rispettano
+     * la regola "vince l'ultima riga" grazie alle colonne last_file_upload_id/last_line_number controllate
+     * dall'upsert; al termine il tipo di operazione delle relazioni viene riallineato alla prima riga del file
+     * in cui ogni servizio compare.
+     *
+     * Come nell'elaborazione sequenziale ogni batch viene salvato nella propria transazione: se una porzione
+     * fallisce i batch già scritti dalle altre porzioni restano salvati, il file viene registrato come FAILED e il
+     * riallineamento dei tipi di operazione non viene eseguito. Un file FAILED può essere caricato di nuovo e la
+     * rielaborazione riscrive quei servizi, perché l'upsert è idempotente rispetto al numero di riga.
+     *
+     * @param parser Il parser con cui leggere le porzioni
+     * @param file Il percorso del file da elaborare
+     * @param fileUpload L'entità che rappresenta il file in elaborazione
+     * @param context Il contesto in cui riunire contatori ed errori delle porzioni
+     */
+    private void processChunks(FileParser<CloudServiceDTO> parser, Path file, FileUpload fileUpload,
+                               ProcessingContext context) throws IOException {
+
+        List<FileChunk> chunks = FileChunkSplitter.split(file, appProperties.getFileProcessing().getParallelism());
+
+        log.info("Processing file {} in {} parallel chunks", fileUpload.getFileHash(), chunks.size());
+
+        // tutte le porzioni vengono validate rispetto allo stesso giorno
+        LocalDate referenceDate = LocalDate.now();
+
+        List<CompletableFuture<ProcessingContext>> futures = chunks.stream()
+                .map(chunk -> CompletableFuture.supplyAsync(
+                        () -> processChunk(parser, file, chunk, referenceDate, fileUpload), fileChunkTaskExecutor))
+                .toList();
+
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw e;
+        }
+
+        for (CompletableFuture<ProcessingContext> future : futures) {
+            ProcessingContext chunkContext = future.join();
+            context.validRecords += chunkContext.validRecords;
+            context.processingErrors.addAll(chunkContext.processingErrors);
+            context.parsingErrors.addAll(chunkContext.parsingErrors);
+        }
+
+        if (chunks.size() > 1) {
+            batchWriter.normalizeOperationTypes(fileUpload);
+        }
+    }
+
+    private ProcessingContext processChunk(FileParser<CloudServiceDTO> parser, Path file, FileChunk chunk,
+                                           LocalDate referenceDate, FileUpload fileUpload) {
+
+        ProcessingContext chunkContext = ProcessingContext.createWithBatchSize(batchSize);
+
+        try (InputStream inputStream = new FileRangeInputStream(file, chunk)) {
+            ParseOptions options = new ParseOptions(chunk.firstLineNumber(), chunk.containsHeader(), referenceDate);
+            parser.parse(inputStream, options,
+                    dto -> processRecord(dto, fileUpload, chunkContext), chunkContext.parsingErrors::add);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        if (!chunkContext.batchRecords.isEmpty()) {
+            saveCurrentBatch(chunkContext.batchRecords, fileUpload, chunkContext);
+        }
+
+        log.debug("Chunk {} completed: {} valid records", chunk.index(), chunkContext.validRecords);
+
+        return chunkContext;
+    }
+
+    private boolean useParallelProcessing(Resource fileResource) throws IOException {
+        var fileProcessing = appProperties.getFileProcessing();
+        return fileProcessing.getParallelism() > 1
+                && fileResource.isFile()
+                && fileResource.contentLength() >= fileProcessing.getParallelThresholdBytes();
+    }
+
+    private boolean useCopyIngestion(Resource fileResource) throws IOException {
+        long threshold = appProperties.getFileProcessing().getCopyIngestionThresholdBytes();
+        return threshold > 0
+                && fileResource.contentLength() >= threshold
+                && copyIngestionService.isSupported();
+    }
+
     private String getFileExtension(String filename) {
+        filename = FileCompression.stripSuffix(filename);
         return filename.substring(filename.lastIndexOf(".") + 1);
     }
 
@@ -233,8 +328,7 @@ public class FileProcessorService {
      * Questo metodo viene utilizzato come callback dal parser CSV e viene chiamato per ogni riga valida
      * letta dal file. Si occupa di:
      * - Incrementare i contatori dei record totali
-     * - Preparare le entità CloudService e ServiceFileRelation a partire dal DTO
-     * - Aggiungere le entità al batch corrente per il salvataggio
+     * - Aggiungere il record al batch corrente per il salvataggio
      * - Salvare il batch quando raggiunge la dimensione massima configurata
      * - Gestire eventuali errori durante l'elaborazione del record
      *
@@ -251,75 +345,50 @@ public class FileProcessorService {
      */
     private void processRecord(CloudServiceDTO dto, FileUpload fileUpload, ProcessingContext context) {
 
-        try {
-            Pair<CloudService, ServiceFileRelation> result = prepareServiceRecord(dto, fileUpload);
-
-            // Aggiungi al batch corrente
-            context.batchServices.add(result.getFirst());
-            context.batchRelations.add(result.getSecond());
-            context.validRecords++;
-
-            // Se il batch ha raggiunto la dimensione massima, salvalo e inizia un nuovo batch
-            if (context.batchServices.size() >= batchSize) {
-                log.debug("Batch size reached ({}). Saving batch and clearing lists", batchSize);
-                saveCurrentBatch(context.batchServices, context.batchRelations);
-                context.batchServices.clear();
-                context.batchRelations.clear();
-            }
-        } catch (Exception e) {
-            var lineNumber = dto.getLineNumber();
-            log.warn("Error processing record at line {}: {}", lineNumber, e.getMessage());
-
-            context.processingErrors.add(ProcessingErrorCreateDTO.builder()
-                    .lineNumber(lineNumber)
-                    .rawData(dto.toString())
-                    .errorMessage(e.getMessage())
-                    .errorType(FileErrorType.PROCESSING_ERROR)
-                    .build());
+        // Aggiungi al batch corrente
+        context.batchRecords.add(dto);
+        context.validRecords++;
+
+        // Se il batch ha raggiunto la dimensione massima, salvalo e inizia un nuovo batch
+        if (context.batchRecords.size() >= batchSize) {
+            log.debug("Batch size reached ({}). Saving batch and clearing lists", batchSize);
+            saveCurrentBatch(context.batchRecords, fileUpload, context);
+            context.batchRecords.clear();
         }
     }
 
+    private void addProcessingError(CloudServiceDTO dto, String errorMessage, ProcessingContext context) {
+        var lineNumber = dto.getLineNumber();
+        log.warn("Error processing record at line {}: {}", lineNumber, errorMessage);
+
+        context.processingErrors.add(ProcessingErrorCreateDTO.builder()
+                .lineNumber(lineNumber)
+                .rawData(dto.toString())
+                .errorMessage(errorMessage)
+                .errorType(FileErrorType.PROCESSING_ERROR)
+                .build());
+    }
+
     /**
-     * Completa l'elaborazione del file aggiornando lo stato del file caricato e dell'esecuzione del job.
+     * Scrive il batch corrente in un'unica transazione.
      *
-     * Il metodo viene eseguito all'interno del contesto transazionale dal metodo processFile,
-     * garantendo che tutti gli aggiornamenti al database vengano fatti in modo atomico.
+     * Se la scrittura fallisce nessun record del batch viene salvato: ognuno viene quindi registrato come
+     * errore di processing, senza interrompere l'elaborazione dei batch successivi.
      *
-     * @param job L'entità JobExecution associata all'elaborazione del file
-     * @param fileUpload L'entità che rappresenta il file elaborato
-     * @param context Il contesto di elaborazione contenente le statistiche sui record processati
-     * @param invalidRecordsCount Il numero di record non validi riscontrati durante l'elaborazione
-     * @return le entità FileUpload e JobExecution aggiornate
+     * @param records I record validi del batch corrente
+     * @param fileUpload L'entità che rappresenta il file in elaborazione
+     * @param context Il contesto di elaborazione in cui registrare eventuali errori
      */
-    @Transactional
-    private Pair<FileUpload, JobExecution> completeProcessing(JobExecution job, FileUpload fileUpload,
-                                    ProcessingContext context, int invalidRecordsCount) {
-        int validRecordsCount = context.validRecords;
-        int totalRecordsCount = validRecordsCount + invalidRecordsCount;
-
-        fileUpload.setStatus(FileUploadStatus.COMPLETED);
-        fileUpload.setInvalidRecords(invalidRecordsCount);
-        fileUpload.setValidRecords(validRecordsCount);
-        fileUpload.setTotalRecords(totalRecordsCount);
-        var fileUploadSaved = fileUploadRepository.save(fileUpload);
-
-        var jobExecutionSaved = jobExecutionService.updateJobStatus(job.getJobId(), JobStatus.COMPLETED, null);
-
-        log.info("Completed processing of job: {}. Total Records: {}, Valid: {}, Invalid: {}",
-                job.getJobId(), totalRecordsCount, validRecordsCount, invalidRecordsCount);
-
-        var fileUploadJobDTO = FileUploadJobDTO.builder()
-                .fileHash(fileUploadSaved.getFileHash())
-                .filename(fileUploadSaved.getFilename())
-                .jobId(jobExecutionSaved.getJobId())
-                .jobStatus(jobExecutionSaved.getStatus())
-                .build();
-
-        log.info("Publishing event `FileProcessingCompletedEvent` for file with hash: {}", fileUploadSaved.getFileHash());
-
-        eventPublisher.publish(new FileProcessingCompletedEvent(fileUploadJobDTO));
-
-        return Pair.of(fileUploadSaved, jobExecutionSaved);
+    private void saveCurrentBatch(List<CloudServiceDTO> records, FileUpload fileUpload, ProcessingContext context) {
+        try {
+            List<ProcessingErrorCreateDTO> errors = batchWriter.writeBatch(records, fileUpload);
+            context.validRecords -= errors.size();
+            context.processingErrors.addAll(errors);
+        } catch (Exception e) {
+            log.error("Failed to save batch of {} records: {}", records.size(), e.getMessage(), e);
+            context.validRecords -= records.size();
+            records.forEach(dto -> addProcessingError(dto, e.getMessage(), context));
+        }
     }
 
     /**
@@ -329,96 +398,10 @@ public class FileProcessorService {
      * l'errore nel log. L'operazione viene eseguita in un contesto transazionale
      * per garantire che tutti gli aggiornamenti di stato vengano persistiti atomicamente.
      */
-    @Transactional
     private void handleProcessingFailure(JobExecution job, FileUpload fileUpload, Exception ex) {
         log.error("Failed to process file for job: {}. Error: {}", job.getJobId(), ex.getMessage(), ex);
 
-        jobExecutionService.updateJobStatus(job.getJobId(), JobStatus.FAILED, ex.getMessage());
-
-        fileUpload.setStatus(FileUploadStatus.FAILED);
-        fileUploadRepository.save(fileUpload);
-    }
-
-    @Transactional
-    private void saveCurrentBatch(List<CloudService> services, List<ServiceFileRelation> relations) {
-        cloudServiceRepository.saveAll(services);
-        serviceFileRelationRepository.saveAll(relations);
-    }
-
-    /**
-     * Elabora e salva nel database gli errori riscontrati durante il parsing e l'elaborazione del file.
-     *
-     * @param parsingErrors Lista degli errori riscontrati durante il parsing del file
-     * @param processingErrorDTOs Lista degli errori riscontrati durante il processing del file
-     * @param fileUpload L'entità che rappresenta il file a cui associare gli errori
-     * @return Lista delle entità ProcessingError salvate nel database
-     */
-    @Transactional
-    private List<ProcessingError> processErrors(List<ParsingError> parsingErrors,
-                                                List<ProcessingErrorCreateDTO> processingErrorDTOs,
-                                                FileUpload fileUpload) {
-
-        if (CollectionUtils.isEmpty(parsingErrors) && CollectionUtils.isEmpty(processingErrorDTOs)) {
-            return Collections.emptyList();
-        }
-
-        List<ProcessingError> allErrors = new ArrayList<>();
-
-        // Converte ProcessingErrorDTOs in entità ProcessingError
-        if (!CollectionUtils.isEmpty(processingErrorDTOs)) {
-            allErrors = processingErrorDTOs.stream()
-                    .map(dto -> {
-                        ProcessingError entity = processingErrorMapper.toEntity(dto);
-                        entity.setFileUpload(fileUpload);
-                        return entity;
-                    })
-                    .collect(Collectors.toList());
-        }
-
-        // Converte ParsingError in entità ProcessingError
-        if (!CollectionUtils.isEmpty(parsingErrors)) {
-            allErrors.addAll(processingErrorMapper.convertParsingErrorsTo(parsingErrors, fileUpload));
-        }
-
-        List<ProcessingError> savedErrors = processingErrorRepository.saveAll(allErrors);
-
-        return savedErrors;
-    }
-
-    private Pair<CloudService, ServiceFileRelation> prepareServiceRecord(CloudServiceDTO dto, FileUpload fileUpload) {
-        Optional<CloudServiceDTO> existingService = cloudServiceService
-                .findByCustomerIdAndServiceType(dto.getCustomerId(), dto.getServiceType());
-
-        CloudService cloudService;
-        boolean isUpdate = false;
-
-        if (existingService.isPresent()) {
-            cloudService = cloudServiceMapper.toEntity(existingService.get());
-            updateExistingService(cloudService, dto);
-            log.debug("Updated existing service: customerId={}, serviceType={}", dto.getCustomerId(), dto.getServiceType());
-            isUpdate = true;
-        } else {
-            cloudService = cloudServiceMapper.toEntity(dto);
-            log.debug("Created new service: customerId={}, serviceType={}", dto.getCustomerId(), dto.getServiceType());
-        }
-
-        // Crea la relazione fra CloudService e FileUpload
-        var serviceFileRelation = ServiceFileRelation.builder()
-                .service(cloudService)
-                .fileUpload(fileUpload)
-                .operationType(isUpdate ? FileOperationType.UPDATE : FileOperationType.CREATE)
-                .lineNumber(dto.getLineNumber())
-                .build();
-
-        return Pair.of(cloudService, serviceFileRelation);
-    }
-
-    private void updateExistingService(CloudService service, CloudServiceDTO dto) {
-        service.setActivationDate(dto.getActivationDate());
-        service.setExpirationDate(dto.getExpirationDate());
-        service.setAmount(dto.getAmount());
-        service.setStatus(dto.getStatus());
-        service.setLastUpdated(LocalDateTime.now());
+        batchWriter.markFailed(job, fileUpload, ex.getMessage());
     }
 
     private void handleSchedulingError(Exception e, String jobId) {
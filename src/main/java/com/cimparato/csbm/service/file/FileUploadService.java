@@ -13,10 +13,10 @@ import com.cimparato.csbm.repository.FileUploadRepository;
 import com.cimparato.csbm.dto.fileupload.FileUploadDTO;
 import com.cimparato.csbm.domain.file.FileUploadStatus;
 import com.cimparato.csbm.service.file.storage.FileStorageService;
+import com.cimparato.csbm.service.file.storage.StagedFile;
 import com.cimparato.csbm.service.file.validator.FileValidator;
 import com.cimparato.csbm.service.JobExecutionService;
 import com.cimparato.csbm.domain.event.DomainEventPublisher;
-import com.cimparato.csbm.util.FileUtil;
 import com.cimparato.csbm.web.rest.errors.DuplicateFileException;
 import com.cimparato.csbm.web.rest.errors.FileProcessingException;
 import com.cimparato.csbm.web.rest.errors.FileValidationException;
@@ -58,12 +58,16 @@ public class FileUploadService {
      * Gestisce il caricamento di un file CSV contenente dati sui servizi cloud, eseguendo la validazione,
      * l'elaborazione e l'archiviazione del file.
      *
-     * Il metodo verifica innanzitutto che il file non sia nullo e ne valida il formato e il contenuto
-     * tramite un validatore. Successivamente, calcola l'hash del file per verificare se è già stato
+     * Il metodo verifica innanzitutto che il file non sia nullo e ne valida i metadati (dimensione, estensione)
+     * tramite un validatore. Lo stream del file viene poi letto una sola volta: il primo blocco viene usato per
+     * validare l'intestazione, mentre l'intero contenuto viene scritto in un file temporaneo calcolandone l'hash
+     * (vedi FileStorageService.stageFile); l'intestazione dei file compressi viene invece decompressa dal file
+     * temporaneo. L'hash permette di verificare se il file è già stato
      * caricato in precedenza. Se il file è nuovo, viene creato un nuovo record, se invece
      * esiste già, viene gestito in base al suo stato attuale.
      *
-     * Dopo aver gestito il record, il metodo crea un job, salva il file nel filesystem e avvia l'elaborazione asincrona.
+     * Dopo aver gestito il record, il metodo crea un job, sposta in modo atomico il file temporaneo nella posizione
+     * definitiva e avvia l'elaborazione asincrona. Se il caricamento non va a buon fine il file temporaneo viene eliminato.
      * Il metodo non attende il completamento dell'elaborazione, che avviene in background, e non si occupa direttamente
      * del parsing o della validazione del contenuto del file CSV, né della persistenza dei dati estratti,
      * delegando queste responsabilità al servizio di elaborazione.
@@ -98,52 +102,37 @@ public class FileUploadService {
 
         log.info("Starting file upload process for file '{}' ({} bytes) by user '{}'", filename, fileSize, username);
 
-        ValidationResult validationResult = fileValidator.validate(file);
+        ValidationResult validationResult = fileValidator.validateMetadata(file);
         if (!validationResult.isValid()) {
             throw new FileValidationException(String.join(", ", validationResult.getErrors()));
         }
-        log.debug("File '{}' passed validation checks", filename);
+        log.debug("File '{}' passed metadata validation checks", filename);
+
+        StagedFile stagedFile = null;
 
         try {
             var fileExtension = filename.substring(filename.lastIndexOf(".") + 1);
             log.debug("File extension: {}", fileExtension);
 
-            var fileHash = FileUtil.calculateFileHash(file);
-            log.debug("Calculated file hash: {}", fileHash);
-
-            FileUpload fileUpload;
-            var existingFileOpt = fileUploadRepository.findByFileHash(fileHash);
-            if (!existingFileOpt.isPresent()) {
-                fileUpload = createNewFileUpload(filename, fileHash, username);
-            } else {
-                fileUpload = handleExistingFile(existingFileOpt.get(), username);
+            stagedFile = fileStorageService.stageFile(file, (firstBlock, length) -> {
+                ValidationResult contentValidationResult = fileValidator.validateContent(filename, firstBlock, length);
+                if (!contentValidationResult.isValid()) {
+                    throw new FileValidationException(String.join(", ", contentValidationResult.getErrors()));
+                }
+            });
+
+            // l'intestazione dei file compressi viene decompressa dal file temporaneo
+            ValidationResult compressedContentValidationResult =
+                    fileValidator.validateCompressedContent(filename, stagedFile.path());
+            if (!compressedContentValidationResult.isValid()) {
+                throw new FileValidationException(String.join(", ", compressedContentValidationResult.getErrors()));
             }
+            log.debug("File '{}' passed content validation checks", filename);
 
-            JobExecution job = jobExecutionService.createJob(fileUpload, username);
-            var jobId = job.getJobId();
-            var jobStatus = job.getStatus();
-
-            String filePath = fileStorageService.storeFile(file, jobId);
-            job.setFilePath(filePath);
-
-            log.info("File upload initiated for '{}' (ID: {}, Job ID: {})",
-                    filename, fileUpload.getId(), jobId);
-
-            var jobStatusDTO = JobStatusDTO.builder()
-                    .jobId(jobId)
-                    .status(jobStatus)
-                    .build();
-
-            log.info("Publishing event `JobCreatedEvent` for job with id: {}", jobId);
-
-            eventPublisher.publish(new JobCreatedEvent(jobStatusDTO));
+            FileUploadJobDTO uploadedFile = registerStagedFile(filename, stagedFile, username);
+            stagedFile = null;
 
-            return new FileUploadJobDTO(
-                    fileUpload.getFilename(),
-                    fileUpload.getFileHash(),
-                    job.getJobId(),
-                    job.getStatus()
-            );
+            return uploadedFile;
 
         } catch (DuplicateFileException | FileValidationException | FileProcessingException ex) {
             log.warn("Handled exception during file upload for '{}': {}", filename, ex.getMessage());
@@ -151,9 +140,69 @@ public class FileUploadService {
         } catch (Exception ex) {
             log.error("Unexpected error processing file '{}': {}", filename, ex.getMessage(), ex);
             throw new FileProcessingException("Could not process file: " + ex.getMessage(), ex);
+        } finally {
+            // il file temporaneo non ancora spostato nella posizione definitiva appartiene a un upload fallito
+            if (stagedFile != null) {
+                fileStorageService.discardStagedFile(stagedFile);
+            }
         }
     }
 
+    /**
+     * Registra un file già salvato in un file temporaneo: verifica tramite l'hash se il file è già stato caricato,
+     * crea o aggiorna il record FileUpload, crea il job, sposta il file nella posizione definitiva e pubblica
+     * l'evento JobCreatedEvent.
+     *
+     * Usato sia dal caricamento multipart sia dal completamento di un caricamento a porzioni. Il file temporaneo
+     * resta al chiamante in caso di errore: è il chiamante a decidere se eliminarlo.
+     *
+     * @param filename Il nome originale del file
+     * @param stagedFile Il file temporaneo, con hash e dimensione del contenuto
+     * @param username Il nome utente dell'utente che sta caricando il file
+     * @return Un oggetto contenente le informazioni sul caricamento e sul job di elaborazione
+     * @throws DuplicateFileException se il file è già stato caricato e processato
+     * @throws FileProcessingException se il file è in fase di elaborazione
+     */
+    @Transactional
+    public FileUploadJobDTO registerStagedFile(String filename, StagedFile stagedFile, String username) {
+        var fileHash = stagedFile.fileHash();
+        log.debug("Calculated file hash: {}", fileHash);
+
+        FileUpload fileUpload;
+        var existingFileOpt = fileUploadRepository.findByFileHash(fileHash);
+        if (!existingFileOpt.isPresent()) {
+            fileUpload = createNewFileUpload(filename, fileHash, username);
+        } else {
+            fileUpload = handleExistingFile(existingFileOpt.get(), username);
+        }
+
+        JobExecution job = jobExecutionService.createJob(fileUpload, username);
+        var jobId = job.getJobId();
+        var jobStatus = job.getStatus();
+
+        String filePath = fileStorageService.commitStagedFile(stagedFile, jobId);
+        job.setFilePath(filePath);
+
+        log.info("File upload initiated for '{}' (ID: {}, Job ID: {})",
+                filename, fileUpload.getId(), jobId);
+
+        var jobStatusDTO = JobStatusDTO.builder()
+                .jobId(jobId)
+                .status(jobStatus)
+                .build();
+
+        log.info("Publishing event `JobCreatedEvent` for job with id: {}", jobId);
+
+        eventPublisher.publish(new JobCreatedEvent(jobStatusDTO));
+
+        return new FileUploadJobDTO(
+                fileUpload.getFilename(),
+                fileUpload.getFileHash(),
+                job.getJobId(),
+                job.getStatus()
+        );
+    }
+
     /**
      * Crea un nuovo record di caricamento file nel database.
      *
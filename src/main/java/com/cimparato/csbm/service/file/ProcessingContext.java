@@ -1,8 +1,8 @@
 package com.cimparato.csbm.service.file;
 
-import com.cimparato.csbm.domain.model.CloudService;
-import com.cimparato.csbm.domain.model.ServiceFileRelation;
+import com.cimparato.csbm.dto.cloudservice.CloudServiceDTO;
 import com.cimparato.csbm.dto.processingerror.ProcessingErrorCreateDTO;
+import com.cimparato.csbm.service.file.parser.ParsingError;
 import lombok.Builder;
 import lombok.Getter;
 
@@ -22,8 +22,10 @@ public class ProcessingContext {
     @Builder.Default
     List<ProcessingErrorCreateDTO> processingErrors = new ArrayList<>();
 
-    List<CloudService> batchServices;
-    List<ServiceFileRelation> batchRelations;
+    @Builder.Default
+    List<ParsingError> parsingErrors = new ArrayList<>();
+
+    List<CloudServiceDTO> batchRecords;
 
     /**
      * Crea un nuovo contesto di elaborazione con le liste inizializzate alla dimensione del batch.
@@ -33,8 +35,7 @@ public class ProcessingContext {
      */
     public static ProcessingContext createWithBatchSize(int batchSize) {
         return ProcessingContext.builder()
-                .batchServices(new ArrayList<>(batchSize))
-                .batchRelations(new ArrayList<>(batchSize))
+                .batchRecords(new ArrayList<>(batchSize))
                 .build();
     }
 
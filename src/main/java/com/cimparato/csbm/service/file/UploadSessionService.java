@@ -0,0 +1,416 @@
+package com.cimparato.csbm.service.file;
+
+import com.cimparato.csbm.config.properties.AppProperties;
+import com.cimparato.csbm.domain.file.UploadSessionStatus;
+import com.cimparato.csbm.domain.file.ValidationResult;
+import com.cimparato.csbm.domain.model.JobExecution;
+import com.cimparato.csbm.domain.model.UploadSession;
+import com.cimparato.csbm.dto.fileupload.FileUploadJobDTO;
+import com.cimparato.csbm.dto.uploadsession.UploadSessionCreateDTO;
+import com.cimparato.csbm.dto.uploadsession.UploadSessionDTO;
+import com.cimparato.csbm.repository.UploadSessionRepository;
+import com.cimparato.csbm.service.JobExecutionService;
+import com.cimparato.csbm.service.file.storage.FileStorageService;
+import com.cimparato.csbm.service.file.storage.StagedFile;
+import com.cimparato.csbm.service.file.validator.FileValidator;
+import com.cimparato.csbm.util.FileUtil;
+import com.cimparato.csbm.web.rest.errors.DuplicateFileException;
+import com.cimparato.csbm.web.rest.errors.FileProcessingException;
+import com.cimparato.csbm.web.rest.errors.FileValidationException;
+import com.cimparato.csbm.web.rest.errors.ResourceNotFoundException;
+import com.cimparato.csbm.web.rest.errors.UploadOffsetMismatchException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Gestisce i caricamenti a porzioni di file di grandi dimensioni, che non passano dal limite del multipart.
+ *
+ * Il client apre un caricamento dichiarando nome e dimensione del file, invia le porzioni in sequenza indicando
+ * per ciascuna la posizione di partenza e infine richiede il completamento. Ogni porzione viene scritta
+ * direttamente nel file parziale nella directory di upload e l'hash viene aggiornato in modo incrementale, per
+ * cui al completamento non è necessario rileggere il file. I byte confermati vengono salvati nel database dopo
+ * ogni porzione: un caricamento interrotto riprende dalla posizione restituita da getSession.
+ *
+ * Le porzioni di uno stesso caricamento vengono accettate solo nell'ordine del file, condizione necessaria per
+ * l'hash incrementale. Il digest è mantenuto in memoria: dopo un riavvio viene ricostruito rileggendo una sola
+ * volta i byte già ricevuti.
+ *
+ * Il lock in memoria serializza le porzioni ricevute dalla stessa istanza; tra istanze diverse UploadSession è
+ * protetta da optimistic locking, per cui solo una delle porzioni inviate allo stesso offset viene confermata e solo
+ * uno dei completamenti concorrenti crea il job.
+ */
+@Slf4j
+@Service
+public class UploadSessionService {
+
+    private final UploadSessionRepository uploadSessionRepository;
+    private final FileStorageService fileStorageService;
+    private final FileValidator fileValidator;
+    private final FileUploadService fileUploadService;
+    private final JobExecutionService jobExecutionService;
+    private final TransactionTemplate transactionTemplate;
+    private final AppProperties appProperties;
+
+    private final ConcurrentMap<String, ChunkState> chunkStates = new ConcurrentHashMap<>();
+
+    public UploadSessionService(UploadSessionRepository uploadSessionRepository,
+                                FileStorageService fileStorageService,
+                                FileValidator fileValidator,
+                                FileUploadService fileUploadService,
+                                JobExecutionService jobExecutionService,
+                                PlatformTransactionManager transactionManager,
+                                AppProperties appProperties) {
+        this.uploadSessionRepository = uploadSessionRepository;
+        this.fileStorageService = fileStorageService;
+        this.fileValidator = fileValidator;
+        this.fileUploadService = fileUploadService;
+        this.jobExecutionService = jobExecutionService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.appProperties = appProperties;
+    }
+
+    /**
+     * Apre un caricamento a porzioni dopo aver validato nome e dimensione dichiarati del file.
+     *
+     * @param request Nome e dimensione del file da caricare
+     * @param username L'utente che sta caricando il file
+     * @return Il caricamento creato, con l'id da usare per le porzioni
+     * @throws FileValidationException se nome o dimensione non sono validi
+     */
+    public UploadSessionDTO createSession(UploadSessionCreateDTO request, String username) {
+        String filename = request.getFilename();
+        long totalSize = request.getTotalSize();
+        var config = appProperties.getFileProcessing().getChunkedUpload();
+
+        ValidationResult validationResult = fileValidator.validateMetadata(filename, totalSize);
+        if (!validationResult.isValid()) {
+            throw new FileValidationException(String.join(", ", validationResult.getErrors()));
+        }
+
+        if (totalSize > config.getMaxFileSizeBytes()) {
+            throw new FileValidationException("File size exceeds the maximum allowed limit ("
+                    + config.getMaxFileSizeBytes() + " bytes)");
+        }
+
+        var session = UploadSession.builder()
+                .uploadId(UUID.randomUUID().toString())
+                .filename(filename)
+                .totalSize(totalSize)
+                .receivedBytes(0)
+                .status(UploadSessionStatus.OPEN)
+                .createdBy(username)
+                .expiresAt(LocalDateTime.now().plusHours(config.getSessionTtlHours()))
+                .build();
+
+        var savedSession = uploadSessionRepository.save(session);
+
+        log.info("Opened chunked upload {} for file '{}' ({} bytes) by user '{}'",
+                savedSession.getUploadId(), filename, totalSize, username);
+
+        return toDto(savedSession);
+    }
+
+    /**
+     * Restituisce lo stato del caricamento: receivedBytes indica la posizione da cui riprendere l'invio.
+     */
+    public UploadSessionDTO getSession(String uploadId, String username) {
+        return toDto(findSession(uploadId, username));
+    }
+
+    /**
+     * Scrive una porzione del file alla posizione indicata.
+     *
+     * La posizione deve coincidere con i byte già ricevuti: una porzione già ricevuta o successiva a una
+     * mancante viene rifiutata con la posizione attesa, da cui il client può riprendere.
+     *
+     * @param uploadId L'id del caricamento
+     * @param chunkIndex Il numero progressivo della porzione, usato nei messaggi
+     * @param offset La posizione nel file del primo byte della porzione
+     * @param content Il contenuto della porzione
+     * @param username L'utente che sta caricando il file
+     * @return Lo stato aggiornato del caricamento
+     * @throws UploadOffsetMismatchException se la posizione non coincide con i byte già ricevuti
+     * @throws FileValidationException se la porzione è vuota o supera la dimensione ammessa
+     */
+    public UploadSessionDTO writeChunk(String uploadId, int chunkIndex, long offset, InputStream content, String username) {
+        ChunkState state = lockState(uploadId, username);
+
+        try {
+            UploadSession session = findLockedSession(uploadId, username, state);
+            long receivedBytes = session.getReceivedBytes();
+
+            if (offset != receivedBytes) {
+                throw new UploadOffsetMismatchException(String.format(
+                        "Chunk %d starts at offset %d, expected offset %d", chunkIndex, offset, receivedBytes),
+                        receivedBytes);
+            }
+
+            var config = appProperties.getFileProcessing().getChunkedUpload();
+            long maxLength = Math.min(config.getMaxChunkSizeBytes(), session.getTotalSize() - receivedBytes);
+
+            // il digest viene aggiornato su una copia, così che una porzione interrotta non alteri l'hash
+            MessageDigest chunkDigest = copyOf(currentDigest(state, session));
+            long written = fileStorageService.writeUploadChunk(uploadId, offset, content, maxLength, chunkDigest);
+            if (written == 0) {
+                throw new FileValidationException("Chunk cannot be empty");
+            }
+
+            session.setReceivedBytes(receivedBytes + written);
+            session.setExpiresAt(LocalDateTime.now().plusHours(config.getSessionTtlHours()));
+            UploadSession savedSession;
+            try {
+                savedSession = uploadSessionRepository.save(session);
+            } catch (OptimisticLockingFailureException e) {
+                // la stessa porzione è stata confermata da un'altra istanza: il client riprende dai byte salvati
+                long expectedOffset = findSession(uploadId, username).getReceivedBytes();
+                throw new UploadOffsetMismatchException(String.format(
+                        "Chunk %d was concurrently written by another request, expected offset %d",
+                        chunkIndex, expectedOffset), expectedOffset);
+            }
+
+            state.digest = chunkDigest;
+            state.digestedBytes = savedSession.getReceivedBytes();
+
+            log.debug("Upload {}: chunk {} written at offset {} ({} bytes, {}/{} received)", uploadId, chunkIndex,
+                    offset, written, savedSession.getReceivedBytes(), savedSession.getTotalSize());
+
+            return toDto(savedSession);
+
+        } finally {
+            state.lock.unlock();
+        }
+    }
+
+    /**
+     * Completa il caricamento: valida l'intestazione del file, crea FileUpload e JobExecution e pubblica
+     * l'evento JobCreatedEvent come il caricamento multipart (vedi FileUploadService.registerStagedFile).
+     *
+     * Se il file non è valido o è già stato caricato il caricamento viene chiuso e i dati ricevuti eliminati;
+     * per gli altri errori il caricamento resta aperto e il completamento può essere ripetuto.
+     *
+     * Il caricamento passa a COMPLETED nella stessa transazione in cui il file viene registrato, con il controllo
+     * di versione prima della registrazione: se un'altra istanza lo ha completato nel frattempo non viene creato un
+     * secondo job. Un completamento ripetuto di un caricamento già COMPLETED restituisce il job già creato.
+     *
+     * @param uploadId L'id del caricamento
+     * @param username L'utente che sta caricando il file
+     * @return Le informazioni sul caricamento e sul job di elaborazione
+     * @throws UploadOffsetMismatchException se non sono stati ricevuti tutti i byte dichiarati
+     */
+    public FileUploadJobDTO completeSession(String uploadId, String username) {
+        UploadSession current = findSession(uploadId, username);
+        if (current.getStatus() == UploadSessionStatus.COMPLETED) {
+            return completedUpload(current);
+        }
+
+        ChunkState state = lockState(uploadId, username);
+
+        try {
+            UploadSession session = findLockedSession(uploadId, username, state);
+
+            if (!session.isComplete()) {
+                throw new UploadOffsetMismatchException(String.format("Upload is incomplete: received %d of %d bytes",
+                        session.getReceivedBytes(), session.getTotalSize()), session.getReceivedBytes());
+            }
+
+            String fileHash = FileUtil.toHashString(copyOf(currentDigest(state, session)).digest());
+
+            try {
+                StagedFile stagedFile = fileStorageService.stageUploadChunks(uploadId, session.getFilename(), fileHash,
+                        session.getTotalSize(), (firstBlock, length) -> {
+                            ValidationResult validationResult = fileValidator.validateContent(session.getFilename(), firstBlock, length);
+                            if (!validationResult.isValid()) {
+                                throw new FileValidationException(String.join(", ", validationResult.getErrors()));
+                            }
+                        });
+
+                ValidationResult compressedValidationResult =
+                        fileValidator.validateCompressedContent(session.getFilename(), stagedFile.path());
+                if (!compressedValidationResult.isValid()) {
+                    throw new FileValidationException(String.join(", ", compressedValidationResult.getErrors()));
+                }
+
+                FileUploadJobDTO uploadedFile;
+                try {
+                    uploadedFile = transactionTemplate.execute(status -> register(session, stagedFile, username));
+                } catch (OptimisticLockingFailureException e) {
+                    UploadSession completed = findSession(uploadId, username);
+                    if (completed.getStatus() != UploadSessionStatus.COMPLETED) {
+                        throw new FileProcessingException("Upload session " + uploadId + " is " + completed.getStatus());
+                    }
+                    log.info("Chunked upload {} was completed by another request (Job ID: {})",
+                            uploadId, completed.getJobId());
+                    chunkStates.remove(uploadId);
+                    return completedUpload(completed);
+                }
+                chunkStates.remove(uploadId);
+
+                log.info("Completed chunked upload {} for file '{}' (Job ID: {})",
+                        uploadId, session.getFilename(), uploadedFile.getJobId());
+
+                return uploadedFile;
+
+            } catch (FileValidationException | DuplicateFileException ex) {
+                log.warn("Chunked upload {} rejected: {}", uploadId, ex.getMessage());
+                close(session, UploadSessionStatus.ABORTED);
+                throw ex;
+            }
+
+        } finally {
+            state.lock.unlock();
+        }
+    }
+
+    // eseguito in transazione: un conflitto di versione sul caricamento annulla anche FileUpload e JobExecution,
+    // e l'evento JobCreatedEvent viene pubblicato solo al commit
+    private FileUploadJobDTO register(UploadSession session, StagedFile stagedFile, String username) {
+        session.setStatus(UploadSessionStatus.COMPLETED);
+        UploadSession completed = uploadSessionRepository.saveAndFlush(session);
+
+        FileUploadJobDTO uploadedFile = fileUploadService.registerStagedFile(session.getFilename(), stagedFile, username);
+
+        completed.setJobId(uploadedFile.getJobId());
+        uploadSessionRepository.save(completed);
+        return uploadedFile;
+    }
+
+    private FileUploadJobDTO completedUpload(UploadSession session) {
+        JobExecution job = jobExecutionService.getJobExecutionById(session.getJobId());
+        return new FileUploadJobDTO(job.getFileUpload().getFilename(), job.getFileUpload().getFileHash(),
+                job.getJobId(), job.getStatus());
+    }
+
+    /**
+     * Annulla il caricamento eliminando i dati ricevuti.
+     */
+    public void abortSession(String uploadId, String username) {
+        ChunkState state = lockState(uploadId, username);
+
+        try {
+            close(findLockedSession(uploadId, username, state), UploadSessionStatus.ABORTED);
+            log.info("Aborted chunked upload {}", uploadId);
+        } finally {
+            state.lock.unlock();
+        }
+    }
+
+    /**
+     * Chiude i caricamenti non completati entro la scadenza, eliminandone i dati ricevuti.
+     *
+     * @return il numero di caricamenti scaduti
+     */
+    public int expireSessions() {
+        List<UploadSession> expiredSessions = uploadSessionRepository
+                .findByStatusAndExpiresAtBefore(UploadSessionStatus.OPEN, LocalDateTime.now());
+
+        for (UploadSession session : expiredSessions) {
+            ChunkState state = chunkStates.computeIfAbsent(session.getUploadId(), id -> new ChunkState());
+            state.lock.lock();
+            try {
+                close(session, UploadSessionStatus.EXPIRED);
+            } finally {
+                state.lock.unlock();
+            }
+        }
+
+        return expiredSessions.size();
+    }
+
+    private void close(UploadSession session, UploadSessionStatus status) {
+        session.setStatus(status);
+        uploadSessionRepository.save(session);
+        fileStorageService.discardUploadChunks(session.getUploadId());
+        chunkStates.remove(session.getUploadId());
+    }
+
+    // digest dei byte già ricevuti; se non è in memoria (es. dopo un riavvio) viene ricostruito dal file parziale
+    private MessageDigest currentDigest(ChunkState state, UploadSession session) {
+        long receivedBytes = session.getReceivedBytes();
+
+        if (state.digest == null || state.digestedBytes != receivedBytes) {
+            log.debug("Rebuilding hash state of upload {} from {} received bytes", session.getUploadId(), receivedBytes);
+
+            MessageDigest digest = FileUtil.newFileHashDigest();
+            if (receivedBytes > 0) {
+                fileStorageService.digestUploadChunks(session.getUploadId(), receivedBytes, digest);
+            }
+            state.digest = digest;
+            state.digestedBytes = receivedBytes;
+        }
+
+        return state.digest;
+    }
+
+    // il caricamento viene validato prima di creare lo stato in memoria, così che id inesistenti o caricamenti
+    // già chiusi non lascino voci in chunkStates
+    private ChunkState lockState(String uploadId, String username) {
+        findOpenSession(uploadId, username);
+        ChunkState state = chunkStates.computeIfAbsent(uploadId, id -> new ChunkState());
+        state.lock.lock();
+        return state;
+    }
+
+    // rilegge il caricamento sotto lock: se nel frattempo è stato chiuso lo stato appena creato viene rimosso
+    private UploadSession findLockedSession(String uploadId, String username, ChunkState state) {
+        try {
+            return findOpenSession(uploadId, username);
+        } catch (RuntimeException e) {
+            chunkStates.remove(uploadId, state);
+            throw e;
+        }
+    }
+
+    private UploadSession findSession(String uploadId, String username) {
+        return uploadSessionRepository.findById(uploadId)
+                .filter(session -> session.getCreatedBy().equals(username))
+                .orElseThrow(() -> new ResourceNotFoundException("Upload session not found with id: " + uploadId));
+    }
+
+    private UploadSession findOpenSession(String uploadId, String username) {
+        UploadSession session = findSession(uploadId, username);
+        if (session.getStatus() != UploadSessionStatus.OPEN) {
+            throw new FileProcessingException("Upload session " + uploadId + " is " + session.getStatus());
+        }
+        return session;
+    }
+
+    private static MessageDigest copyOf(MessageDigest digest) {
+        try {
+            return (MessageDigest) digest.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException("Hash algorithm does not support incremental hashing", e);
+        }
+    }
+
+    private UploadSessionDTO toDto(UploadSession session) {
+        return UploadSessionDTO.builder()
+                .uploadId(session.getUploadId())
+                .filename(session.getFilename())
+                .totalSize(session.getTotalSize())
+                .receivedBytes(session.getReceivedBytes())
+                .maxChunkSize(appProperties.getFileProcessing().getChunkedUpload().getMaxChunkSizeBytes())
+                .status(session.getStatus())
+                .expiresAt(session.getExpiresAt())
+                .jobId(session.getJobId())
+                .build();
+    }
+
+    // stato in memoria di un caricamento attivo: serializza le porzioni e conserva il digest dei byte ricevuti
+    private static final class ChunkState {
+        private final ReentrantLock lock = new ReentrantLock();
+        private MessageDigest digest;
+        private long digestedBytes;
+    }
+}
@@ -0,0 +1,17 @@
+package com.cimparato.csbm.service.file.chunk;
+
+/**
+ * Porzione contigua di un file CSV delimitata da fine riga, elaborabile indipendentemente dalle altre.
+ *
+ * @param index posizione della porzione nel file, a partire da 0
+ * @param startOffset offset (incluso) del primo byte della porzione
+ * @param endOffset offset (escluso) dell'ultimo byte della porzione
+ * @param firstLineNumber numero della prima riga della porzione, con la stessa numerazione usata dal parser
+ * @param containsHeader true se la porzione inizia con l'intestazione del file
+ */
+public record FileChunk(int index, long startOffset, long endOffset, int firstLineNumber, boolean containsHeader) {
+
+    public long length() {
+        return endOffset - startOffset;
+    }
+}
@@ -0,0 +1,90 @@
+package com.cimparato.csbm.service.file.chunk;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Suddivide un file CSV in porzioni di dimensione simile, tagliando sempre su un fine riga.
+ *
+ * Il file viene letto una sola volta: durante la scansione vengono contati i fine riga e tenuto traccia dei
+ * campi fra virgolette, così che un a capo contenuto in un campo quotato non venga scambiato per la fine di
+ * un record e che ogni porzione conosca il numero della propria prima riga.
+ */
+@Slf4j
+public final class FileChunkSplitter {
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private FileChunkSplitter() {
+    }
+
+    /**
+     * @param file Il file da suddividere
+     * @param chunkCount Il numero desiderato di porzioni; possono risultarne meno se il file ha poche righe
+     * @return le porzioni, contigue e nell'ordine del file
+     */
+    public static List<FileChunk> split(Path file, int chunkCount) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+
+            if (chunkCount <= 1 || size == 0) {
+                return List.of(new FileChunk(0, 0, size, 1, true));
+            }
+
+            long targetLength = Math.max(1, size / chunkCount);
+            long nextTarget = targetLength;
+
+            List<FileChunk> chunks = new ArrayList<>(chunkCount);
+            long chunkStart = 0;
+            int chunkFirstLine = 1;
+            int records = 0;
+            boolean inQuotes = false;
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            long position = 0;
+
+            while (position < size && chunks.size() < chunkCount - 1) {
+                buffer.clear();
+                int read = channel.read(buffer, position);
+                if (read <= 0) {
+                    break;
+                }
+                buffer.flip();
+
+                for (int i = 0; i < read; i++) {
+                    byte b = buffer.get(i);
+                    if (b == '"') {
+                        // le virgolette raddoppiate ("") si annullano a vicenda
+                        inQuotes = !inQuotes;
+                    } else if (b == '\n' && !inQuotes) {
+                        records++;
+                        long end = position + i + 1;
+                        if (end >= nextTarget && end < size) {
+                            chunks.add(new FileChunk(chunks.size(), chunkStart, end, chunkFirstLine, chunks.isEmpty()));
+                            chunkStart = end;
+                            chunkFirstLine = records + 1;
+                            nextTarget = end + targetLength;
+                            if (chunks.size() == chunkCount - 1) {
+                                break;
+                            }
+                        }
+                    }
+                }
+                position += read;
+            }
+
+            chunks.add(new FileChunk(chunks.size(), chunkStart, size, chunkFirstLine, chunks.isEmpty()));
+
+            log.debug("Split file {} ({} bytes) into {} chunks", file.getFileName(), size, chunks.size());
+
+            return chunks;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package com.cimparato.csbm.service.file.ingestion;
+
+import com.cimparato.csbm.domain.model.FileUpload;
+import com.cimparato.csbm.dto.cloudservice.CloudServiceDTO;
+import com.cimparato.csbm.service.file.parser.FileParser;
+import com.cimparato.csbm.web.rest.errors.FileParsingException;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.sql.DataSource;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Modalità di ingestion per file di grandi dimensioni basata sul comando COPY di PostgreSQL.
+ *
+ * I record validati dal parser vengono scritti in streaming, tramite il CopyManager di PgJDBC, in una
+ * tabella temporanea di staging; al termine del parsing il contenuto della staging viene unito a
+ * cloud_services e service_file_relation con istruzioni set-based. L'intero file viene caricato
+ * in un'unica transazione: la tabella di staging viene eliminata automaticamente al commit.
+ *
+ * Le righe scartate dal parser non entrano nella staging e restano disponibili tramite
+ * {@link FileParser#getParsingErrors()}, per essere salvate in processing_errors come nella modalità a batch.
+ */
+@Slf4j
+@Service
+public class CopyIngestionService {
+
+    // dimensione del buffer oltre la quale i dati accumulati vengono inviati al server
+    private static final int FLUSH_THRESHOLD = 64 * 1024;
+
+    private static final String CREATE_STAGING_SQL = """
+            CREATE TEMPORARY TABLE cloud_services_staging (
+                line_number integer NOT NULL,
+                customer_id varchar(255) NOT NULL,
+                service_type varchar(255) NOT NULL,
+                activation_date date NOT NULL,
+                expiration_date date NOT NULL,
+                amount numeric(10,2) NOT NULL,
+                status varchar(255) NOT NULL
+            ) ON COMMIT DROP
+            """;
+
+    private static final String COPY_SQL = """
+            COPY cloud_services_staging (line_number, customer_id, service_type, activation_date, expiration_date, amount, status)
+            FROM STDIN WITH (FORMAT csv)
+            """;
+
+    // allineato all'incremento delle sequenze cloud_services_seq e service_file_relation_seq
+    private static final int ID_BLOCK_SIZE = 50;
+
+    /*
+     * Per ogni coppia customer_id/service_type viene scritta l'ultima riga del file; ogni riga della staging
+     * genera una relazione con il file: CREATE per la prima occorrenza di un servizio appena inserito,
+     * UPDATE in tutti gli altri casi.
+     *
+     * Gli id vengono assegnati esplicitamente: ogni valore letto da una sequenza riserva un blocco di ID_BLOCK_SIZE
+     * id, di cui è l'estremo superiore come per l'ottimizzatore pooled di Hibernate, per cui viene letto un valore
+     * ogni ID_BLOCK_SIZE righe inserite. I servizi già presenti conservano il proprio id e non consumano la sequenza.
+     */
+    private static final String MERGE_SQL = """
+            WITH latest AS (
+                SELECT DISTINCT ON (customer_id, service_type) *
+                FROM cloud_services_staging
+                ORDER BY customer_id, service_type, line_number DESC
+            ), resolved AS (
+                SELECT l.*, c.id AS existing_id,
+                       CASE WHEN c.id IS NULL
+                            THEN row_number() OVER (PARTITION BY c.id IS NULL ORDER BY l.customer_id, l.service_type) - 1
+                       END AS new_index
+                FROM latest l
+                LEFT JOIN cloud_services c ON c.customer_id = l.customer_id AND c.service_type = l.service_type
+            ), service_id_blocks AS (
+                SELECT block, nextval('cloud_services_seq') AS hi
+                FROM generate_series(0, ((SELECT count(new_index) FROM resolved) + %1$d - 1) / %1$d - 1) AS block
+            ), upserted AS (
+                INSERT INTO cloud_services (id, customer_id, service_type, activation_date, expiration_date, amount, status,
+                                            last_updated, last_file_upload_id, last_line_number)
+                SELECT COALESCE(r.existing_id, b.hi - %1$d + 1 + mod(r.new_index, %1$d)),
+                       r.customer_id, r.service_type, r.activation_date, r.expiration_date, r.amount, r.status, now(), ?,
+                       r.line_number
+                FROM resolved r
+                LEFT JOIN service_id_blocks b ON b.block = r.new_index / %1$d
+                ON CONFLICT (customer_id, service_type) DO UPDATE SET
+                    activation_date = EXCLUDED.activation_date,
+                    expiration_date = EXCLUDED.expiration_date,
+                    amount = EXCLUDED.amount,
+                    status = EXCLUDED.status,
+                    last_updated = EXCLUDED.last_updated,
+                    last_file_upload_id = EXCLUDED.last_file_upload_id,
+                    last_line_number = EXCLUDED.last_line_number
+                RETURNING id, customer_id, service_type, (xmax = 0) AS inserted
+            ), relation_id_blocks AS (
+                SELECT block, nextval('service_file_relation_seq') AS hi
+                FROM generate_series(0, ((SELECT count(*) FROM cloud_services_staging) + %1$d - 1) / %1$d - 1) AS block
+            )
+            INSERT INTO service_file_relation (id, service_id, file_upload_id, operation_type, line_number)
+            SELECT b.hi - %1$d + 1 + mod(s.relation_index, %1$d),
+                   u.id,
+                   ?,
+                   CASE WHEN u.inserted AND s.line_number = s.first_line THEN 'CREATE' ELSE 'UPDATE' END,
+                   s.line_number
+            FROM (
+                SELECT customer_id, service_type, line_number,
+                       MIN(line_number) OVER (PARTITION BY customer_id, service_type) AS first_line,
+                       row_number() OVER (ORDER BY line_number) - 1 AS relation_index
+                FROM cloud_services_staging
+            ) s
+            JOIN upserted u ON u.customer_id = s.customer_id AND u.service_type = s.service_type
+            JOIN relation_id_blocks b ON b.block = s.relation_index / %1$d
+            """.formatted(ID_BLOCK_SIZE);
+
+    private final DataSource dataSource;
+    private final JdbcTemplate jdbcTemplate;
+
+    public CopyIngestionService(DataSource dataSource, JdbcTemplate jdbcTemplate) {
+        this.dataSource = dataSource;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Verifica che il datasource configurato sia PostgreSQL e che la connessione esponga il CopyManager.
+     */
+    public boolean isSupported() {
+        try (Connection connection = dataSource.getConnection()) {
+            return connection.isWrapperFor(PGConnection.class);
+        } catch (SQLException e) {
+            log.warn("Unable to check COPY support: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Esegue il parsing del file caricando i record validi nella staging tramite COPY e li unisce alle
+     * tabelle definitive.
+     *
+     * @param parser Il parser con cui leggere il file
+     * @param inputStream Lo stream del file da elaborare
+     * @param fileUpload L'entità che rappresenta il file in elaborazione
+     * @return il numero di record validi caricati
+     */
+    @Transactional
+    public int ingest(FileParser<CloudServiceDTO> parser, InputStream inputStream, FileUpload fileUpload) {
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+
+        try {
+            jdbcTemplate.execute(CREATE_STAGING_SQL);
+
+            CopyIn copyIn = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(COPY_SQL);
+            CopyRowWriter writer = new CopyRowWriter(copyIn);
+
+            try {
+                parser.parse(inputStream, writer::write);
+                writer.flush();
+                copyIn.endCopy();
+            } finally {
+                if (copyIn.isActive()) {
+                    copyIn.cancelCopy();
+                }
+            }
+
+            if (writer.failure != null) {
+                throw new FileParsingException("Error streaming records to staging table: "
+                        + writer.failure.getMessage(), writer.failure);
+            }
+
+            log.debug("Staged {} records for file {}, merging into cloud_services", writer.rows, fileUpload.getFileHash());
+
+            jdbcTemplate.execute("ANALYZE cloud_services_staging");
+            int relations = jdbcTemplate.update(MERGE_SQL, fileUpload.getId(), fileUpload.getId());
+
+            log.info("COPY ingestion merged {} records for file {}", relations, fileUpload.getFileHash());
+
+            return writer.rows;
+
+        } catch (SQLException e) {
+            throw new FileParsingException("COPY ingestion failed: " + e.getMessage(), e);
+        } finally {
+            DataSourceUtils.releaseConnection(connection, dataSource);
+        }
+    }
+
+    /**
+     * Serializza i record in formato CSV nel buffer di COPY.
+     *
+     * Gli errori di scrittura non vengono propagati al parser (che li registrerebbe come errori di riga):
+     * il primo errore viene conservato, le righe successive vengono ignorate e l'errore viene
+     * rilanciato al termine del parsing.
+     */
+    private static final class CopyRowWriter {
+
+        private final CopyIn copyIn;
+        private final StringBuilder buffer = new StringBuilder(FLUSH_THRESHOLD + 1024);
+
+        private int rows;
+        private SQLException failure;
+
+        private CopyRowWriter(CopyIn copyIn) {
+            this.copyIn = copyIn;
+        }
+
+        void write(CloudServiceDTO dto) {
+            if (failure != null) {
+                return;
+            }
+
+            buffer.append(dto.getLineNumber()).append(',');
+            appendQuoted(dto.getCustomerId());
+            buffer.append(',').append(dto.getServiceType().name())
+                    .append(',').append(dto.getActivationDate())
+                    .append(',').append(dto.getExpirationDate())
+                    .append(',').append(dto.getAmount().toPlainString())
+                    .append(',').append(dto.getStatus().name())
+                    .append('\n');
+            rows++;
+
+            if (buffer.length() >= FLUSH_THRESHOLD) {
+                flush();
+            }
+        }
+
+        void flush() {
+            if (failure != null || buffer.isEmpty()) {
+                return;
+            }
+            try {
+                byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+                copyIn.writeToCopy(bytes, 0, bytes.length);
+            } catch (SQLException e) {
+                failure = e;
+            }
+            buffer.setLength(0);
+        }
+
+        private void appendQuoted(String value) {
+            buffer.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') {
+                    buffer.append('"');
+                }
+                buffer.append(c);
+            }
+            buffer.append('"');
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.cimparato.csbm.service.file.parser;
+
+import java.util.Arrays;
+
+/**
+ * Vista riutilizzabile su un record CSV letto da {@link CsvRecordReader}.
+ *
+ * Per le righe senza virgolette né caratteri di escape i campi sono porzioni (slice) del buffer del reader e
+ * possono essere letti senza creare stringhe; le righe che richiedono il parser di OpenCSV espongono invece
+ * i valori già separati. Il contenuto è valido solo fino alla successiva lettura.
+ */
+public final class CsvRecord {
+
+    private char[] chars;
+    private int[] starts = new int[8];
+    private int[] ends = new int[8];
+    private int size;
+
+    private String[] values;
+
+    void slice(char[] chars, int length) {
+        this.chars = chars;
+        this.values = null;
+        this.size = 0;
+
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            if (chars[i] == ',') {
+                addField(start, i);
+                start = i + 1;
+            }
+        }
+        addField(start, length);
+    }
+
+    void values(String[] values) {
+        this.chars = null;
+        this.values = values;
+        this.size = values.length;
+    }
+
+    private void addField(int start, int end) {
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+            ends = Arrays.copyOf(ends, size * 2);
+        }
+        starts[size] = start;
+        ends[size] = end;
+        size++;
+    }
+
+    // true se i campi sono porzioni del buffer, accessibili con chars(), start() e end()
+    public boolean isSliced() {
+        return values == null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String get(int index) {
+        checkIndex(index);
+        return values != null ? values[index] : new String(chars, starts[index], ends[index] - starts[index]);
+    }
+
+    public String[] toArray() {
+        if (values != null) {
+            return values.clone();
+        }
+        String[] result = new String[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = get(i);
+        }
+        return result;
+    }
+
+    public char[] chars() {
+        return chars;
+    }
+
+    public int start(int index) {
+        checkIndex(index);
+        return starts[index];
+    }
+
+    public int end(int index) {
+        checkIndex(index);
+        return ends[index];
+    }
+
+    // inizio del campo escludendo gli spazi iniziali, con la stessa regola di String.trim()
+    public int trimmedStart(int index) {
+        int start = start(index);
+        int end = ends[index];
+        while (start < end && chars[start] <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    // fine del campo escludendo gli spazi finali, con la stessa regola di String.trim()
+    public int trimmedEnd(int index) {
+        int start = start(index);
+        int end = ends[index];
+        while (end > start && chars[end - 1] <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Field index " + index + " out of bounds for record of size " + size);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.join(",", toArray());
+    }
+}
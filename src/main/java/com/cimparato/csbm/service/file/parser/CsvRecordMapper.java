@@ -0,0 +1,16 @@
+package com.cimparato.csbm.service.file.parser;
+
+import com.cimparato.csbm.web.rest.errors.CsvMappingException;
+
+import java.time.LocalDate;
+
+// Estende CsvLineMapper con la mappatura diretta di un CsvRecord, che evita di creare un array di stringhe per riga,
+// e con la validazione rispetto a una data di riferimento fissata per l'intero file
+public interface CsvRecordMapper<T> extends CsvLineMapper<T> {
+
+    // Mappa una riga CSV validandola rispetto alla data di riferimento indicata invece che alla data corrente
+    T mapLine(String[] line, int lineNumber, LocalDate referenceDate) throws CsvMappingException;
+
+    // Mappa un record CSV; il risultato e gli errori devono coincidere con quelli di mapLine(record.toArray(), lineNumber, referenceDate)
+    T mapRecord(CsvRecord record, int lineNumber, LocalDate referenceDate) throws CsvMappingException;
+}
@@ -0,0 +1,148 @@
+package com.cimparato.csbm.service.file.parser;
+
+import com.opencsv.CSVParser;
+import com.opencsv.exceptions.CsvMalformedLineException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Tokenizer CSV che legge i record in un buffer di caratteri riutilizzato, senza allocare un array e una
+ * stringa per ogni campo.
+ *
+ * Le righe vengono separate con le stesse regole di BufferedReader.readLine() (\n, \r o \r\n) e divise sulle
+ * virgole. Le righe che contengono virgolette o il carattere di escape (\) vengono invece passate al
+ * {@link CSVParser} di OpenCSV con la stessa configurazione di default del CSVReader, incluso il supporto ai
+ * campi quotati su più righe: il risultato è quindi identico a quello di CSVReader.readNext().
+ */
+public final class CsvRecordReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Reader reader;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private boolean skipLineFeed;
+
+    private char[] line = new char[256];
+    private int lineLength;
+    private boolean needsFallback;
+
+    private final CSVParser fallbackParser = new CSVParser();
+    private final CsvRecord record = new CsvRecord();
+
+    private long linesRead;
+
+    public CsvRecordReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Legge il record successivo.
+     *
+     * @return il record letto, riutilizzato alla chiamata successiva, o null a fine file
+     * @throws CsvMalformedLineException se il file termina all'interno di un campo quotato
+     */
+    public CsvRecord next() throws IOException {
+        if (!readLine()) {
+            return null;
+        }
+
+        if (!needsFallback) {
+            record.slice(line, lineLength);
+            return record;
+        }
+
+        // stesso algoritmo di CSVReader.readNext(): un campo quotato aperto prosegue sulla riga successiva
+        String[] result = null;
+        while (true) {
+            String[] tokens = fallbackParser.parseLineMulti(new String(line, 0, lineLength));
+            if (tokens.length > 0) {
+                result = result == null ? tokens : concat(result, tokens);
+            }
+            if (!fallbackParser.isPending()) {
+                break;
+            }
+            if (!readLine()) {
+                throw new CsvMalformedLineException("Unterminated quoted field at end of CSV file",
+                        linesRead, fallbackParser.getPendingText());
+            }
+        }
+
+        record.values(result != null ? result : new String[0]);
+        return record;
+    }
+
+    private boolean readLine() throws IOException {
+        lineLength = 0;
+        needsFallback = false;
+        boolean read = false;
+
+        while (true) {
+            if (position >= limit && !fill()) {
+                if (read) {
+                    linesRead++;
+                }
+                return read;
+            }
+
+            if (skipLineFeed) {
+                skipLineFeed = false;
+                if (buffer[position] == '\n') {
+                    position++;
+                    continue;
+                }
+            }
+
+            read = true;
+            int start = position;
+            while (position < limit) {
+                char c = buffer[position];
+                if (c == '\n' || c == '\r') {
+                    break;
+                }
+                if (c == '"' || c == '\\') {
+                    needsFallback = true;
+                }
+                position++;
+            }
+            append(start, position - start);
+
+            if (position < limit) {
+                skipLineFeed = buffer[position] == '\r';
+                position++;
+                linesRead++;
+                return true;
+            }
+        }
+    }
+
+    private boolean fill() throws IOException {
+        int read = reader.read(buffer, 0, buffer.length);
+        position = 0;
+        limit = Math.max(read, 0);
+        return read > 0;
+    }
+
+    private void append(int start, int length) {
+        if (lineLength + length > line.length) {
+            line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + length));
+        }
+        System.arraycopy(buffer, start, line, lineLength, length);
+        lineLength += length;
+    }
+
+    private static String[] concat(String[] first, String[] second) {
+        String[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
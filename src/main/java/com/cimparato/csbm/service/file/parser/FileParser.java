@@ -13,6 +13,13 @@ public interface FileParser<T> {
      // Effettua il parsing di un file e applica il processor a ciascun oggetto man mano che viene letto, senza caricare l'intero file in memoria.
     void parse(InputStream inputStream, Consumer<T> processor) throws FileParsingException;
 
+    // Effettua il parsing di un file o di una sua porzione secondo le opzioni indicate (numero della prima riga,
+    // intestazione, data di riferimento per la validazione).
+    // Gli errori vengono notificati a errorHandler invece di essere accumulati nel parser, per cui il metodo può essere
+    // invocato in parallelo su porzioni diverse dello stesso file.
+    void parse(InputStream inputStream, ParseOptions options,
+               Consumer<T> processor, Consumer<ParsingError> errorHandler) throws FileParsingException;
+
     // Verifica se questo parser supporta il formato di file specificato dall'estensione
     boolean supports(String fileExtension);
 
@@ -0,0 +1,19 @@
+package com.cimparato.csbm.service.file.parser;
+
+import java.time.LocalDate;
+
+/**
+ * Opzioni di parsing di un file o di una sua porzione.
+ *
+ * @param firstLineNumber numero della prima riga letta dallo stream
+ * @param skipHeader true se la prima riga letta è l'intestazione e va ignorata
+ * @param referenceDate data rispetto alla quale validare le date dei record: viene fissata una volta per job,
+ *                      così che tutte le righe di un file siano validate rispetto allo stesso giorno
+ */
+public record ParseOptions(int firstLineNumber, boolean skipHeader, LocalDate referenceDate) {
+
+    // intero file con intestazione, validato rispetto alla data indicata
+    public static ParseOptions wholeFile(LocalDate referenceDate) {
+        return new ParseOptions(1, true, referenceDate);
+    }
+}
@@ -4,40 +4,42 @@ import com.cimparato.csbm.dto.cloudservice.CloudServiceDTO;
 import com.cimparato.csbm.domain.enumeration.CloudServiceStatus;
 import com.cimparato.csbm.domain.enumeration.CloudServiceType;
 import com.cimparato.csbm.service.file.parser.CloudServiceCsvColumn;
-import com.cimparato.csbm.service.file.parser.CsvLineMapper;
+import com.cimparato.csbm.service.file.parser.CsvRecord;
+import com.cimparato.csbm.service.file.parser.CsvRecordMapper;
 import com.cimparato.csbm.web.rest.errors.CsvMappingException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeParseException;
-import java.util.Arrays;
-import java.util.List;
-import java.util.stream.Collectors;
 
+/**
+ * Mappa le righe del CSV dei servizi cloud in CloudServiceDTO.
+ *
+ * Le costanti enum vengono risolte con tabelle precalcolate (EnumLookup) e le date con un parser dedicato al
+ * formato yyyy-MM-dd (IsoDateParser), senza passare da List.contains e DateTimeFormatter. I controlli sulle date
+ * di scadenza usano una data di riferimento fissata una volta per file: mapLine(line, lineNumber) usa la data
+ * corrente.
+ */
 @Slf4j
 @Component
-public class CloudServiceCsvLineMapper implements CsvLineMapper<CloudServiceDTO> {
+public class CloudServiceCsvLineMapper implements CsvRecordMapper<CloudServiceDTO> {
 
-    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ISO_DATE;
+    private static final int COLUMN_COUNT = CloudServiceCsvColumn.values().length;
 
-    private static final List<String> allowedServiceStatus =
-            Arrays.stream(CloudServiceStatus.values())
-                    .map(CloudServiceStatus::name).toList();
+    private static final EnumLookup<CloudServiceType> SERVICE_TYPES = new EnumLookup<>(CloudServiceType.values());
 
-    private static final List<String> allowedServices =
-            Arrays.stream(CloudServiceType.values())
-                    .map(CloudServiceType::name)
-                    .toList();
+    private static final EnumLookup<CloudServiceStatus> SERVICE_STATUSES = new EnumLookup<>(CloudServiceStatus.values());
 
     @Override
     public CloudServiceDTO mapLine(String[] line, int lineNumber) throws CsvMappingException {
-        int expectedLength = CloudServiceCsvColumn.values().length;
+        return mapLine(line, lineNumber, LocalDate.now());
+    }
 
-        if (line.length != expectedLength) {
-            throw new IllegalArgumentException("Invalid line format. Expected '" + expectedLength +"' columns.");
+    @Override
+    public CloudServiceDTO mapLine(String[] line, int lineNumber, LocalDate today) throws CsvMappingException {
+        if (line.length != COLUMN_COUNT) {
+            throw new IllegalArgumentException("Invalid line format. Expected '" + COLUMN_COUNT +"' columns.");
         }
 
         CloudServiceDTO dto = new CloudServiceDTO();
@@ -50,66 +52,43 @@ public class CloudServiceCsvLineMapper implements CsvLineMapper<CloudServiceDTO>
         dto.setCustomerId(customerId.trim());
 
         // service_type
-        var serviceType = line[1];
-        if (serviceType == null || serviceType.trim().isEmpty()) {
+        var serviceTypeString = line[1];
+        if (serviceTypeString == null || serviceTypeString.trim().isEmpty()) {
             throw new IllegalArgumentException("service_type cannot be empty");
         }
-        serviceType = serviceType.trim().toUpperCase();
-        if (!allowedServices.contains(serviceType)) {
-            var validServiceList = allowedServices.stream()
-                    .collect(Collectors.joining(", "));
-
-            throw new IllegalArgumentException(
-                    String.format("service_type '%s' is not allowed. Please provide one of the following valid services: %s",
-                            serviceType, validServiceList));
-        }
-
-        dto.setServiceType(CloudServiceType.valueOf(serviceType));
+        dto.setServiceType(resolveServiceType(serviceTypeString.trim()));
 
         // activation_date
         var activationDateString = line[2];
         if (activationDateString == null || activationDateString.trim().isEmpty()) {
             throw new IllegalArgumentException("activation_date cannot be empty");
         }
-        LocalDate activationDate;
-        try {
-            activationDate = LocalDate.parse(line[2].trim(), DATE_FORMATTER);
-            dto.setActivationDate(activationDate);
-        } catch (DateTimeParseException e) {
+        LocalDate activationDate = IsoDateParser.parse(activationDateString.trim());
+        if (activationDate == null) {
             throw new IllegalArgumentException("Invalid activation_date format. Expected ISO date-time format (YYYY-MM-DD)");
         }
+        dto.setActivationDate(activationDate);
 
         // status
-        var status = line[5];
-        if (status == null || status.trim().isEmpty()) {
+        var statusString = line[5];
+        if (statusString == null || statusString.trim().isEmpty()) {
             throw new IllegalArgumentException("status cannot be empty");
         }
-        status = status.trim().toUpperCase();
-        if (!allowedServiceStatus.contains(status)) {
-            String validStatusList = allowedServiceStatus.stream()
-                    .collect(Collectors.joining(", "));
-
-            throw new IllegalArgumentException(
-                    String.format("status '%s' is not allowed. Please provide one of the following valid statuses: %s",
-                                  status, validStatusList));
-        } else {
-            dto.setStatus(CloudServiceStatus.valueOf(status));
-        }
+        CloudServiceStatus status = resolveStatus(statusString.trim());
+        dto.setStatus(status);
 
         // expiration_date
         var expirationDateString = line[3];
         if (expirationDateString == null || expirationDateString.trim().isEmpty()) {
             throw new IllegalArgumentException("expiration_date cannot be empty");
         }
-        LocalDate expirationDate;
-        try {
-            expirationDate = LocalDate.parse(expirationDateString.trim(), DATE_FORMATTER);
-            dto.setExpirationDate(expirationDate);
-        } catch (DateTimeParseException e) {
+        LocalDate expirationDate = IsoDateParser.parse(expirationDateString.trim());
+        if (expirationDate == null) {
             throw new IllegalArgumentException("Invalid expiration_date format. Expected ISO date-time format (YYYY-MM-DD)");
         }
+        dto.setExpirationDate(expirationDate);
 
-        checkOnStatus(activationDate, expirationDate, status);
+        checkOnStatus(activationDate, expirationDate, status, today);
 
         // amount
         var amountString = line[4];
@@ -118,13 +97,8 @@ public class CloudServiceCsvLineMapper implements CsvLineMapper<CloudServiceDTO>
         }
         try {
             var amount = new BigDecimal(amountString.trim());
-            if (amount.compareTo(BigDecimal.ZERO) < 0) {
-                throw new IllegalArgumentException("amount cannot be negative");
-            } else if (amount.compareTo(BigDecimal.ZERO) == 0) {
-                throw new IllegalArgumentException("amount cannot be zero");
-            } else {
-                dto.setAmount(amount);
-            }
+            checkAmount(amount);
+            dto.setAmount(amount);
         } catch (NumberFormatException e) {
             throw new IllegalArgumentException("Invalid amount format. Expected a number");
         }
@@ -135,8 +109,108 @@ public class CloudServiceCsvLineMapper implements CsvLineMapper<CloudServiceDTO>
         return dto;
     }
 
-    private static void checkOnStatus(LocalDate activationDate, LocalDate expirationDate, String status) throws DateTimeParseException {
-        var today = LocalDate.now();
+    /**
+     * Mappa il record leggendo i campi direttamente dal buffer del reader: enum, date e importo vengono
+     * convertiti senza creare stringhe intermedie.
+     *
+     * Il percorso veloce gestisce solo i valori nel formato atteso (date yyyy-MM-dd, enum con lettere ASCII,
+     * importo valido): in tutti gli altri casi, e per i record letti tramite il parser di OpenCSV, viene usato
+     * mapLine, così che messaggi di errore e ordine dei controlli restino identici.
+     */
+    @Override
+    public CloudServiceDTO mapRecord(CsvRecord record, int lineNumber, LocalDate today) throws CsvMappingException {
+        if (!record.isSliced() || record.size() != COLUMN_COUNT) {
+            return mapLine(record.toArray(), lineNumber, today);
+        }
+
+        char[] chars = record.chars();
+
+        CloudServiceType serviceType = SERVICE_TYPES.find(chars, record.trimmedStart(1), record.trimmedEnd(1));
+        LocalDate activationDate = IsoDateParser.parse(chars, record.trimmedStart(2), record.trimmedEnd(2));
+        LocalDate expirationDate = IsoDateParser.parse(chars, record.trimmedStart(3), record.trimmedEnd(3));
+        BigDecimal amount = parseAmount(record, 4);
+        CloudServiceStatus status = SERVICE_STATUSES.find(chars, record.trimmedStart(5), record.trimmedEnd(5));
+
+        int customerIdStart = record.trimmedStart(0);
+        int customerIdEnd = record.trimmedEnd(0);
+
+        if (serviceType == null || activationDate == null || expirationDate == null || amount == null
+                || status == null || customerIdStart == customerIdEnd) {
+            return mapLine(record.toArray(), lineNumber, today);
+        }
+
+        // stessi controlli, nello stesso ordine, eseguiti da mapLine dopo la conversione dei campi
+        checkOnStatus(activationDate, expirationDate, status, today);
+        checkAmount(amount);
+
+        CloudServiceDTO dto = new CloudServiceDTO();
+        dto.setCustomerId(new String(chars, customerIdStart, customerIdEnd - customerIdStart));
+        dto.setServiceType(serviceType);
+        dto.setActivationDate(activationDate);
+        dto.setExpirationDate(expirationDate);
+        dto.setAmount(amount);
+        dto.setStatus(status);
+        dto.setLineNumber(lineNumber);
+
+        return dto;
+    }
+
+    private static CloudServiceType resolveServiceType(String value) {
+        CloudServiceType serviceType = SERVICE_TYPES.find(value);
+        if (serviceType != null) {
+            return serviceType;
+        }
+
+        // valori con caratteri non ASCII: stessa conversione in maiuscolo usata nel messaggio di errore
+        var upperCaseValue = value.toUpperCase();
+        serviceType = SERVICE_TYPES.find(upperCaseValue);
+        if (serviceType == null) {
+            throw new IllegalArgumentException(
+                    String.format("service_type '%s' is not allowed. Please provide one of the following valid services: %s",
+                            upperCaseValue, SERVICE_TYPES.validValues()));
+        }
+        return serviceType;
+    }
+
+    private static CloudServiceStatus resolveStatus(String value) {
+        CloudServiceStatus status = SERVICE_STATUSES.find(value);
+        if (status != null) {
+            return status;
+        }
+
+        var upperCaseValue = value.toUpperCase();
+        status = SERVICE_STATUSES.find(upperCaseValue);
+        if (status == null) {
+            throw new IllegalArgumentException(
+                    String.format("status '%s' is not allowed. Please provide one of the following valid statuses: %s",
+                            upperCaseValue, SERVICE_STATUSES.validValues()));
+        }
+        return status;
+    }
+
+    private static BigDecimal parseAmount(CsvRecord record, int index) {
+        int start = record.trimmedStart(index);
+        int length = record.trimmedEnd(index) - start;
+        if (length == 0) {
+            return null;
+        }
+        try {
+            return new BigDecimal(record.chars(), start, length);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static void checkAmount(BigDecimal amount) {
+        if (amount.compareTo(BigDecimal.ZERO) < 0) {
+            throw new IllegalArgumentException("amount cannot be negative");
+        } else if (amount.compareTo(BigDecimal.ZERO) == 0) {
+            throw new IllegalArgumentException("amount cannot be zero");
+        }
+    }
+
+    private static void checkOnStatus(LocalDate activationDate, LocalDate expirationDate, CloudServiceStatus status,
+                                      LocalDate today) {
 
         if (activationDate == null) {
             throw new IllegalArgumentException("activation_date cannot be null.");
@@ -150,17 +224,17 @@ public class CloudServiceCsvLineMapper implements CsvLineMapper<CloudServiceDTO>
             throw new IllegalArgumentException("expiration_date cannot be before activation_date.");
         }
 
-        if (CloudServiceStatus.EXPIRED.name().equals(status)) {
+        if (status == CloudServiceStatus.EXPIRED) {
             if (expirationDate.isAfter(today)) {
                 throw new IllegalArgumentException("expiration_date cannot be greater than current day for a service " +
-                        "with status " + status);
+                        "with status " + status.name());
             }
         }
 
-        if (CloudServiceStatus.ACTIVE.name().equals(status) || CloudServiceStatus.PENDING_RENEWAL.name().equals(status)) {
+        if (status == CloudServiceStatus.ACTIVE || status == CloudServiceStatus.PENDING_RENEWAL) {
             if (expirationDate.isBefore(today)) {
                 throw new IllegalArgumentException("expiration_date cannot be less than current day for a service " +
-                        "with status " + status);
+                        "with status " + status.name());
             }
         }
 
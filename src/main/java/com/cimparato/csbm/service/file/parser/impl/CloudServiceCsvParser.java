@@ -3,17 +3,20 @@ package com.cimparato.csbm.service.file.parser.impl;
 import com.cimparato.csbm.dto.cloudservice.CloudServiceDTO;
 import com.cimparato.csbm.domain.file.FileSupportedExtension;
 import com.cimparato.csbm.service.file.parser.CsvLineMapper;
+import com.cimparato.csbm.service.file.parser.CsvRecord;
+import com.cimparato.csbm.service.file.parser.CsvRecordMapper;
+import com.cimparato.csbm.service.file.parser.CsvRecordReader;
 import com.cimparato.csbm.service.file.parser.FileParser;
+import com.cimparato.csbm.service.file.parser.ParseOptions;
 import com.cimparato.csbm.service.file.parser.ParsingError;
 import com.cimparato.csbm.web.rest.errors.FileParsingException;
-import com.opencsv.CSVReader;
-import com.opencsv.exceptions.CsvValidationException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Consumer;
@@ -34,28 +37,51 @@ public class CloudServiceCsvParser implements FileParser<CloudServiceDTO> {
             throws FileParsingException {
         parsingErrors.clear();
 
-        try (CSVReader reader = new CSVReader(new InputStreamReader(inputStream))) {
-            reader.readNext();
+        // la data di riferimento viene fissata all'inizio del file e vale per tutte le righe
+        parse(inputStream, ParseOptions.wholeFile(LocalDate.now()), processor, parsingErrors::add);
+    }
+
+    @Override
+    public void parse(InputStream inputStream, ParseOptions options,
+                      Consumer<CloudServiceDTO> processor, Consumer<ParsingError> errorHandler)
+            throws FileParsingException {
+
+        LocalDate referenceDate = options.referenceDate() != null ? options.referenceDate() : LocalDate.now();
+
+        // il tokenizer riusa lo stesso buffer per tutte le righe e ricorre a OpenCSV solo per le righe quotate
+        try (CsvRecordReader reader = new CsvRecordReader(new InputStreamReader(inputStream))) {
+            int lineNumber = options.firstLineNumber() - 1;
 
-            String[] line;
-            int lineNumber = 1;
+            if (options.skipHeader()) {
+                reader.next();
+                lineNumber++;
+            }
+
+            CsvRecord record;
 
-            while ((line = reader.readNext()) != null) {
+            while ((record = reader.next()) != null) {
                 lineNumber++;
                 try {
-                    CloudServiceDTO item = lineMapper.mapLine(line, lineNumber);
+                    CloudServiceDTO item = mapRecord(record, lineNumber, referenceDate);
                     processor.accept(item);
                 } catch (Exception e) {
-                    parsingErrors.add(new ParsingError(lineNumber, String.join(",", line), e.getMessage()));
+                    errorHandler.accept(new ParsingError(lineNumber, record.toString(), e.getMessage()));
                     log.warn("Error parsing line {}: {}", lineNumber, e.getMessage());
                 }
             }
 
-        } catch (IOException | CsvValidationException e) {
+        } catch (IOException e) {
             throw new FileParsingException("Error reading CSV file: " + e.getMessage(), e);
         }
     }
 
+    private CloudServiceDTO mapRecord(CsvRecord record, int lineNumber, LocalDate referenceDate) {
+        if (lineMapper instanceof CsvRecordMapper<CloudServiceDTO> recordMapper) {
+            return recordMapper.mapRecord(record, lineNumber, referenceDate);
+        }
+        return lineMapper.mapLine(record.toArray(), lineNumber);
+    }
+
     @Override
     public boolean supports(String fileExtension) {
         return FileSupportedExtension.CSV.name().equalsIgnoreCase(fileExtension);
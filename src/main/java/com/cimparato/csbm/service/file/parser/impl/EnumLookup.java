@@ -0,0 +1,108 @@
+package com.cimparato.csbm.service.file.parser.impl;
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+/**
+ * Tabella precalcolata per risolvere il nome di una costante enum, ignorando le maiuscole per le lettere ASCII,
+ * senza creare stringhe intermedie.
+ *
+ * L'hash combina lunghezza, primo e ultimo carattere del valore: con i pochi nomi delle nostre enum ogni ricerca
+ * si risolve con un accesso alla tabella e un solo confronto carattere per carattere.
+ */
+final class EnumLookup<E extends Enum<E>> {
+
+    private final Object[] table;
+    private final int mask;
+
+    // elenco dei valori ammessi, usato nei messaggi di errore
+    private final String validValues;
+
+    EnumLookup(E[] constants) {
+        int size = Integer.highestOneBit(Math.max(constants.length, 1) * 4 - 1) << 1;
+        this.table = new Object[size];
+        this.mask = size - 1;
+
+        for (E constant : constants) {
+            String name = constant.name();
+            int slot = hash(name.length(), name.charAt(0), name.charAt(name.length() - 1)) & mask;
+            while (table[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = constant;
+        }
+
+        this.validValues = Arrays.stream(constants).map(Enum::name).collect(Collectors.joining(", "));
+    }
+
+    String validValues() {
+        return validValues;
+    }
+
+    // risolve il valore (già privo di spazi iniziali e finali), null se non corrisponde a nessuna costante
+    E find(String value) {
+        int length = value.length();
+        if (length == 0) {
+            return null;
+        }
+        int slot = hash(length, value.charAt(0), value.charAt(length - 1)) & mask;
+        E candidate;
+        while ((candidate = entry(slot)) != null) {
+            String name = candidate.name();
+            if (name.length() == length && matches(name, value)) {
+                return candidate;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    // risolve la porzione [start, end) del buffer, null se non corrisponde a nessuna costante
+    E find(char[] chars, int start, int end) {
+        int length = end - start;
+        if (length <= 0) {
+            return null;
+        }
+        int slot = hash(length, chars[start], chars[end - 1]) & mask;
+        E candidate;
+        while ((candidate = entry(slot)) != null) {
+            String name = candidate.name();
+            if (name.length() == length && matches(name, chars, start)) {
+                return candidate;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private E entry(int slot) {
+        return (E) table[slot];
+    }
+
+    private static boolean matches(String name, String value) {
+        for (int i = 0; i < name.length(); i++) {
+            if (upper(value.charAt(i)) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matches(String name, char[] chars, int start) {
+        for (int i = 0; i < name.length(); i++) {
+            if (upper(chars[start + i]) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(int length, char first, char last) {
+        return length * 31 + upper(first) * 7 + upper(last);
+    }
+
+    private static char upper(char c) {
+        return c >= 'a' && c <= 'z' ? (char) (c - ('a' - 'A')) : c;
+    }
+}
@@ -0,0 +1,76 @@
+package com.cimparato.csbm.service.file.parser.impl;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+
+/**
+ * Parser delle date nel formato yyyy-MM-dd, alternativo a DateTimeFormatter.ISO_DATE.
+ *
+ * Accetta solo anno a quattro cifre, mese e giorno a due cifre e date di calendario valide (nessun offset né
+ * fuso orario). Le date già convertite vengono conservate in una piccola cache a indirizzamento diretto: nei
+ * file le stesse date di attivazione e scadenza si ripetono su molte righe.
+ */
+final class IsoDateParser {
+
+    private static final int CACHE_SIZE = 1024;
+
+    // le voci sono immutabili, per cui la cache può essere condivisa fra thread senza sincronizzazione
+    private static final CachedDate[] CACHE = new CachedDate[CACHE_SIZE];
+
+    private record CachedDate(int key, LocalDate date) {
+    }
+
+    private IsoDateParser() {
+    }
+
+    // converte il valore (già privo di spazi iniziali e finali), null se non è una data valida nel formato atteso
+    static LocalDate parse(String value) {
+        if (value.length() != 10 || value.charAt(4) != '-' || value.charAt(7) != '-') {
+            return null;
+        }
+        int year = digit(value.charAt(0)) * 1000 + digit(value.charAt(1)) * 100
+                + digit(value.charAt(2)) * 10 + digit(value.charAt(3));
+        int month = digit(value.charAt(5)) * 10 + digit(value.charAt(6));
+        int day = digit(value.charAt(8)) * 10 + digit(value.charAt(9));
+        return toDate(year, month, day);
+    }
+
+    // converte la porzione [start, end) del buffer, null se non è una data valida nel formato atteso
+    static LocalDate parse(char[] chars, int start, int end) {
+        if (end - start != 10 || chars[start + 4] != '-' || chars[start + 7] != '-') {
+            return null;
+        }
+        int year = digit(chars[start]) * 1000 + digit(chars[start + 1]) * 100
+                + digit(chars[start + 2]) * 10 + digit(chars[start + 3]);
+        int month = digit(chars[start + 5]) * 10 + digit(chars[start + 6]);
+        int day = digit(chars[start + 8]) * 10 + digit(chars[start + 9]);
+        return toDate(year, month, day);
+    }
+
+    // valore della cifra, o un valore negativo abbastanza grande da rendere negativo l'intero campo
+    private static int digit(char c) {
+        return c >= '0' && c <= '9' ? c - '0' : -100_000;
+    }
+
+    private static LocalDate toDate(int year, int month, int day) {
+        if (year < 0 || month < 0 || day < 0) {
+            return null;
+        }
+
+        int key = year * 10_000 + month * 100 + day;
+        int slot = (key ^ (key >>> 10)) & (CACHE_SIZE - 1);
+
+        CachedDate cached = CACHE[slot];
+        if (cached != null && cached.key() == key) {
+            return cached.date();
+        }
+
+        try {
+            LocalDate date = LocalDate.of(year, month, day);
+            CACHE[slot] = new CachedDate(key, date);
+            return date;
+        } catch (DateTimeException e) {
+            return null;
+        }
+    }
+}
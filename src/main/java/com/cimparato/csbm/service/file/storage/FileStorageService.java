@@ -3,11 +3,39 @@ package com.cimparato.csbm.service.file.storage;
 import org.springframework.core.io.Resource;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.InputStream;
+import java.security.MessageDigest;
+
 // Definisce il contratto per la creazione di un file storage
 public interface FileStorageService {
 
     String storeFile(MultipartFile file, String jobId);
 
+    // Legge il file una sola volta scrivendolo in un file temporaneo e calcolandone l'hash; il primo blocco letto
+    // viene passato all'inspector prima di essere scritto
+    StagedFile stageFile(MultipartFile file, FirstBlockInspector inspector);
+
+    // Sposta in modo atomico il file temporaneo nella posizione definitiva e ne restituisce il nome
+    String commitStagedFile(StagedFile stagedFile, String jobId);
+
+    // Elimina il file temporaneo di un caricamento non completato
+    void discardStagedFile(StagedFile stagedFile);
+
+    // Scrive una porzione di un caricamento a porzioni alla posizione indicata, aggiornando il digest con i byte
+    // scritti; restituisce il numero di byte scritti
+    long writeUploadChunk(String uploadId, long offset, InputStream content, long maxLength, MessageDigest digest);
+
+    // Aggiorna il digest con i primi length byte già ricevuti di un caricamento a porzioni
+    void digestUploadChunks(String uploadId, long length, MessageDigest digest);
+
+    // Chiude un caricamento a porzioni trasformandolo in un file temporaneo pronto per il commit; il primo blocco
+    // viene passato all'inspector
+    StagedFile stageUploadChunks(String uploadId, String originalFilename, String fileHash, long size,
+                                 FirstBlockInspector inspector);
+
+    // Elimina i dati ricevuti di un caricamento a porzioni
+    void discardUploadChunks(String uploadId);
+
     Resource loadFileAsResource(String filePathOrName);
 
     void deleteFile(String filePathOrName);
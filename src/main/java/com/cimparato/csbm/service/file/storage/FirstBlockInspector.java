@@ -0,0 +1,13 @@
+package com.cimparato.csbm.service.file.storage;
+
+/**
+ * Riceve il primo blocco letto dallo stream di upload, prima che venga scritto su disco.
+ *
+ * Permette di validare l'inizio del file (es. l'intestazione CSV) senza rileggerlo: un'eccezione lanciata
+ * dall'inspector interrompe il caricamento.
+ */
+@FunctionalInterface
+public interface FirstBlockInspector {
+
+    void inspect(byte[] block, int length);
+}
@@ -0,0 +1,15 @@
+package com.cimparato.csbm.service.file.storage;
+
+import java.nio.file.Path;
+
+/**
+ * File caricato e scritto in un file temporaneo della directory di upload, in attesa di essere spostato nella
+ * posizione definitiva (commit) o eliminato (discard).
+ *
+ * @param path percorso del file temporaneo
+ * @param originalFilename nome originale del file caricato
+ * @param fileHash hash MD5 del contenuto, calcolato durante la scrittura
+ * @param size dimensione in byte del contenuto
+ */
+public record StagedFile(Path path, String originalFilename, String fileHash, long size) {
+}
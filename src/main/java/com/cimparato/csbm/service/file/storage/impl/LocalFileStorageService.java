@@ -2,7 +2,11 @@ package com.cimparato.csbm.service.file.storage.impl;
 
 import com.cimparato.csbm.config.properties.AppProperties;
 import com.cimparato.csbm.service.file.storage.FileStorageService;
+import com.cimparato.csbm.service.file.storage.FirstBlockInspector;
+import com.cimparato.csbm.service.file.storage.StagedFile;
+import com.cimparato.csbm.util.FileUtil;
 import com.cimparato.csbm.web.rest.errors.FileStorageException;
+import com.cimparato.csbm.web.rest.errors.FileValidationException;
 import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.core.io.Resource;
@@ -13,16 +17,45 @@ import org.springframework.web.multipart.MultipartFile;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.regex.Pattern;
 
 @Slf4j
 @Service
 public class LocalFileStorageService implements FileStorageService {
 
+    private static final String STAGING_PREFIX = ".upload-";
+    private static final String STAGING_SUFFIX = ".tmp";
+
+    // dimensione del primo blocco, passato all'inspector, e del buffer di copia
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final String UPLOAD_CHUNKS_PREFIX = ".chunked-";
+    private static final String UPLOAD_CHUNKS_SUFFIX = ".part";
+
+    // l'id del caricamento compone il nome del file: sono ammessi solo caratteri che non permettono di uscire dalla directory
+    private static final Pattern UPLOAD_ID_PATTERN = Pattern.compile("[A-Za-z0-9-]{1,64}");
+
+    // i file temporanei più vecchi di questa soglia appartengono a caricamenti interrotti
+    private static final Duration STALE_STAGED_FILE_AGE = Duration.ofDays(1);
+
     private Path fileStorageLocation;
 
     private final AppProperties appProperties;
@@ -45,6 +78,8 @@ public class LocalFileStorageService implements FileStorageService {
         } catch (IOException ex) {
             throw new FileStorageException("Could not create the directory where the uploaded files will be stored", ex);
         }
+
+        deleteStaleStagedFiles();
     }
 
     public String storeFile(MultipartFile file, String jobId) {
@@ -61,6 +96,235 @@ public class LocalFileStorageService implements FileStorageService {
         }
     }
 
+    /**
+     * Legge lo stream del file caricato una sola volta: i byte passano da un DigestInputStream, che calcola l'hash,
+     * e vengono scritti in un file temporaneo nella directory di upload. Il primo blocco viene passato
+     * all'inspector prima della scrittura, così che un file non valido venga scartato senza scrivere nulla.
+     *
+     * Il file temporaneo si trova nella stessa directory della destinazione finale, per cui il commit è una
+     * semplice rinomina atomica.
+     *
+     * @param file Il file caricato
+     * @param inspector L'inspector del primo blocco, può essere null
+     * @return Il file temporaneo con hash e dimensione del contenuto
+     */
+    @Override
+    public StagedFile stageFile(MultipartFile file, FirstBlockInspector inspector) {
+        String fileName = StringUtils.cleanPath(file.getOriginalFilename());
+        Path stagedPath = null;
+
+        try {
+            stagedPath = Files.createTempFile(this.fileStorageLocation, STAGING_PREFIX, STAGING_SUFFIX);
+
+            MessageDigest digest = FileUtil.newFileHashDigest();
+            long size = 0;
+
+            try (InputStream inputStream = new DigestInputStream(file.getInputStream(), digest);
+                 OutputStream outputStream = Files.newOutputStream(stagedPath)) {
+
+                byte[] buffer = new byte[BUFFER_SIZE];
+
+                int read = readFirstBlock(inputStream, buffer);
+                if (inspector != null) {
+                    inspector.inspect(buffer, Math.max(read, 0));
+                }
+
+                while (read > 0) {
+                    outputStream.write(buffer, 0, read);
+                    size += read;
+                    read = inputStream.read(buffer);
+                }
+            }
+
+            StagedFile stagedFile = new StagedFile(stagedPath, fileName, FileUtil.toHashString(digest.digest()), size);
+            log.debug("Staged file {} ({} bytes) at {}", fileName, size, stagedPath);
+            return stagedFile;
+
+        } catch (IOException ex) {
+            deleteQuietly(stagedPath);
+            throw new FileStorageException("Could not store file " + fileName, ex);
+        } catch (RuntimeException ex) {
+            deleteQuietly(stagedPath);
+            throw ex;
+        }
+    }
+
+    @Override
+    public String commitStagedFile(StagedFile stagedFile, String jobId) {
+        String uniqueFileName = jobId + "_" + stagedFile.originalFilename();
+        Path targetLocation = this.fileStorageLocation.resolve(uniqueFileName);
+
+        try {
+            try {
+                Files.move(stagedFile.path(), targetLocation,
+                        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                log.warn("Atomic move not supported for {}, falling back to a regular move", targetLocation);
+                Files.move(stagedFile.path(), targetLocation, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return uniqueFileName;
+        } catch (IOException ex) {
+            throw new FileStorageException("Could not store file " + stagedFile.originalFilename(), ex);
+        }
+    }
+
+    @Override
+    public void discardStagedFile(StagedFile stagedFile) {
+        if (stagedFile != null) {
+            deleteQuietly(stagedFile.path());
+        }
+    }
+
+    /**
+     * Scrive una porzione di un caricamento a porzioni con scritture posizionali sul FileChannel del file parziale,
+     * senza passare da buffer intermedi del multipart. I dati vengono forzati su disco prima di restituire il
+     * controllo, così che i byte dichiarati ricevuti siano effettivamente persistiti e il caricamento possa
+     * riprendere dopo un riavvio.
+     *
+     * @param uploadId L'id del caricamento
+     * @param offset La posizione da cui scrivere la porzione
+     * @param content Il contenuto della porzione
+     * @param maxLength Il numero massimo di byte accettati per la porzione
+     * @param digest Il digest da aggiornare con i byte scritti
+     * @return Il numero di byte scritti
+     */
+    @Override
+    public long writeUploadChunk(String uploadId, long offset, InputStream content, long maxLength, MessageDigest digest) {
+        Path chunksPath = resolveUploadChunksPath(uploadId);
+
+        try (FileChannel channel = FileChannel.open(chunksPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            long position = offset;
+            int read;
+
+            while ((read = content.read(buffer.array(), 0, BUFFER_SIZE)) != -1) {
+                if (position - offset + read > maxLength) {
+                    throw new FileValidationException("Chunk exceeds the maximum allowed size of " + maxLength + " bytes");
+                }
+
+                buffer.clear().limit(read);
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+                digest.update(buffer.array(), 0, read);
+            }
+
+            channel.force(false);
+            return position - offset;
+
+        } catch (IOException ex) {
+            throw new FileStorageException("Could not write chunk for upload " + uploadId, ex);
+        }
+    }
+
+    @Override
+    public void digestUploadChunks(String uploadId, long length, MessageDigest digest) {
+        Path chunksPath = resolveUploadChunksPath(uploadId);
+
+        try (FileChannel channel = FileChannel.open(chunksPath, StandardOpenOption.READ)) {
+            if (channel.size() < length) {
+                throw new FileStorageException("Upload " + uploadId + " is missing data: expected at least "
+                        + length + " bytes, found " + channel.size());
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            long position = 0;
+            while (position < length) {
+                buffer.clear().limit((int) Math.min(BUFFER_SIZE, length - position));
+                int read = channel.read(buffer, position);
+                if (read == -1) {
+                    break;
+                }
+                digest.update(buffer.array(), 0, read);
+                position += read;
+            }
+        } catch (IOException ex) {
+            throw new FileStorageException("Could not read data of upload " + uploadId, ex);
+        }
+    }
+
+    /**
+     * Tronca il file parziale alla dimensione dichiarata (una porzione interrotta può aver scritto byte oltre
+     * l'ultima posizione confermata) e lo restituisce come file temporaneo pronto per il commit, dopo aver
+     * passato il primo blocco all'inspector.
+     */
+    @Override
+    public StagedFile stageUploadChunks(String uploadId, String originalFilename, String fileHash, long size,
+                                        FirstBlockInspector inspector) {
+        Path chunksPath = resolveUploadChunksPath(uploadId);
+        String fileName = StringUtils.cleanPath(originalFilename);
+
+        try (FileChannel channel = FileChannel.open(chunksPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (channel.size() < size) {
+                throw new FileStorageException("Upload " + uploadId + " is missing data: expected "
+                        + size + " bytes, found " + channel.size());
+            }
+            channel.truncate(size);
+
+            if (inspector != null) {
+                byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, size)];
+                int read = readFirstBlock(Channels.newInputStream(channel.position(0)), buffer);
+                inspector.inspect(buffer, Math.max(read, 0));
+            }
+        } catch (IOException ex) {
+            throw new FileStorageException("Could not store file " + fileName, ex);
+        }
+
+        return new StagedFile(chunksPath, fileName, fileHash, size);
+    }
+
+    @Override
+    public void discardUploadChunks(String uploadId) {
+        deleteQuietly(resolveUploadChunksPath(uploadId));
+    }
+
+    private Path resolveUploadChunksPath(String uploadId) {
+        if (uploadId == null || !UPLOAD_ID_PATTERN.matcher(uploadId).matches()) {
+            throw new FileStorageException("Invalid upload id: " + uploadId);
+        }
+        return this.fileStorageLocation.resolve(UPLOAD_CHUNKS_PREFIX + uploadId + UPLOAD_CHUNKS_SUFFIX);
+    }
+
+    // riempie il buffer finché possibile, così che il primo blocco contenga almeno l'intera intestazione
+    private static int readFirstBlock(InputStream inputStream, byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int read = inputStream.read(buffer, total, buffer.length - total);
+            if (read == -1) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    private void deleteQuietly(Path path) {
+        if (path == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ex) {
+            log.warn("Could not delete staged file {}: {}", path, ex.getMessage());
+        }
+    }
+
+    private void deleteStaleStagedFiles() {
+        FileTime threshold = FileTime.from(Instant.now().minus(STALE_STAGED_FILE_AGE));
+
+        try (DirectoryStream<Path> stagedFiles = Files.newDirectoryStream(
+                this.fileStorageLocation, STAGING_PREFIX + "*" + STAGING_SUFFIX)) {
+            for (Path stagedFile : stagedFiles) {
+                if (Files.getLastModifiedTime(stagedFile).compareTo(threshold) < 0) {
+                    log.info("Deleting stale staged upload {}", stagedFile);
+                    deleteQuietly(stagedFile);
+                }
+            }
+        } catch (IOException ex) {
+            log.warn("Could not clean up stale staged uploads: {}", ex.getMessage());
+        }
+    }
+
     /**
      * Carica un file come Resource a partire dal suo percorso relativo o assoluto.
      *
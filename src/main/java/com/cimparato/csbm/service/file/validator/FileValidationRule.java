@@ -3,12 +3,31 @@ package com.cimparato.csbm.service.file.validator;
 import org.springframework.core.Ordered;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.InputStream;
+
 // Interfaccia che definisce una regola di validazione per i file caricati
 public interface FileValidationRule extends Ordered {
 
     // Valida un file caricato secondo una regola specifica
     boolean validate(MultipartFile file);
 
+    // Valida nome e dimensione dichiarati di un file non ancora ricevuto (caricamento a porzioni); usato solo per
+    // le regole che non leggono il contenuto
+    default boolean validateMetadata(String filename, long size) {
+        return true;
+    }
+
+    // Indica se la regola legge il contenuto del file: in tal caso può essere applicata al primo blocco letto
+    // durante l'upload tramite validateContent, senza riaprire lo stream del file
+    default boolean isContentRule() {
+        return false;
+    }
+
+    // Valida l'inizio del contenuto del file; usato solo per le regole di contenuto
+    default boolean validateContent(InputStream head) {
+        return true;
+    }
+
     // Restituisce un messaggio di errore quando la validazione fallisce
     String getErrorMessage();
 }
@@ -4,12 +4,24 @@ import com.cimparato.csbm.domain.file.ValidationResult;
 import org.springframework.stereotype.Component;
 import org.springframework.web.multipart.MultipartFile;
 
+import com.cimparato.csbm.util.FileCompression;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Comparator;
 import java.util.List;
 import java.util.stream.Collectors;
 
 @Component
 public class FileValidator {
+
+    // lunghezza massima dell'intestazione decompressa da un file compresso
+    private static final int MAX_HEADER_LENGTH = 64 * 1024;
+
     private final List<FileValidationRule> fileValidationRules;
 
     public FileValidator(List<FileValidationRule> fileValidationRules) {
@@ -31,4 +43,99 @@ public class FileValidator {
 
         return result;
     }
+
+    /**
+     * Applica solo le regole che non leggono il contenuto del file (es. file non vuoto, estensione).
+     */
+    public ValidationResult validateMetadata(MultipartFile file) {
+        ValidationResult result = new ValidationResult();
+
+        for (FileValidationRule rule : fileValidationRules) {
+            if (!rule.isContentRule() && !rule.validate(file)) {
+                result.addError(rule.getErrorMessage());
+                return result;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Applica le regole sui metadati a un file di cui sono noti solo nome e dimensione, come all'avvio di un
+     * caricamento a porzioni.
+     */
+    public ValidationResult validateMetadata(String filename, long size) {
+        ValidationResult result = new ValidationResult();
+
+        for (FileValidationRule rule : fileValidationRules) {
+            if (!rule.isContentRule() && !rule.validateMetadata(filename, size)) {
+                result.addError(rule.getErrorMessage());
+                return result;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Applica le regole di contenuto al primo blocco del file letto durante l'upload.
+     *
+     * Il primo blocco di un file compresso contiene in genere solo una parte del primo blocco compresso, da cui
+     * non è possibile decomprimere l'intestazione: i file compressi vengono validati dopo la scrittura tramite
+     * validateCompressedContent.
+     *
+     * @param filename Il nome del file, usato per riconoscerne la compressione
+     * @param firstBlock Il buffer contenente l'inizio del file
+     * @param length Il numero di byte validi nel buffer
+     */
+    public ValidationResult validateContent(String filename, byte[] firstBlock, int length) {
+        if (FileCompression.fromFilename(filename) != FileCompression.NONE) {
+            return new ValidationResult();
+        }
+        return validateContent(filename, () -> new ByteArrayInputStream(firstBlock, 0, length));
+    }
+
+    /**
+     * Applica le regole di contenuto a un file compresso già scritto su disco, decomprimendone in streaming solo
+     * la prima riga. Per i file non compressi non fa nulla, perché validati sul primo blocco (vedi validateContent).
+     *
+     * @param filename Il nome del file, usato per riconoscerne la compressione
+     * @param file Il file compresso
+     */
+    public ValidationResult validateCompressedContent(String filename, Path file) {
+        FileCompression compression = FileCompression.fromFilename(filename);
+        if (compression == FileCompression.NONE) {
+            return new ValidationResult();
+        }
+        return validateContent(filename,
+                () -> compression.decompressHead(new BufferedInputStream(Files.newInputStream(file)), MAX_HEADER_LENGTH));
+    }
+
+    private ValidationResult validateContent(String filename, HeadSupplier headSupplier) {
+        ValidationResult result = new ValidationResult();
+
+        for (FileValidationRule rule : fileValidationRules) {
+            if (!rule.isContentRule()) {
+                continue;
+            }
+
+            try (InputStream head = headSupplier.open()) {
+                if (!rule.validateContent(head)) {
+                    result.addError(rule.getErrorMessage());
+                    return result;
+                }
+            } catch (IOException e) {
+                FileCompression compression = FileCompression.fromFilename(filename);
+                result.addError("Could not read " + compression.name().toLowerCase() + " compressed file: " + e.getMessage());
+                return result;
+            }
+        }
+
+        return result;
+    }
+
+    @FunctionalInterface
+    private interface HeadSupplier {
+        InputStream open() throws IOException;
+    }
 }
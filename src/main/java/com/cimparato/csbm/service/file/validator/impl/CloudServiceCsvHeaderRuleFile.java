@@ -2,11 +2,14 @@ package com.cimparato.csbm.service.file.validator.impl;
 
 import com.cimparato.csbm.service.file.parser.CloudServiceCsvColumn;
 import com.cimparato.csbm.service.file.validator.FileValidationRule;
+import com.cimparato.csbm.util.FileCompression;
 import com.opencsv.CSVReader;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.List;
@@ -19,9 +22,27 @@ public class CloudServiceCsvHeaderRuleFile implements FileValidationRule {
 
     @Override
     public boolean validate(MultipartFile file) {
+        try {
+            FileCompression compression = FileCompression.fromFilename(file.getOriginalFilename());
+            return validateContent(compression.decompress(file.getInputStream()));
+        } catch (IOException e) {
+            errors.clear();
+            log.error("Error validating CSV header: {}", e.getMessage(), e);
+            errors.add("Error reading CSV file: " + e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public boolean isContentRule() {
+        return true;
+    }
+
+    @Override
+    public boolean validateContent(InputStream head) {
         errors.clear();
 
-        try (CSVReader reader = new CSVReader(new InputStreamReader(file.getInputStream()))) {
+        try (CSVReader reader = new CSVReader(new InputStreamReader(head))) {
             String[] header = reader.readNext();
             return validateHeader(header);
         } catch (Exception e) {
@@ -2,6 +2,7 @@ package com.cimparato.csbm.service.file.validator.impl;
 
 import com.cimparato.csbm.config.properties.AppProperties;
 import com.cimparato.csbm.service.file.validator.FileValidationRule;
+import com.cimparato.csbm.util.FileCompression;
 import jakarta.annotation.PostConstruct;
 import org.springframework.stereotype.Component;
 import org.springframework.web.multipart.MultipartFile;
@@ -34,10 +35,17 @@ public class FileExtensionRuleFile implements FileValidationRule {
         if (file == null)
             return false;
 
-        String filename = file.getOriginalFilename();
+        return validateMetadata(file.getOriginalFilename(), file.getSize());
+    }
+
+    // il suffisso di compressione (.gz, .zst) non fa parte dell'estensione: services.csv.gz è un file csv
+    @Override
+    public boolean validateMetadata(String filename, long size) {
         if (filename == null)
             return false;
 
+        filename = FileCompression.stripSuffix(filename);
+
         String extension = filename.substring(filename.lastIndexOf(".") + 1).toLowerCase();
         return allowedExtensions.contains(extension);
     }
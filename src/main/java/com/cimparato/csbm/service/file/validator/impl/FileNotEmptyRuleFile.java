@@ -16,6 +16,11 @@ public class FileNotEmptyRuleFile implements FileValidationRule {
         return !file.isEmpty();
     }
 
+    @Override
+    public boolean validateMetadata(String filename, long size) {
+        return size > 0;
+    }
+
     @Override
     public String getErrorMessage() {
         return "File cannot be empty";
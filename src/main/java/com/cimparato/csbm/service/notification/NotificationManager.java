@@ -4,6 +4,7 @@ import com.cimparato.csbm.aop.logging.LogMethod;
 import com.cimparato.csbm.config.async.NotificationTaskExecutor;
 import com.cimparato.csbm.domain.event.FileProcessingCompletedEvent;
 import com.cimparato.csbm.dto.notification.NotificationDTO;
+import com.cimparato.csbm.service.CloudServiceService;
 import com.cimparato.csbm.service.notification.factory.BaseNotification;
 import com.cimparato.csbm.domain.notification.NotificationType;
 import com.cimparato.csbm.service.notification.factory.NotificationFactory;
@@ -15,8 +16,16 @@ import org.springframework.boot.logging.LogLevel;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
 
 @Slf4j
 @Component
@@ -26,27 +35,34 @@ public class NotificationManager {
     private final NotificationFactory notificationFactory;
     private final List<NotificationRule> notificationRules;
     private final NotificationTaskExecutor notificationExecutor;
+    private final CloudServiceService cloudServiceService;
 
     public NotificationManager(
             NotificationHandlerStrategy notificationHandlerStrategy,
             NotificationFactory notificationFactory,
-            List<NotificationRule> notificationRules, NotificationTaskExecutor notificationExecutor
+            List<NotificationRule> notificationRules, NotificationTaskExecutor notificationExecutor,
+            CloudServiceService cloudServiceService
     ) {
         this.notificationHandlerStrategy = notificationHandlerStrategy;
         this.notificationFactory = notificationFactory;
         this.notificationRules = notificationRules;
         this.notificationExecutor = notificationExecutor;
+        this.cloudServiceService = cloudServiceService;
     }
 
     /**
      * Gestisce l'evento di completamento dell'elaborazione di un file,
      * avviando l'elaborazione asincrona delle regole che verificano se è necessario salvare una nuova notifica.
      *
+     * Le regole vengono valutate solo per i clienti con almeno un servizio creato o aggiornato dal file, così che
+     * il costo dipenda dalla dimensione del file e non da quella dell'intera tabella cloud_services.
+     * Se l'evento non indica il file elaborato, le regole vengono valutate su tutti i clienti.
      */
     @EventListener
     public void notificationEventListener(FileProcessingCompletedEvent event) {
         String fileHash = event.getFileHash();
         String filename = event.getFilename();
+        Long fileUploadId = event.getFileUploadId();
 
         log.info("Scheduling notification processing for file: {} (fileHash: {})", filename, fileHash);
 
@@ -54,7 +70,11 @@ public class NotificationManager {
 
             notificationExecutor.executeWithFileHash(() -> {
                 log.info("Starting notification processing for file: {} (hash: {})", filename, fileHash);
-                processAllNotificationRules();
+                if (fileUploadId != null) {
+                    processNotificationRules(cloudServiceService.getCustomerIdsByFileUpload(fileUploadId));
+                } else {
+                    processAllNotificationRules();
+                }
                 log.info("Notification processing completed for file: {} (hash: {})", filename, fileHash);
             }, fileHash);
 
@@ -79,6 +99,30 @@ public class NotificationManager {
         log.info("Completed processing all notification rules");
     }
 
+    /**
+     * Valuta le regole di notifica limitatamente ai clienti indicati.
+     */
+    @LogMethod(level = LogLevel.INFO)
+    public void processNotificationRules(Set<String> customerIds) {
+        if (customerIds.isEmpty()) {
+            log.info("No customers affected, skipping notification rules");
+            return;
+        }
+
+        log.info("Processing {} notification rules for {} customers", notificationRules.size(), customerIds.size());
+
+        for (NotificationRule rule : notificationRules) {
+            log.debug("Processing notification rule: {}", rule.getDescription());
+            try {
+                rule.checkAndQueueNotifications(customerIds);
+            } catch (Exception e) {
+                log.error("Error processing notification rule {}: {}", rule.getDescription(), e.getMessage(), e);
+            }
+        }
+
+        log.info("Completed processing notification rules for {} customers", customerIds.size());
+    }
+
     @LogMethod
     public void notifyUser(BaseNotification baseNotification, NotificationType channel) {
         NotificationHandler handler = notificationHandlerStrategy.getHandler(channel);
@@ -96,6 +140,56 @@ public class NotificationManager {
         handler.handle(notification);
     }
 
+    /**
+     * Invia la notifica in modo asincrono tramite l'handler del suo tipo; gli handler sincroni usano l'executor
+     * indicato. Gli errori, anche nella preparazione dell'invio, vengono restituiti tramite il future.
+     */
+    public CompletableFuture<Void> notifyUserAsync(NotificationDTO notificationDTO, Executor executor) {
+        try {
+            var type = notificationDTO.getType();
+            NotificationHandler handler = notificationHandlerStrategy.getHandler(type);
+            return handler.handleAsync(notificationFactory.createNotification(type, notificationDTO), executor);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Invia un gruppo di notifiche dello stesso tipo, risolvendo l'handler una sola volta per l'intero gruppo, e
+     * ne attende l'esito: l'handler può inviare il gruppo in blocchi (es. più email sulla stessa connessione SMTP).
+     *
+     * L'errore su una notifica non interrompe l'invio delle altre: la notifica e l'eccezione vengono passate a
+     * onFailure, così che il chiamante possa gestire separatamente i soli invii falliti. Il metodo ritorna solo
+     * quando l'esito di ogni notifica è noto.
+     */
+    public void notifyUsers(NotificationType type, Collection<NotificationDTO> notifications,
+                            BiConsumer<NotificationDTO, Exception> onFailure) {
+        NotificationHandler handler;
+        try {
+            handler = notificationHandlerStrategy.getHandler(type);
+        } catch (Exception e) {
+            notifications.forEach(notification -> onFailure.accept(notification, e));
+            return;
+        }
+
+        // le notifiche vengono confrontate per identità: due notifiche con lo stesso contenuto restano distinte
+        Map<BaseNotification, NotificationDTO> sources = new IdentityHashMap<>();
+        List<BaseNotification> messages = new ArrayList<>(notifications.size());
+        for (NotificationDTO notificationDTO : notifications) {
+            try {
+                BaseNotification message = notificationFactory.createNotification(type, notificationDTO);
+                sources.put(message, notificationDTO);
+                messages.add(message);
+            } catch (Exception e) {
+                onFailure.accept(notificationDTO, e);
+            }
+        }
+
+        if (!messages.isEmpty()) {
+            handler.handleBatch(messages, (message, e) -> onFailure.accept(sources.get(message), e));
+        }
+    }
+
     private void handleSchedulingError(Exception e, String fileName, String fileHash) {
         if (e instanceof RejectedExecutionException) {
             // cattura l'eccezione di scheduling lanciata dalla policy di rifiuto del taskExecutor
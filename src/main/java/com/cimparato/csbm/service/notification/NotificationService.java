@@ -12,15 +12,22 @@ import com.cimparato.csbm.web.rest.errors.ResourceNotFoundException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 @Slf4j
 @Service
 public class NotificationService {
 
+    private static final String LEASE_EXPIRED_MESSAGE = "Lease expired before the outcome of the last attempt was saved";
+
     private final AppProperties appProperties;
     private final KafkaAppProperties kafkaAppProperties;
     private final NotificationRepository notificationRepository;
@@ -61,11 +68,73 @@ public class NotificationService {
                 .toList();
     }
 
-    @Transactional(readOnly = true)
-    public List<Notification> findFailed() {
-        var pageRequest = PageRequest.of(0, 100);
-        var totalAttempts = kafkaAppProperties.getConsumer().getRetry().getAttempts();
-        return notificationRepository.findByStatusAndRetryCountLessThan(NotificationStatus.FAILED, totalAttempts, pageRequest);
+    /**
+     * Preleva con un lease fino a {@code limit} notifiche PENDING dall'outbox: le notifiche restano PENDING, con la
+     * scadenza del lease in next_attempt_at, e il lock sulle righe viene rilasciato al commit. Fino alla scadenza del
+     * lease le altre istanze non possono prelevarle; il tentativo viene conteggiato solo se la pubblicazione fallisce.
+     *
+     * @param limit numero massimo di notifiche prelevate
+     * @param leaseUntil scadenza del lease
+     * @return le notifiche prelevate
+     */
+    @Transactional
+    public List<Notification> claimPending(int limit, LocalDateTime leaseUntil) {
+        List<Notification> notifications = notificationRepository.lockPending(LocalDateTime.now(), limit);
+        for (Notification notification : notifications) {
+            notification.setNextAttemptAt(leaseUntil);
+        }
+        return notifications;
+    }
+
+    /**
+     * Registra con un'unica scrittura l'esito della pubblicazione delle notifiche prelevate con {@link #claimPending}.
+     *
+     * @return il numero di notifiche aggiornate, inferiore a quelle indicate se nel frattempo qualche lease è scaduto
+     */
+    @Transactional
+    public int completeRelay(List<Notification> notifications, LocalDateTime leaseUntil) {
+        return notificationRepository.completeRelayed(notifications, leaseUntil);
+    }
+
+    /**
+     * Preleva con un lease fino a {@code limit} notifiche da ritentare: le notifiche vengono messe in PROCESSING,
+     * con il tentativo conteggiato e la scadenza del lease in next_attempt_at, e il lock sulle righe viene rilasciato
+     * al commit. Fino alla scadenza del lease le altre istanze non possono prelevarle.
+     *
+     * Prima del prelievo passano in stato FAILED le notifiche il cui lease è scaduto senza esito dopo l'ultimo
+     * tentativo disponibile.
+     *
+     * @param limit numero massimo di notifiche prelevate
+     * @param maxAttempts tentativi oltre i quali una notifica non viene più ritentata
+     * @param leaseUntil scadenza del lease
+     * @return le notifiche prelevate
+     */
+    @Transactional
+    public List<Notification> claimFailed(int limit, int maxAttempts, LocalDateTime leaseUntil) {
+        LocalDateTime now = LocalDateTime.now();
+        int exhausted = notificationRepository.failExhaustedLeases(maxAttempts, now, LEASE_EXPIRED_MESSAGE);
+        if (exhausted > 0) {
+            log.error("{} notifications not sent after {} attempts: lease expired before the outcome was saved",
+                    exhausted, maxAttempts);
+        }
+
+        List<Notification> notifications = notificationRepository.lockRetryable(maxAttempts, now, limit);
+        for (Notification notification : notifications) {
+            notification.setStatus(NotificationStatus.PROCESSING);
+            notification.setRetryCount(notification.getRetryCount() + 1);
+            notification.setNextAttemptAt(leaseUntil);
+        }
+        return notifications;
+    }
+
+    /**
+     * Registra con un'unica scrittura l'esito dei tentativi delle notifiche prelevate con {@link #claimFailed}.
+     *
+     * @return il numero di notifiche aggiornate, inferiore a quelle indicate se nel frattempo qualche lease è scaduto
+     */
+    @Transactional
+    public int completeRetries(List<Notification> notifications, LocalDateTime leaseUntil) {
+        return notificationRepository.completeLeased(notifications, leaseUntil);
     }
 
     @Transactional(readOnly = true)
@@ -86,6 +155,65 @@ public class NotificationService {
                 .toList();
     }
 
+    /**
+     * Salva con un'unica scrittura le notifiche il cui invio è fallito, in stato FAILED e con il relativo messaggio
+     * di errore, così che vengano ritentate insieme alle altre notifiche non inviate.
+     *
+     * @param errorMessages le notifiche non inviate, con il messaggio dell'errore che ne ha impedito l'invio
+     */
+    @Transactional
+    public List<Notification> saveFailed(Map<NotificationDTO, String> errorMessages) {
+        if (errorMessages == null) {
+            throw new IllegalArgumentException("errorMessages cannot be null");
+        }
+        List<Notification> notifications = errorMessages.entrySet()
+                .stream()
+                .map(entry -> {
+                    var notification = notificationMapper.toEntity(entry.getKey());
+                    notification.setStatus(NotificationStatus.FAILED);
+                    notification.setErrorMessage(entry.getValue());
+                    return notification;
+                })
+                .toList();
+        return notificationRepository.saveAll(notifications);
+    }
+
+    /**
+     * Scrive le notifiche nell'outbox in stato PENDING, da cui verranno pubblicate su Kafka dal relay.
+     *
+     * Le notifiche vengono salvate in una nuova transazione, indipendente da quella (in sola lettura) in cui le
+     * regole leggono i servizi: al termine della chiamata sono tutte registrate oppure nessuna.
+     *
+     * @param notifications le notifiche da pubblicare
+     * @return il numero di notifiche scritte
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public int enqueue(Collection<NotificationDTO> notifications) {
+        return enqueue(notifications, enqueued -> { });
+    }
+
+    /**
+     * Come {@link #enqueue(Collection)}, eseguendo inTransaction nella stessa transazione in cui vengono salvate le
+     * notifiche: lo stato registrato da inTransaction (es. i watermark di una regola) viene salvato solo insieme
+     * alle notifiche.
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public int enqueue(Collection<NotificationDTO> notifications, Consumer<Collection<NotificationDTO>> inTransaction) {
+        if (notifications == null) {
+            throw new IllegalArgumentException("notifications cannot be null");
+        }
+        List<Notification> pending = notifications.stream()
+                .map(dto -> {
+                    var notification = notificationMapper.toEntity(dto);
+                    notification.setStatus(NotificationStatus.PENDING);
+                    return notification;
+                })
+                .toList();
+        int enqueued = notificationRepository.saveAll(pending).size();
+        inTransaction.accept(notifications);
+        return enqueued;
+    }
+
     public Notification save(Notification notification) {
         if (notification == null) {
             throw new IllegalArgumentException("notification cannot be null");
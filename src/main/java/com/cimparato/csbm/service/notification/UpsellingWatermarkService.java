@@ -0,0 +1,35 @@
+package com.cimparato.csbm.service.notification;
+
+import com.cimparato.csbm.domain.model.UpsellingWatermark;
+import com.cimparato.csbm.repository.UpsellingWatermarkRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+
+@Slf4j
+@Service
+public class UpsellingWatermarkService {
+
+    private final UpsellingWatermarkRepository upsellingWatermarkRepository;
+
+    public UpsellingWatermarkService(UpsellingWatermarkRepository upsellingWatermarkRepository) {
+        this.upsellingWatermarkRepository = upsellingWatermarkRepository;
+    }
+
+    /**
+     * Registra come segnalati i servizi inclusi nelle notifiche riepilogative della regola di upselling.
+     *
+     * Va chiamato nella transazione in cui le notifiche vengono scritte nell'outbox: se la scrittura fallisce, i
+     * servizi restano da segnalare e vengono inclusi nell'esecuzione successiva della regola.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public int advance(Collection<UpsellingWatermark> watermarks) {
+        if (watermarks == null) {
+            throw new IllegalArgumentException("watermarks cannot be null");
+        }
+        return upsellingWatermarkRepository.advance(watermarks);
+    }
+}
@@ -0,0 +1,254 @@
+package com.cimparato.csbm.service.notification.email;
+
+import com.cimparato.csbm.config.async.EmailDeliveryTaskExecutor;
+import com.cimparato.csbm.config.properties.AppProperties;
+import com.cimparato.csbm.service.notification.factory.EmailNotification;
+import com.cimparato.csbm.web.rest.errors.EmailNotificationException;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.Transport;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeMessage;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+/**
+ * Invia le email delle notifiche tramite il pool di connessioni SMTP.
+ *
+ * Le email vengono suddivise in gruppi di app.notification.email-delivery.batch-size: ogni gruppo viene inviato
+ * sull'executor dedicato, in sequenza su una sola connessione del pool, e i gruppi vengono inviati in parallelo
+ * fino al numero di connessioni disponibili. Se la coda dell'executor è piena i gruppi eccedenti vengono rifiutati
+ * e restituiti come non inviati.
+ *
+ * La durata di ogni invio è limitata dai timeout SMTP (spring.mail.properties.mail.smtp.connectiontimeout, timeout e
+ * writetimeout) e dall'attesa di una connessione del pool (borrow-timeout-seconds).
+ */
+@Slf4j
+@Service
+public class EmailDeliveryService {
+
+    private final SmtpTransportPool transportPool;
+    private final EmailDeliveryTaskExecutor emailDeliveryExecutor;
+    private final int batchSize;
+    private final int sendTimeoutSeconds;
+
+    public EmailDeliveryService(
+            SmtpTransportPool transportPool,
+            EmailDeliveryTaskExecutor emailDeliveryExecutor,
+            AppProperties appProperties
+    ) {
+        var emailDelivery = appProperties.getNotification().getEmailDelivery();
+        this.transportPool = transportPool;
+        this.emailDeliveryExecutor = emailDeliveryExecutor;
+        this.batchSize = Math.max(1, emailDelivery.getBatchSize());
+        this.sendTimeoutSeconds = emailDelivery.getSendTimeoutSeconds();
+    }
+
+    /**
+     * Invia le email e attende l'esito di tutti i gruppi, così che il chiamante conosca l'esito di ogni email prima
+     * di proseguire (es. prima del commit dell'offset Kafka). Se l'attesa supera
+     * app.notification.email-delivery.send-timeout-seconds viene registrato un avviso e l'attesa prosegue: i timeout
+     * SMTP limitano comunque la durata di ogni gruppo.
+     *
+     * L'errore su una email non interrompe l'invio delle altre: le email non inviate vengono passate a onFailure con
+     * il relativo errore, dal thread del chiamante.
+     *
+     * @return il numero di email non inviate
+     */
+    public int deliver(List<EmailNotification> emails, BiConsumer<EmailNotification, Exception> onFailure) {
+        if (emails.isEmpty()) {
+            return 0;
+        }
+
+        List<List<EmailNotification>> batches = new ArrayList<>();
+        for (int from = 0; from < emails.size(); from += batchSize) {
+            batches.add(emails.subList(from, Math.min(from + batchSize, emails.size())));
+        }
+
+        List<CompletableFuture<Map<EmailNotification, Exception>>> sends = new ArrayList<>(batches.size());
+        for (List<EmailNotification> batch : batches) {
+            sends.add(submit(batch));
+        }
+
+        CompletableFuture<Void> all = CompletableFuture.allOf(sends.toArray(CompletableFuture[]::new));
+        try {
+            all.get(sendTimeoutSeconds, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            // gli errori vengono registrati per ogni singolo gruppo
+        } catch (TimeoutException e) {
+            log.warn("Email delivery not completed within {} seconds, waiting for the remaining batches", sendTimeoutSeconds);
+            awaitQuietly(all);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // un gruppo ancora in corso potrebbe essere già stato inviato: l'esito resta da attendere
+            awaitQuietly(all);
+        }
+
+        int failed = 0;
+        for (int i = 0; i < batches.size(); i++) {
+            failed += report(batches.get(i), sends.get(i), onFailure);
+        }
+
+        log.info("Delivered {} emails in {} batches: {} failed", emails.size(), batches.size(), failed);
+        return failed;
+    }
+
+    /**
+     * Invia una singola email e ne attende l'esito, al massimo per app.notification.email-delivery.send-timeout-seconds.
+     *
+     * @throws EmailNotificationException se l'invio fallisce o non si conclude entro l'attesa; in quest'ultimo caso
+     * l'email potrebbe essere comunque inviata
+     */
+    public void deliver(EmailNotification email) {
+        try {
+            deliverAsync(email).get(sendTimeoutSeconds, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof EmailNotificationException cause
+                    ? cause
+                    : new EmailNotificationException("Failed to send email notification", e.getCause());
+        } catch (TimeoutException e) {
+            throw new EmailNotificationException("Email delivery not completed within " + sendTimeoutSeconds + " seconds", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EmailNotificationException("Email delivery interrupted", e);
+        }
+    }
+
+    /**
+     * Invia una singola email sull'executor dedicato; il future si completa con errore se l'invio fallisce.
+     */
+    public CompletableFuture<Void> deliverAsync(EmailNotification email) {
+        return submit(List.of(email))
+                .thenAccept(failures -> {
+                    if (!failures.isEmpty()) {
+                        throw new CompletionException(failures.get(email));
+                    }
+                });
+    }
+
+    /**
+     * Attende il completamento del future senza propagarne l'errore: gli esiti vengono letti per ogni singolo gruppo.
+     */
+    private static void awaitQuietly(CompletableFuture<Void> future) {
+        future.handle((result, ex) -> null).join();
+    }
+
+    /**
+     * Accoda l'invio di un gruppo di email; se la coda dell'executor è piena il gruppo non viene inviato e il future
+     * si completa con errore.
+     */
+    private CompletableFuture<Map<EmailNotification, Exception>> submit(List<EmailNotification> batch) {
+        try {
+            return CompletableFuture.supplyAsync(() -> sendBatch(batch), emailDeliveryExecutor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(new EmailNotificationException("Email delivery queue full", e));
+        }
+    }
+
+    /**
+     * Passa a onFailure le email non inviate di un gruppo completato.
+     *
+     * @return il numero di email non inviate
+     */
+    private static int report(List<EmailNotification> batch, CompletableFuture<Map<EmailNotification, Exception>> future,
+                              BiConsumer<EmailNotification, Exception> onFailure) {
+        if (future.isCompletedExceptionally()) {
+            Throwable error = future.handle((result, ex) -> ex).join();
+            if (error instanceof CompletionException && error.getCause() != null) {
+                error = error.getCause();
+            }
+            Exception exception = error instanceof Exception e
+                    ? e
+                    : new EmailNotificationException("Failed to send email notification", error);
+            batch.forEach(email -> onFailure.accept(email, exception));
+            return batch.size();
+        }
+
+        Map<EmailNotification, Exception> failures = future.join();
+        failures.forEach(onFailure);
+        return failures.size();
+    }
+
+    /**
+     * Invia un gruppo di email su una connessione del pool. Dopo un errore di comunicazione la connessione viene
+     * scartata e le email successive vengono inviate su un'altra; un destinatario rifiutato dal server
+     * (SendFailedException) non compromette invece la connessione.
+     */
+    private Map<EmailNotification, Exception> sendBatch(List<EmailNotification> batch) {
+        Map<EmailNotification, Exception> failures = new IdentityHashMap<>();
+        Transport transport = null;
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                EmailNotification email = batch.get(i);
+
+                if (transport == null) {
+                    try {
+                        transport = transportPool.borrow();
+                    } catch (MessagingException | RuntimeException e) {
+                        // il server non è raggiungibile: le email rimanenti del gruppo non vengono inviate
+                        Exception error = new EmailNotificationException("SMTP connection unavailable", e);
+                        batch.subList(i, batch.size()).forEach(remaining -> failures.put(remaining, error));
+                        break;
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        Exception error = new EmailNotificationException("Email delivery interrupted", e);
+                        batch.subList(i, batch.size()).forEach(remaining -> failures.put(remaining, error));
+                        break;
+                    }
+                }
+
+                MimeMessage message;
+                try {
+                    message = toMimeMessage(email);
+                } catch (MessagingException | RuntimeException e) {
+                    // messaggio non valido (es. indirizzo errato): la connessione resta utilizzabile
+                    failures.put(email, new EmailNotificationException("Invalid email notification", e));
+                    continue;
+                }
+
+                try {
+                    transport.sendMessage(message, message.getAllRecipients());
+                    log.debug("Email message sent successfully for recipient: {}", email.getRecipient());
+                } catch (SendFailedException e) {
+                    failures.put(email, new EmailNotificationException("Failed to send email notification", e));
+                } catch (MessagingException | RuntimeException e) {
+                    failures.put(email, new EmailNotificationException("Failed to send email notification", e));
+                    transportPool.discard(transport);
+                    transport = null;
+                }
+            }
+        } finally {
+            if (transport != null) {
+                transportPool.release(transport);
+            }
+        }
+        return failures;
+    }
+
+    private MimeMessage toMimeMessage(EmailNotification email) throws MessagingException {
+        MimeMessage message = new MimeMessage(transportPool.getSession());
+        if (email.getSender() != null) {
+            message.setFrom(new InternetAddress(email.getSender()));
+        }
+        message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(email.getRecipient()));
+        message.setSubject(email.getSubject());
+        message.setText(email.getContent());
+        message.setSentDate(new Date());
+        message.saveChanges();
+        return message;
+    }
+}
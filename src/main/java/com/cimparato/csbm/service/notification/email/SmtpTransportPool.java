@@ -0,0 +1,124 @@
+package com.cimparato.csbm.service.notification.email;
+
+import com.cimparato.csbm.config.properties.AppProperties;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.autoconfigure.mail.MailProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool di connessioni SMTP autenticate verso il server configurato in spring.mail.
+ *
+ * Una connessione viene aperta e autenticata al primo utilizzo e poi riutilizzata dagli invii successivi, invece di
+ * aprire una nuova sessione SMTP per ogni email. Il numero di connessioni in uso è limitato da
+ * app.notification.email-delivery.pool-size; una connessione chiusa dal server viene riaperta al prelievo.
+ */
+@Slf4j
+@Component
+public class SmtpTransportPool implements DisposableBean {
+
+    private final Session session;
+    private final String protocol;
+    private final String host;
+    private final int port;
+    private final String username;
+    private final String password;
+    private final Semaphore permits;
+    private final BlockingQueue<Transport> idle = new LinkedBlockingQueue<>();
+    private final long borrowTimeoutSeconds;
+
+    public SmtpTransportPool(MailProperties mailProperties, AppProperties appProperties) {
+        var emailDelivery = appProperties.getNotification().getEmailDelivery();
+        Properties properties = new Properties();
+        properties.putAll(mailProperties.getProperties());
+        this.session = Session.getInstance(properties);
+        this.protocol = mailProperties.getProtocol();
+        this.host = mailProperties.getHost();
+        this.port = mailProperties.getPort() != null ? mailProperties.getPort() : -1;
+        this.username = mailProperties.getUsername();
+        this.password = mailProperties.getPassword();
+        this.permits = new Semaphore(Math.max(1, emailDelivery.getPoolSize()));
+        this.borrowTimeoutSeconds = emailDelivery.getBorrowTimeoutSeconds();
+    }
+
+    /**
+     * Sessione usata per creare i messaggi inviati con le connessioni del pool.
+     */
+    public Session getSession() {
+        return session;
+    }
+
+    /**
+     * Preleva una connessione aperta e autenticata, attendendo che se ne liberi una se sono tutte in uso.
+     * La connessione va restituita con {@link #release(Transport)} oppure scartata con {@link #discard(Transport)}.
+     *
+     * @throws MessagingException se non si libera una connessione entro il timeout o la connessione al server fallisce
+     */
+    public Transport borrow() throws MessagingException, InterruptedException {
+        if (!permits.tryAcquire(borrowTimeoutSeconds, TimeUnit.SECONDS)) {
+            throw new MessagingException("No SMTP connection available within " + borrowTimeoutSeconds + " seconds");
+        }
+        try {
+            Transport transport;
+            while ((transport = idle.poll()) != null) {
+                // isConnected verifica la connessione con un NOOP: il server può averla chiusa per inattività
+                if (transport.isConnected()) {
+                    return transport;
+                }
+                close(transport);
+            }
+            return connect();
+        } catch (MessagingException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Restituisce al pool una connessione ancora utilizzabile.
+     */
+    public void release(Transport transport) {
+        idle.offer(transport);
+        permits.release();
+    }
+
+    /**
+     * Chiude una connessione non più utilizzabile (es. dopo un errore di comunicazione con il server).
+     */
+    public void discard(Transport transport) {
+        close(transport);
+        permits.release();
+    }
+
+    @Override
+    public void destroy() {
+        Transport transport;
+        while ((transport = idle.poll()) != null) {
+            close(transport);
+        }
+    }
+
+    private Transport connect() throws MessagingException {
+        Transport transport = session.getTransport(protocol);
+        transport.connect(host, port, username, password);
+        log.debug("Opened SMTP connection to {}:{}", host, port);
+        return transport;
+    }
+
+    private static void close(Transport transport) {
+        try {
+            transport.close();
+        } catch (MessagingException e) {
+            log.debug("Error closing SMTP connection: {}", e.getMessage());
+        }
+    }
+}
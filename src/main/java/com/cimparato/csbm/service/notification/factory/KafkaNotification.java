@@ -1,5 +1,6 @@
 package com.cimparato.csbm.service.notification.factory;
 
+import com.cimparato.csbm.dto.notification.NotificationDTO;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.experimental.SuperBuilder;
@@ -10,5 +11,5 @@ import lombok.experimental.SuperBuilder;
 public class KafkaNotification extends BaseNotification {
     private String topic;
     private String partitionKey;
-    private String payload;
+    private NotificationDTO payload;
 }
@@ -2,8 +2,6 @@ package com.cimparato.csbm.service.notification.factory;
 
 import com.cimparato.csbm.domain.notification.NotificationType;
 import com.cimparato.csbm.dto.notification.NotificationDTO;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 
@@ -14,12 +12,6 @@ import java.time.LocalDateTime;
 @Component
 public class NotificationFactory {
 
-    private final ObjectMapper mapper;
-
-    public NotificationFactory(ObjectMapper mapper) {
-        this.mapper = mapper;
-    }
-
     /**
      * Crea una notifica del tipo specificato con i parametri di base.
      *
@@ -51,21 +43,13 @@ public class NotificationFactory {
     }
 
     private KafkaNotification createKafkaNotification(NotificationDTO notification) {
-        String payload;
-        try {
-            payload = mapper.writeValueAsString(notification);
-        } catch (JsonProcessingException e) {
-            log.error("Failed to create a KafkaNotification", e);
-            throw new IllegalArgumentException("Failed to create a KafkaNotification");
-        }
-
         return KafkaNotification.builder()
                 .type(NotificationType.KAFKA)
                 .createdAt(LocalDateTime.now())
                 .customerId(notification.getCustomerId())
                 .topic(notification.getRecipient())
                 .partitionKey(notification.getCustomerId())
-                .payload(payload)
+                .payload(notification)
                 .build();
     }
 
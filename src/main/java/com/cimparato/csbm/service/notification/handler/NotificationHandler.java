@@ -4,11 +4,33 @@ import com.cimparato.csbm.service.notification.factory.BaseNotification;
 import com.cimparato.csbm.domain.notification.NotificationType;
 import com.cimparato.csbm.web.rest.errors.NotificationException;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+
 // Definisce il contratto per il gestore di notifiche
 public interface NotificationHandler {
 
     void handle(BaseNotification message) throws NotificationException;
 
+    // Invia la notifica in modo asincrono: il future si completa quando l'invio è riuscito o fallito
+    default CompletableFuture<Void> handleAsync(BaseNotification message, Executor executor) {
+        return CompletableFuture.runAsync(() -> handle(message), executor);
+    }
+
+    // Invia un gruppo di notifiche e ne attende l'esito: gli invii falliti vengono passati a onFailure e il metodo
+    // ritorna solo quando l'esito di ogni notifica è noto
+    default void handleBatch(List<? extends BaseNotification> messages, BiConsumer<BaseNotification, Exception> onFailure) {
+        for (BaseNotification message : messages) {
+            try {
+                handle(message);
+            } catch (Exception e) {
+                onFailure.accept(message, e);
+            }
+        }
+    }
+
     NotificationType supportedType();
 
 }
@@ -1,45 +1,61 @@
 package com.cimparato.csbm.service.notification.handler.impl;
 
+import com.cimparato.csbm.service.notification.email.EmailDeliveryService;
 import com.cimparato.csbm.service.notification.factory.EmailNotification;
 import com.cimparato.csbm.service.notification.factory.BaseNotification;
 import com.cimparato.csbm.domain.notification.NotificationType;
 import com.cimparato.csbm.service.notification.handler.NotificationHandler;
+import com.cimparato.csbm.web.rest.errors.EmailNotificationException;
 import com.cimparato.csbm.web.rest.errors.NotificationException;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.mail.SimpleMailMessage;
-import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+
 @Slf4j
 @Component
 public class EmailNotificationHandler implements NotificationHandler {
 
-    private final JavaMailSender emailSender;
+    private final EmailDeliveryService emailDeliveryService;
 
-    public EmailNotificationHandler(JavaMailSender emailSender) {
-        this.emailSender = emailSender;
+    public EmailNotificationHandler(EmailDeliveryService emailDeliveryService) {
+        this.emailDeliveryService = emailDeliveryService;
     }
 
     @Override
     public void handle(BaseNotification baseNotification) throws NotificationException {
-        try {
-
-            var emailNotification = (EmailNotification) baseNotification;
-
-            var recipient = emailNotification.getRecipient();
+        var emailNotification = (EmailNotification) baseNotification;
 
-            SimpleMailMessage mailMessage = new SimpleMailMessage();
-            mailMessage.setTo(recipient);
-            mailMessage.setSubject(emailNotification.getSubject());
-            mailMessage.setText(emailNotification.getContent());
+        // attesa limitata da app.notification.email-delivery.send-timeout-seconds
+        emailDeliveryService.deliver(emailNotification);
 
-            emailSender.send(mailMessage);
-
-            log.info("Email message sent successfully for recipient: {} ", recipient);
+        log.info("Email message sent successfully for recipient: {} ", emailNotification.getRecipient());
+    }
 
+    // L'invio avviene sull'executor del pool SMTP, indipendentemente dall'executor indicato
+    @Override
+    public CompletableFuture<Void> handleAsync(BaseNotification baseNotification, Executor executor) {
+        try {
+            return emailDeliveryService.deliverAsync((EmailNotification) baseNotification);
         } catch (Exception e) {
-            throw new NotificationException("Failed to send email notification", e);
+            return CompletableFuture.failedFuture(new EmailNotificationException("Failed to send email notification", e));
+        }
+    }
+
+    // Le email del gruppo vengono inviate in blocchi sulle connessioni del pool SMTP e il metodo ritorna solo quando
+    // l'esito di ogni blocco è noto
+    @Override
+    public void handleBatch(List<? extends BaseNotification> messages, BiConsumer<BaseNotification, Exception> onFailure) {
+        List<EmailNotification> emails = new ArrayList<>(messages.size());
+        for (BaseNotification message : messages) {
+            emails.add((EmailNotification) message);
         }
+
+        emailDeliveryService.deliver(emails, onFailure::accept);
     }
 
     @Override
@@ -1,23 +1,36 @@
 package com.cimparato.csbm.service.notification.handler.impl;
 
+import com.cimparato.csbm.messaging.KafkaBatchPublisher;
 import com.cimparato.csbm.service.notification.factory.KafkaNotification;
 import com.cimparato.csbm.service.notification.factory.BaseNotification;
 import com.cimparato.csbm.domain.notification.NotificationType;
+import com.cimparato.csbm.dto.notification.NotificationDTO;
 import com.cimparato.csbm.messaging.KafkaProducer;
 import com.cimparato.csbm.service.notification.handler.NotificationHandler;
 import com.cimparato.csbm.web.rest.errors.NotificationException;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.producer.RecordMetadata;
+import org.springframework.kafka.support.SendResult;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+
 @Slf4j
 @Component
 public class KafkaNotificationHandler implements NotificationHandler {
 
     private final KafkaProducer kafkaProducer;
+    private final KafkaBatchPublisher kafkaBatchPublisher;
 
-    public KafkaNotificationHandler(KafkaProducer kafkaProducer) {
+    public KafkaNotificationHandler(KafkaProducer kafkaProducer, KafkaBatchPublisher kafkaBatchPublisher) {
         this.kafkaProducer = kafkaProducer;
+        this.kafkaBatchPublisher = kafkaBatchPublisher;
     }
 
     @Override
@@ -26,23 +39,21 @@ public class KafkaNotificationHandler implements NotificationHandler {
         var kafkaNotification = (KafkaNotification) baseNotification;
         String topic = kafkaNotification.getTopic();
         String key = kafkaNotification.getPartitionKey();
-        String message = kafkaNotification.getPayload();
+        NotificationDTO message = kafkaNotification.getPayload();
 
         log.info("Queuing message for customer: {} to topic: {}", key, topic);
 
         try {
             // Invia il messaggio in modo asincrono
-            kafkaProducer.send(topic, key, message)
-                    .whenComplete((result, ex) -> {
-                        if (ex != null) {
-                            log.error("Failed to send message for customer: {} to topic: {} with key: {}", key, topic, key, ex);
-                            saveForRetry(kafkaNotification, ex);
-                        } else {
-                            RecordMetadata metadata = result.getRecordMetadata();
-                            log.info("Kafka message sent successfully for customer: {} to topic: {}, partition: {}, offset: {}",
-                                    key, topic, metadata.partition(), metadata.offset());
-                        }
-                    });
+            kafkaProducer.send(topic, key, message).whenComplete((result, ex) -> {
+                if (ex != null) {
+                    log.error("Failed to send message for customer: {} to topic: {} with key: {}", key, topic, key, ex);
+                } else {
+                    RecordMetadata metadata = result.getRecordMetadata();
+                    log.info("Kafka message sent successfully for customer: {} to topic: {}, partition: {}, offset: {}",
+                            key, topic, metadata.partition(), metadata.offset());
+                }
+            });
 
         } catch (Exception e) {
             // cattura errori durante la preparazione del messaggio
@@ -51,12 +62,61 @@ public class KafkaNotificationHandler implements NotificationHandler {
         }
     }
 
+    /**
+     * Invia la notifica senza occupare un thread dell'executor: il future si completa alla conferma di Kafka.
+     */
     @Override
-    public NotificationType supportedType() {
-        return NotificationType.KAFKA;
+    public CompletableFuture<Void> handleAsync(BaseNotification baseNotification, Executor executor) {
+        var kafkaNotification = (KafkaNotification) baseNotification;
+        try {
+            return kafkaProducer.send(kafkaNotification.getTopic(), kafkaNotification.getPartitionKey(),
+                    kafkaNotification.getPayload()).thenApply(result -> null);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(new NotificationException("Failed to prepare Kafka notification", e));
+        }
     }
 
-    public void saveForRetry(KafkaNotification notification, Throwable ex) {
-        // TODO: Implementare logica di fallback: salvare la notifica nel DB con stato "FAILED" per un tentativo successivo
+    /**
+     * Invia il gruppo in un batch del KafkaBatchPublisher, che alla chiusura attende le conferme al massimo per
+     * app.kafka.producer.batch.flush-timeout-ms. Gli invii falliti e quelli non confermati entro l'attesa vengono
+     * passati a onFailure: una notifica non confermata viene così salvata per un nuovo tentativo invece di andare
+     * persa, a costo di un possibile secondo invio se la conferma arriva in ritardo.
+     */
+    @Override
+    public void handleBatch(List<? extends BaseNotification> messages, BiConsumer<BaseNotification, Exception> onFailure) {
+        List<KafkaNotification> sent = new ArrayList<>(messages.size());
+        List<CompletableFuture<SendResult<String, NotificationDTO>>> sends = new ArrayList<>(messages.size());
+
+        try (KafkaBatchPublisher.Batch batch = kafkaBatchPublisher.openBatch("notifications")) {
+            for (BaseNotification message : messages) {
+                var kafkaNotification = (KafkaNotification) message;
+                try {
+                    sends.add(batch.send(kafkaNotification.getTopic(), kafkaNotification.getPartitionKey(),
+                            kafkaNotification.getPayload()));
+                    sent.add(kafkaNotification);
+                } catch (Exception e) {
+                    onFailure.accept(message, new NotificationException("Failed to prepare Kafka notification", e));
+                }
+            }
+        }
+
+        for (int i = 0; i < sends.size(); i++) {
+            CompletableFuture<SendResult<String, NotificationDTO>> future = sends.get(i);
+            if (!future.isDone()) {
+                onFailure.accept(sent.get(i), new NotificationException("Kafka notification not confirmed in time"));
+                continue;
+            }
+            try {
+                future.join();
+            } catch (CompletionException | CancellationException e) {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                onFailure.accept(sent.get(i), new NotificationException("Failed to send Kafka notification", cause));
+            }
+        }
+    }
+
+    @Override
+    public NotificationType supportedType() {
+        return NotificationType.KAFKA;
     }
 }
@@ -0,0 +1,234 @@
+package com.cimparato.csbm.service.notification.outbox;
+
+import com.cimparato.csbm.config.properties.AppProperties;
+import com.cimparato.csbm.config.properties.KafkaAppProperties;
+import com.cimparato.csbm.domain.model.Notification;
+import com.cimparato.csbm.domain.notification.NotificationStatus;
+import com.cimparato.csbm.dto.notification.NotificationDTO;
+import com.cimparato.csbm.mapper.NotificationMapper;
+import com.cimparato.csbm.messaging.KafkaBatchPublisher;
+import com.cimparato.csbm.service.notification.NotificationService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Outbox transazionale delle notifiche generate dalle regole.
+ *
+ * Le regole non pubblicano direttamente su Kafka: scrivono le notifiche nella tabella notifications in stato
+ * PENDING tramite un {@link Writer} e il relay le pubblica in seguito con {@link #relayBatch()}. Una notifica
+ * registrata non viene quindi persa se Kafka non è raggiungibile o se l'applicazione si arresta durante l'invio:
+ * le notifiche vengono prelevate con un lease e, se l'esito non viene registrato prima della sua scadenza, vengono
+ * pubblicate di nuovo.
+ */
+@Slf4j
+@Component
+public class NotificationOutbox {
+
+    private final NotificationService notificationService;
+    private final NotificationMapper notificationMapper;
+    private final KafkaBatchPublisher kafkaBatchPublisher;
+    private final String notificationTopic;
+    private final int writeBatchSize;
+    private final int relayBatchSize;
+    private final int maxAttempts;
+    private final int leaseSeconds;
+
+    public NotificationOutbox(
+            NotificationService notificationService,
+            NotificationMapper notificationMapper,
+            KafkaBatchPublisher kafkaBatchPublisher,
+            AppProperties appProperties,
+            KafkaAppProperties kafkaAppProperties
+    ) {
+        var outbox = appProperties.getNotification().getOutbox();
+        this.notificationService = notificationService;
+        this.notificationMapper = notificationMapper;
+        this.kafkaBatchPublisher = kafkaBatchPublisher;
+        this.notificationTopic = kafkaAppProperties.getTopic().getNotification();
+        this.writeBatchSize = Math.max(1, outbox.getWriteBatchSize());
+        this.relayBatchSize = Math.max(1, outbox.getRelayBatchSize());
+        this.maxAttempts = Math.max(1, outbox.getMaxAttempts());
+        this.leaseSeconds = Math.max(1, outbox.getLeaseSeconds());
+    }
+
+    /**
+     * Apre un writer per scrivere molte notifiche nell'outbox; va chiuso al termine per scrivere quelle rimanenti.
+     *
+     * @param name nome del writer, usato nei log
+     */
+    public Writer openWriter(String name) {
+        return new Writer(name, null);
+    }
+
+    /**
+     * Come {@link #openWriter(String)}; onEnqueue riceve ogni blocco di notifiche all'interno della transazione in
+     * cui il blocco viene scritto nell'outbox, così che lo stato registrato insieme alle notifiche (es. i watermark
+     * di una regola) venga salvato o annullato con esse.
+     *
+     * @param name nome del writer, usato nei log
+     * @param onEnqueue azione eseguita nella transazione di scrittura di ogni blocco
+     */
+    public Writer openWriter(String name, Consumer<Collection<NotificationDTO>> onEnqueue) {
+        return new Writer(name, onEnqueue);
+    }
+
+    public int getRelayBatchSize() {
+        return relayBatchSize;
+    }
+
+    /**
+     * Preleva un blocco di notifiche PENDING, le pubblica sul topic delle notifiche e ne registra l'esito.
+     *
+     * Le notifiche vengono prelevate con un lease in una transazione breve (FOR UPDATE SKIP LOCKED), così che le
+     * conferme di Kafka vengano attese senza mantenere il lock sulle righe: nel frattempo le altre istanze prelevano
+     * i blocchi successivi. Le notifiche confermate passano in stato SENT; quelle il cui invio è fallito restano
+     * PENDING con il tentativo e l'errore registrati, e passano in stato FAILED al raggiungimento del numero massimo
+     * di tentativi. Per le notifiche non ancora confermate allo scadere dell'attesa non viene registrato nulla: la
+     * pubblicazione potrebbe ancora riuscire, quindi vengono pubblicate di nuovo alla scadenza del lease senza
+     * conteggiare un tentativo.
+     */
+    public RelayResult relayBatch() {
+        LocalDateTime leaseUntil = LocalDateTime.now().plusSeconds(leaseSeconds).truncatedTo(ChronoUnit.MILLIS);
+        List<Notification> notifications = notificationService.claimPending(relayBatchSize, leaseUntil);
+        if (notifications.isEmpty()) {
+            return new RelayResult(0, 0, 0);
+        }
+
+        Map<Notification, CompletableFuture<SendResult<String, NotificationDTO>>> sends = new LinkedHashMap<>();
+        try (KafkaBatchPublisher.Batch batch = kafkaBatchPublisher.openBatch("notification-outbox")) {
+            for (Notification notification : notifications) {
+                CompletableFuture<SendResult<String, NotificationDTO>> future;
+                try {
+                    future = batch.send(notificationTopic, notification.getCustomerId(), notificationMapper.toDto(notification));
+                } catch (RuntimeException e) {
+                    future = CompletableFuture.failedFuture(e);
+                }
+                sends.put(notification, future);
+            }
+        }
+
+        // la chiusura del batch ha atteso le conferme: i future non completati restano in attesa della scadenza del lease
+        LocalDateTime sentAt = LocalDateTime.now();
+        List<Notification> completed = new ArrayList<>(sends.size());
+        int sent = 0;
+        int failed = 0;
+        for (Map.Entry<Notification, CompletableFuture<SendResult<String, NotificationDTO>>> entry : sends.entrySet()) {
+            Notification notification = entry.getKey();
+            CompletableFuture<SendResult<String, NotificationDTO>> future = entry.getValue();
+            if (!future.isDone()) {
+                continue;
+            }
+            if (future.isCompletedExceptionally()) {
+                markFailed(notification, failureMessage(future));
+                failed++;
+            } else {
+                notification.setStatus(NotificationStatus.SENT);
+                notification.setSentAt(sentAt);
+                sent++;
+            }
+            notification.setNextAttemptAt(null);
+            completed.add(notification);
+        }
+
+        int unconfirmed = sends.size() - completed.size();
+        if (unconfirmed > 0) {
+            log.warn("{} notifications not confirmed by Kafka within the flush timeout, they will be published again " +
+                    "when their lease expires at {}", unconfirmed, leaseUntil);
+        }
+
+        if (!completed.isEmpty()) {
+            int updated = notificationService.completeRelay(completed, leaseUntil);
+            if (updated < completed.size()) {
+                log.warn("Lease expired for {} of {} relayed notifications, their outcome has been discarded",
+                        completed.size() - updated, completed.size());
+            }
+        }
+        return new RelayResult(sent, failed, unconfirmed);
+    }
+
+    private void markFailed(Notification notification, String errorMessage) {
+        notification.setRetryCount(notification.getRetryCount() + 1);
+        notification.setErrorMessage(errorMessage);
+        if (notification.getRetryCount() >= maxAttempts) {
+            notification.setStatus(NotificationStatus.FAILED);
+            log.error("Notification {} for customer {} not published after {} attempts: {}",
+                    notification.getId(), notification.getCustomerId(), notification.getRetryCount(), errorMessage);
+        }
+    }
+
+    private static String failureMessage(CompletableFuture<?> future) {
+        Throwable error = future.handle((result, ex) -> ex).join();
+        return error != null ? error.getMessage() : "Unknown error";
+    }
+
+    /**
+     * Esito di un blocco pubblicato dal relay.
+     */
+    public record RelayResult(int sent, int failed, int unconfirmed) {
+
+        public int claimed() {
+            return sent + failed + unconfirmed;
+        }
+    }
+
+    /**
+     * Accumula le notifiche e le scrive nell'outbox ogni {@code writeBatchSize} notifiche, ciascun blocco in una
+     * propria transazione.
+     */
+    public class Writer implements AutoCloseable {
+
+        private final String name;
+        private final Consumer<Collection<NotificationDTO>> onEnqueue;
+        private final List<NotificationDTO> buffer = new ArrayList<>();
+        private long written;
+
+        private Writer(String name, Consumer<Collection<NotificationDTO>> onEnqueue) {
+            this.name = name;
+            this.onEnqueue = onEnqueue;
+        }
+
+        public void add(NotificationDTO notification) {
+            buffer.add(notification);
+            if (buffer.size() >= writeBatchSize) {
+                flush();
+            }
+        }
+
+        /**
+         * Scrive nell'outbox le notifiche accumulate.
+         */
+        public void flush() {
+            if (buffer.isEmpty()) {
+                return;
+            }
+            try {
+                written += onEnqueue != null
+                        ? notificationService.enqueue(buffer, onEnqueue)
+                        : notificationService.enqueue(buffer);
+            } finally {
+                buffer.clear();
+            }
+        }
+
+        @Override
+        public void close() {
+            flush();
+            log.info("Outbox writer {} completed: {} notifications written", name, written);
+        }
+
+        public long getWritten() {
+            return written;
+        }
+    }
+}
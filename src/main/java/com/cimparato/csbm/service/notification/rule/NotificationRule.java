@@ -1,11 +1,16 @@
 package com.cimparato.csbm.service.notification.rule;
 
+import java.util.Set;
+
 // Definisce il contratto per la creazione di regole da rispettare per l'invio di notifiche
 public interface NotificationRule {
 
     // Verifica se la regola è applicabile e crea le notifiche necessarie
     void checkAndQueueNotifications();
 
+    // Come checkAndQueueNotifications, valutando la regola solo per i clienti indicati (es. quelli interessati da un file)
+    void checkAndQueueNotifications(Set<String> customerIds);
+
     // Restituisce una descrizione della regola
     String getDescription();
 
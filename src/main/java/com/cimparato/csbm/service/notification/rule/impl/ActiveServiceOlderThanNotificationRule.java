@@ -2,16 +2,14 @@ package com.cimparato.csbm.service.notification.rule.impl;
 
 import com.cimparato.csbm.aop.logging.LogMethod;
 import com.cimparato.csbm.config.properties.AppProperties;
-import com.cimparato.csbm.config.properties.KafkaAppProperties;
+import com.cimparato.csbm.domain.model.UpsellingWatermark;
 import com.cimparato.csbm.dto.cloudservice.CloudServiceDTO;
-import com.cimparato.csbm.service.notification.factory.KafkaNotification;
 import com.cimparato.csbm.dto.notification.NotificationDTO;
 import com.cimparato.csbm.service.CloudServiceService;
 import com.cimparato.csbm.domain.notification.NotificationType;
-import com.cimparato.csbm.service.notification.handler.impl.KafkaNotificationHandler;
+import com.cimparato.csbm.service.notification.UpsellingWatermarkService;
+import com.cimparato.csbm.service.notification.outbox.NotificationOutbox;
 import com.cimparato.csbm.service.notification.rule.NotificationRule;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.logging.LogLevel;
@@ -19,13 +17,16 @@ import org.springframework.stereotype.Component;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 @Slf4j
 @Component
 public class ActiveServiceOlderThanNotificationRule implements NotificationRule {
 
-    private String notificationTopic;
     private String sender;
     private String recipient;
     private String subject;
@@ -34,29 +35,24 @@ public class ActiveServiceOlderThanNotificationRule implements NotificationRule
     private int years;
 
     private final AppProperties appProperties;
-    private final KafkaAppProperties kafkaAppProperties;
     private final CloudServiceService cloudServiceService;
-    private final KafkaNotificationHandler kafkaNotificationHandler;
-    private final ObjectMapper mapper;
+    private final NotificationOutbox notificationOutbox;
+    private final UpsellingWatermarkService upsellingWatermarkService;
 
     public ActiveServiceOlderThanNotificationRule(
             AppProperties appProperties,
-            KafkaAppProperties kafkaAppProperties,
             CloudServiceService cloudServiceService,
-            KafkaNotificationHandler kafkaNotificationHandler,
-            ObjectMapper mapper
+            NotificationOutbox notificationOutbox,
+            UpsellingWatermarkService upsellingWatermarkService
     ) {
         this.appProperties = appProperties;
-        this.kafkaAppProperties = kafkaAppProperties;
         this.cloudServiceService = cloudServiceService;
-        this.kafkaNotificationHandler = kafkaNotificationHandler;
-        this.mapper = mapper;
+        this.notificationOutbox = notificationOutbox;
+        this.upsellingWatermarkService = upsellingWatermarkService;
     }
 
     @PostConstruct
     public void init() {
-        this.notificationTopic = kafkaAppProperties.getTopic().getNotification();
-
         var rule = appProperties.getNotification().getRule().getActiveServiceOlderThanNotificationRule();
         var email = rule.getEmail();
 
@@ -68,71 +64,96 @@ public class ActiveServiceOlderThanNotificationRule implements NotificationRule
         this.description = "Notify marketing about services active for more than " + years + " years";
     }
 
+    /**
+     * Scrive nell'outbox una notifica riepilogativa per ogni cliente con servizi attivi da più di N anni non ancora
+     * segnalati. I servizi segnalati vengono registrati come watermark nella stessa transazione della notifica,
+     * così che le esecuzioni successive (es. a ogni nuovo file caricato) segnalino solo i servizi nuovi.
+     */
     @Override
     @LogMethod(level = LogLevel.DEBUG)
     public void checkAndQueueNotifications() {
         LocalDate yearsAgo = LocalDate.now().minusYears(getYears());
-        List<CloudServiceDTO> oldActiveServices = cloudServiceService.getActiveServicesOlderThan(yearsAgo);
+        Map<NotificationDTO, List<UpsellingWatermark>> pendingWatermarks = new IdentityHashMap<>();
+        int customers;
+        try (NotificationOutbox.Writer writer = openWriter(pendingWatermarks)) {
+            customers = cloudServiceService.forEachCustomerWithUnnotifiedActiveServicesOlderThan(yearsAgo,
+                    (customerId, services) -> queueDigest(customerId, services, writer, pendingWatermarks));
+        }
 
-        log.info("Found {} services active for more than {} years", oldActiveServices.size(), getYears());
-        oldActiveServices.forEach(this::queueNotification);
+        log.info("Found {} customers with new services active for more than {} years", customers, getYears());
+    }
 
+    @Override
+    @LogMethod(level = LogLevel.DEBUG)
+    public void checkAndQueueNotifications(Set<String> customerIds) {
+        LocalDate yearsAgo = LocalDate.now().minusYears(getYears());
+        Map<NotificationDTO, List<UpsellingWatermark>> pendingWatermarks = new IdentityHashMap<>();
+        int customers;
+        try (NotificationOutbox.Writer writer = openWriter(pendingWatermarks)) {
+            customers = cloudServiceService.forEachCustomerWithUnnotifiedActiveServicesOlderThan(yearsAgo, customerIds,
+                    (customerId, services) -> queueDigest(customerId, services, writer, pendingWatermarks));
+        }
+
+        log.info("Found {} customers with new services active for more than {} years among {} customers",
+                customers, getYears(), customerIds.size());
     }
 
-    private void queueNotification(CloudServiceDTO service) {
+    // i watermark delle notifiche di ogni blocco vengono registrati nella transazione di scrittura del blocco
+    private NotificationOutbox.Writer openWriter(Map<NotificationDTO, List<UpsellingWatermark>> pendingWatermarks) {
+        return notificationOutbox.openWriter(getDescription(), notifications -> {
+            List<UpsellingWatermark> watermarks = new ArrayList<>();
+            for (NotificationDTO notification : notifications) {
+                List<UpsellingWatermark> notified = pendingWatermarks.remove(notification);
+                if (notified != null) {
+                    watermarks.addAll(notified);
+                }
+            }
+            upsellingWatermarkService.advance(watermarks);
+        });
+    }
 
-        log.info("Queuing notification for customer: {}, service: {}", service.getCustomerId(), service.getServiceType());
+    private void queueDigest(String customerId, List<CloudServiceDTO> services, NotificationOutbox.Writer writer,
+                             Map<NotificationDTO, List<UpsellingWatermark>> pendingWatermarks) {
 
-        var sender = getSender();
-        var recipient = getRecipient();
-        var subject = getSubject();
-        var content = getContent(service);
-        var customerId = service.getCustomerId();
+        log.info("Queuing notification for customer: {}, {} services", customerId, services.size());
 
+        LocalDateTime now = LocalDateTime.now();
         var data = NotificationDTO.builder()
                 .type(NotificationType.EMAIL)
                 .customerId(customerId)
-                .sender(sender)
-                .recipient(recipient)
-                .subject(subject)
-                .content(content)
-                .createdAt(LocalDateTime.now())
+                .sender(getSender())
+                .recipient(getRecipient())
+                .subject(getSubject())
+                .content(getContent(customerId, services))
+                .createdAt(now)
                 .build();
 
-
-        var topic = getNotificationTopic();
-        try {
-            var payload = mapper.writeValueAsString(data);
-            var notification = KafkaNotification.builder()
-                    .topic(topic)
-                    .partitionKey(customerId)
-                    .payload(payload)
-                    .build();
-
-            kafkaNotificationHandler.handle(notification);
-
-        } catch (Exception e) {
-
-            if (e instanceof JsonProcessingException) {
-                log.error("Failed to serialize message for topic: {}, key: {}", topic, customerId, e);
-            } else {
-                log.error("Failed to queue message for topic: {}, key: {}", topic, customerId, e);
-            }
-
-            // TODO: Implementare logica di fallback: salvare la notifica nel DB con stato "FAILED" per un tentativo successivo
+        List<UpsellingWatermark> watermarks = new ArrayList<>(services.size());
+        for (CloudServiceDTO service : services) {
+            watermarks.add(new UpsellingWatermark(customerId, service.getServiceType(), service.getActivationDate(), now));
         }
+        pendingWatermarks.put(data, watermarks);
 
+        // la notifica viene pubblicata su Kafka dal relay dell'outbox
+        writer.add(data);
     }
 
-    private String getContent(CloudServiceDTO service) {
+    private String getContent(String customerId, List<CloudServiceDTO> services) {
         var content = getContent();
-        return (content != null && !content.isEmpty() && !content.isBlank()) ? content : createContent(service);
+        return (content != null && !content.isEmpty() && !content.isBlank()) ? content : createContent(customerId, services);
     }
 
-    private static String createContent(CloudServiceDTO service) {
-        var content = "Customer `" + service.getCustomerId() + "` has service `" + service.getServiceType() +
-                "` active since " + service.getActivationDate() + ". Consider contacting for upselling opportunities.";
-        return content;
+    private static String createContent(String customerId, List<CloudServiceDTO> services) {
+        var content = new StringBuilder("Customer `").append(customerId).append("` has ");
+        for (int i = 0; i < services.size(); i++) {
+            CloudServiceDTO service = services.get(i);
+            if (i > 0) {
+                content.append(i == services.size() - 1 ? " and " : ", ");
+            }
+            content.append("service `").append(service.getServiceType())
+                    .append("` active since ").append(service.getActivationDate());
+        }
+        return content.append(". Consider contacting for upselling opportunities.").toString();
     }
 
     @Override
@@ -140,10 +161,6 @@ public class ActiveServiceOlderThanNotificationRule implements NotificationRule
         return description;
     }
 
-    public String getNotificationTopic() {
-        return notificationTopic;
-    }
-
     public String getSender() {
         return sender;
     }
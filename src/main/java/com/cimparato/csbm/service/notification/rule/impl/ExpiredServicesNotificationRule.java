@@ -3,23 +3,18 @@ package com.cimparato.csbm.service.notification.rule.impl;
 import com.cimparato.csbm.aop.logging.LogMethod;
 import com.cimparato.csbm.config.properties.AppProperties;
 import com.cimparato.csbm.config.properties.KafkaAppProperties;
-import com.cimparato.csbm.dto.cloudservice.CustomerWithExpiredServicesDTO;
 import com.cimparato.csbm.dto.cloudservice.ServiceWithExpirationDTO;
-import com.cimparato.csbm.service.notification.factory.KafkaNotification;
 import com.cimparato.csbm.dto.notification.NotificationDTO;
 import com.cimparato.csbm.service.CloudServiceService;
 import com.cimparato.csbm.domain.notification.NotificationType;
 import com.cimparato.csbm.service.notification.rule.NotificationRule;
-import com.cimparato.csbm.service.notification.handler.impl.KafkaNotificationHandler;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.cimparato.csbm.service.notification.outbox.NotificationOutbox;
 import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.logging.LogLevel;
 import org.springframework.stereotype.Component;
 
 import java.time.LocalDateTime;
-import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -27,7 +22,6 @@ import java.util.stream.Collectors;
 @Component
 public class ExpiredServicesNotificationRule implements NotificationRule {
 
-    private String notificationTopic;
     private String alertsCustomerExpiredTopic;
     private String sender;
     private String subject;
@@ -37,26 +31,22 @@ public class ExpiredServicesNotificationRule implements NotificationRule {
     private final AppProperties appProperties;
     private final KafkaAppProperties kafkaAppProperties;
     private final CloudServiceService cloudServiceService;
-    private final KafkaNotificationHandler kafkaNotificationHandler;
-    private final ObjectMapper mapper;
+    private final NotificationOutbox notificationOutbox;
 
     public ExpiredServicesNotificationRule(
             AppProperties appProperties,
             KafkaAppProperties kafkaAppProperties,
             CloudServiceService cloudServiceService,
-            KafkaNotificationHandler kafkaNotificationHandler,
-            ObjectMapper mapper
+            NotificationOutbox notificationOutbox
     ) {
         this.appProperties = appProperties;
         this.kafkaAppProperties = kafkaAppProperties;
-        this.kafkaNotificationHandler = kafkaNotificationHandler;
+        this.notificationOutbox = notificationOutbox;
         this.cloudServiceService = cloudServiceService;
-        this.mapper = mapper;
     }
 
     @PostConstruct
     public void init() {
-        this.notificationTopic = kafkaAppProperties.getTopic().getNotification();
         this.alertsCustomerExpiredTopic = kafkaAppProperties.getTopic().getAlertCustomerExpired();
 
         var alert = appProperties.getNotification().getRule().getExpiredServicesNotificationRule().getAlert();
@@ -70,31 +60,36 @@ public class ExpiredServicesNotificationRule implements NotificationRule {
     @Override
     @LogMethod(level = LogLevel.DEBUG)
     public void checkAndQueueNotifications() {
-
-        CustomerWithExpiredServicesDTO customersWithExpiredServices =
-                cloudServiceService.getCustomersWithMaxExpiredServices(maxExpiredServicesCount);
-
-        Map<String, Set<ServiceWithExpirationDTO>> customersMap = customersWithExpiredServices.map();
-
-        if (customersMap == null || customersMap.isEmpty()) {
-            log.info("Found 0 customers with more than {} expired services", maxExpiredServicesCount);
-            return;
+        int customers;
+        try (NotificationOutbox.Writer writer = notificationOutbox.openWriter(getDescription())) {
+            customers = cloudServiceService.forEachCustomerWithMaxExpiredServices(maxExpiredServicesCount,
+                    (customerId, expiredServices) -> queueNotificationForCustomer(customerId, expiredServices, writer));
         }
 
-        log.info("Found {} customers with more than {} expired services", customersMap.size(), maxExpiredServicesCount);
+        log.info("Found {} customers with more than {} expired services", customers, maxExpiredServicesCount);
+    }
 
-        customersMap.forEach(this::queueNotificationForCustomer);
+    @Override
+    @LogMethod(level = LogLevel.DEBUG)
+    public void checkAndQueueNotifications(Set<String> customerIds) {
+        int customers;
+        try (NotificationOutbox.Writer writer = notificationOutbox.openWriter(getDescription())) {
+            customers = cloudServiceService.forEachCustomerWithMaxExpiredServices(maxExpiredServicesCount, customerIds,
+                    (customerId, expiredServices) -> queueNotificationForCustomer(customerId, expiredServices, writer));
+        }
 
+        log.info("Found {} customers with more than {} expired services among {} customers",
+                customers, maxExpiredServicesCount, customerIds.size());
     }
 
-    private void queueNotificationForCustomer(String customerId, Set<ServiceWithExpirationDTO> expiredServices) {
+    private void queueNotificationForCustomer(String customerId, Set<ServiceWithExpirationDTO> expiredServices,
+                                             NotificationOutbox.Writer writer) {
 
         log.info("Queuing expired services notification for customer: {}", customerId);
 
         var sender = getSender();
         var subject = getSubject();
         var content = createContent(customerId, expiredServices, createServicesSummary(expiredServices));
-        var notificationTopic = getNotificationTopic();
         var alertsCustomerExpiredTopic = getAlertsCustomerExpiredTopic();
 
         var data = NotificationDTO.builder()
@@ -107,31 +102,8 @@ public class ExpiredServicesNotificationRule implements NotificationRule {
                 .createdAt(LocalDateTime.now())
                 .build();
 
-        try {
-            var payload = mapper.writeValueAsString(data);
-            var notification = KafkaNotification.builder()
-                    .topic(notificationTopic)
-                    .partitionKey(customerId)
-                    .payload(payload)
-                    .build();
-
-            kafkaNotificationHandler.handle(notification);
-
-        } catch (Exception e) {
-
-            if (e instanceof JsonProcessingException) {
-                log.error("Failed to serialize message for notificationTopic: {}, key: {}", notificationTopic, customerId, e);
-            } else {
-                log.error("Failed to queue message for notificationTopic: {}, key: {}", notificationTopic, customerId, e);
-            }
-
-            // TODO: Implementare logica di fallback: salvare la notifica nel DB con stato "FAILED" per un tentativo successivo
-        }
-
-    }
-
-    public String getNotificationTopic() {
-        return notificationTopic;
+        // la notifica viene pubblicata su Kafka dal relay dell'outbox
+        writer.add(data);
     }
 
     public String getAlertsCustomerExpiredTopic() {
@@ -1,7 +1,17 @@
 package com.cimparato.csbm.service.report;
 
 import com.cimparato.csbm.dto.report.SummaryReportDTO;
+import com.cimparato.csbm.repository.projection.CustomerAverageSpend;
+
+import java.io.OutputStream;
+import java.util.Iterator;
 
 public interface PdfGenerator {
     byte[] generatePdf(SummaryReportDTO data);
+
+    /**
+     * Scrive il PDF del report direttamente su out, leggendo la spesa media per cliente da averageSpending invece
+     * che da data, senza mantenere in memoria né le righe né l'intero documento.
+     */
+    void writePdf(SummaryReportDTO data, Iterator<CustomerAverageSpend> averageSpending, OutputStream out);
 }
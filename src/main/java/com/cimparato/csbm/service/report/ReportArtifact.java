@@ -0,0 +1,14 @@
+package com.cimparato.csbm.service.report;
+
+import java.nio.file.Path;
+
+/**
+ * File generato da un job di generazione asincrona del report, pronto per essere scaricato.
+ *
+ * @param path percorso del file nella directory dei report generati
+ * @param contentType tipo di contenuto del file
+ * @param filename nome del file da proporre al client
+ * @param size dimensione in byte del file
+ */
+public record ReportArtifact(Path path, String contentType, String filename, long size) {
+}
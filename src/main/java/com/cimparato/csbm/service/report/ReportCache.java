@@ -0,0 +1,151 @@
+package com.cimparato.csbm.service.report;
+
+import com.cimparato.csbm.config.properties.AppProperties;
+import com.cimparato.csbm.domain.event.FileProcessingCompletedEvent;
+import com.cimparato.csbm.dto.report.SummaryReportDTO;
+import com.cimparato.csbm.web.rest.errors.ReportGenerationException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Cache del report di riepilogo, indicizzata da una versione dei dati incrementata a ogni file elaborato.
+ *
+ * I dati dei servizi cambiano solo al termine dell'elaborazione di un file: il report viene rigenerato alla prima
+ * richiesta successiva a un FileProcessingCompletedEvent (pubblicato dopo il commit), al cambio di giorno (i servizi
+ * in scadenza dipendono dalla data) o trascorso app.report.cache.max-age-seconds, che limita il ritardo con cui
+ * vengono viste le modifiche non segnalate dall'evento (es. file elaborati da un'altra istanza).
+ *
+ * Richieste contemporanee per una versione non ancora generata attendono un'unica generazione.
+ *
+ * Un report con più di app.report.cache.max-cached-customers clienti nella spesa media per cliente non viene
+ * conservato, così da limitare la memoria occupata dalla cache: viene restituito alle richieste in attesa e
+ * rigenerato alle successive. Il PDF viene conservato su disco (vedi ReportSnapshot).
+ */
+@Slf4j
+@Component
+public class ReportCache {
+
+    private final ObjectMapper objectMapper;
+    private final long maxAgeNanos;
+    private final int maxCachedCustomers;
+    private final Path pdfDir;
+    private final AtomicLong dataVersion = new AtomicLong();
+    private final AtomicReference<Entry> current = new AtomicReference<>();
+
+    public ReportCache(ObjectMapper objectMapper, AppProperties appProperties) {
+        this.objectMapper = objectMapper;
+        var cache = appProperties.getReport().getCache();
+        this.maxAgeNanos = TimeUnit.SECONDS.toNanos(cache.getMaxAgeSeconds());
+        this.maxCachedCustomers = cache.getMaxCachedCustomers();
+        this.pdfDir = Paths.get(cache.getPdfDir()).toAbsolutePath().normalize();
+    }
+
+    @EventListener
+    public void onFileProcessingCompleted(FileProcessingCompletedEvent event) {
+        invalidate();
+    }
+
+    /**
+     * Rende obsoleto il report in cache: la richiesta successiva lo rigenera.
+     */
+    public void invalidate() {
+        long version = dataVersion.incrementAndGet();
+        log.debug("Report data version bumped to {}", version);
+    }
+
+    /**
+     * Restituisce il report della versione corrente dei dati, generandolo con reportGenerator se necessario.
+     * Se la generazione fallisce, l'errore viene propagato anche alle richieste che la stavano attendendo e la
+     * richiesta successiva la ritenta.
+     */
+    public ReportSnapshot getSummary(Supplier<SummaryReportDTO> reportGenerator) {
+        while (true) {
+            // la versione va letta prima della generazione: un file completato durante la generazione rende
+            // obsoleto il report appena generato
+            long version = dataVersion.get();
+            LocalDate day = LocalDate.now();
+
+            Entry entry = current.get();
+            if (entry != null && isValid(entry, version, day)) {
+                return await(entry.snapshot());
+            }
+
+            Entry generation = new Entry(version, day, new CompletableFuture<>());
+            if (!current.compareAndSet(entry, generation)) {
+                // un'altra richiesta ha avviato la generazione
+                continue;
+            }
+
+            try {
+                SummaryReportDTO report = reportGenerator.get();
+                ReportSnapshot snapshot = new ReportSnapshot(report, etag(report), System.nanoTime(), pdfDir);
+                generation.snapshot().complete(snapshot);
+                if (customers(report) > maxCachedCustomers) {
+                    // report troppo grande per essere conservato: la richiesta successiva lo rigenera
+                    current.compareAndSet(generation, null);
+                    log.debug("Summary report for data version {} not cached: {} customers exceed the limit of {}",
+                            version, customers(report), maxCachedCustomers);
+                } else {
+                    log.debug("Generated summary report for data version {}", version);
+                }
+                return snapshot;
+            } catch (RuntimeException e) {
+                generation.snapshot().completeExceptionally(e);
+                current.compareAndSet(generation, null);
+                throw e;
+            }
+        }
+    }
+
+    private boolean isValid(Entry entry, long version, LocalDate day) {
+        if (entry.version() != version || !entry.day().equals(day)) {
+            return false;
+        }
+        CompletableFuture<ReportSnapshot> snapshot = entry.snapshot();
+        if (!snapshot.isDone()) {
+            // generazione in corso per la versione corrente
+            return true;
+        }
+        return !snapshot.isCompletedExceptionally()
+                && System.nanoTime() - snapshot.join().getGeneratedAtNanos() < maxAgeNanos;
+    }
+
+    private static int customers(SummaryReportDTO report) {
+        return report.getAverageSpendingPerCustomer() != null ? report.getAverageSpendingPerCustomer().size() : 0;
+    }
+
+    private String etag(SummaryReportDTO report) {
+        try {
+            return DigestUtils.md5DigestAsHex(objectMapper.writeValueAsBytes(report));
+        } catch (JsonProcessingException e) {
+            throw new ReportGenerationException("Error computing report ETag", e);
+        }
+    }
+
+    static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new ReportGenerationException("Error generating report", e.getCause());
+        }
+    }
+
+    private record Entry(long version, LocalDate day, CompletableFuture<ReportSnapshot> snapshot) {}
+}
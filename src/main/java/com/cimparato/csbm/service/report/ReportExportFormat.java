@@ -0,0 +1,27 @@
+package com.cimparato.csbm.service.report;
+
+/**
+ * Formati dell'esportazione in streaming della spesa media per cliente.
+ */
+public enum ReportExportFormat {
+
+    CSV("text/csv", "csv"),
+    // un oggetto JSON per riga
+    NDJSON("application/x-ndjson", "ndjson");
+
+    private final String contentType;
+    private final String extension;
+
+    ReportExportFormat(String contentType, String extension) {
+        this.contentType = contentType;
+        this.extension = extension;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+}
@@ -0,0 +1,100 @@
+package com.cimparato.csbm.service.report;
+
+import com.cimparato.csbm.dto.report.SummaryReportDTO;
+import com.cimparato.csbm.repository.projection.CustomerAverageSpend;
+import com.cimparato.csbm.service.CloudServiceService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Esportazioni in streaming del report di riepilogo, per popolazioni di clienti che non possono essere caricate in
+ * memoria: le righe per cliente vengono lette con un cursore sul database e scritte direttamente sullo stream della
+ * risposta man mano che vengono lette.
+ */
+@Slf4j
+@Service
+public class ReportExportService {
+
+    private final ReportService reportService;
+    private final CloudServiceService cloudServiceService;
+    private final PdfGenerator pdfGenerator;
+    private final ObjectWriter rowWriter;
+
+    public ReportExportService(ReportService reportService, CloudServiceService cloudServiceService,
+                               PdfGenerator pdfGenerator, ObjectMapper objectMapper) {
+        this.reportService = reportService;
+        this.cloudServiceService = cloudServiceService;
+        this.pdfGenerator = pdfGenerator;
+        this.rowWriter = objectMapper.writerFor(CustomerAverageSpend.class);
+    }
+
+    /**
+     * Scrive su out il PDF del report di riepilogo, con la spesa media di tutti i clienti ordinata per cliente.
+     */
+    public void writeSummaryReportPdf(OutputStream out) {
+        SummaryReportDTO summary = reportService.generateSummaryReportWithoutAverageSpend();
+        cloudServiceService.readAverageSpendPerCustomer(rows -> pdfGenerator.writePdf(summary, rows.iterator(), out));
+    }
+
+    /**
+     * Scrive su out la spesa media di tutti i clienti, ordinata per cliente, nel formato richiesto.
+     *
+     * @return il numero di clienti esportati
+     */
+    public long writeAverageSpend(ReportExportFormat format, OutputStream out) {
+        AtomicLong exported = new AtomicLong();
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        try {
+            if (format == ReportExportFormat.CSV) {
+                writer.write("customer_id,average_amount\n");
+            }
+            cloudServiceService.readAverageSpendPerCustomer(rows -> rows.forEach(row -> {
+                writeRow(writer, format, row);
+                exported.incrementAndGet();
+            }));
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        log.info("Exported average spend of {} customers as {}", exported.get(), format);
+        return exported.get();
+    }
+
+    private void writeRow(Writer writer, ReportExportFormat format, CustomerAverageSpend row) {
+        try {
+            switch (format) {
+                case CSV -> {
+                    writer.write(csvField(row.customerId()));
+                    writer.write(',');
+                    writer.write(row.averageAmount() != null ? row.averageAmount().toPlainString() : "");
+                    writer.write('\n');
+                }
+                case NDJSON -> {
+                    writer.write(rowWriter.writeValueAsString(row));
+                    writer.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            // es. client disconnesso: interrompe la lettura del cursore
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
@@ -0,0 +1,276 @@
+package com.cimparato.csbm.service.report;
+
+import com.cimparato.csbm.config.async.ReportGenerationTaskExecutor;
+import com.cimparato.csbm.config.properties.AppProperties;
+import com.cimparato.csbm.domain.enumeration.JobStatus;
+import com.cimparato.csbm.domain.enumeration.ReportJobType;
+import com.cimparato.csbm.domain.model.ReportJob;
+import com.cimparato.csbm.dto.report.ReportJobDTO;
+import com.cimparato.csbm.repository.ReportJobRepository;
+import com.cimparato.csbm.web.rest.errors.ReportJobNotReadyException;
+import com.cimparato.csbm.web.rest.errors.ResourceNotFoundException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Generazione asincrona dei report, per non occupare un thread della richiesta HTTP per tutta la durata della
+ * generazione.
+ *
+ * La richiesta crea un job in stato PENDING e lo accoda sull'executor dedicato; il client ne segue lo stato e, a job
+ * COMPLETED, scarica il file generato. Il report viene scritto con gli stessi metodi delle esportazioni in streaming
+ * in un file parziale nella directory app.report.jobs.artifact-dir, rinominato solo a generazione terminata: un file
+ * scaricabile è quindi sempre completo. Job e file vengono eliminati dopo app.report.jobs.artifact-ttl-hours.
+ *
+ * Generazione e pulizia dei job bloccati possono agire sullo stesso job: ogni cambio di stato è un aggiornamento
+ * condizionato allo stato atteso, così che nessuna delle due sovrascriva l'esito registrato dall'altra.
+ */
+@Slf4j
+@Service
+public class ReportJobService {
+
+    private static final String PARTIAL_SUFFIX = ".part";
+
+    private final ReportJobRepository reportJobRepository;
+    private final ReportExportService reportExportService;
+    private final ReportGenerationTaskExecutor reportGenerationExecutor;
+    private final Path artifactDir;
+    private final int artifactTtlHours;
+    private final int timeoutMinutes;
+
+    public ReportJobService(ReportJobRepository reportJobRepository,
+                            ReportExportService reportExportService,
+                            ReportGenerationTaskExecutor reportGenerationExecutor,
+                            AppProperties appProperties) {
+        var jobs = appProperties.getReport().getJobs();
+        this.reportJobRepository = reportJobRepository;
+        this.reportExportService = reportExportService;
+        this.reportGenerationExecutor = reportGenerationExecutor;
+        this.artifactDir = Paths.get(jobs.getArtifactDir()).toAbsolutePath().normalize();
+        this.artifactTtlHours = jobs.getArtifactTtlHours();
+        this.timeoutMinutes = jobs.getTimeoutMinutes();
+    }
+
+    /**
+     * Crea un job di generazione del report e lo accoda sull'executor dedicato.
+     *
+     * Se l'executor è saturo il job viene registrato come FAILED, come avviene per l'elaborazione dei file.
+     *
+     * @param reportType Il report da generare
+     * @param username L'utente che richiede il report
+     * @return Il job creato
+     */
+    public ReportJobDTO submit(ReportJobType reportType, String username) {
+        LocalDateTime now = LocalDateTime.now();
+        ReportJob job = reportJobRepository.save(ReportJob.builder()
+                .jobId(UUID.randomUUID().toString())
+                .reportType(reportType)
+                .status(JobStatus.PENDING)
+                .createdBy(username)
+                .startTime(now)
+                .expiresAt(now.plusHours(artifactTtlHours))
+                .build());
+
+        try {
+            reportGenerationExecutor.execute(() -> generate(job.getJobId()));
+            log.info("Report job {} ({}) submitted by {}", job.getJobId(), reportType, username);
+        } catch (RejectedExecutionException e) {
+            log.error("Report job {} rejected: {}", job.getJobId(), e.getMessage());
+            fail(job, JobStatus.PENDING, "System overloaded. Please try again later.");
+        }
+
+        return toDto(job);
+    }
+
+    /**
+     * @param jobId L'id del job
+     * @param username L'utente che ha richiesto il report
+     * @return Lo stato del job
+     * @throws ResourceNotFoundException se il job non esiste, è scaduto o è stato richiesto da un altro utente
+     */
+    public ReportJobDTO getJob(String jobId, String username) {
+        return toDto(findJob(jobId, username));
+    }
+
+    /**
+     * Restituisce il file generato da un job completato.
+     *
+     * @param jobId L'id del job
+     * @param username L'utente che ha richiesto il report
+     * @return Il file generato, con tipo di contenuto e nome da proporre al client
+     * @throws ResourceNotFoundException se il job non esiste o il file è già stato eliminato
+     * @throws ReportJobNotReadyException se il job non è COMPLETED
+     */
+    public ReportArtifact getArtifact(String jobId, String username) {
+        ReportJob job = findJob(jobId, username);
+        if (job.getStatus() != JobStatus.COMPLETED) {
+            throw new ReportJobNotReadyException("Report job " + jobId + " is " + job.getStatus(), job.getStatus());
+        }
+
+        Path path = Paths.get(job.getFilePath());
+        if (!Files.isRegularFile(path)) {
+            throw new ResourceNotFoundException("Report file not found for job: " + jobId);
+        }
+
+        ReportJobType reportType = job.getReportType();
+        return new ReportArtifact(path, reportType.getContentType(),
+                "report-" + jobId + "." + reportType.getExtension(), job.getFileSize());
+    }
+
+    /**
+     * Elimina i job scaduti e i relativi file.
+     *
+     * @return Il numero di job eliminati
+     */
+    public int deleteExpiredJobs() {
+        List<ReportJob> expiredJobs = reportJobRepository.findByExpiresAtBefore(LocalDateTime.now());
+
+        for (ReportJob job : expiredJobs) {
+            Path artifact = artifactPath(job);
+            deleteQuietly(artifact);
+            deleteQuietly(partialPath(artifact));
+            reportJobRepository.delete(job);
+        }
+
+        return expiredJobs.size();
+    }
+
+    /**
+     * Registra come FAILED i job non completati entro app.report.jobs.timeout-minutes, ad esempio perché
+     * interrotti da un riavvio dell'applicazione, così che il client smetta di attenderli.
+     *
+     * Il timeout decorre dalla richiesta per i job ancora PENDING e dall'inizio della generazione per quelli in
+     * PROCESSING. Un job che nel frattempo è passato in PROCESSING o è terminato non viene toccato, e il suo file
+     * parziale non viene eliminato.
+     *
+     * @return Il numero di job registrati come FAILED
+     */
+    public int failStaleJobs() {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime startedBefore = now.minusMinutes(timeoutMinutes);
+        List<ReportJob> staleJobs = reportJobRepository.findByStatusInAndStartTimeBefore(
+                List.of(JobStatus.PENDING, JobStatus.PROCESSING), startedBefore);
+
+        int failed = 0;
+        for (ReportJob job : staleJobs) {
+            int updated = reportJobRepository.markStale(job.getJobId(), job.getStatus(), startedBefore, now,
+                    "Report generation not completed within " + timeoutMinutes + " minutes",
+                    now.plusHours(artifactTtlHours), JobStatus.FAILED);
+            if (updated > 0) {
+                deleteQuietly(partialPath(artifactPath(job)));
+                failed++;
+            }
+        }
+
+        return failed;
+    }
+
+    // eseguito sull'executor dedicato
+    void generate(String jobId) {
+        ReportJob job = reportJobRepository.findById(jobId).orElse(null);
+        // il timeout dei job in PROCESSING decorre dall'inizio della generazione, registrato in start_time
+        if (job == null || job.getStatus() != JobStatus.PENDING
+                || reportJobRepository.markProcessing(jobId, LocalDateTime.now(), JobStatus.PENDING, JobStatus.PROCESSING) == 0) {
+            log.warn("Report job {} no longer pending, skipping generation", jobId);
+            return;
+        }
+
+        Path artifact = artifactPath(job);
+        Path partial = partialPath(artifact);
+        try {
+            Files.createDirectories(artifactDir);
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(partial))) {
+                write(job.getReportType(), out);
+            }
+            Files.move(partial, artifact, StandardCopyOption.ATOMIC_MOVE);
+
+            LocalDateTime now = LocalDateTime.now();
+            long fileSize = Files.size(artifact);
+            int updated = reportJobRepository.markCompleted(jobId, now, artifact.toString(), fileSize,
+                    now.plusHours(artifactTtlHours), JobStatus.PROCESSING, JobStatus.COMPLETED);
+            if (updated == 0) {
+                // il job è stato registrato come FAILED durante la generazione: il file non verrà mai scaricato
+                log.warn("Report job {} no longer processing, discarding generated report", jobId);
+                deleteQuietly(artifact);
+                return;
+            }
+
+            log.info("Report job {} completed: {} bytes", jobId, fileSize);
+        } catch (Exception e) {
+            log.error("Report job {} failed: {}", jobId, e.getMessage(), e);
+            deleteQuietly(partial);
+            fail(job, JobStatus.PROCESSING, "Report generation failed: " + e.getMessage());
+        }
+    }
+
+    private void write(ReportJobType reportType, OutputStream out) {
+        switch (reportType) {
+            case SUMMARY_PDF -> reportExportService.writeSummaryReportPdf(out);
+            case AVERAGE_SPEND_CSV -> reportExportService.writeAverageSpend(ReportExportFormat.CSV, out);
+            case AVERAGE_SPEND_NDJSON -> reportExportService.writeAverageSpend(ReportExportFormat.NDJSON, out);
+        }
+    }
+
+    private void fail(ReportJob job, JobStatus expectedStatus, String errorMessage) {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime expiresAt = now.plusHours(artifactTtlHours);
+        int updated = reportJobRepository.markFailed(job.getJobId(), expectedStatus, now, errorMessage, expiresAt,
+                JobStatus.FAILED);
+        if (updated == 0) {
+            log.warn("Report job {} no longer {}, keeping its current status", job.getJobId(), expectedStatus);
+            return;
+        }
+
+        job.setStatus(JobStatus.FAILED);
+        job.setEndTime(now);
+        job.setErrorMessage(errorMessage);
+        job.setExpiresAt(expiresAt);
+    }
+
+    private ReportJob findJob(String jobId, String username) {
+        return reportJobRepository.findById(jobId)
+                .filter(job -> job.getCreatedBy().equals(username))
+                .filter(job -> job.getExpiresAt().isAfter(LocalDateTime.now()))
+                .orElseThrow(() -> new ResourceNotFoundException("Report job not found with id: " + jobId));
+    }
+
+    private Path artifactPath(ReportJob job) {
+        return artifactDir.resolve(job.getJobId() + "." + job.getReportType().getExtension());
+    }
+
+    private static Path partialPath(Path artifact) {
+        return artifact.resolveSibling(artifact.getFileName() + PARTIAL_SUFFIX);
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Could not delete report file {}: {}", path, e.getMessage());
+        }
+    }
+
+    private static ReportJobDTO toDto(ReportJob job) {
+        return ReportJobDTO.builder()
+                .jobId(job.getJobId())
+                .reportType(job.getReportType())
+                .status(job.getStatus())
+                .startTime(job.getStartTime())
+                .endTime(job.getEndTime())
+                .expiresAt(job.getExpiresAt())
+                .fileSize(job.getFileSize())
+                .errorMessage(job.getErrorMessage())
+                .build();
+    }
+}
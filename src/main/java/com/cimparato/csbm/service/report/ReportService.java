@@ -3,13 +3,16 @@ package com.cimparato.csbm.service.report;
 import com.cimparato.csbm.aop.logging.LogMethod;
 import com.cimparato.csbm.dto.report.SummaryReportDTO;
 import com.cimparato.csbm.repository.CloudServiceRepository;
+import com.cimparato.csbm.repository.projection.CustomerAverageSpend;
 import com.cimparato.csbm.service.CloudServiceService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.logging.LogLevel;
 import org.springframework.stereotype.Service;
 
+import java.io.InputStream;
 import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -20,25 +23,63 @@ public class ReportService {
     private final CloudServiceRepository cloudServiceRepository;
     private final CloudServiceService cloudServiceService;
     private final PdfGenerator pdfGenerator;
+    private final ReportCache reportCache;
 
-    public ReportService(CloudServiceRepository cloudServiceRepository, CloudServiceService cloudServiceService, PdfGenerator pdfGenerator) {
+    public ReportService(CloudServiceRepository cloudServiceRepository, CloudServiceService cloudServiceService,
+                         PdfGenerator pdfGenerator, ReportCache reportCache) {
         this.cloudServiceRepository = cloudServiceRepository;
         this.cloudServiceService = cloudServiceService;
         this.pdfGenerator = pdfGenerator;
+        this.reportCache = reportCache;
+    }
+
+    /**
+     * Restituisce il report di riepilogo della versione corrente dei dati, rigenerandolo solo se i dati sono
+     * cambiati dall'ultima generazione.
+     */
+    public ReportSnapshot getSummaryReport() {
+        return reportCache.getSummary(this::generateSummaryReport);
+    }
+
+    /**
+     * Apre il PDF del report, generato una sola volta per ogni versione del report e conservato su disco.
+     * Il documento viene scritto direttamente sul file, senza mantenerlo in memoria.
+     */
+    public InputStream openSummaryReportPdf(ReportSnapshot snapshot) {
+        return snapshot.openPdf((report, out) -> pdfGenerator.writePdf(report, averageSpending(report), out));
+    }
+
+    private static Iterator<CustomerAverageSpend> averageSpending(SummaryReportDTO report) {
+        Map<String, BigDecimal> averageSpendingPerCustomer = report.getAverageSpendingPerCustomer() != null
+                ? report.getAverageSpendingPerCustomer()
+                : Map.of();
+        return averageSpendingPerCustomer.entrySet().stream()
+                .map(entry -> new CustomerAverageSpend(entry.getKey(), entry.getValue()))
+                .iterator();
     }
 
     @LogMethod(level = LogLevel.INFO, logParams = true, logResult = true, measureTime = true, message = "Generating report")
     public SummaryReportDTO generateSummaryReport() {
+        SummaryReportDTO report = generateSummaryReportWithoutAverageSpend();
+
+        // spesa media per cliente
+        Map<String, BigDecimal> averageSpendPerCustomer = cloudServiceService.getAverageSpendPerCustomer();
+        report.setAverageSpendingPerCustomer(averageSpendPerCustomer);
+
+        return report;
+    }
+
+    /**
+     * Report di riepilogo senza la spesa media per cliente, l'unica sezione con una riga per ogni cliente: nelle
+     * esportazioni in streaming viene letta con un cursore invece che caricata in memoria.
+     */
+    public SummaryReportDTO generateSummaryReportWithoutAverageSpend() {
         SummaryReportDTO report = new SummaryReportDTO();
 
         // servizi attivi per tipo
         Map<String, Long> activeServicesByType = cloudServiceService.getActiveServicesByType();
         report.setActiveServicesByType(activeServicesByType);
 
-        // spesa media per cliente
-        Map<String, BigDecimal> averageSpendPerCustomer = cloudServiceService.getAverageSpendPerCustomer();
-        report.setAverageSpendingPerCustomer(averageSpendPerCustomer);
-
         // clienti con più di un servizio scaduto
         List<String> customersWithMultipleExpired = cloudServiceService.getCustomersWithMultipleExpiredServices();
         report.setCustomersWithMultipleExpiredServices(customersWithMultipleExpired);
@@ -0,0 +1,159 @@
+package com.cimparato.csbm.service.report;
+
+import com.cimparato.csbm.dto.report.SummaryReportDTO;
+import com.cimparato.csbm.web.rest.errors.ReportGenerationException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+/**
+ * Report di riepilogo generato per una versione dei dati, con l'ETag calcolato sul suo contenuto.
+ *
+ * Il PDF viene scritto su disco alla prima richiesta, in un file della directory app.report.cache.pdf-dir identificato
+ * dall'ETag, e riutilizzato dalle successive senza essere mantenuto in memoria; richieste contemporanee attendono la
+ * stessa generazione. Scritto un nuovo PDF, i file delle versioni precedenti vengono eliminati.
+ */
+@Slf4j
+public final class ReportSnapshot {
+
+    private static final String PDF_PREFIX = "summary-";
+    private static final String PDF_SUFFIX = ".pdf";
+    private static final String PARTIAL_SUFFIX = ".part";
+
+    private final SummaryReportDTO report;
+    private final String etag;
+    private final long generatedAtNanos;
+    private final Path pdfDir;
+    private final AtomicReference<CompletableFuture<Path>> pdf = new AtomicReference<>();
+
+    ReportSnapshot(SummaryReportDTO report, String etag, long generatedAtNanos, Path pdfDir) {
+        this.report = report;
+        this.etag = etag;
+        this.generatedAtNanos = generatedAtNanos;
+        this.pdfDir = pdfDir;
+    }
+
+    public SummaryReportDTO getReport() {
+        return report;
+    }
+
+    /**
+     * ETag del report JSON, calcolato sul contenuto: lo stesso contenuto ha lo stesso ETag anche se rigenerato.
+     */
+    public String getEtag() {
+        return "\"" + etag + "\"";
+    }
+
+    /**
+     * ETag del PDF, derivato da quello del report da cui il PDF viene generato.
+     */
+    public String getPdfEtag() {
+        return "\"pdf-" + etag + "\"";
+    }
+
+    long getGeneratedAtNanos() {
+        return generatedAtNanos;
+    }
+
+    /**
+     * Apre il PDF del report, scrivendolo su disco con pdfWriter se non è ancora stato generato. Se la generazione
+     * fallisce, o il file è stato eliminato perché sostituito da una versione successiva, la richiesta successiva
+     * lo rigenera.
+     *
+     * @return lo stream del PDF, da chiudere a cura del chiamante: il contenuto resta leggibile anche se il file
+     * viene eliminato dopo l'apertura
+     */
+    public InputStream openPdf(BiConsumer<SummaryReportDTO, OutputStream> pdfWriter) {
+        while (true) {
+            CompletableFuture<Path> cached = pdf.get();
+            if (cached != null && !cached.isCompletedExceptionally()) {
+                Path path = ReportCache.await(cached);
+                try {
+                    return Files.newInputStream(path);
+                } catch (NoSuchFileException e) {
+                    // file eliminato da una generazione più recente: viene riscritto
+                    pdf.compareAndSet(cached, null);
+                    continue;
+                } catch (IOException e) {
+                    throw new ReportGenerationException("Error reading PDF report", e);
+                }
+            }
+
+            CompletableFuture<Path> generation = new CompletableFuture<>();
+            if (!pdf.compareAndSet(cached, generation)) {
+                // un'altra richiesta ha avviato la generazione
+                continue;
+            }
+
+            try {
+                generation.complete(writePdf(pdfWriter));
+            } catch (RuntimeException e) {
+                generation.completeExceptionally(e);
+                pdf.compareAndSet(generation, null);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Scrive il PDF in un file parziale, rinominato solo a scrittura terminata: un file leggibile è sempre completo.
+     * Un file con lo stesso ETag ha lo stesso contenuto e viene riutilizzato.
+     */
+    private Path writePdf(BiConsumer<SummaryReportDTO, OutputStream> pdfWriter) {
+        Path path = pdfDir.resolve(PDF_PREFIX + etag + PDF_SUFFIX);
+        if (Files.isRegularFile(path)) {
+            return path;
+        }
+
+        Path partial = null;
+        try {
+            Files.createDirectories(pdfDir);
+            partial = Files.createTempFile(pdfDir, PDF_PREFIX + etag, PDF_SUFFIX + PARTIAL_SUFFIX);
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(partial))) {
+                pdfWriter.accept(report, out);
+            }
+            Files.move(partial, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            log.debug("Summary report PDF written to {} ({} bytes)", path, Files.size(path));
+        } catch (IOException e) {
+            throw new ReportGenerationException("Error writing PDF report", e);
+        } finally {
+            if (partial != null) {
+                deleteQuietly(partial);
+            }
+        }
+
+        deletePreviousPdfs(path);
+        return path;
+    }
+
+    private void deletePreviousPdfs(Path current) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(pdfDir, PDF_PREFIX + "*" + PDF_SUFFIX)) {
+            for (Path file : files) {
+                if (!file.equals(current)) {
+                    deleteQuietly(file);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Could not list previous summary report PDFs in {}: {}", pdfDir, e.getMessage());
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Could not delete file {}: {}", path, e.getMessage());
+        }
+    }
+}
@@ -1,46 +1,55 @@
 package com.cimparato.csbm.service.report.impl;
 
 import com.cimparato.csbm.dto.report.SummaryReportDTO;
+import com.cimparato.csbm.repository.projection.CustomerAverageSpend;
 import com.cimparato.csbm.service.report.PdfGenerator;
 import com.cimparato.csbm.web.rest.errors.ReportGenerationException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import net.sf.jasperreports.engine.*;
 import net.sf.jasperreports.engine.data.JRBeanCollectionDataSource;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.ResourceLoader;
+import net.sf.jasperreports.engine.fill.JRSwapFileVirtualizer;
+import net.sf.jasperreports.engine.util.JRSwapFile;
 import org.springframework.stereotype.Service;
 
-import java.io.IOException;
-import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Genera il PDF del report di riepilogo riempiendo il template compilato una sola volta da JasperTemplateRegistry.
+ *
+ * Nell'esportazione in streaming la spesa media per cliente viene letta riga per riga da un cursore, le pagine
+ * eccedenti vengono spostate su disco da un virtualizer e il PDF viene scritto direttamente sullo stream di uscita.
+ */
 @Service
 public class JasperReportGenerator implements PdfGenerator {
 
-    private final ResourceLoader resourceLoader;
+    // pagine del report mantenute in memoria durante l'esportazione in streaming
+    private static final int VIRTUALIZER_MAX_PAGES = 50;
+    // dimensione (in byte) dei blocchi del file temporaneo delle pagine
+    private static final int VIRTUALIZER_BLOCK_SIZE = 4096;
+
+    private final JasperTemplateRegistry templateRegistry;
     private final ObjectMapper objectMapper;
 
-    public JasperReportGenerator(ResourceLoader resourceLoader, ObjectMapper objectMapper) {
-        this.resourceLoader = resourceLoader;
+    public JasperReportGenerator(JasperTemplateRegistry templateRegistry, ObjectMapper objectMapper) {
+        this.templateRegistry = templateRegistry;
         this.objectMapper = objectMapper;
     }
 
     @Override
     public byte[] generatePdf(SummaryReportDTO data) {
+        // template compilato, condiviso fra le richieste
+        JasperReport jasperReport = templateRegistry.get(JasperTemplateRegistry.SUMMARY_REPORT);
+
         try {
 
             Map<String, Object> params = buildParameters(data);
 
-            // carica il template
-            Resource resource = resourceLoader.getResource("classpath:reports/summary_report.jrxml");
-            InputStream inputStream = resource.getInputStream();
-
-            // compila il report
-            JasperReport jasperReport = JasperCompileManager.compileReport(inputStream);
-
             // riempi il report con i dati
             JasperPrint jasperPrint = JasperFillManager.fillReport(jasperReport, params, new JREmptyDataSource());
 
@@ -48,14 +57,38 @@ public class JasperReportGenerator implements PdfGenerator {
             return JasperExportManager.exportReportToPdf(jasperPrint);
 
         } catch (JRException e) {
-            throw new ReportGenerationException("Failed to compile report template: " + e.getMessage(), e);
-        } catch (IOException e) {
-            throw new ReportGenerationException("Failed to read report template: " + e.getMessage(), e);
+            throw new ReportGenerationException("Failed to fill report template: " + e.getMessage(), e);
         } catch (Exception e) {
             throw new ReportGenerationException("Failed to generate PDF report", e);
         }
     }
 
+    @Override
+    public void writePdf(SummaryReportDTO data, Iterator<CustomerAverageSpend> averageSpending, OutputStream out) {
+        JasperReport jasperReport = templateRegistry.get(JasperTemplateRegistry.SUMMARY_REPORT);
+
+        // le pagine compilate oltre VIRTUALIZER_MAX_PAGES vengono spostate su un file temporaneo
+        JRSwapFileVirtualizer virtualizer = new JRSwapFileVirtualizer(VIRTUALIZER_MAX_PAGES,
+                new JRSwapFile(System.getProperty("java.io.tmpdir"), VIRTUALIZER_BLOCK_SIZE, VIRTUALIZER_MAX_PAGES),
+                true);
+        try {
+
+            Map<String, Object> params = buildParameters(data);
+            params.put("averageSpending", new CustomerAverageSpendDataSource(averageSpending));
+            params.put(JRParameter.REPORT_VIRTUALIZER, virtualizer);
+
+            JasperPrint jasperPrint = JasperFillManager.fillReport(jasperReport, params, new JREmptyDataSource());
+            virtualizer.setReadOnly(true);
+
+            JasperExportManager.exportReportToPdfStream(jasperPrint, out);
+
+        } catch (JRException e) {
+            throw new ReportGenerationException("Failed to export report: " + e.getMessage(), e);
+        } finally {
+            virtualizer.cleanup();
+        }
+    }
+
     private Map<String, Object> buildParameters(SummaryReportDTO summaryData) {
 
         Map<String, Object> parameters = new HashMap<>();
@@ -70,9 +103,13 @@ public class JasperReportGenerator implements PdfGenerator {
         });
         parameters.put("activeServices", new JRBeanCollectionDataSource(activeServices));
 
-        // averageSpendingPerCustomer in una lista di mappe
+        // averageSpendingPerCustomer in una lista di mappe (assente nell'esportazione in streaming)
         List<Map<String, Object>> averageSpending = new ArrayList<>();
-        summaryData.getAverageSpendingPerCustomer().forEach((key, value) -> {
+        Map<String, BigDecimal> averageSpendingPerCustomer = summaryData.getAverageSpendingPerCustomer();
+        if (averageSpendingPerCustomer == null) {
+            averageSpendingPerCustomer = Map.of();
+        }
+        averageSpendingPerCustomer.forEach((key, value) -> {
             Map<String, Object> spending = new HashMap<>();
             spending.put("customerId", key);
             spending.put("amount", value);
@@ -99,4 +136,32 @@ public class JasperReportGenerator implements PdfGenerator {
 
         return parameters;
     }
+
+    /**
+     * Espone al template le righe della spesa media per cliente lette da un cursore, una alla volta.
+     */
+    private static class CustomerAverageSpendDataSource implements JRDataSource {
+
+        private final Iterator<CustomerAverageSpend> rows;
+        private CustomerAverageSpend current;
+
+        CustomerAverageSpendDataSource(Iterator<CustomerAverageSpend> rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public boolean next() {
+            current = rows.hasNext() ? rows.next() : null;
+            return current != null;
+        }
+
+        @Override
+        public Object getFieldValue(JRField field) throws JRException {
+            return switch (field.getName()) {
+                case "customerId" -> current.customerId();
+                case "amount" -> current.averageAmount();
+                default -> throw new JRException("Unknown field: " + field.getName());
+            };
+        }
+    }
 }
@@ -0,0 +1,74 @@
+package com.cimparato.csbm.service.report.impl;
+
+import com.cimparato.csbm.web.rest.errors.ReportGenerationException;
+import lombok.extern.slf4j.Slf4j;
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JasperCompileManager;
+import net.sf.jasperreports.engine.JasperReport;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registro dei template Jasper compilati.
+ *
+ * Ogni template (classpath:reports/&lt;nome&gt;.jrxml) viene compilato una sola volta e il JasperReport risultante,
+ * immutabile, viene condiviso da tutte le generazioni di PDF. I template noti vengono compilati all'avvio
+ * dell'applicazione, così che la prima richiesta non paghi il costo della compilazione.
+ */
+@Slf4j
+@Component
+public class JasperTemplateRegistry {
+
+    public static final String SUMMARY_REPORT = "summary_report";
+
+    private static final List<String> TEMPLATES = List.of(SUMMARY_REPORT);
+
+    private final ResourceLoader resourceLoader;
+    private final Map<String, JasperReport> compiled = new ConcurrentHashMap<>();
+
+    public JasperTemplateRegistry(ResourceLoader resourceLoader) {
+        this.resourceLoader = resourceLoader;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        for (String name : TEMPLATES) {
+            try {
+                get(name);
+            } catch (ReportGenerationException e) {
+                // l'errore viene riproposto alla prima richiesta del report
+                log.error("Unable to compile report template {}: {}", name, e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Restituisce il template compilato, compilandolo alla prima richiesta.
+     *
+     * @throws ReportGenerationException se il template non può essere letto o compilato
+     */
+    public JasperReport get(String name) {
+        return compiled.computeIfAbsent(name, this::compile);
+    }
+
+    private JasperReport compile(String name) {
+        long start = System.nanoTime();
+        try (InputStream inputStream = resourceLoader.getResource("classpath:reports/" + name + ".jrxml").getInputStream()) {
+            JasperReport report = JasperCompileManager.compileReport(inputStream);
+            log.info("Compiled report template {} in {} ms", name, (System.nanoTime() - start) / 1_000_000);
+            return report;
+        } catch (JRException e) {
+            throw new ReportGenerationException("Failed to compile report template: " + e.getMessage(), e);
+        } catch (IOException e) {
+            throw new ReportGenerationException("Failed to read report template: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.cimparato.csbm.service.scheduled;
+
+import com.cimparato.csbm.config.properties.AppProperties;
+import com.cimparato.csbm.service.notification.outbox.NotificationOutbox;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.TimeUnit;
+
+@Service
+@Slf4j
+public class NotificationOutboxRelayService {
+
+    private final NotificationOutbox notificationOutbox;
+    private final int maxBatchesPerRun;
+
+    public NotificationOutboxRelayService(NotificationOutbox notificationOutbox, AppProperties appProperties) {
+        this.notificationOutbox = notificationOutbox;
+        this.maxBatchesPerRun = Math.max(1, appProperties.getNotification().getOutbox().getMaxBatchesPerRun());
+    }
+
+    /**
+     * Pubblica su Kafka le notifiche in attesa nell'outbox, un blocco alla volta, finché l'outbox non è vuoto, un
+     * blocco non viene pubblicato completamente o viene raggiunto il numero massimo di blocchi per esecuzione.
+     *
+     * Ogni istanza dell'applicazione esegue il proprio relay: i blocchi prelevati con un lease (FOR UPDATE SKIP
+     * LOCKED) sono disgiunti, quindi le istanze svuotano l'outbox in parallelo senza pubblicare due volte la stessa
+     * notifica.
+     */
+    @Scheduled(cron = "${app.scheduling.task-scheduler.job-scheduling.notification-outbox-relay-cron:*/5 * * * * *}") // default ogni 5 secondi
+    public void relayNotificationsJob() {
+        long start = System.nanoTime();
+        long sent = 0;
+        long failed = 0;
+        long unconfirmed = 0;
+        int batches = 0;
+
+        while (batches < maxBatchesPerRun) {
+            NotificationOutbox.RelayResult result = notificationOutbox.relayBatch();
+            if (result.claimed() == 0) {
+                break;
+            }
+            batches++;
+            sent += result.sent();
+            failed += result.failed();
+            unconfirmed += result.unconfirmed();
+            if (result.failed() > 0 || result.unconfirmed() > 0 || result.claimed() < notificationOutbox.getRelayBatchSize()) {
+                break;
+            }
+        }
+
+        if (batches > 0) {
+            long elapsedMs = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            log.info("Notification outbox relay: {} notifications sent, {} failed, {} unconfirmed in {} batches, {} ms ({} rows/s)",
+                    sent, failed, unconfirmed, batches, elapsedMs, sent * 1000 / elapsedMs);
+        }
+    }
+}
@@ -1,25 +1,33 @@
 package com.cimparato.csbm.service.scheduled;
 
 import com.cimparato.csbm.aop.logging.LogMethod;
+import com.cimparato.csbm.config.async.NotificationRetryTaskExecutor;
 import com.cimparato.csbm.config.properties.AppProperties;
 import com.cimparato.csbm.config.properties.KafkaAppProperties;
 import com.cimparato.csbm.domain.model.Notification;
+import com.cimparato.csbm.domain.notification.NotificationStatus;
 import com.cimparato.csbm.domain.notification.NotificationType;
+import com.cimparato.csbm.mapper.NotificationMapper;
 import com.cimparato.csbm.service.notification.NotificationManager;
 import com.cimparato.csbm.service.notification.NotificationService;
-import com.cimparato.csbm.service.notification.factory.BaseNotification;
-import com.cimparato.csbm.service.notification.factory.EmailNotification;
-import com.cimparato.csbm.service.notification.factory.KafkaNotification;
-import com.cimparato.csbm.domain.notification.NotificationStatus;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.logging.LogLevel;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @Slf4j
 @Service
@@ -27,105 +35,173 @@ public class NotificationRetryService {
 
     private final NotificationService notificationService;
     private final NotificationManager notificationManager;
-    private final ObjectMapper mapper;
-    private final AppProperties appProperties;
-    private final KafkaAppProperties kafkaAppProperties;
-
-    public NotificationRetryService(NotificationService notificationService, NotificationManager notificationManager, ObjectMapper mapper, AppProperties appProperties, KafkaAppProperties kafkaAppProperties) {
+    private final NotificationMapper notificationMapper;
+    private final NotificationRetryTaskExecutor notificationRetryExecutor;
+    private final Map<NotificationType, Semaphore> channelPermits = new EnumMap<>(NotificationType.class);
+    private final int batchSize;
+    private final int maxBatchesPerRun;
+    private final int leaseSeconds;
+    private final int sendTimeoutSeconds;
+    private final int maxAttempts;
+    private final long backoffDelayMs;
+    private final double backoffMultiplier;
+
+    public NotificationRetryService(
+            NotificationService notificationService,
+            NotificationManager notificationManager,
+            NotificationMapper notificationMapper,
+            NotificationRetryTaskExecutor notificationRetryExecutor,
+            AppProperties appProperties,
+            KafkaAppProperties kafkaAppProperties
+    ) {
+        var retry = appProperties.getNotification().getRetry();
+        var consumerRetry = kafkaAppProperties.getConsumer().getRetry();
         this.notificationService = notificationService;
         this.notificationManager = notificationManager;
-        this.mapper = mapper;
-        this.appProperties = appProperties;
-        this.kafkaAppProperties = kafkaAppProperties;
+        this.notificationMapper = notificationMapper;
+        this.notificationRetryExecutor = notificationRetryExecutor;
+        for (NotificationType type : NotificationType.values()) {
+            channelPermits.put(type, new Semaphore(Math.max(1, retry.getParallelism().getOrDefault(type, 1))));
+        }
+        this.batchSize = Math.max(1, retry.getBatchSize());
+        this.maxBatchesPerRun = Math.max(1, retry.getMaxBatchesPerRun());
+        this.leaseSeconds = retry.getLeaseSeconds();
+        this.sendTimeoutSeconds = retry.getSendTimeoutSeconds();
+        this.maxAttempts = consumerRetry.getAttempts();
+        this.backoffDelayMs = consumerRetry.getBackoff().getDelay();
+        this.backoffMultiplier = consumerRetry.getBackoff().getMultiplier();
     }
 
     /**
-     * Recupera le notifica in stato FAILED che non abbiano raggiunto il numero massimo di retry, per ognuna di esse:
-     * - aggiorna lo stato in PROCESSING
-     * - costruisce il messaggio da inviare
-     * - invoca il NotificationManager per inviare la notifica
-     * - se la notifica risulta inviata, imposta lo stato a SENT
-     * - in caso di errore imposta lo stato in FAILED aggiornando il retry count e il messaggio di errore
+     * Ritenta l'invio delle notifiche in stato FAILED che non abbiano raggiunto il numero massimo di tentativi e
+     * il cui backoff sia trascorso, un blocco alla volta:
+     * - preleva il blocco con un lease (stato PROCESSING fino alla scadenza del lease), così che più istanze possano
+     *   ritentare in parallelo notifiche diverse
+     * - invia le notifiche in parallelo, con un numero massimo di invii contemporanei per canale
+     * - registra con un'unica scrittura l'esito: SENT, oppure FAILED con l'errore e l'istante del prossimo tentativo
+     *   secondo il backoff esponenziale di app.kafka.consumer.retry
+     *
+     * Per gli invii non completati entro send-timeout-seconds non viene registrato alcun esito, perché potrebbero
+     * ancora andare a buon fine: le notifiche restano in PROCESSING fino alla scadenza del lease e vengono poi
+     * ritentate, o passano in stato FAILED se hanno esaurito i tentativi.
      */
-    @Deprecated
     @LogMethod(level = LogLevel.DEBUG, measureTime = true)
-//    @Scheduled(cron = "${app.async.task-scheduler.job-scheduling.failed-notifications-retry-cron-cron:0 */15 * * * *}") // default 15 minuti
-    @Transactional
+    @Scheduled(cron = "${app.scheduling.task-scheduler.job-scheduling.failed-notifications-retry-cron:*/30 * * * * *}") // default ogni 30 secondi
     public void retryNotificationsJob() {
+        for (int batches = 0; batches < maxBatchesPerRun; batches++) {
+            // il lease viene confrontato con il valore salvato: la precisione è ridotta a quella della colonna
+            LocalDateTime leaseUntil = LocalDateTime.now().plusSeconds(leaseSeconds).truncatedTo(ChronoUnit.MILLIS);
+            List<Notification> notifications = notificationService.claimFailed(batchSize, maxAttempts, leaseUntil);
+            if (notifications.isEmpty()) {
+                return;
+            }
 
-        List<Notification> failedNotifications = notificationService.findFailed();
-
-        log.info("Found {} notifications with status {}", failedNotifications.size(), NotificationStatus.FAILED.name());
-
-        var i = 0;
-        var notificationsSize = failedNotifications.size();
-        for (Notification notification : failedNotifications) {
-            try {
+            int pending = retry(notifications, leaseUntil);
 
-                var notificationId = notification.getId();
+            // con invii ancora in corso i canali sono saturi: i blocchi successivi vengono ritentati alla prossima esecuzione
+            if (pending > 0 || notifications.size() < batchSize) {
+                return;
+            }
+        }
+    }
 
-                i = i + 1;
-                log.info("Sending notification {}/{} - notification id `{}`, channel `{}`",
-                        i, notificationsSize, notificationId, notification.getType());
+    /**
+     * @return il numero di invii non completati entro send-timeout-seconds, di cui non è stato registrato l'esito
+     */
+    private int retry(List<Notification> notifications, LocalDateTime leaseUntil) {
+        log.info("Retrying {} notifications with status {}", notifications.size(), NotificationStatus.FAILED.name());
 
-                notification.setStatus(NotificationStatus.PROCESSING);
-                notificationService.save(notification);
+        List<CompletableFuture<Void>> sends = new ArrayList<>(notifications.size());
+        for (Notification notification : notifications) {
+            sends.add(send(notification));
+        }
 
-                BaseNotification baseNotification = buildMessageFromNotification(notification);
-                notificationManager.notifyUser(baseNotification, notification.getType());
+        try {
+            CompletableFuture.allOf(sends.toArray(CompletableFuture[]::new)).get(sendTimeoutSeconds, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            // gli errori vengono registrati per ogni singola notifica
+        } catch (TimeoutException e) {
+            log.warn("Notification retries not completed within {} seconds", sendTimeoutSeconds);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
 
+        LocalDateTime now = LocalDateTime.now();
+        List<Notification> completed = new ArrayList<>(notifications.size());
+        int sent = 0;
+        for (int i = 0; i < notifications.size(); i++) {
+            Notification notification = notifications.get(i);
+            CompletableFuture<Void> future = sends.get(i);
+            if (!future.isDone()) {
+                continue;
+            }
+            if (!future.isCompletedExceptionally()) {
                 notification.setStatus(NotificationStatus.SENT);
-                notification.setSentAt(LocalDateTime.now());
-
-                log.info("Notification with id `{}` sent successfully", notificationId);
-
-            } catch (Exception e) {
-                log.warn("Error on sending notification with id `{}` : ", notification.getId(), e.getMessage());
-
+                notification.setSentAt(now);
+                notification.setErrorMessage(null);
+                notification.setNextAttemptAt(null);
+                sent++;
+            } else {
+                String errorMessage = failureMessage(future);
+                log.warn("Error on sending notification with id `{}` (attempt {}): {}",
+                        notification.getId(), notification.getRetryCount(), errorMessage);
                 notification.setStatus(NotificationStatus.FAILED);
-                notification.setErrorMessage(e.getMessage());
-                notification.setRetryCount(notification.getRetryCount() + 1);
+                notification.setErrorMessage(errorMessage);
+                notification.setNextAttemptAt(now.plus(backoff(notification.getRetryCount())));
             }
-
-            notificationService.save(notification);
+            completed.add(notification);
         }
-    }
-
-    private BaseNotification buildMessageFromNotification(Notification notification) {
-        NotificationType type = notification.getType();
 
-        BaseNotification baseNotification = null;
+        int pending = notifications.size() - completed.size();
+        if (pending > 0) {
+            log.warn("{} notification retries still running, their outcome is left to the lease expiring at {}",
+                    pending, leaseUntil);
+        }
 
-        if (NotificationType.EMAIL.equals(type)) {
+        if (!completed.isEmpty()) {
+            int updated = notificationService.completeRetries(completed, leaseUntil);
+            if (updated < completed.size()) {
+                log.warn("{} notification leases expired before their outcome was saved", completed.size() - updated);
+            }
+        }
 
-            baseNotification = EmailNotification.builder()
-                    .type(type)
-                    .recipient(notification.getRecipient())
-                    .subject(notification.getSubject())
-                    .content(notification.getContent())
-                    .build();
+        log.info("Retried {} notifications: {} sent, {} failed, {} still running",
+                notifications.size(), sent, completed.size() - sent, pending);
+        return pending;
+    }
 
-        } else if (NotificationType.KAFKA.equals(type)) {
+    private CompletableFuture<Void> send(Notification notification) {
+        Semaphore permits = channelPermits.get(notification.getType());
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        }
 
-            var key = notification.getCustomerId();
-            var topic = kafkaAppProperties.getTopic().getAlertCustomerExpired();
-            try {
-                var payload = mapper.writeValueAsString(notification);
-                baseNotification = KafkaNotification.builder()
-                        .type(type)
-                        .topic(topic)
-                        .partitionKey(key)
-                        .payload(payload)
-                        .build();
+        CompletableFuture<Void> future;
+        try {
+            future = notificationManager.notifyUserAsync(notificationMapper.toDto(notification), notificationRetryExecutor);
+        } catch (RuntimeException e) {
+            permits.release();
+            return CompletableFuture.failedFuture(e);
+        }
+        return future.whenComplete((result, ex) -> permits.release());
+    }
 
-            } catch (JsonProcessingException e) {
-                log.error("Failed to serialize message for topic: {}, key: {}", topic, key, e);
-            }
+    /**
+     * Attesa prima del tentativo successivo: delay * multiplier^(tentativi - 1).
+     */
+    Duration backoff(int attempts) {
+        double delay = backoffDelayMs * Math.pow(backoffMultiplier, Math.max(0, attempts - 1));
+        return Duration.ofMillis((long) Math.min(delay, Long.MAX_VALUE));
+    }
 
-        } else {
-            throw new IllegalArgumentException("Invalid notification type: " + type.name());
+    private static String failureMessage(CompletableFuture<?> future) {
+        Throwable error = future.handle((result, ex) -> ex).join();
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
         }
-
-        return baseNotification;
+        return error != null ? error.getMessage() : "Unknown error";
     }
 }
@@ -0,0 +1,28 @@
+package com.cimparato.csbm.service.scheduled;
+
+import com.cimparato.csbm.service.MessageDeduplicationService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+@Service
+@Slf4j
+public class ProcessedMessageCleanupService {
+
+    private final MessageDeduplicationService messageDeduplicationService;
+
+    public ProcessedMessageCleanupService(MessageDeduplicationService messageDeduplicationService) {
+        this.messageDeduplicationService = messageDeduplicationService;
+    }
+
+    /**
+     * Rimuove dall'archivio di deduplicazione gli ID dei messaggi elaborati oltre il TTL configurato.
+     */
+    @Scheduled(cron = "${app.scheduling.task-scheduler.job-scheduling.processed-messages-cleanup-cron:0 45 * * * *}") // default ogni ora
+    public void deleteExpiredProcessedMessagesJob() {
+        int deleted = messageDeduplicationService.deleteExpired();
+        if (deleted > 0) {
+            log.info("Deleted {} expired processed message ids", deleted);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.cimparato.csbm.service.scheduled;
+
+import com.cimparato.csbm.service.report.ReportJobService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+@Service
+@Slf4j
+public class ReportJobCleanupService {
+
+    private final ReportJobService reportJobService;
+
+    public ReportJobCleanupService(ReportJobService reportJobService) {
+        this.reportJobService = reportJobService;
+    }
+
+    /**
+     * Registra come falliti i job di generazione dei report rimasti in sospeso ed elimina i job scaduti, insieme ai
+     * report generati.
+     */
+    @Scheduled(cron = "${app.scheduling.task-scheduler.job-scheduling.report-jobs-cleanup-cron:0 10 * * * *}") // default ogni ora
+    public void cleanupReportJobsJob() {
+        int failed = reportJobService.failStaleJobs();
+        if (failed > 0) {
+            log.warn("Marked {} stale report jobs as failed", failed);
+        }
+
+        int deleted = reportJobService.deleteExpiredJobs();
+        if (deleted > 0) {
+            log.info("Deleted {} expired report jobs", deleted);
+        }
+    }
+}
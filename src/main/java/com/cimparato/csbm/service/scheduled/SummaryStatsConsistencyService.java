@@ -0,0 +1,31 @@
+package com.cimparato.csbm.service.scheduled;
+
+import com.cimparato.csbm.repository.projection.SummaryStatsDrift;
+import com.cimparato.csbm.service.CloudServiceService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+@Service
+@Slf4j
+public class SummaryStatsConsistencyService {
+
+    private final CloudServiceService cloudServiceService;
+
+    public SummaryStatsConsistencyService(CloudServiceService cloudServiceService) {
+        this.cloudServiceService = cloudServiceService;
+    }
+
+    /**
+     * Verifica che gli aggregati del report di riepilogo corrispondano ai servizi in cloud_services e li
+     * ricostruisce in caso di differenze.
+     */
+    @Scheduled(cron = "${app.scheduling.task-scheduler.job-scheduling.summary-stats-check-cron:0 0 3 * * *}") // default ogni giorno alle 3
+    public void checkSummaryStatsJob() {
+        SummaryStatsDrift drift = cloudServiceService.verifySummaryStats();
+        if (!drift.isEmpty()) {
+            log.warn("Summary stats drift detected ({} service types, {} customers): stats rebuilt",
+                    drift.serviceTypes(), drift.customers());
+        }
+    }
+}
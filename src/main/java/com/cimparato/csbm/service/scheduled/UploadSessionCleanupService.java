@@ -0,0 +1,28 @@
+package com.cimparato.csbm.service.scheduled;
+
+import com.cimparato.csbm.service.file.UploadSessionService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+@Service
+@Slf4j
+public class UploadSessionCleanupService {
+
+    private final UploadSessionService uploadSessionService;
+
+    public UploadSessionCleanupService(UploadSessionService uploadSessionService) {
+        this.uploadSessionService = uploadSessionService;
+    }
+
+    /**
+     * Chiude i caricamenti a porzioni abbandonati, liberando lo spazio occupato dai dati già ricevuti.
+     */
+    @Scheduled(cron = "${app.scheduling.task-scheduler.job-scheduling.expired-upload-sessions-cleanup-cron:0 30 * * * *}") // default ogni ora
+    public void expireUploadSessionsJob() {
+        int expired = uploadSessionService.expireSessions();
+        if (expired > 0) {
+            log.info("Expired {} abandoned chunked uploads", expired);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.cimparato.csbm.util;
+
+import com.github.luben.zstd.ZstdInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Compressioni supportate per i file caricati, riconosciute dal suffisso del nome (es. services.csv.gz).
+ *
+ * I file compressi vengono salvati così come sono stati ricevuti e decompressi in streaming solo quando vengono
+ * letti, senza mai scrivere su disco o tenere in memoria il contenuto decompresso.
+ */
+public enum FileCompression {
+
+    NONE(""),
+    GZIP(".gz"),
+    ZSTD(".zst");
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String suffix;
+
+    FileCompression(String suffix) {
+        this.suffix = suffix;
+    }
+
+    public String getSuffix() {
+        return suffix;
+    }
+
+    /**
+     * Riconosce la compressione dal suffisso del nome del file; NONE se il file non è compresso.
+     */
+    public static FileCompression fromFilename(String filename) {
+        if (filename != null) {
+            String lowerCaseFilename = filename.toLowerCase(Locale.ROOT);
+            for (FileCompression compression : values()) {
+                if (compression != NONE && lowerCaseFilename.endsWith(compression.suffix)) {
+                    return compression;
+                }
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Restituisce il nome del file senza il suffisso di compressione (services.csv.gz diventa services.csv).
+     */
+    public static String stripSuffix(String filename) {
+        FileCompression compression = fromFilename(filename);
+        return compression == NONE ? filename : filename.substring(0, filename.length() - compression.suffix.length());
+    }
+
+    /**
+     * Avvolge lo stream in uno stream che ne decomprime il contenuto durante la lettura.
+     */
+    public InputStream decompress(InputStream inputStream) throws IOException {
+        return switch (this) {
+            case NONE -> inputStream;
+            case GZIP -> new GZIPInputStream(inputStream, BUFFER_SIZE);
+            case ZSTD -> new ZstdInputStream(inputStream);
+        };
+    }
+
+    /**
+     * Decomprime in streaming l'inizio di un file, ad esempio per validarne l'intestazione.
+     *
+     * Lo stream restituito termina dopo la prima riga, o dopo maxLength byte decompressi se la riga è più lunga:
+     * l'intestazione viene letta senza decomprimere l'intero file. I dati compressi non validi o interrotti
+     * prima della fine della prima riga producono una IOException durante la lettura.
+     */
+    public InputStream decompressHead(InputStream inputStream, int maxLength) throws IOException {
+        return new FirstLineInputStream(decompress(inputStream), maxLength);
+    }
+
+    /**
+     * Come decompressHead(InputStream, int), per un file già in memoria.
+     */
+    public InputStream decompressHead(byte[] content, int maxLength) throws IOException {
+        return decompressHead(new ByteArrayInputStream(content), maxLength);
+    }
+
+    private static final class FirstLineInputStream extends FilterInputStream {
+
+        private int remaining;
+
+        private FirstLineInputStream(InputStream in, int maxLength) {
+            super(in);
+            this.remaining = maxLength;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            // la lettura si ferma dopo il fine riga
+            remaining = b == -1 || b == '\n' ? 0 : remaining - 1;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = super.read(b, off, Math.min(len, remaining));
+            if (read == -1) {
+                remaining = 0;
+                return -1;
+            }
+            for (int i = off; i < off + read; i++) {
+                if (b[i] == '\n') {
+                    remaining = 0;
+                    return i - off + 1;
+                }
+            }
+            remaining -= read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            return n <= 0 ? 0 : Math.max(read(new byte[(int) Math.min(n, 8192)]), 0);
+        }
+
+        @Override
+        public int available() {
+            return 0;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -19,17 +19,33 @@ public class FileUtil {
      */
     public static String calculateFileHash(MultipartFile file) throws IOException {
         try (InputStream is = file.getInputStream()) {
-            MessageDigest md = MessageDigest.getInstance("MD5");
+            MessageDigest md = newFileHashDigest();
             byte[] buffer = new byte[8192];
             int bytesRead;
             while ((bytesRead = is.read(buffer)) != -1) {
                 md.update(buffer, 0, bytesRead);
             }
-            byte[] digest = md.digest();
-            return DatatypeConverter.printHexBinary(digest).toLowerCase();
+            return toHashString(md.digest());
+        }
+    }
+
+    /**
+     * Crea il MessageDigest usato per l'hash dei file (MD5), ad esempio per calcolarlo durante la scrittura
+     * tramite DigestInputStream.
+     */
+    public static MessageDigest newFileHashDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
         } catch (NoSuchAlgorithmException e) {
             throw new RuntimeException("MD5 algorithm not available", e);
         }
     }
 
+    /**
+     * Converte il digest nella rappresentazione esadecimale minuscola usata come hash dei file.
+     */
+    public static String toHashString(byte[] digest) {
+        return DatatypeConverter.printHexBinary(digest).toLowerCase();
+    }
+
 }
@@ -40,8 +40,8 @@ public class FileUploadController {
                 Upload a CSV file containing cloud service usage data for processing.
         
                 ### File Requirements
-                - **Format**: CSV 
-                - **Max Size**: 10MB
+                - **Format**: CSV, optionally compressed as `.csv.gz` or `.csv.zst`
+                - **Max Size**: 10MB (larger files can be sent with the chunked upload API under `/v1/files/uploads`)
                 
                 ### CSV Structure
                 The CSV file must contain the following columns in this exact order:
@@ -2,7 +2,10 @@ package com.cimparato.csbm.web.rest;
 
 import com.cimparato.csbm.aop.logging.LogMethod;
 import com.cimparato.csbm.dto.report.SummaryReportDTO;
+import com.cimparato.csbm.service.report.ReportExportFormat;
+import com.cimparato.csbm.service.report.ReportExportService;
 import com.cimparato.csbm.service.report.ReportService;
+import com.cimparato.csbm.service.report.ReportSnapshot;
 import com.cimparato.csbm.util.ResponseWrapper;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
@@ -10,6 +13,9 @@ import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -17,7 +23,10 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @RestController
 @RequestMapping("/v1/report")
@@ -25,9 +34,11 @@ import org.springframework.web.bind.annotation.RestController;
 public class ReportController {
 
     private final ReportService reportService;
+    private final ReportExportService reportExportService;
 
-    public ReportController(ReportService reportService) {
+    public ReportController(ReportService reportService, ReportExportService reportExportService) {
         this.reportService = reportService;
+        this.reportExportService = reportExportService;
     }
 
     @LogMethod(measureTime = true)
@@ -40,6 +51,9 @@ public class ReportController {
                     2. average spending per customer
                     3. list of customers with more than one expired service
                     4. list of customers with services expiring within the next 15 days
+
+                    The report is regenerated only when a file has been processed since the last request.
+                    The response carries an ETag: a request with a matching If-None-Match header gets 304 Not Modified.
                     """,
             responses = {
                     @ApiResponse(
@@ -50,6 +64,7 @@ public class ReportController {
                                     schema = @Schema(implementation = ResponseWrapper.class)
                             )
                     ),
+                    @ApiResponse(responseCode = "304", description = "Not Modified - The report has not changed since the given ETag"),
                     @ApiResponse(responseCode = "401", description = "Unauthorized - Authentication required"),
                     @ApiResponse(responseCode = "403", description = "Forbidden - Insufficient permissions"),
                     @ApiResponse(responseCode = "500", description = "Internal Server Error - Error occurred while generating the report")
@@ -57,13 +72,18 @@ public class ReportController {
             security = @SecurityRequirement(name = "oauth2")
     )
     @PreAuthorize("hasRole('data_analyst')")
-    public ResponseEntity<ResponseWrapper<SummaryReportDTO>> buildSummaryReport() {
-        SummaryReportDTO summaryReportDTO = reportService.generateSummaryReport();
-        return ResponseEntity.ok(new ResponseWrapper<>(
-                true,
-                "Summary Report generated successfully",
-                summaryReportDTO)
-        );
+    public ResponseEntity<ResponseWrapper<SummaryReportDTO>> buildSummaryReport(WebRequest webRequest) {
+        ReportSnapshot snapshot = reportService.getSummaryReport();
+        if (webRequest.checkNotModified(snapshot.getEtag())) {
+            return null; // 304, con l'ETag già impostato sulla risposta
+        }
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.noCache()) // il client può conservare il report ma deve rivalidarlo
+                .body(new ResponseWrapper<>(
+                        true,
+                        "Summary Report generated successfully",
+                        snapshot.getReport())
+                );
     }
 
     @LogMethod(measureTime = true)
@@ -72,6 +92,7 @@ public class ReportController {
             summary = "Generate summary report in PDF format",
             description = """
                     Generates a PDF report containing the same information as the JSON summary report.
+                    The response carries an ETag: a request with a matching If-None-Match header gets 304 Not Modified.
                     """,
             responses = {
                     @ApiResponse(
@@ -79,6 +100,7 @@ public class ReportController {
                             description = "PDF report generated successfully",
                             content = @Content(mediaType = "application/pdf")
                     ),
+                    @ApiResponse(responseCode = "304", description = "Not Modified - The report has not changed since the given ETag"),
                     @ApiResponse(responseCode = "401", description = "Unauthorized - Authentication required"),
                     @ApiResponse(responseCode = "403", description = "Forbidden - Insufficient permissions"),
                     @ApiResponse(responseCode = "500", description = "Internal Server Error - Error occurred while generating the report")
@@ -86,14 +108,85 @@ public class ReportController {
             security = @SecurityRequirement(name = "oauth2")
     )
     @PreAuthorize("hasRole('data_analyst')")
-    public ResponseEntity<byte[]> generateSummaryReportPdf() {
-        byte[] pdfBytes = reportService.generateSummaryReportPdf();
+    public ResponseEntity<Resource> generateSummaryReportPdf(WebRequest webRequest) {
+        ReportSnapshot snapshot = reportService.getSummaryReport();
+        if (webRequest.checkNotModified(snapshot.getPdfEtag())) {
+            return null; // 304: il PDF non viene generato
+        }
+        // il PDF viene letto dal file conservato su disco
+        Resource pdf = new InputStreamResource(reportService.openSummaryReportPdf(snapshot));
 
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_PDF);
         headers.setContentDispositionFormData("filename", "summary-report.pdf");
         headers.setCacheControl("must-revalidate"); // assicura che gli utenti ottengano sempre la versione più recente
 
-        return new ResponseEntity<>(pdfBytes, headers, HttpStatus.OK);
+        return new ResponseEntity<>(pdf, headers, HttpStatus.OK);
+    }
+
+    @LogMethod(measureTime = true)
+    @GetMapping("/summary/pdf/stream")
+    @Operation(
+            summary = "Export summary report in PDF format (streaming)",
+            description = """
+                    Generates the PDF summary report for large customer populations.
+                    The average spending per customer is read from a database cursor, ordered by customer,
+                    and the document is written to the response while it is produced instead of being built in memory.
+                    The response is neither cached nor validated with an ETag.
+                    """,
+            responses = {
+                    @ApiResponse(
+                            responseCode = "200",
+                            description = "PDF report streamed successfully",
+                            content = @Content(mediaType = "application/pdf")
+                    ),
+                    @ApiResponse(responseCode = "401", description = "Unauthorized - Authentication required"),
+                    @ApiResponse(responseCode = "403", description = "Forbidden - Insufficient permissions")
+            },
+            security = @SecurityRequirement(name = "oauth2")
+    )
+    @PreAuthorize("hasRole('data_analyst')")
+    public ResponseEntity<StreamingResponseBody> streamSummaryReportPdf() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_PDF);
+        headers.setContentDispositionFormData("filename", "summary-report.pdf");
+
+        StreamingResponseBody body = reportExportService::writeSummaryReportPdf;
+        return new ResponseEntity<>(body, headers, HttpStatus.OK);
+    }
+
+    @LogMethod(measureTime = true)
+    @GetMapping("/average-spend/export")
+    @Operation(
+            summary = "Export average spending per customer (streaming)",
+            description = """
+                    Exports the average spending of every customer, ordered by customer, as CSV
+                    (format=CSV, columns customer_id,average_amount) or NDJSON (format=NDJSON, one JSON object per line).
+                    Rows are read from a database cursor and written to the response as they are read.
+                    """,
+            responses = {
+                    @ApiResponse(
+                            responseCode = "200",
+                            description = "Export streamed successfully",
+                            content = {
+                                    @Content(mediaType = "text/csv"),
+                                    @Content(mediaType = "application/x-ndjson")
+                            }
+                    ),
+                    @ApiResponse(responseCode = "400", description = "Bad Request - Unsupported export format"),
+                    @ApiResponse(responseCode = "401", description = "Unauthorized - Authentication required"),
+                    @ApiResponse(responseCode = "403", description = "Forbidden - Insufficient permissions")
+            },
+            security = @SecurityRequirement(name = "oauth2")
+    )
+    @PreAuthorize("hasRole('data_analyst')")
+    public ResponseEntity<StreamingResponseBody> exportAverageSpend(
+            @RequestParam(defaultValue = "CSV") ReportExportFormat format) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.parseMediaType(format.getContentType() + ";charset=UTF-8"));
+        headers.setContentDispositionFormData("filename", "average-spend." + format.getExtension());
+
+        StreamingResponseBody body = out -> reportExportService.writeAverageSpend(format, out);
+        return new ResponseEntity<>(body, headers, HttpStatus.OK);
     }
 }
@@ -0,0 +1,128 @@
+package com.cimparato.csbm.web.rest;
+
+import com.cimparato.csbm.config.security.SecurityUtils;
+import com.cimparato.csbm.domain.enumeration.ReportJobType;
+import com.cimparato.csbm.dto.report.ReportJobDTO;
+import com.cimparato.csbm.service.report.ReportArtifact;
+import com.cimparato.csbm.service.report.ReportJobService;
+import com.cimparato.csbm.util.ResponseWrapper;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.security.SecurityRequirement;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+import java.net.URI;
+
+@RestController
+@RequestMapping("/v1/report/jobs")
+@Tag(name = "Report", description = "Report generation APIs")
+public class ReportJobController {
+
+    private final ReportJobService reportJobService;
+
+    private final SecurityUtils securityUtils;
+
+    public ReportJobController(ReportJobService reportJobService, SecurityUtils securityUtils) {
+        this.reportJobService = reportJobService;
+        this.securityUtils = securityUtils;
+    }
+
+    @PostMapping
+    @Operation(
+            summary = "Request a report",
+            description = """
+                Request the asynchronous generation of a report.
+
+                ### Protocol
+                1. `POST /v1/report/jobs?type=SUMMARY_PDF`: returns the `jobId` and, in the `Location` header,
+                   the URL of the job
+                2. `GET /v1/report/jobs/{jobId}` until the status is `COMPLETED` or `FAILED`
+                3. `GET /v1/report/jobs/{jobId}/artifact` to download the generated report
+
+                Available types: `SUMMARY_PDF`, `AVERAGE_SPEND_CSV`, `AVERAGE_SPEND_NDJSON`.
+                The job and the generated report are deleted at `expiresAt`.
+                """,
+            responses = {
+                    @ApiResponse(responseCode = "202", description = "Report requested"),
+                    @ApiResponse(responseCode = "400", description = "Bad Request - Unsupported report type"),
+                    @ApiResponse(responseCode = "401", description = "Unauthorized - Authentication required"),
+                    @ApiResponse(responseCode = "403", description = "Forbidden - Insufficient permissions")
+            },
+            security = @SecurityRequirement(name = "oauth2")
+    )
+    @PreAuthorize("hasRole('data_analyst')")
+    public ResponseEntity<ResponseWrapper<ReportJobDTO>> submitReportJob(
+            @Parameter(description = "Report type", required = true) @RequestParam ReportJobType type
+    ) {
+        String username = securityUtils.getAuthenticatedUsername();
+        ReportJobDTO job = reportJobService.submit(type, username);
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .location(URI.create("/v1/report/jobs/" + job.getJobId()))
+                .body(new ResponseWrapper<>(
+                        true,
+                        "Report requested successfully",
+                        job)
+                );
+    }
+
+    @GetMapping("/{jobId}")
+    @Operation(
+            summary = "Get report job status",
+            description = "Get the status of a report job: the report can be downloaded once the status is `COMPLETED`.",
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "Report job retrieved successfully"),
+                    @ApiResponse(responseCode = "404", description = "Report job not found or expired"),
+                    @ApiResponse(responseCode = "401", description = "Unauthorized - Authentication required"),
+                    @ApiResponse(responseCode = "403", description = "Forbidden - Insufficient permissions")
+            },
+            security = @SecurityRequirement(name = "oauth2")
+    )
+    @PreAuthorize("hasRole('data_analyst')")
+    public ResponseEntity<ResponseWrapper<ReportJobDTO>> getReportJob(
+            @Parameter(description = "Report job id", required = true) @PathVariable String jobId
+    ) {
+        String username = securityUtils.getAuthenticatedUsername();
+        return ResponseEntity.ok(new ResponseWrapper<>(
+                true,
+                "Report job retrieved successfully",
+                reportJobService.getJob(jobId, username))
+        );
+    }
+
+    @GetMapping("/{jobId}/artifact")
+    @Operation(
+            summary = "Download a generated report",
+            description = "Download the report generated by a completed report job.",
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "Report downloaded successfully"),
+                    @ApiResponse(responseCode = "404", description = "Report job not found or expired"),
+                    @ApiResponse(responseCode = "409", description = "Conflict - The report job is not completed"),
+                    @ApiResponse(responseCode = "401", description = "Unauthorized - Authentication required"),
+                    @ApiResponse(responseCode = "403", description = "Forbidden - Insufficient permissions")
+            },
+            security = @SecurityRequirement(name = "oauth2")
+    )
+    @PreAuthorize("hasRole('data_analyst')")
+    public ResponseEntity<Resource> downloadReportArtifact(
+            @Parameter(description = "Report job id", required = true) @PathVariable String jobId
+    ) {
+        String username = securityUtils.getAuthenticatedUsername();
+        ReportArtifact artifact = reportJobService.getArtifact(jobId, username);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.parseMediaType(artifact.contentType()));
+        headers.setContentDispositionFormData("filename", artifact.filename());
+        headers.setContentLength(artifact.size());
+
+        return new ResponseEntity<>(new FileSystemResource(artifact.path()), headers, HttpStatus.OK);
+    }
+}
@@ -0,0 +1,172 @@
+package com.cimparato.csbm.web.rest;
+
+import com.cimparato.csbm.config.security.SecurityUtils;
+import com.cimparato.csbm.dto.fileupload.FileUploadJobDTO;
+import com.cimparato.csbm.dto.uploadsession.UploadSessionCreateDTO;
+import com.cimparato.csbm.dto.uploadsession.UploadSessionDTO;
+import com.cimparato.csbm.service.file.UploadSessionService;
+import com.cimparato.csbm.util.ResponseWrapper;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.security.SecurityRequirement;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.validation.Valid;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.InputStream;
+
+@RestController
+@RequestMapping("/v1/files/uploads")
+@Tag(name = "File Uploads", description = "File upload management APIs")
+public class UploadSessionController {
+
+    private final UploadSessionService uploadSessionService;
+
+    private final SecurityUtils securityUtils;
+
+    public UploadSessionController(UploadSessionService uploadSessionService, SecurityUtils securityUtils) {
+        this.uploadSessionService = uploadSessionService;
+        this.securityUtils = securityUtils;
+    }
+
+    @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
+    @Operation(
+            summary = "Start a chunked upload",
+            description = """
+                Start a resumable upload for a CSV file larger than the multipart limit.
+
+                ### Protocol
+                1. `POST /v1/files/uploads` with the file name and total size: returns the `uploadId`
+                2. `PUT /v1/files/uploads/{uploadId}/chunks/{chunkIndex}?offset=N` with the raw chunk bytes,
+                   in file order, where `offset` is the position of the first byte of the chunk
+                3. `POST /v1/files/uploads/{uploadId}/complete`: validates the file and starts its processing
+
+                An interrupted upload can be resumed from the `receivedBytes` returned by
+                `GET /v1/files/uploads/{uploadId}`.
+                """,
+            responses = {
+                    @ApiResponse(responseCode = "201", description = "Upload started"),
+                    @ApiResponse(responseCode = "400", description = "Invalid file name or size"),
+                    @ApiResponse(responseCode = "401", description = "Unauthorized - Authentication required"),
+                    @ApiResponse(responseCode = "403", description = "Forbidden - Insufficient permissions")
+            },
+            security = @SecurityRequirement(name = "oauth2")
+    )
+    @PreAuthorize("hasRole('data_uploader')")
+    public ResponseEntity<ResponseWrapper<UploadSessionDTO>> createUploadSession(
+            @Valid @RequestBody UploadSessionCreateDTO request
+    ) {
+        String username = securityUtils.getAuthenticatedUsername();
+        UploadSessionDTO uploadSession = uploadSessionService.createSession(request, username);
+        return ResponseEntity.status(HttpStatus.CREATED).body(new ResponseWrapper<>(
+                true,
+                "Upload started successfully",
+                uploadSession)
+        );
+    }
+
+    @GetMapping("/{uploadId}")
+    @Operation(
+            summary = "Get chunked upload status",
+            description = "Get the status of a chunked upload: `receivedBytes` is the offset of the next chunk.",
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "Upload retrieved successfully"),
+                    @ApiResponse(responseCode = "404", description = "Upload not found"),
+                    @ApiResponse(responseCode = "401", description = "Unauthorized - Authentication required"),
+                    @ApiResponse(responseCode = "403", description = "Forbidden - Insufficient permissions")
+            },
+            security = @SecurityRequirement(name = "oauth2")
+    )
+    @PreAuthorize("hasRole('data_uploader')")
+    public ResponseEntity<ResponseWrapper<UploadSessionDTO>> getUploadSession(
+            @Parameter(description = "Upload id", required = true) @PathVariable String uploadId
+    ) {
+        String username = securityUtils.getAuthenticatedUsername();
+        return ResponseEntity.ok(new ResponseWrapper<>(
+                true,
+                "Upload retrieved successfully",
+                uploadSessionService.getSession(uploadId, username))
+        );
+    }
+
+    @PutMapping(value = "/{uploadId}/chunks/{chunkIndex}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    @Operation(
+            summary = "Upload a chunk",
+            description = "Write the request body at the given offset. Chunks must be sent in file order.",
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "Chunk stored"),
+                    @ApiResponse(responseCode = "400", description = "Empty or oversized chunk"),
+                    @ApiResponse(responseCode = "404", description = "Upload not found"),
+                    @ApiResponse(responseCode = "409", description = "Offset does not match the bytes received so far"),
+                    @ApiResponse(responseCode = "401", description = "Unauthorized - Authentication required"),
+                    @ApiResponse(responseCode = "403", description = "Forbidden - Insufficient permissions")
+            },
+            security = @SecurityRequirement(name = "oauth2")
+    )
+    @PreAuthorize("hasRole('data_uploader')")
+    public ResponseEntity<ResponseWrapper<UploadSessionDTO>> uploadChunk(
+            @Parameter(description = "Upload id", required = true) @PathVariable String uploadId,
+            @Parameter(description = "Chunk number", required = true) @PathVariable int chunkIndex,
+            @Parameter(description = "Offset of the first byte of the chunk", required = true) @RequestParam long offset,
+            InputStream content
+    ) {
+        String username = securityUtils.getAuthenticatedUsername();
+        return ResponseEntity.ok(new ResponseWrapper<>(
+                true,
+                "Chunk uploaded successfully",
+                uploadSessionService.writeChunk(uploadId, chunkIndex, offset, content, username))
+        );
+    }
+
+    @PostMapping("/{uploadId}/complete")
+    @Operation(
+            summary = "Complete a chunked upload",
+            description = "Validate the uploaded file, register it and start its processing.",
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "File uploaded successfully"),
+                    @ApiResponse(responseCode = "400", description = "Invalid file"),
+                    @ApiResponse(responseCode = "404", description = "Upload not found"),
+                    @ApiResponse(responseCode = "409", description = "Upload incomplete or file already processed"),
+                    @ApiResponse(responseCode = "401", description = "Unauthorized - Authentication required"),
+                    @ApiResponse(responseCode = "403", description = "Forbidden - Insufficient permissions")
+            },
+            security = @SecurityRequirement(name = "oauth2")
+    )
+    @PreAuthorize("hasRole('data_uploader')")
+    public ResponseEntity<ResponseWrapper<FileUploadJobDTO>> completeUploadSession(
+            @Parameter(description = "Upload id", required = true) @PathVariable String uploadId
+    ) {
+        String username = securityUtils.getAuthenticatedUsername();
+        return ResponseEntity.ok(new ResponseWrapper<>(
+                true,
+                "File uploaded successfully",
+                uploadSessionService.completeSession(uploadId, username))
+        );
+    }
+
+    @DeleteMapping("/{uploadId}")
+    @Operation(
+            summary = "Abort a chunked upload",
+            description = "Abort the upload and delete the data received so far.",
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "Upload aborted"),
+                    @ApiResponse(responseCode = "404", description = "Upload not found"),
+                    @ApiResponse(responseCode = "401", description = "Unauthorized - Authentication required"),
+                    @ApiResponse(responseCode = "403", description = "Forbidden - Insufficient permissions")
+            },
+            security = @SecurityRequirement(name = "oauth2")
+    )
+    @PreAuthorize("hasRole('data_uploader')")
+    public ResponseEntity<ResponseWrapper<Void>> abortUploadSession(
+            @Parameter(description = "Upload id", required = true) @PathVariable String uploadId
+    ) {
+        String username = securityUtils.getAuthenticatedUsername();
+        uploadSessionService.abortSession(uploadId, username);
+        return ResponseEntity.ok(new ResponseWrapper<>(true, "Upload aborted successfully", null));
+    }
+}
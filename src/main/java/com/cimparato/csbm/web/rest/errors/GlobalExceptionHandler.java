@@ -1,7 +1,9 @@
 package com.cimparato.csbm.web.rest.errors;
 
+import com.cimparato.csbm.domain.enumeration.JobStatus;
 import com.cimparato.csbm.util.ResponseWrapper;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.AccessDeniedException;
@@ -63,6 +65,30 @@ public class GlobalExceptionHandler {
                 .body(new ResponseWrapper<>(false, ex.getMessage(), null));
     }
 
+    @ExceptionHandler(UploadOffsetMismatchException.class)
+    public ResponseEntity<ResponseWrapper<Map<String, Long>>> handleUploadOffsetMismatchException(
+            UploadOffsetMismatchException ex) {
+        log.warn("Upload offset mismatch: {}", ex.getMessage());
+        return ResponseEntity.status(HttpStatus.CONFLICT)
+                .body(new ResponseWrapper<>(false, ex.getMessage(), Map.of("expectedOffset", ex.getExpectedOffset())));
+    }
+
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    public ResponseEntity<ResponseWrapper<Void>> handleOptimisticLockingFailureException(
+            OptimisticLockingFailureException ex) {
+        log.warn("Concurrent modification: {}", ex.getMessage());
+        return ResponseEntity.status(HttpStatus.CONFLICT)
+                .body(new ResponseWrapper<>(false, "The resource was modified by another request. Please retry.", null));
+    }
+
+    @ExceptionHandler(ReportJobNotReadyException.class)
+    public ResponseEntity<ResponseWrapper<Map<String, JobStatus>>> handleReportJobNotReadyException(
+            ReportJobNotReadyException ex) {
+        log.warn("Report job not ready: {}", ex.getMessage());
+        return ResponseEntity.status(HttpStatus.CONFLICT)
+                .body(new ResponseWrapper<>(false, ex.getMessage(), Map.of("status", ex.getStatus())));
+    }
+
     @ExceptionHandler(ResourceNotFoundException.class)
     public ResponseEntity<ResponseWrapper<Void>> handleResourceNotFoundException(
             ResourceNotFoundException ex, WebRequest request) {
@@ -0,0 +1,17 @@
+package com.cimparato.csbm.web.rest.errors;
+
+import com.cimparato.csbm.domain.enumeration.JobStatus;
+
+public class ReportJobNotReadyException extends RuntimeException {
+
+    private final JobStatus status;
+
+    public ReportJobNotReadyException(String message, JobStatus status) {
+        super(message);
+        this.status = status;
+    }
+
+    public JobStatus getStatus() {
+        return status;
+    }
+}
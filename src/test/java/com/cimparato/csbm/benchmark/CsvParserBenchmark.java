@@ -0,0 +1,85 @@
+package com.cimparato.csbm.benchmark;
+
+import com.cimparato.csbm.dto.cloudservice.CloudServiceDTO;
+import com.cimparato.csbm.service.file.parser.impl.CloudServiceCsvLineMapper;
+import com.cimparato.csbm.service.file.parser.impl.CloudServiceCsvParser;
+import com.opencsv.CSVReader;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Confronto fra il parser CSV basato su OpenCSV (CSVReader + mapLine) e il tokenizer con buffer riutilizzato
+ * usato da CloudServiceCsvParser.
+ *
+ * Non viene eseguito dai test: per lanciarlo eseguire il main dopo mvn test-compile, ad esempio dall'IDE.
+ * L'opzione -prof gc di JMH riporta anche le allocazioni per operazione.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CsvParserBenchmark {
+
+    @Param({"100000"})
+    private int records;
+
+    // percentuale di righe con campi quotati, che passano dal parser di OpenCSV
+    @Param({"0", "10"})
+    private int quotedPercent;
+
+    private byte[] content;
+
+    private CloudServiceCsvLineMapper lineMapper;
+    private CloudServiceCsvParser parser;
+
+    @Setup
+    public void setUp() {
+        String expiration = LocalDate.now().plusYears(1).toString();
+        StringBuilder csv = new StringBuilder("customer_id,service_type,activation_date,expiration_date,amount,status\n");
+        for (int i = 0; i < records; i++) {
+            String customerId = i % 100 < quotedPercent ? "\"CUST," + i + "\"" : "CUST" + i;
+            csv.append(customerId).append(",PEC,2023-01-01,").append(expiration).append(",29.99,ACTIVE\n");
+        }
+        content = csv.toString().getBytes(StandardCharsets.UTF_8);
+
+        lineMapper = new CloudServiceCsvLineMapper();
+        parser = new CloudServiceCsvParser(lineMapper);
+    }
+
+    @Benchmark
+    public void openCsvReader(Blackhole blackhole) throws Exception {
+        try (CSVReader reader = new CSVReader(new InputStreamReader(new ByteArrayInputStream(content)))) {
+            reader.readNext();
+            int lineNumber = 1;
+            String[] line;
+            while ((line = reader.readNext()) != null) {
+                CloudServiceDTO dto = lineMapper.mapLine(line, ++lineNumber);
+                blackhole.consume(dto);
+            }
+        }
+    }
+
+    @Benchmark
+    public void csvRecordReader(Blackhole blackhole) {
+        parser.parse(new ByteArrayInputStream(content), blackhole::consume);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(CsvParserBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
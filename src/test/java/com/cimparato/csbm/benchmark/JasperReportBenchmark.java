@@ -0,0 +1,89 @@
+package com.cimparato.csbm.benchmark;
+
+import com.cimparato.csbm.dto.report.SummaryReportDTO;
+import com.cimparato.csbm.service.report.impl.JasperReportGenerator;
+import com.cimparato.csbm.service.report.impl.JasperTemplateRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.ResourceLoader;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Confronto della latenza di generazione del PDF del report di riepilogo fra la compilazione del template a ogni
+ * richiesta e il template compilato una sola volta da JasperTemplateRegistry.
+ *
+ * La modalità SampleTime riporta la distribuzione delle latenze (p0.50, p0.99, ...) oltre alla media.
+ *
+ * Non viene eseguito dai test: per lanciarlo eseguire il main dopo mvn test-compile, ad esempio dall'IDE.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JasperReportBenchmark {
+
+    // numero di clienti elencati nel report
+    @Param({"100"})
+    private int customers;
+
+    private ResourceLoader resourceLoader;
+    private ObjectMapper objectMapper;
+    private SummaryReportDTO report;
+    private JasperReportGenerator generator;
+
+    @Setup
+    public void setUp() {
+        resourceLoader = new DefaultResourceLoader();
+        objectMapper = new ObjectMapper();
+
+        Map<String, Long> activeServicesByType = new LinkedHashMap<>();
+        activeServicesByType.put("PEC", 120L);
+        activeServicesByType.put("HOSTING", 80L);
+        activeServicesByType.put("SPID", 45L);
+
+        Map<String, BigDecimal> averageSpend = new LinkedHashMap<>();
+        List<String> customerIds = new ArrayList<>();
+        for (int i = 0; i < customers; i++) {
+            averageSpend.put("CUST" + i, BigDecimal.valueOf(2999 + i, 2));
+            customerIds.add("CUST" + i);
+        }
+        report = new SummaryReportDTO(activeServicesByType, averageSpend, customerIds, customerIds);
+
+        JasperTemplateRegistry registry = new JasperTemplateRegistry(resourceLoader);
+        registry.warmUp();
+        generator = new JasperReportGenerator(registry, objectMapper);
+    }
+
+    /**
+     * Comportamento precedente: il template viene compilato a ogni richiesta (un registro nuovo per ogni PDF).
+     */
+    @Benchmark
+    public byte[] compileOnEveryRequest() {
+        return new JasperReportGenerator(new JasperTemplateRegistry(resourceLoader), objectMapper).generatePdf(report);
+    }
+
+    @Benchmark
+    public byte[] precompiledTemplate() {
+        return generator.generatePdf(report);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(JasperReportBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,102 @@
+package com.cimparato.csbm.benchmark;
+
+import com.cimparato.csbm.domain.notification.NotificationType;
+import com.cimparato.csbm.dto.notification.NotificationDTO;
+import com.cimparato.csbm.messaging.serialization.NotificationDeserializer;
+import com.cimparato.csbm.messaging.serialization.NotificationSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Confronto del costo per messaggio fra la doppia codifica JSON delle notifiche (DTO serializzato in una stringa,
+ * a sua volta serializzata come stringa JSON dal JsonSerializer) e la coppia NotificationSerializer /
+ * NotificationDeserializer, che scrive e legge i byte del record con un'unica codifica.
+ *
+ * Non viene eseguito dai test: per lanciarlo eseguire il main dopo mvn test-compile, ad esempio dall'IDE.
+ * L'opzione -prof gc di JMH riporta anche le allocazioni per operazione.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NotificationSerializationBenchmark {
+
+    private static final String TOPIC = "notifications";
+
+    // numero di servizi scaduti elencati nel contenuto, che ne determina la lunghezza
+    @Param({"1", "20"})
+    private int services;
+
+    private ObjectMapper mapper;
+    private NotificationSerializer serializer;
+    private NotificationDeserializer deserializer;
+
+    private NotificationDTO notification;
+    private byte[] doubleEncoded;
+    private byte[] singleEncoded;
+
+    @Setup
+    public void setUp() throws Exception {
+        mapper = new ObjectMapper()
+                .registerModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        serializer = new NotificationSerializer();
+        deserializer = new NotificationDeserializer();
+
+        StringBuilder content = new StringBuilder("Customer CUST004 has ").append(services).append(" expired services:\n");
+        for (int i = 0; i < services; i++) {
+            content.append("- \"PEC\" expired on 2024-10-").append(10 + i % 18).append('\n');
+        }
+        notification = NotificationDTO.builder()
+                .type(NotificationType.KAFKA)
+                .customerId("CUST004")
+                .sender("system@example.com")
+                .recipient("alerts.customer_expired")
+                .subject("Expired Services Alert")
+                .content(content.toString())
+                .createdAt(LocalDateTime.of(2026, 10, 17, 12, 0))
+                .build();
+
+        doubleEncoded = mapper.writeValueAsBytes(mapper.writeValueAsString(notification));
+        singleEncoded = serializer.serialize(TOPIC, notification);
+    }
+
+    @Benchmark
+    public byte[] doubleEncode() throws Exception {
+        return mapper.writeValueAsBytes(mapper.writeValueAsString(notification));
+    }
+
+    @Benchmark
+    public byte[] singleEncode() {
+        return serializer.serialize(TOPIC, notification);
+    }
+
+    @Benchmark
+    public NotificationDTO doubleDecode() throws Exception {
+        String json = mapper.readValue(doubleEncoded, String.class);
+        return mapper.readValue(json, NotificationDTO.class);
+    }
+
+    @Benchmark
+    public NotificationDTO singleDecode() {
+        return deserializer.deserialize(TOPIC, singleEncoded);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(NotificationSerializationBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,98 @@
+package com.cimparato.csbm.messaging;
+
+import com.cimparato.csbm.config.properties.KafkaAppProperties;
+import com.cimparato.csbm.dto.notification.NotificationDTO;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.support.SendResult;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class KafkaBatchPublisherTest {
+
+    private static final NotificationDTO NOTIFICATION = NotificationDTO.builder().customerId("CUST001").build();
+
+    @Mock
+    private KafkaProducer kafkaProducer;
+
+    @Mock
+    private SendResult<String, NotificationDTO> sendResult;
+
+    @Test
+    @DisplayName("Verifica che il batch esegua il flush ogni N record e conti gli invii riusciti e falliti")
+    void testFlushesEveryBatchAndCountsResults() {
+
+        // arrange
+        KafkaBatchPublisher publisher = new KafkaBatchPublisher(kafkaProducer, properties(2, 10));
+
+        when(kafkaProducer.send(anyString(), anyString(), any()))
+                .thenReturn(CompletableFuture.completedFuture(sendResult))
+                .thenReturn(CompletableFuture.failedFuture(new RuntimeException("broker unavailable")))
+                .thenReturn(CompletableFuture.completedFuture(sendResult));
+
+        // act
+        KafkaBatchPublisher.Batch batch = publisher.openBatch("test");
+        batch.send("notifications", "CUST001", NOTIFICATION);
+        batch.send("notifications", "CUST002", NOTIFICATION);
+
+        long succeededAfterFirstFlush = batch.getSucceeded();
+        long failedAfterFirstFlush = batch.getFailed();
+
+        batch.send("notifications", "CUST003", NOTIFICATION);
+        batch.close();
+
+        // assert
+        assertEquals(1, succeededAfterFirstFlush);
+        assertEquals(1, failedAfterFirstFlush);
+        assertEquals(2, batch.getSucceeded());
+        assertEquals(1, batch.getFailed());
+        verify(kafkaProducer, times(2)).flush();
+    }
+
+    @Test
+    @DisplayName("Verifica che un nuovo invio attenda quando è stato raggiunto il numero massimo di invii in corso")
+    void testBlocksWhenMaxInFlightIsReached() throws Exception {
+
+        // arrange
+        KafkaBatchPublisher publisher = new KafkaBatchPublisher(kafkaProducer, properties(10, 1));
+
+        CompletableFuture<SendResult<String, NotificationDTO>> firstSend = new CompletableFuture<>();
+        when(kafkaProducer.send(anyString(), anyString(), any()))
+                .thenReturn(firstSend)
+                .thenReturn(CompletableFuture.completedFuture(sendResult));
+
+        KafkaBatchPublisher.Batch batch = publisher.openBatch("test");
+        batch.send("notifications", "CUST001", NOTIFICATION);
+
+        // act
+        CompletableFuture<Void> secondSend = CompletableFuture.runAsync(
+                () -> batch.send("notifications", "CUST002", NOTIFICATION));
+
+        // assert
+        Thread.sleep(200);
+        assertFalse(secondSend.isDone(), "Il secondo invio dovrebbe attendere la conferma del primo");
+
+        firstSend.complete(sendResult);
+        secondSend.get(5, TimeUnit.SECONDS);
+        verify(kafkaProducer, times(2)).send(anyString(), anyString(), any());
+    }
+
+    private static KafkaAppProperties properties(int size, int maxInFlight) {
+        KafkaAppProperties kafkaAppProperties = new KafkaAppProperties();
+        kafkaAppProperties.setProducer(new KafkaAppProperties.ProducerConfig());
+        kafkaAppProperties.getProducer().getBatch().setSize(size);
+        kafkaAppProperties.getProducer().getBatch().setMaxInFlight(maxInFlight);
+        kafkaAppProperties.getProducer().getBatch().setFlushTimeoutMs(1000);
+        return kafkaAppProperties;
+    }
+}
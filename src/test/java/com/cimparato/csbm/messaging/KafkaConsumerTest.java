@@ -4,158 +4,236 @@ import com.cimparato.csbm.domain.notification.NotificationType;
 import com.cimparato.csbm.dto.notification.NotificationDTO;
 import com.cimparato.csbm.service.MessageDeduplicationService;
 import com.cimparato.csbm.service.notification.NotificationManager;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.cimparato.csbm.service.notification.NotificationService;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.listener.BatchListenerFailedException;
+import org.springframework.kafka.support.serializer.SerializationUtils;
 
 import java.time.LocalDateTime;
-
-import static org.junit.jupiter.api.Assertions.assertThrows;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
 class KafkaConsumerTest {
 
-    @Mock
-    private ObjectMapper mapper;
+    private static final String TOPIC = "notifications";
 
     @Mock
     private NotificationManager notificationManager;
 
+    @Mock
+    private NotificationService notificationService;
+
     @Mock
     private MessageDeduplicationService messageDeduplicationService;
 
     private KafkaConsumer kafkaConsumer;
 
+    // notifiche inviate, nell'ordine in cui arrivano al NotificationManager
+    private final List<NotificationDTO> sent = new ArrayList<>();
+
     @BeforeEach
     void setUp() {
-        kafkaConsumer = new KafkaConsumer(mapper, notificationManager, messageDeduplicationService);
+        kafkaConsumer = new KafkaConsumer(notificationManager, notificationService, messageDeduplicationService);
+
+        lenient().when(messageDeduplicationService.generateMessageId(any(NotificationDTO.class)))
+                .thenAnswer(invocation -> invocation.<NotificationDTO>getArgument(0).getCustomerId() + ":"
+                        + invocation.<NotificationDTO>getArgument(0).getType());
+        lenient().when(messageDeduplicationService.claim(anyCollection()))
+                .thenAnswer(invocation -> new HashSet<>(invocation.<Collection<String>>getArgument(0)));
+        lenient().doAnswer(invocation -> {
+            sent.addAll(invocation.<Collection<NotificationDTO>>getArgument(1));
+            return null;
+        }).when(notificationManager).notifyUsers(any(NotificationType.class), anyCollection(), any());
     }
 
     @Test
-    @DisplayName("Verifica che il consumer riceva correttamente i messaggi dal topic configurato")
-    void testReceivesMessagesFromConfiguredTopic() throws Exception {
+    @DisplayName("Verifica che il batch venga raggruppato per tipo e registrato come elaborato con un'unica chiamata")
+    void testGroupsBatchByTypeAndMarksProcessedOnce() {
 
         // arrange
-        String message = "{\"type\":\"EMAIL\",\"customerId\":\"CUST001\",\"content\":\"Test content\"}";
-        NotificationDTO notificationDTO = createTestNotification();
-        String messageId = "test-message-id";
-
-        when(mapper.readValue(anyString(), eq(NotificationDTO.class))).thenReturn(notificationDTO);
-        when(messageDeduplicationService.generateMessageId(any(NotificationDTO.class))).thenReturn(messageId);
-        when(messageDeduplicationService.isProcessed(messageId)).thenReturn(false);
+        var records = List.of(
+                record(0, createTestNotification("CUST001", NotificationType.EMAIL)),
+                record(1, createTestNotification("CUST002", NotificationType.KAFKA)),
+                record(2, createTestNotification("CUST003", NotificationType.EMAIL))
+        );
 
         // act
-        kafkaConsumer.consumeNotification(message, "notifications", 0, 123L);
+        kafkaConsumer.consumeNotifications(records);
 
         // assert
-        verify(mapper).readValue(message, NotificationDTO.class);
-        verify(messageDeduplicationService).generateMessageId(notificationDTO);
-        verify(messageDeduplicationService).isProcessed(messageId);
-        verify(notificationManager).notifyUser(notificationDTO);
-        verify(messageDeduplicationService).markAsProcessed(messageId);
+        verify(notificationManager).notifyUsers(eq(NotificationType.EMAIL), anyCollection(), any());
+        verify(notificationManager).notifyUsers(eq(NotificationType.KAFKA), anyCollection(), any());
+        assertEquals(3, sent.size());
+
+        verify(messageDeduplicationService).claim(Set.of("CUST001:EMAIL", "CUST002:KAFKA", "CUST003:EMAIL"));
+        verify(messageDeduplicationService, never()).isProcessed(anyString());
+        verify(notificationService, never()).saveFailed(any());
     }
 
     @Test
-    @DisplayName("Verifica che il consumer deserializzi correttamente i messaggi e li passi al NotificationManager")
-    void testDeserializesMessagesAndPassesToNotificationManager() throws Exception {
+    @DisplayName("Verifica che le notifiche duplicate nel batch o già elaborate non vengano inviate")
+    void testSkipsDuplicatesWithinAndAcrossBatches() {
 
         // arrange
-        String emailMessage = "{\"type\":\"EMAIL\",\"customerId\":\"CUST001\",\"content\":\"Test content\"}";
-        NotificationDTO emailNotification = createTestNotification();
-        emailNotification.setType(NotificationType.EMAIL);
-
-        String kafkaMessage = "{\"type\":\"KAFKA\",\"customerId\":\"CUST001\",\"content\":\"Test content\"}";
-        NotificationDTO kafkaNotification = createTestNotification();
-        kafkaNotification.setType(NotificationType.KAFKA);
-
-        when(mapper.readValue(eq(emailMessage), eq(NotificationDTO.class))).thenReturn(emailNotification);
-        when(mapper.readValue(eq(kafkaMessage), eq(NotificationDTO.class))).thenReturn(kafkaNotification);
-        when(messageDeduplicationService.generateMessageId(any(NotificationDTO.class))).thenReturn("id1", "id2");
-        when(messageDeduplicationService.isProcessed(anyString())).thenReturn(false);
+        var records = List.of(
+                record(0, createTestNotification("CUST001", NotificationType.EMAIL)),
+                record(1, createTestNotification("CUST001", NotificationType.EMAIL)),
+                record(2, createTestNotification("CUST002", NotificationType.EMAIL))
+        );
+        // CUST002 è già stato elaborato, ad esempio da un'altra istanza
+        when(messageDeduplicationService.claim(anyCollection())).thenReturn(Set.of("CUST001:EMAIL"));
 
         // act
-        kafkaConsumer.consumeNotification(emailMessage, "notifications", 0, 123L);
-        kafkaConsumer.consumeNotification(kafkaMessage, "notifications", 0, 124L);
+        kafkaConsumer.consumeNotifications(records);
 
         // assert
-        verify(notificationManager).notifyUser(emailNotification);
-        verify(notificationManager).notifyUser(kafkaNotification);
+        assertEquals(1, sent.size());
+        assertEquals("CUST001", sent.get(0).getCustomerId());
+        verify(messageDeduplicationService).claim(Set.of("CUST001:EMAIL", "CUST002:EMAIL"));
     }
 
     @Test
-    @DisplayName("Verifica che il consumer gestisca correttamente gli errori di deserializzazione")
-    void testHandlesDeserializationErrors() throws Exception {
+    @DisplayName("Verifica che una notifica non inviata venga salvata come FAILED senza rielaborare il batch")
+    void testSavesFailedNotificationsWithoutFailingBatch() {
 
         // arrange
-        String invalidMessage = "{invalid-json}";
+        NotificationDTO failing = createTestNotification("CUST002", NotificationType.EMAIL);
+        var records = List.of(
+                record(0, createTestNotification("CUST001", NotificationType.EMAIL)),
+                record(1, failing)
+        );
+        doAnswer(invocation -> {
+            BiConsumer<NotificationDTO, Exception> onFailure = invocation.getArgument(2);
+            onFailure.accept(failing, new IllegalStateException("Mail server unavailable"));
+            return null;
+        }).when(notificationManager).notifyUsers(eq(NotificationType.EMAIL), anyCollection(), any());
+
+        // act
+        assertDoesNotThrow(() -> kafkaConsumer.consumeNotifications(records));
+
+        // assert
+        verify(messageDeduplicationService, never()).release(anyCollection());
 
-        when(mapper.readValue(anyString(), eq(NotificationDTO.class)))
-                .thenThrow(new JsonProcessingException("Invalid JSON") {});
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Map<NotificationDTO, String>> failedCaptor = ArgumentCaptor.forClass(Map.class);
+        verify(notificationService).saveFailed(failedCaptor.capture());
+        assertEquals(Map.of(failing, "Mail server unavailable"), failedCaptor.getValue());
+    }
 
-        // act & assert
-        assertThrows(RuntimeException.class, () ->
-                kafkaConsumer.consumeNotification(invalidMessage, "notifications", 0, 123L));
+    @Test
+    @DisplayName("Verifica che le notifiche non inviate vengano rilasciate se non è possibile salvarle")
+    void testReleasesFailedNotificationsWhenSaveFails() {
 
-        verify(notificationManager, never()).notifyUser(any(NotificationDTO.class));
+        // arrange
+        NotificationDTO failing = createTestNotification("CUST002", NotificationType.EMAIL);
+        var records = List.of(
+                record(0, createTestNotification("CUST001", NotificationType.EMAIL)),
+                record(1, failing)
+        );
+        doAnswer(invocation -> {
+            BiConsumer<NotificationDTO, Exception> onFailure = invocation.getArgument(2);
+            onFailure.accept(failing, new IllegalStateException("Mail server unavailable"));
+            return null;
+        }).when(notificationManager).notifyUsers(eq(NotificationType.EMAIL), anyCollection(), any());
+        when(notificationService.saveFailed(any())).thenThrow(new IllegalStateException("Database unavailable"));
+
+        // act & assert: il batch viene riconsegnato, ma solo la notifica non inviata potrà essere elaborata di nuovo
+        assertThrows(IllegalStateException.class, () -> kafkaConsumer.consumeNotifications(records));
+        verify(messageDeduplicationService).release(List.of("CUST002:EMAIL"));
     }
 
     @Test
-    @DisplayName("Verifica che il consumer implementi correttamente il meccanismo di deduplicazione")
-    void testImplementsDeduplicationMechanism() throws Exception {
+    @DisplayName("Verifica che le notifiche registrate vengano rilasciate se l'invio si interrompe con un errore")
+    void testReleasesClaimedNotificationsWhenSendFails() {
 
         // arrange
-        String message = "{\"type\":\"EMAIL\",\"customerId\":\"CUST001\",\"content\":\"Test content\"}";
-        NotificationDTO notificationDTO = createTestNotification();
-        String messageId = "duplicate-message-id";
+        var records = List.of(
+                record(0, createTestNotification("CUST001", NotificationType.EMAIL)),
+                record(1, createTestNotification("CUST002", NotificationType.EMAIL))
+        );
+        doThrow(new IllegalStateException("Email executor unavailable"))
+                .when(notificationManager).notifyUsers(eq(NotificationType.EMAIL), anyCollection(), any());
+
+        // act & assert: senza rilascio la riconsegna del batch verrebbe scartata come duplicata
+        assertThrows(IllegalStateException.class, () -> kafkaConsumer.consumeNotifications(records));
+        verify(messageDeduplicationService).release(List.of("CUST001:EMAIL", "CUST002:EMAIL"));
+        verify(notificationService, never()).saveFailed(any());
+    }
+
+    @Test
+    @DisplayName("Verifica che le notifiche segnalate come fallite dai thread dell'handler vengano salvate con il batch")
+    void testSavesFailuresReportedFromHandlerThreads() {
 
-        when(mapper.readValue(anyString(), eq(NotificationDTO.class))).thenReturn(notificationDTO);
-        when(messageDeduplicationService.generateMessageId(any(NotificationDTO.class))).thenReturn(messageId);
-        when(messageDeduplicationService.isProcessed(messageId)).thenReturn(true); // Messaggio già processato
+        // arrange
+        NotificationDTO failing = createTestNotification("CUST001", NotificationType.EMAIL);
+        NotificationDTO delivered = createTestNotification("CUST002", NotificationType.EMAIL);
+        var records = List.of(record(0, failing), record(1, delivered));
+        doAnswer(invocation -> {
+            BiConsumer<NotificationDTO, Exception> onFailure = invocation.getArgument(2);
+            // l'handler ritorna solo quando l'esito di ogni invio è noto
+            CompletableFuture.runAsync(() -> onFailure.accept(failing, new IllegalStateException("Mail server unavailable")))
+                    .join();
+            return null;
+        }).when(notificationManager).notifyUsers(eq(NotificationType.EMAIL), anyCollection(), any());
 
         // act
-        kafkaConsumer.consumeNotification(message, "notifications", 0, 123L);
+        kafkaConsumer.consumeNotifications(records);
 
         // assert
-        verify(messageDeduplicationService).isProcessed(messageId);
-        verify(notificationManager, never()).notifyUser(any(NotificationDTO.class));
-        verify(messageDeduplicationService, never()).markAsProcessed(anyString());
+        verify(notificationService).saveFailed(Map.of(failing, "Mail server unavailable"));
+        verify(messageDeduplicationService, never()).release(any());
     }
 
     @Test
-    @DisplayName("Verifica che il consumer gestisca correttamente i messaggi con escape")
-    void testHandlesEscapedMessages() throws Exception {
+    @DisplayName("Verifica che un messaggio non decodificabile interrompa il batch indicando la sua posizione")
+    void testUndecodableMessageFailsAtItsIndex() {
 
         // arrange
-        String escapedMessage = "\"\\\"type\\\":\\\"EMAIL\\\",\\\"customerId\\\":\\\"CUST001\\\",\\\"content\\\":\\\"Test content\\\"\"";
-        String unescapedMessage = "{\"type\":\"EMAIL\",\"customerId\":\"CUST001\",\"content\":\"Test content\"}";
-        NotificationDTO notificationDTO = createTestNotification();
-        String messageId = "test-message-id";
-
-        when(mapper.readValue(eq(escapedMessage), eq(String.class))).thenReturn(unescapedMessage);
-        when(mapper.readValue(eq(unescapedMessage), eq(NotificationDTO.class))).thenReturn(notificationDTO);
-        when(messageDeduplicationService.generateMessageId(any(NotificationDTO.class))).thenReturn(messageId);
-        when(messageDeduplicationService.isProcessed(messageId)).thenReturn(false);
+        ConsumerRecord<String, NotificationDTO> undecodable = record(1, null);
+        undecodable.headers().add(SerializationUtils.VALUE_DESERIALIZER_EXCEPTION_HEADER, new byte[0]);
+        var records = List.of(
+                record(0, createTestNotification("CUST001", NotificationType.EMAIL)),
+                undecodable,
+                record(2, createTestNotification("CUST002", NotificationType.EMAIL))
+        );
 
         // act
-        kafkaConsumer.consumeNotification(escapedMessage, "notifications", 0, 123L);
+        BatchListenerFailedException exception = assertThrows(BatchListenerFailedException.class,
+                () -> kafkaConsumer.consumeNotifications(records));
 
-        // assert
-        verify(mapper).readValue(escapedMessage, String.class);
-        verify(mapper).readValue(unescapedMessage, NotificationDTO.class);
-        verify(notificationManager).notifyUser(notificationDTO);
+        // assert: solo i record precedenti vengono elaborati, i successivi verranno riconsegnati
+        assertEquals(1, exception.getIndex());
+        assertEquals(1, sent.size());
+        assertEquals("CUST001", sent.get(0).getCustomerId());
+    }
+
+    private ConsumerRecord<String, NotificationDTO> record(long offset, NotificationDTO notification) {
+        String key = notification != null ? notification.getCustomerId() : null;
+        return new ConsumerRecord<>(TOPIC, 0, offset, key, notification);
     }
 
-    private NotificationDTO createTestNotification() {
+    private NotificationDTO createTestNotification(String customerId, NotificationType type) {
         return NotificationDTO.builder()
-                .type(NotificationType.EMAIL)
-                .customerId("CUST001")
+                .type(type)
+                .customerId(customerId)
                 .sender("system@example.com")
                 .recipient("customer@example.com")
                 .subject("Test Subject")
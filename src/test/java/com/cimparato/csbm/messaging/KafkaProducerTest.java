@@ -1,8 +1,8 @@
 package com.cimparato.csbm.messaging;
 
 import com.cimparato.csbm.config.properties.KafkaAppProperties;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.cimparato.csbm.domain.notification.NotificationType;
+import com.cimparato.csbm.dto.notification.NotificationDTO;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.clients.producer.RecordMetadata;
 import org.apache.kafka.common.TopicPartition;
@@ -19,6 +19,7 @@ import org.springframework.kafka.support.SendResult;
 import org.springframework.scheduling.TaskScheduler;
 
 import java.time.Instant;
+import java.time.LocalDateTime;
 import java.util.concurrent.CompletableFuture;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -29,10 +30,7 @@ import static org.mockito.Mockito.*;
 class KafkaProducerTest {
 
     @Mock
-    private KafkaTemplate<String, String> kafkaTemplate;
-
-    @Mock
-    private ObjectMapper mapper;
+    private KafkaTemplate<String, NotificationDTO> kafkaTemplate;
 
     @Mock
     private TaskScheduler kafkaRetryScheduler;
@@ -50,7 +48,7 @@ class KafkaProducerTest {
     private KafkaAppProperties.BackoffConfig backoffConfig;
 
     @Captor
-    private ArgumentCaptor<ProducerRecord<String, String>> recordCaptor;
+    private ArgumentCaptor<ProducerRecord<String, NotificationDTO>> recordCaptor;
 
     private KafkaProducer kafkaProducer;
 
@@ -63,7 +61,7 @@ class KafkaProducerTest {
         lenient().when(backoffConfig.getDelay()).thenReturn(100L);
         lenient().when(backoffConfig.getMultiplier()).thenReturn(2.0);
 
-        kafkaProducer = new KafkaProducer(kafkaTemplate, mapper, kafkaRetryScheduler, kafkaAppProperties);
+        kafkaProducer = new KafkaProducer(kafkaTemplate, kafkaRetryScheduler, kafkaAppProperties);
     }
 
 
@@ -74,28 +72,24 @@ class KafkaProducerTest {
         // arrange
         String topic = "test-topic";
         String key = "test-key";
-        String payload = "{\"message\":\"test\"}";
-        TestPayload testPayload = new TestPayload("test");
-
-        when(mapper.writeValueAsString(testPayload)).thenReturn(payload);
+        NotificationDTO payload = createTestNotification();
 
-        CompletableFuture<SendResult<String, String>> future = new CompletableFuture<>();
+        CompletableFuture<SendResult<String, NotificationDTO>> future = new CompletableFuture<>();
 
         RecordMetadata metadata = new RecordMetadata(
                 new TopicPartition(topic, 0), 0, 0,
                 System.currentTimeMillis(), 0L, 0, 0);
 
-        SendResult<String, String> result = new SendResult<>(new ProducerRecord<>(topic, key, payload), metadata);
+        SendResult<String, NotificationDTO> result = new SendResult<>(new ProducerRecord<>(topic, key, payload), metadata);
 
         future.complete(result);
 
-        when(kafkaTemplate.send(anyString(), anyString(), anyString())).thenReturn(future);
+        when(kafkaTemplate.send(anyString(), anyString(), any(NotificationDTO.class))).thenReturn(future);
 
         // act
-        CompletableFuture<SendResult<String, String>> resultFuture = kafkaProducer.send(topic, key, testPayload);
+        CompletableFuture<SendResult<String, NotificationDTO>> resultFuture = kafkaProducer.send(topic, key, payload);
 
         // assert
-        verify(mapper).writeValueAsString(testPayload);
         verify(kafkaTemplate).send(topic, key, payload);
         assertNotNull(resultFuture);
         assertTrue(resultFuture.isDone());
@@ -109,41 +103,18 @@ class KafkaProducerTest {
         // arrange
         String topic = "test-topic";
         String key = "customer-123";
-        String payload = "{\"message\":\"test\"}";
-        TestPayload testPayload = new TestPayload("test");
+        NotificationDTO payload = createTestNotification();
 
-        when(mapper.writeValueAsString(testPayload)).thenReturn(payload);
-
-        CompletableFuture<SendResult<String, String>> future = new CompletableFuture<>();
-        when(kafkaTemplate.send(anyString(), anyString(), anyString())).thenReturn(future);
+        CompletableFuture<SendResult<String, NotificationDTO>> future = new CompletableFuture<>();
+        when(kafkaTemplate.send(anyString(), anyString(), any(NotificationDTO.class))).thenReturn(future);
 
         // act
-        kafkaProducer.send(topic, key, testPayload);
+        kafkaProducer.send(topic, key, payload);
 
         // assert
         verify(kafkaTemplate).send(topic, key, payload);
     }
 
-    @Test
-    @DisplayName("Verifica che il producer gestisca correttamente gli errori di serializzazione")
-    void testHandlesSerializationErrors() throws Exception {
-
-        // arrange
-        String topic = "test-topic";
-        String key = "test-key";
-        TestPayload testPayload = new TestPayload("test");
-
-        when(mapper.writeValueAsString(testPayload)).thenThrow(new JsonProcessingException("Test serialization error") {});
-
-        // act
-        CompletableFuture<SendResult<String, String>> resultFuture = kafkaProducer.send(topic, key, testPayload);
-
-        // assert
-        verify(mapper).writeValueAsString(testPayload);
-        verify(kafkaTemplate, never()).send(anyString(), anyString(), anyString());
-        assertTrue(resultFuture.isCompletedExceptionally());
-    }
-
     @Test
     @DisplayName("Verifica che il producer gestisca correttamente gli errori di invio")
     void testHandlesSendErrors() throws Exception {
@@ -151,23 +122,20 @@ class KafkaProducerTest {
         // arrange
         String topic = "test-topic";
         String key = "test-key";
-        String payload = "{\"message\":\"test\"}";
-        TestPayload testPayload = new TestPayload("test");
+        NotificationDTO payload = createTestNotification();
         RuntimeException sendException = new RuntimeException("Send failed");
 
-        when(mapper.writeValueAsString(testPayload)).thenReturn(payload);
-
-        // configura il comportamento per send(String, String, String)
-        CompletableFuture<SendResult<String, String>> future = new CompletableFuture<>();
+        // configura il comportamento per send(String, String, NotificationDTO)
+        CompletableFuture<SendResult<String, NotificationDTO>> future = new CompletableFuture<>();
         future.completeExceptionally(sendException);
-        when(kafkaTemplate.send(anyString(), anyString(), anyString())).thenReturn(future);
+        when(kafkaTemplate.send(anyString(), anyString(), any(NotificationDTO.class))).thenReturn(future);
 
         // configura il comportamento per send(ProducerRecord)
-        CompletableFuture<SendResult<String, String>> dltFuture = new CompletableFuture<>();
+        CompletableFuture<SendResult<String, NotificationDTO>> dltFuture = new CompletableFuture<>();
         RecordMetadata metadata = new RecordMetadata(
                 new TopicPartition(topic + ".DLT", 0), 0, 0,
                 System.currentTimeMillis(), 0L, 0, 0);
-        SendResult<String, String> dltResult = new SendResult<>(new ProducerRecord<>(topic + ".DLT", key, payload), metadata);
+        SendResult<String, NotificationDTO> dltResult = new SendResult<>(new ProducerRecord<>(topic + ".DLT", key, payload), metadata);
         dltFuture.complete(dltResult);
         when(kafkaTemplate.send(any(ProducerRecord.class))).thenReturn(dltFuture);
 
@@ -179,10 +147,10 @@ class KafkaProducerTest {
         }).when(kafkaRetryScheduler).schedule(any(Runnable.class), any(Instant.class));
 
         // act
-        CompletableFuture<SendResult<String, String>> resultFuture = kafkaProducer.send(topic, key, testPayload);
+        CompletableFuture<SendResult<String, NotificationDTO>> resultFuture = kafkaProducer.send(topic, key, payload);
 
         // assert
-        verify(kafkaTemplate, times(3)).send(anyString(), anyString(), anyString());
+        verify(kafkaTemplate, times(3)).send(anyString(), anyString(), any(NotificationDTO.class));
         verify(kafkaTemplate).send(any(ProducerRecord.class));
         assertTrue(resultFuture.isCompletedExceptionally());
     }
@@ -194,25 +162,22 @@ class KafkaProducerTest {
         // arrange
         String topic = "test-topic";
         String key = "test-key";
-        String payload = "{\"message\":\"test\"}";
-        TestPayload testPayload = new TestPayload("test");
+        NotificationDTO payload = createTestNotification();
         RuntimeException sendException = new RuntimeException("Send failed");
 
-        when(mapper.writeValueAsString(testPayload)).thenReturn(payload);
-
         // prima chiamata fallisce
-        CompletableFuture<SendResult<String, String>> failedFuture = new CompletableFuture<>();
+        CompletableFuture<SendResult<String, NotificationDTO>> failedFuture = new CompletableFuture<>();
         failedFuture.completeExceptionally(sendException);
 
         // seconda chiamata ha successo
-        CompletableFuture<SendResult<String, String>> successFuture = new CompletableFuture<>();
+        CompletableFuture<SendResult<String, NotificationDTO>> successFuture = new CompletableFuture<>();
         RecordMetadata metadata = new RecordMetadata(
                 new TopicPartition(topic, 0), 0, 0,
                 System.currentTimeMillis(), 0L, 0, 0);
-        SendResult<String, String> result = new SendResult<>(new ProducerRecord<>(topic, key, payload), metadata);
+        SendResult<String, NotificationDTO> result = new SendResult<>(new ProducerRecord<>(topic, key, payload), metadata);
         successFuture.complete(result);
 
-        when(kafkaTemplate.send(anyString(), anyString(), anyString()))
+        when(kafkaTemplate.send(anyString(), anyString(), any(NotificationDTO.class)))
                 .thenReturn(failedFuture)
                 .thenReturn(successFuture);
 
@@ -224,10 +189,10 @@ class KafkaProducerTest {
         }).when(kafkaRetryScheduler).schedule(any(Runnable.class), any(Instant.class));
 
         // act
-        CompletableFuture<SendResult<String, String>> resultFuture = kafkaProducer.send(topic, key, testPayload);
+        CompletableFuture<SendResult<String, NotificationDTO>> resultFuture = kafkaProducer.send(topic, key, payload);
 
         // assert
-        verify(kafkaTemplate, times(2)).send(anyString(), anyString(), anyString());
+        verify(kafkaTemplate, times(2)).send(anyString(), anyString(), any(NotificationDTO.class));
         verify(kafkaRetryScheduler).schedule(any(Runnable.class), any(Instant.class));
         assertFalse(resultFuture.isCompletedExceptionally());
         assertEquals(result, resultFuture.get());
@@ -240,23 +205,20 @@ class KafkaProducerTest {
         // arrange
         String topic = "test-topic";
         String key = "test-key";
-        String payload = "{\"message\":\"test\"}";
-        TestPayload testPayload = new TestPayload("test");
+        NotificationDTO payload = createTestNotification();
         RuntimeException sendException = new RuntimeException("Send failed");
 
-        when(mapper.writeValueAsString(testPayload)).thenReturn(payload);
-
         // tutte le chiamate falliscono
-        CompletableFuture<SendResult<String, String>> failedFuture = new CompletableFuture<>();
+        CompletableFuture<SendResult<String, NotificationDTO>> failedFuture = new CompletableFuture<>();
         failedFuture.completeExceptionally(sendException);
-        when(kafkaTemplate.send(eq(topic), anyString(), anyString())).thenReturn(failedFuture);
+        when(kafkaTemplate.send(eq(topic), anyString(), any(NotificationDTO.class))).thenReturn(failedFuture);
 
         // la chiamata al DLT ha successo
-        CompletableFuture<SendResult<String, String>> dltFuture = new CompletableFuture<>();
+        CompletableFuture<SendResult<String, NotificationDTO>> dltFuture = new CompletableFuture<>();
         RecordMetadata metadata = new RecordMetadata(
                 new TopicPartition(topic + ".DLT", 0), 0, 0,
                 System.currentTimeMillis(), 0L, 0, 0);
-        SendResult<String, String> result = new SendResult<>(new ProducerRecord<>(topic + ".DLT", key, payload), metadata);
+        SendResult<String, NotificationDTO> result = new SendResult<>(new ProducerRecord<>(topic + ".DLT", key, payload), metadata);
         dltFuture.complete(result);
         when(kafkaTemplate.send(any(ProducerRecord.class))).thenReturn(dltFuture);
 
@@ -268,29 +230,26 @@ class KafkaProducerTest {
         }).when(kafkaRetryScheduler).schedule(any(Runnable.class), any(Instant.class));
 
         // act
-        CompletableFuture<SendResult<String, String>> resultFuture = kafkaProducer.send(topic, key, testPayload);
+        CompletableFuture<SendResult<String, NotificationDTO>> resultFuture = kafkaProducer.send(topic, key, payload);
 
         // assert
-        verify(kafkaTemplate, times(3)).send(eq(topic), anyString(), anyString());
+        verify(kafkaTemplate, times(3)).send(eq(topic), anyString(), any(NotificationDTO.class));
         verify(kafkaTemplate).send(recordCaptor.capture());
 
-        ProducerRecord<String, String> capturedRecord = recordCaptor.getValue();
+        ProducerRecord<String, NotificationDTO> capturedRecord = recordCaptor.getValue();
         assertEquals(topic + ".DLT", capturedRecord.topic());
         assertEquals(key, capturedRecord.key());
         assertEquals(payload, capturedRecord.value());
         assertTrue(resultFuture.isCompletedExceptionally());
     }
 
-    // classe di supporto per i test
-    private static class TestPayload {
-        private final String message;
-
-        public TestPayload(String message) {
-            this.message = message;
-        }
-
-        public String getMessage() {
-            return message;
-        }
+    private NotificationDTO createTestNotification() {
+        return NotificationDTO.builder()
+                .type(NotificationType.KAFKA)
+                .customerId("CUST001")
+                .subject("Test Subject")
+                .content("Test content")
+                .createdAt(LocalDateTime.now())
+                .build();
     }
 }
@@ -0,0 +1,74 @@
+package com.cimparato.csbm.messaging.serialization;
+
+import com.cimparato.csbm.domain.notification.NotificationType;
+import com.cimparato.csbm.dto.notification.NotificationDTO;
+import org.apache.kafka.common.errors.SerializationException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NotificationSerializerTest {
+
+    private static final String TOPIC = "notifications";
+
+    private final NotificationSerializer serializer = new NotificationSerializer();
+    private final NotificationDeserializer deserializer = new NotificationDeserializer();
+
+    @Test
+    @DisplayName("Verifica che una notifica serializzata venga ricostruita identica dal deserializer")
+    void testRoundTrip() {
+
+        // arrange
+        NotificationDTO notification = createTestNotification();
+
+        // act
+        NotificationDTO result = deserializer.deserialize(TOPIC, serializer.serialize(TOPIC, notification));
+
+        // assert
+        assertEquals(notification, result);
+    }
+
+    @Test
+    @DisplayName("Verifica che il record contenga l'oggetto JSON della notifica e non una stringa JSON con escape")
+    void testEncodesOnce() throws IOException {
+
+        // arrange
+        NotificationDTO notification = createTestNotification();
+
+        // act
+        byte[] bytes = serializer.serialize(TOPIC, notification);
+        String json = new String(bytes, StandardCharsets.UTF_8);
+
+        // assert: una stringa JSON con escape non verrebbe letta come oggetto con una sola decodifica
+        assertTrue(json.startsWith("{"));
+        assertEquals(notification, NotificationJson.READER.readValue(bytes));
+        assertTrue(json.contains("\"customerId\":\"CUST004\""));
+        assertTrue(json.contains("\"createdAt\":\"2026-10-17T12:00:00\""));
+    }
+
+    @Test
+    @DisplayName("Verifica che i valori nulli e i byte non validi vengano gestiti")
+    void testHandlesNullAndInvalidData() {
+        assertNull(serializer.serialize(TOPIC, null));
+        assertNull(deserializer.deserialize(TOPIC, null));
+        assertThrows(SerializationException.class,
+                () -> deserializer.deserialize(TOPIC, "{invalid-json}".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private NotificationDTO createTestNotification() {
+        return NotificationDTO.builder()
+                .type(NotificationType.KAFKA)
+                .customerId("CUST004")
+                .sender("system@example.com")
+                .recipient("alerts.customer_expired")
+                .subject("Expired Services Alert")
+                .content("Customer \"CUST004\" has 6 expired services")
+                .createdAt(LocalDateTime.of(2026, 10, 17, 12, 0))
+                .build();
+    }
+}
@@ -0,0 +1,163 @@
+package com.cimparato.csbm.repository;
+
+import com.cimparato.csbm.domain.enumeration.CloudServiceStatus;
+import com.cimparato.csbm.domain.enumeration.CloudServiceType;
+import com.cimparato.csbm.domain.file.FileUploadStatus;
+import com.cimparato.csbm.domain.model.CloudService;
+import com.cimparato.csbm.domain.model.FileUpload;
+import com.cimparato.csbm.repository.projection.CustomerAverageSpend;
+import com.cimparato.csbm.repository.projection.ServiceTypeCount;
+import com.cimparato.csbm.service.file.ingestion.CopyIngestionService;
+import com.cimparato.csbm.service.file.parser.impl.CloudServiceCsvLineMapper;
+import com.cimparato.csbm.service.file.parser.impl.CloudServiceCsvParser;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+@Testcontainers(disabledWithoutDocker = true)
+@DataJpaTest(properties = {
+        "spring.liquibase.enabled=true",
+        "spring.jpa.hibernate.ddl-auto=validate",
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.PostgreSQLDialect"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import(CopyIngestionService.class)
+@ActiveProfiles("test")
+class CloudServiceSummaryStatsIT {
+
+    // i trigger del changelog 20261017170000-cloud-services-summary-stats esistono solo su PostgreSQL
+    @Container
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:15-alpine");
+
+    @DynamicPropertySource
+    static void datasourceProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", postgres::getJdbcUrl);
+        registry.add("spring.datasource.username", postgres::getUsername);
+        registry.add("spring.datasource.password", postgres::getPassword);
+        registry.add("spring.datasource.driver-class-name", postgres::getDriverClassName);
+    }
+
+    @Autowired
+    private CloudServiceRepository cloudServiceRepository;
+
+    @Autowired
+    private FileUploadRepository fileUploadRepository;
+
+    @Autowired
+    private CopyIngestionService copyIngestionService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    @DisplayName("Verifica che gli aggregati restino allineati dopo inserimenti, aggiornamenti e cancellazioni a blocchi")
+    void testChunkUpsertKeepsSummaryStatsConsistent() {
+
+        // arrange
+        FileUpload fileUpload = saveFileUpload("0123456789abcdef0123456789abcdef");
+        assertThat(cloudServiceRepository.isSummaryStatsSupported()).isTrue();
+
+        // act: il primo blocco inserisce, il secondo aggiorna (stato, importo) e inserisce, poi una cancellazione
+        cloudServiceRepository.upsertAll(List.of(
+                service("CUST001", CloudServiceType.PEC, "29.99", CloudServiceStatus.ACTIVE, fileUpload, 2),
+                service("CUST001", CloudServiceType.HOSTING, "120.50", CloudServiceStatus.ACTIVE, fileUpload, 3),
+                service("CUST002", CloudServiceType.PEC, "29.99", CloudServiceStatus.ACTIVE, fileUpload, 4)));
+
+        cloudServiceRepository.upsertAll(List.of(
+                service("CUST001", CloudServiceType.HOSTING, "99.00", CloudServiceStatus.EXPIRED, fileUpload, 5),
+                service("CUST001", CloudServiceType.SPID, "15.00", CloudServiceStatus.EXPIRED, fileUpload, 6),
+                service("CUST003", CloudServiceType.FATTURAZIONE, "79.90", CloudServiceStatus.ACTIVE, fileUpload, 7)));
+
+        jdbcTemplate.update("DELETE FROM cloud_services WHERE customer_id = ?", "CUST002");
+
+        // assert
+        assertThat(cloudServiceRepository.checkSummaryStats().isEmpty()).isTrue();
+        assertThat(cloudServiceRepository.findActiveServicesByTypeFromStats())
+                .extracting(ServiceTypeCount::serviceType, ServiceTypeCount::count)
+                .containsExactlyInAnyOrder(tuple("PEC", 1L), tuple("FATTURAZIONE", 1L));
+        assertThat(cloudServiceRepository.findCustomersWithMultipleExpiredServicesFromStats())
+                .containsExactly("CUST001");
+    }
+
+    @Test
+    @DisplayName("Verifica che gli aggregati restino allineati dopo il merge della COPY su servizi esistenti")
+    void testCopyMergeKeepsSummaryStatsConsistent() {
+
+        // arrange
+        FileUpload previousFile = saveFileUpload("11111111111111111111111111111111");
+        cloudServiceRepository.upsertAll(List.of(
+                service("CUST001", CloudServiceType.PEC, "29.99", CloudServiceStatus.ACTIVE, previousFile, 2),
+                service("CUST002", CloudServiceType.HOSTING, "120.50", CloudServiceStatus.ACTIVE, previousFile, 3)));
+
+        FileUpload fileUpload = saveFileUpload("22222222222222222222222222222222");
+        String csv = """
+                customer_id,service_type,activation_date,expiration_date,amount,status
+                CUST001,PEC,2018-01-15,2030-11-15,35.00,ACTIVE
+                CUST002,HOSTING,2021-05-10,2022-05-10,120.50,EXPIRED
+                CUST002,SPID,2021-03-22,2022-10-22,15.00,EXPIRED
+                CUST003,FATTURAZIONE,2023-02-01,2030-11-01,79.90,ACTIVE
+                CUST003,FATTURAZIONE,2023-02-01,2030-11-01,89.90,ACTIVE
+                """;
+        CloudServiceCsvParser parser = new CloudServiceCsvParser(new CloudServiceCsvLineMapper());
+
+        // act
+        int records = copyIngestionService.ingest(parser,
+                new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), fileUpload);
+
+        // assert
+        assertThat(records).isEqualTo(5);
+        assertThat(cloudServiceRepository.checkSummaryStats().isEmpty()).isTrue();
+
+        // per CUST003 vince l'ultima riga del file
+        assertThat(cloudServiceRepository.findAverageSpendPerCustomerFromStats())
+                .filteredOn(spend -> spend.customerId().equals("CUST003"))
+                .extracting(CustomerAverageSpend::averageAmount)
+                .containsExactly(new BigDecimal("89.90"));
+        assertThat(cloudServiceRepository.findCustomersWithMultipleExpiredServicesFromStats())
+                .containsExactly("CUST002");
+    }
+
+    private FileUpload saveFileUpload(String fileHash) {
+        return fileUploadRepository.saveAndFlush(FileUpload.builder()
+                .filename(fileHash + ".csv")
+                .fileHash(fileHash)
+                .uploadDate(LocalDateTime.now())
+                .uploadedBy("testuser")
+                .status(FileUploadStatus.PROCESSING)
+                .build());
+    }
+
+    private static CloudService service(String customerId, CloudServiceType serviceType, String amount,
+                                        CloudServiceStatus status, FileUpload fileUpload, int lineNumber) {
+        CloudService service = new CloudService();
+        service.setCustomerId(customerId);
+        service.setServiceType(serviceType);
+        service.setActivationDate(LocalDate.of(2021, 1, 1));
+        service.setExpirationDate(status == CloudServiceStatus.EXPIRED ? LocalDate.of(2022, 1, 1) : LocalDate.of(2030, 1, 1));
+        service.setAmount(new BigDecimal(amount));
+        service.setStatus(status);
+        service.setLastFileUploadId(fileUpload.getId());
+        service.setLastLineNumber(lineNumber);
+        return service;
+    }
+}
@@ -0,0 +1,159 @@
+package com.cimparato.csbm.repository;
+
+import com.cimparato.csbm.domain.enumeration.CloudServiceStatus;
+import com.cimparato.csbm.domain.enumeration.CloudServiceType;
+import com.cimparato.csbm.domain.file.FileOperationType;
+import com.cimparato.csbm.domain.file.FileUploadStatus;
+import com.cimparato.csbm.domain.model.CloudService;
+import com.cimparato.csbm.domain.model.FileUpload;
+import com.cimparato.csbm.domain.model.ServiceFileRelation;
+import com.cimparato.csbm.repository.projection.CloudServiceUpsertResult;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest(properties = {
+        "spring.jpa.properties.hibernate.generate_statistics=true",
+        "spring.jpa.properties.hibernate.jdbc.batch_size=50"
+})
+@ActiveProfiles("test")
+class EntityBatchInsertIT {
+
+    private static final int RECORDS = 100;
+
+    @Autowired
+    private CloudServiceRepository cloudServiceRepository;
+
+    @Autowired
+    private ServiceFileRelationRepository serviceFileRelationRepository;
+
+    @Autowired
+    private FileUploadRepository fileUploadRepository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private Statistics statistics;
+
+    @BeforeEach
+    void setUp() {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    }
+
+    @Test
+    @DisplayName("Verifica che il salvataggio di un batch di servizi venga inviato con pochi statement JDBC")
+    void testSaveAllIsBatched() {
+
+        // arrange
+        List<CloudService> services = new ArrayList<>();
+        for (int i = 0; i < RECORDS; i++) {
+            services.add(buildService("CUST" + i));
+        }
+        statistics.clear();
+
+        // act
+        cloudServiceRepository.saveAll(services);
+        entityManager.flush();
+
+        // assert
+        assertThat(statistics.getEntityInsertCount()).isEqualTo(RECORDS);
+
+        // con IDENTITY ogni insert richiederebbe uno statement: con la sequenza pooled (allocationSize 50) e
+        // batch_size 50 bastano due batch di insert più le letture della sequenza
+        assertThat(statistics.getPrepareStatementCount()).isLessThanOrEqualTo(5);
+    }
+
+    @Test
+    @DisplayName("Verifica che il salvataggio delle relazioni servizio-file venga inviato in batch")
+    void testRelationsSaveAllIsBatched() {
+
+        // arrange
+        FileUpload fileUpload = fileUploadRepository.save(FileUpload.builder()
+                .filename("batch.csv")
+                .fileHash("0123456789abcdef0123456789abcdef")
+                .uploadDate(LocalDateTime.now())
+                .uploadedBy("testuser")
+                .status(FileUploadStatus.PROCESSING)
+                .build());
+
+        List<CloudService> services = cloudServiceRepository.saveAll(
+                List.of(buildService("CUST-A"), buildService("CUST-B")));
+        entityManager.flush();
+
+        List<ServiceFileRelation> relations = new ArrayList<>();
+        for (int i = 0; i < RECORDS; i++) {
+            relations.add(ServiceFileRelation.builder()
+                    .service(services.get(i % 2))
+                    .fileUpload(fileUpload)
+                    .operationType(FileOperationType.UPDATE)
+                    .lineNumber(i + 2)
+                    .build());
+        }
+        statistics.clear();
+
+        // act
+        serviceFileRelationRepository.saveAll(relations);
+        entityManager.flush();
+
+        // assert
+        assertThat(statistics.getEntityInsertCount()).isEqualTo(RECORDS);
+        assertThat(statistics.getPrepareStatementCount()).isLessThanOrEqualTo(5);
+    }
+
+    @Test
+    @DisplayName("Verifica che l'upsert nativo assegni gli id a blocchi e solo alle righe inserite")
+    void testUpsertAllReservesIdsOnlyForInsertedRows() {
+
+        // arrange
+        List<CloudService> services = List.of(buildService("CUST-X"), buildService("CUST-Y"), buildService("CUST-Z"));
+        List<CloudServiceUpsertResult> created = cloudServiceRepository.upsertAll(services);
+        long before = jdbcTemplate.queryForObject("SELECT NEXT VALUE FOR cloud_services_seq", Long.class);
+
+        // act: la stessa importazione ripetuta aggiorna soltanto
+        List<CloudServiceUpsertResult> updated = cloudServiceRepository.upsertAll(
+                List.of(buildService("CUST-X"), buildService("CUST-Y"), buildService("CUST-Z")));
+        long after = jdbcTemplate.queryForObject("SELECT NEXT VALUE FOR cloud_services_seq", Long.class);
+
+        // assert: i tre inserimenti condividono un blocco, gli aggiornamenti non leggono la sequenza
+        assertThat(created).allMatch(CloudServiceUpsertResult::created);
+        assertThat(created).extracting(CloudServiceUpsertResult::id).doesNotHaveDuplicates()
+                .allMatch(id -> Math.abs(id - created.get(0).id()) < 50);
+        assertThat(updated).noneMatch(CloudServiceUpsertResult::created);
+        assertThat(updated).extracting(CloudServiceUpsertResult::id)
+                .containsExactlyInAnyOrderElementsOf(created.stream().map(CloudServiceUpsertResult::id).toList());
+        assertThat(after).isEqualTo(before + 50);
+    }
+
+    private CloudService buildService(String customerId) {
+        CloudService service = new CloudService();
+        service.setCustomerId(customerId);
+        service.setServiceType(CloudServiceType.PEC);
+        service.setActivationDate(LocalDate.of(2023, 1, 1));
+        service.setExpirationDate(LocalDate.of(2030, 1, 1));
+        service.setAmount(new BigDecimal("29.99"));
+        service.setStatus(CloudServiceStatus.ACTIVE);
+        return service;
+    }
+}
@@ -0,0 +1,251 @@
+package com.cimparato.csbm.repository;
+
+import com.cimparato.csbm.domain.model.Notification;
+import com.cimparato.csbm.domain.notification.NotificationStatus;
+import com.cimparato.csbm.domain.notification.NotificationType;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest
+@ActiveProfiles("test")
+class NotificationRepositoryIT {
+
+    @Autowired
+    private NotificationRepository notificationRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Test
+    @DisplayName("Verifica che vengano prelevate in ordine di inserimento solo le notifiche PENDING senza un lease valido")
+    void testLockPendingReturnsOldestPendingNotifications() {
+
+        // arrange
+        LocalDateTime now = LocalDateTime.now();
+        save(NotificationStatus.SENT);
+        save(NotificationStatus.PENDING, 0, now.plusMinutes(5)); // lease ancora valido
+        Notification first = save(NotificationStatus.PENDING);
+        save(NotificationStatus.FAILED);
+        Notification second = save(NotificationStatus.PENDING, 0, now.minusSeconds(1)); // lease scaduto
+        save(NotificationStatus.PENDING);
+
+        // act
+        List<Notification> locked = notificationRepository.lockPending(now, 2);
+
+        // assert
+        assertThat(locked).extracting(Notification::getId).containsExactly(first.getId(), second.getId());
+    }
+
+    @Test
+    @DisplayName("Verifica che le notifiche pubblicate vengano segnate come SENT con un'unica istruzione")
+    void testUpdateStatusAndSentAt() {
+
+        // arrange
+        Notification first = save(NotificationStatus.PENDING);
+        Notification second = save(NotificationStatus.PENDING);
+        LocalDateTime sentAt = LocalDateTime.now();
+
+        // act
+        int updated = notificationRepository.updateStatusAndSentAt(List.of(first.getId()), NotificationStatus.SENT, sentAt);
+
+        // assert
+        assertThat(updated).isEqualTo(1);
+        assertThat(notificationRepository.lockPending(LocalDateTime.now(), 10)).extracting(Notification::getId).containsExactly(second.getId());
+    }
+
+    @Test
+    @DisplayName("Verifica che vengano prelevate le notifiche FAILED da ritentare e quelle con il lease scaduto")
+    void testLockRetryable() {
+
+        // arrange
+        LocalDateTime now = LocalDateTime.now();
+        Notification failed = save(NotificationStatus.FAILED);
+        Notification backoffElapsed = save(NotificationStatus.FAILED, 1, now.minusSeconds(10));
+        save(NotificationStatus.FAILED, 1, now.plusMinutes(1)); // backoff non ancora trascorso
+        save(NotificationStatus.FAILED, 3, null); // tentativi esauriti
+        Notification leaseExpired = save(NotificationStatus.PROCESSING, 1, now.minusSeconds(1));
+        save(NotificationStatus.PROCESSING, 1, now.plusMinutes(5)); // lease ancora valido
+        save(NotificationStatus.PENDING);
+
+        // act
+        List<Notification> locked = notificationRepository.lockRetryable(3, now, 10);
+
+        // assert
+        assertThat(locked).extracting(Notification::getId)
+                .containsExactly(failed.getId(), backoffElapsed.getId(), leaseExpired.getId());
+    }
+
+    @Test
+    @DisplayName("Verifica che l'esito di un tentativo venga registrato solo se il lease è ancora valido")
+    void testCompleteLeasedIgnoresExpiredLeases() {
+
+        // arrange
+        LocalDateTime leaseUntil = LocalDateTime.now().plusMinutes(5).truncatedTo(ChronoUnit.MILLIS);
+        Notification leased = save(NotificationStatus.PROCESSING, 1, leaseUntil);
+        Notification reclaimed = save(NotificationStatus.PROCESSING, 2, leaseUntil.plusMinutes(1));
+
+        // esiti calcolati su copie delle notifiche, come per quelle prelevate in una transazione già conclusa
+        List<Notification> outcomes = List.of(sent(leased.getId()), sent(reclaimed.getId()));
+
+        // act
+        int updated = notificationRepository.completeLeased(outcomes, leaseUntil);
+
+        // assert
+        assertThat(updated).isEqualTo(1);
+        assertThat(notificationRepository.lockRetryable(3, leaseUntil.plusMinutes(2), 10))
+                .extracting(Notification::getId).containsExactly(reclaimed.getId());
+    }
+
+    @Test
+    @DisplayName("Verifica che le notifiche con il lease scaduto e i tentativi esauriti passino in stato FAILED")
+    void testFailExhaustedLeases() {
+
+        // arrange
+        LocalDateTime now = LocalDateTime.now();
+        Notification exhausted = save(NotificationStatus.PROCESSING, 3, now.minusSeconds(1));
+        Notification leaseExpired = save(NotificationStatus.PROCESSING, 2, now.minusSeconds(1));
+        Notification leaseValid = save(NotificationStatus.PROCESSING, 3, now.plusMinutes(5));
+
+        // act
+        int updated = notificationRepository.failExhaustedLeases(3, now, "lease expired");
+
+        // assert
+        assertThat(updated).isEqualTo(1);
+        entityManager.clear();
+        Notification failed = notificationRepository.findById(exhausted.getId()).orElseThrow();
+        assertThat(failed.getStatus()).isEqualTo(NotificationStatus.FAILED);
+        assertThat(failed.getErrorMessage()).isEqualTo("lease expired");
+        assertThat(failed.getNextAttemptAt()).isNull();
+        assertThat(notificationRepository.findById(leaseExpired.getId()).orElseThrow().getStatus())
+                .isEqualTo(NotificationStatus.PROCESSING);
+        assertThat(notificationRepository.findById(leaseValid.getId()).orElseThrow().getStatus())
+                .isEqualTo(NotificationStatus.PROCESSING);
+    }
+
+    @Test
+    @DisplayName("Verifica che l'esito della pubblicazione dall'outbox venga registrato solo se il lease è ancora valido")
+    void testCompleteRelayedIgnoresExpiredLeases() {
+
+        // arrange
+        LocalDateTime leaseUntil = LocalDateTime.now().plusMinutes(5).truncatedTo(ChronoUnit.MILLIS);
+        Notification leased = save(NotificationStatus.PENDING, 0, leaseUntil);
+        Notification reclaimed = save(NotificationStatus.PENDING, 0, leaseUntil.plusMinutes(1));
+
+        Notification failed = new Notification();
+        failed.setId(leased.getId());
+        failed.setStatus(NotificationStatus.PENDING);
+        failed.setRetryCount(1);
+        failed.setErrorMessage("broker unavailable");
+        List<Notification> outcomes = List.of(failed, sent(reclaimed.getId()));
+
+        // act
+        int updated = notificationRepository.completeRelayed(outcomes, leaseUntil);
+
+        // assert
+        assertThat(updated).isEqualTo(1);
+        assertThat(notificationRepository.lockPending(LocalDateTime.now(), 10))
+                .extracting(Notification::getId).containsExactly(leased.getId());
+
+        entityManager.clear(); // rilegge le righe aggiornate via JDBC
+        Notification retried = notificationRepository.findById(leased.getId()).orElseThrow();
+        assertThat(retried.getRetryCount()).isEqualTo(1);
+        assertThat(retried.getErrorMessage()).isEqualTo("broker unavailable");
+        assertThat(retried.getNextAttemptAt()).isNull();
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    @DisplayName("Verifica che due transazioni concorrenti prelevino blocchi disgiunti di notifiche")
+    void testConcurrentLockPendingSkipsLockedRows() throws Exception {
+
+        // arrange
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        List<Long> ids = transaction.execute(status -> IntStream.range(0, 4)
+                .mapToObj(i -> save(NotificationStatus.PENDING).getId())
+                .toList());
+
+        CountDownLatch firstLocked = new CountDownLatch(1);
+        CountDownLatch releaseFirst = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            // act: la prima transazione mantiene il lock sulle righe prelevate finché la seconda non ha prelevato le sue
+            Future<List<Long>> firstBatch = executor.submit(() -> transaction.execute(status -> {
+                List<Long> claimed = ids(notificationRepository.lockPending(LocalDateTime.now(), 2));
+                firstLocked.countDown();
+                try {
+                    releaseFirst.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return claimed;
+            }));
+
+            assertThat(firstLocked.await(10, TimeUnit.SECONDS)).isTrue();
+            List<Long> secondBatch = transaction.execute(status -> ids(notificationRepository.lockPending(LocalDateTime.now(), 2)));
+            releaseFirst.countDown();
+
+            // assert
+            List<Long> claimed = new ArrayList<>(firstBatch.get(10, TimeUnit.SECONDS));
+            assertThat(claimed).doesNotContainAnyElementsOf(secondBatch);
+            claimed.addAll(secondBatch);
+            assertThat(claimed).containsExactlyInAnyOrderElementsOf(ids);
+        } finally {
+            releaseFirst.countDown();
+            executor.shutdownNow();
+            notificationRepository.deleteAll();
+        }
+    }
+
+    private Notification save(NotificationStatus status) {
+        return save(status, 0, null);
+    }
+
+    private Notification save(NotificationStatus status, int retryCount, LocalDateTime nextAttemptAt) {
+        Notification notification = new Notification();
+        notification.setType(NotificationType.EMAIL);
+        notification.setCustomerId("CUST001");
+        notification.setSubject("subject");
+        notification.setContent("content");
+        notification.setStatus(status);
+        notification.setRetryCount(retryCount);
+        notification.setNextAttemptAt(nextAttemptAt);
+        return notificationRepository.saveAndFlush(notification);
+    }
+
+    private static Notification sent(Long id) {
+        Notification notification = new Notification();
+        notification.setId(id);
+        notification.setStatus(NotificationStatus.SENT);
+        notification.setSentAt(LocalDateTime.now());
+        return notification;
+    }
+
+    private static List<Long> ids(List<Notification> notifications) {
+        return notifications.stream().map(Notification::getId).toList();
+    }
+}
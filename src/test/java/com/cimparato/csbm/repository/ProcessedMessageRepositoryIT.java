@@ -0,0 +1,55 @@
+package com.cimparato.csbm.repository;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest
+@ActiveProfiles("test")
+class ProcessedMessageRepositoryIT {
+
+    @Autowired
+    private ProcessedMessageRepository processedMessageRepository;
+
+    @Test
+    @DisplayName("Verifica che vengano registrati e restituiti solo gli ID non ancora presenti")
+    void testInsertIfAbsentReturnsOnlyNewIds() {
+
+        // arrange
+        LocalDateTime now = LocalDateTime.now();
+        processedMessageRepository.insertIfAbsent(List.of("id1", "id2"), now);
+
+        // act
+        Set<String> inserted = processedMessageRepository.insertIfAbsent(List.of("id2", "id3", "id3"), now);
+
+        // assert
+        assertThat(inserted).containsExactly("id3");
+        assertThat(processedMessageRepository.count()).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("Verifica che la pulizia rimuova solo gli ID registrati prima della soglia")
+    void testDeleteProcessedBefore() {
+
+        // arrange
+        LocalDateTime now = LocalDateTime.now();
+        processedMessageRepository.insertIfAbsent(List.of("old"), now.minusDays(2));
+        processedMessageRepository.insertIfAbsent(List.of("recent"), now);
+
+        // act
+        int deleted = processedMessageRepository.deleteProcessedBefore(now.minusDays(1));
+
+        // assert
+        assertThat(deleted).isEqualTo(1);
+        assertThat(processedMessageRepository.existsById("old")).isFalse();
+        assertThat(processedMessageRepository.existsById("recent")).isTrue();
+    }
+}
@@ -0,0 +1,94 @@
+package com.cimparato.csbm.repository;
+
+import com.cimparato.csbm.domain.enumeration.JobStatus;
+import com.cimparato.csbm.domain.enumeration.ReportJobType;
+import com.cimparato.csbm.domain.model.ReportJob;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest
+@ActiveProfiles("test")
+class ReportJobRepositoryIT {
+
+    @Autowired
+    private ReportJobRepository reportJobRepository;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Test
+    @DisplayName("Verifica che l'avvio della generazione registri l'inizio dell'elaborazione solo per i job PENDING")
+    void testMarkProcessing() {
+
+        // arrange
+        LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+        save("job-1", JobStatus.PENDING, now.minusHours(2));
+        save("job-2", JobStatus.FAILED, now.minusHours(2));
+
+        // act
+        int pending = reportJobRepository.markProcessing("job-1", now, JobStatus.PENDING, JobStatus.PROCESSING);
+        int failed = reportJobRepository.markProcessing("job-2", now, JobStatus.PENDING, JobStatus.PROCESSING);
+        entityManager.clear();
+
+        // assert
+        assertThat(pending).isEqualTo(1);
+        assertThat(failed).isZero();
+        ReportJob job = reportJobRepository.findById("job-1").orElseThrow();
+        assertThat(job.getStatus()).isEqualTo(JobStatus.PROCESSING);
+        assertThat(job.getStartTime()).isEqualTo(now);
+        assertThat(reportJobRepository.findById("job-2").orElseThrow().getStatus()).isEqualTo(JobStatus.FAILED);
+    }
+
+    @Test
+    @DisplayName("Verifica che la pulizia non registri come fallito un job avviato dopo la soglia o già terminato")
+    void testMarkStale() {
+
+        // arrange
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime startedBefore = now.minusMinutes(30);
+        save("stale", JobStatus.PROCESSING, now.minusHours(2));
+        save("restarted", JobStatus.PROCESSING, now.minusMinutes(1));
+        save("completed", JobStatus.COMPLETED, now.minusHours(2));
+
+        // act
+        int stale = markStale("stale", startedBefore, now);
+        int restarted = markStale("restarted", startedBefore, now);
+        int completed = markStale("completed", startedBefore, now);
+        entityManager.clear();
+
+        // assert
+        assertThat(stale).isEqualTo(1);
+        assertThat(restarted).isZero();
+        assertThat(completed).isZero();
+        ReportJob job = reportJobRepository.findById("stale").orElseThrow();
+        assertThat(job.getStatus()).isEqualTo(JobStatus.FAILED);
+        assertThat(job.getErrorMessage()).isEqualTo("timeout");
+        assertThat(reportJobRepository.findById("restarted").orElseThrow().getStatus()).isEqualTo(JobStatus.PROCESSING);
+        assertThat(reportJobRepository.findById("completed").orElseThrow().getStatus()).isEqualTo(JobStatus.COMPLETED);
+    }
+
+    private int markStale(String jobId, LocalDateTime startedBefore, LocalDateTime now) {
+        return reportJobRepository.markStale(jobId, JobStatus.PROCESSING, startedBefore, now, "timeout",
+                now.plusHours(24), JobStatus.FAILED);
+    }
+
+    private void save(String jobId, JobStatus status, LocalDateTime startTime) {
+        entityManager.persistAndFlush(ReportJob.builder()
+                .jobId(jobId)
+                .reportType(ReportJobType.SUMMARY_PDF)
+                .status(status)
+                .createdBy("analyst")
+                .startTime(startTime)
+                .expiresAt(startTime.plusHours(24))
+                .build());
+    }
+}
@@ -0,0 +1,98 @@
+package com.cimparato.csbm.repository;
+
+import com.cimparato.csbm.domain.enumeration.CloudServiceStatus;
+import com.cimparato.csbm.domain.enumeration.CloudServiceType;
+import com.cimparato.csbm.domain.model.CloudService;
+import com.cimparato.csbm.domain.model.UpsellingWatermark;
+import com.cimparato.csbm.repository.projection.ActiveServiceSummary;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest
+@ActiveProfiles("test")
+class UpsellingWatermarkRepositoryIT {
+
+    @Autowired
+    private UpsellingWatermarkRepository upsellingWatermarkRepository;
+
+    @Autowired
+    private CloudServiceRepository cloudServiceRepository;
+
+    @Test
+    @DisplayName("Verifica che i watermark mancanti vengano inseriti e quelli esistenti aggiornati")
+    void testAdvanceInsertsAndUpdatesWatermarks() {
+
+        // arrange
+        LocalDateTime now = LocalDateTime.now();
+        upsellingWatermarkRepository.advance(List.of(
+                watermark("CUST001", CloudServiceType.PEC, LocalDate.of(2018, 1, 15), now.minusDays(1))));
+
+        // act
+        int advanced = upsellingWatermarkRepository.advance(List.of(
+                watermark("CUST001", CloudServiceType.PEC, LocalDate.of(2020, 5, 1), now),
+                watermark("CUST001", CloudServiceType.HOSTING, LocalDate.of(2019, 3, 1), now)));
+
+        // assert
+        assertThat(advanced).isEqualTo(2);
+        assertThat(upsellingWatermarkRepository.count()).isEqualTo(2);
+        assertThat(upsellingWatermarkRepository.findById(new UpsellingWatermark.Key("CUST001", CloudServiceType.PEC)))
+                .get()
+                .extracting(UpsellingWatermark::getActivationDate)
+                .isEqualTo(LocalDate.of(2020, 5, 1));
+    }
+
+    @Test
+    @DisplayName("Verifica che la query della regola di upselling escluda i servizi già segnalati")
+    void testStreamUnnotifiedActiveServicesExcludesNotifiedServices() {
+
+        // arrange
+        LocalDate yearsAgo = LocalDate.now().minusYears(3);
+        cloudServiceRepository.saveAllAndFlush(List.of(
+                service("CUST001", CloudServiceType.PEC, LocalDate.of(2018, 1, 15)),
+                service("CUST001", CloudServiceType.HOSTING, LocalDate.of(2019, 3, 1)),
+                service("CUST002", CloudServiceType.SPID, LocalDate.of(2018, 6, 1)),
+                service("CUST002", CloudServiceType.FATTURAZIONE, LocalDate.of(2019, 9, 1))));
+
+        upsellingWatermarkRepository.advance(List.of(
+                // già segnalato
+                watermark("CUST001", CloudServiceType.PEC, LocalDate.of(2018, 1, 15), LocalDateTime.now()),
+                // segnalato prima di una riattivazione: il servizio va segnalato di nuovo
+                watermark("CUST002", CloudServiceType.FATTURAZIONE, LocalDate.of(2015, 1, 1), LocalDateTime.now())));
+
+        // act
+        List<String> unnotified;
+        try (Stream<ActiveServiceSummary> rows = cloudServiceRepository.streamUnnotifiedActiveServicesOlderThan(yearsAgo)) {
+            unnotified = rows.map(row -> row.getCustomerId() + ":" + row.getServiceType()).toList();
+        }
+
+        // assert
+        assertThat(unnotified).containsExactly("CUST001:HOSTING", "CUST002:FATTURAZIONE", "CUST002:SPID");
+    }
+
+    private static UpsellingWatermark watermark(String customerId, CloudServiceType serviceType,
+                                                LocalDate activationDate, LocalDateTime notifiedAt) {
+        return new UpsellingWatermark(customerId, serviceType, activationDate, notifiedAt);
+    }
+
+    private static CloudService service(String customerId, CloudServiceType serviceType, LocalDate activationDate) {
+        CloudService service = new CloudService();
+        service.setCustomerId(customerId);
+        service.setServiceType(serviceType);
+        service.setActivationDate(activationDate);
+        service.setExpirationDate(LocalDate.now().plusYears(1));
+        service.setAmount(BigDecimal.valueOf(29.99));
+        service.setStatus(CloudServiceStatus.ACTIVE);
+        return service;
+    }
+}
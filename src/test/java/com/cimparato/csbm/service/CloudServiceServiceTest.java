@@ -0,0 +1,105 @@
+package com.cimparato.csbm.service;
+
+import com.cimparato.csbm.mapper.CloudServiceMapper;
+import com.cimparato.csbm.repository.CloudServiceRepository;
+import com.cimparato.csbm.repository.ServiceFileRelationRepository;
+import com.cimparato.csbm.repository.projection.CustomerAverageSpend;
+import com.cimparato.csbm.repository.projection.ServiceTypeCount;
+import com.cimparato.csbm.repository.projection.SummaryStatsDrift;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class CloudServiceServiceTest {
+
+    @Mock
+    private CloudServiceRepository cloudServiceRepository;
+
+    @Mock
+    private ServiceFileRelationRepository serviceFileRelationRepository;
+
+    @Mock
+    private CloudServiceMapper cloudServiceMapper;
+
+    private CloudServiceService cloudServiceService;
+
+    @BeforeEach
+    void setUp() {
+        cloudServiceService = new CloudServiceService(cloudServiceRepository, serviceFileRelationRepository,
+                cloudServiceMapper);
+    }
+
+    @Test
+    @DisplayName("Verifica che i dati del riepilogo vengano letti dagli aggregati quando disponibili")
+    void testSummaryReadsStatsWhenSupported() {
+
+        // arrange
+        when(cloudServiceRepository.isSummaryStatsSupported()).thenReturn(true);
+        when(cloudServiceRepository.findActiveServicesByTypeFromStats())
+                .thenReturn(List.of(new ServiceTypeCount("PEC", 10L), new ServiceTypeCount("HOSTING", 5L)));
+        when(cloudServiceRepository.findAverageSpendPerCustomerFromStats())
+                .thenReturn(List.of(new CustomerAverageSpend("CUST001", new BigDecimal("29.99"))));
+        when(cloudServiceRepository.findCustomersWithMultipleExpiredServicesFromStats()).thenReturn(List.of("CUST004"));
+
+        // act
+        Map<String, Long> activeServicesByType = cloudServiceService.getActiveServicesByType();
+        Map<String, BigDecimal> averageSpend = cloudServiceService.getAverageSpendPerCustomer();
+        List<String> customers = cloudServiceService.getCustomersWithMultipleExpiredServices();
+
+        // assert
+        assertEquals(List.of("PEC", "HOSTING"), List.copyOf(activeServicesByType.keySet()));
+        assertEquals(new BigDecimal("29.99"), averageSpend.get("CUST001"));
+        assertEquals(List.of("CUST004"), customers);
+        verify(cloudServiceRepository, never()).findActiveServicesByType();
+        verify(cloudServiceRepository, never()).calculateAverageSpendPerCustomer();
+        verify(cloudServiceRepository, never()).findCustomersWithMultipleExpiredServices();
+    }
+
+    @Test
+    @DisplayName("Verifica che i dati del riepilogo vengano calcolati sulla tabella se gli aggregati non sono disponibili")
+    void testSummaryFallsBackToLiveQueries() {
+
+        // arrange
+        when(cloudServiceRepository.isSummaryStatsSupported()).thenReturn(false);
+        when(cloudServiceRepository.findActiveServicesByType()).thenReturn(List.of(new ServiceTypeCount("PEC", 3L)));
+
+        // act
+        Map<String, Long> activeServicesByType = cloudServiceService.getActiveServicesByType();
+
+        // assert
+        assertEquals(Map.of("PEC", 3L), activeServicesByType);
+        verify(cloudServiceRepository, never()).findActiveServicesByTypeFromStats();
+    }
+
+    @Test
+    @DisplayName("Verifica che gli aggregati vengano ricostruiti solo se differiscono dai dati")
+    void testVerifySummaryStatsRebuildsOnlyOnDrift() {
+
+        // arrange
+        when(cloudServiceRepository.isSummaryStatsSupported()).thenReturn(true);
+        when(cloudServiceRepository.checkSummaryStats())
+                .thenReturn(new SummaryStatsDrift(0, 0))
+                .thenReturn(new SummaryStatsDrift(1, 2));
+
+        // act
+        SummaryStatsDrift aligned = cloudServiceService.verifySummaryStats();
+        verify(cloudServiceRepository, never()).rebuildSummaryStats();
+        SummaryStatsDrift drift = cloudServiceService.verifySummaryStats();
+
+        // assert
+        assertTrue(aligned.isEmpty());
+        assertEquals(new SummaryStatsDrift(1, 2), drift);
+        verify(cloudServiceRepository).rebuildSummaryStats();
+    }
+}
@@ -0,0 +1,110 @@
+package com.cimparato.csbm.service;
+
+import com.cimparato.csbm.config.properties.AppProperties;
+import com.cimparato.csbm.service.deduplication.MessageDeduplicationStore;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class MessageDeduplicationServiceTest {
+
+    @Mock
+    private MessageDeduplicationStore messageDeduplicationStore;
+
+    private Cache<String, Boolean> processedMessageCache;
+
+    private MessageDeduplicationService messageDeduplicationService;
+
+    @BeforeEach
+    void setUp() {
+        AppProperties appProperties = new AppProperties();
+        appProperties.setNotification(new AppProperties.Notification());
+
+        processedMessageCache = Caffeine.newBuilder().build();
+        messageDeduplicationService = new MessageDeduplicationService(processedMessageCache, messageDeduplicationStore,
+                appProperties);
+    }
+
+    @Test
+    @DisplayName("Verifica che vengano restituiti solo i messaggi registrati dall'archivio e che la cache venga popolata")
+    void testClaimReturnsOnlyNewMessages() {
+
+        // arrange: id2 è già stato registrato da un'altra istanza
+        when(messageDeduplicationStore.claim(Set.of("id1", "id2"))).thenReturn(Set.of("id1"));
+
+        // act
+        Set<String> claimed = messageDeduplicationService.claim(List.of("id1", "id2"));
+
+        // assert
+        assertEquals(Set.of("id1"), claimed);
+        assertEquals(2, processedMessageCache.estimatedSize());
+    }
+
+    @Test
+    @DisplayName("Verifica che gli ID presenti nella near-cache non raggiungano l'archivio")
+    void testNearCacheHitsDoNotReachStore() {
+
+        // arrange
+        processedMessageCache.put("id1", Boolean.TRUE);
+        when(messageDeduplicationStore.claim(Set.of("id2"))).thenReturn(Set.of("id2"));
+
+        // act
+        Set<String> claimed = messageDeduplicationService.claim(List.of("id1", "id2"));
+        Set<String> claimedAgain = messageDeduplicationService.claim(List.of("id1", "id2"));
+
+        // assert
+        assertEquals(Set.of("id2"), claimed);
+        assertTrue(claimedAgain.isEmpty());
+        verify(messageDeduplicationStore, times(1)).claim(any());
+        assertTrue(messageDeduplicationService.isProcessed("id1"));
+        verify(messageDeduplicationStore, never()).contains(any());
+    }
+
+    @Test
+    @DisplayName("Verifica che un messaggio rilasciato possa essere registrato di nuovo")
+    void testReleaseRemovesFromCacheAndStore() {
+
+        // arrange
+        when(messageDeduplicationStore.claim(Set.of("id1"))).thenReturn(Set.of("id1"));
+        messageDeduplicationService.claim(List.of("id1"));
+
+        // act
+        messageDeduplicationService.release(List.of("id1"));
+        Set<String> claimedAgain = messageDeduplicationService.claim(List.of("id1"));
+
+        // assert
+        verify(messageDeduplicationStore).release(List.of("id1"));
+        verify(messageDeduplicationStore, times(2)).claim(Set.of("id1"));
+        assertEquals(Set.of("id1"), claimedAgain);
+    }
+
+    @Test
+    @DisplayName("Verifica che la pulizia rimuova gli ID più vecchi del TTL configurato")
+    void testDeleteExpiredUsesConfiguredTtl() {
+
+        // arrange
+        when(messageDeduplicationStore.deleteOlderThan(any(LocalDateTime.class))).thenReturn(3);
+
+        // act
+        int deleted = messageDeduplicationService.deleteExpired();
+
+        // assert
+        assertEquals(3, deleted);
+        verify(messageDeduplicationStore).deleteOlderThan(argThat(threshold ->
+                threshold.isBefore(LocalDateTime.now().minusHours(23)) && threshold.isAfter(LocalDateTime.now().minusHours(25))));
+    }
+}
@@ -0,0 +1,208 @@
+package com.cimparato.csbm.service.file;
+
+import com.cimparato.csbm.config.async.FileChunkTaskExecutor;
+import com.cimparato.csbm.config.async.FileProcessingTaskExecutor;
+import com.cimparato.csbm.domain.enumeration.JobStatus;
+import com.cimparato.csbm.domain.event.DomainEventPublisher;
+import com.cimparato.csbm.domain.event.JobCreatedEvent;
+import com.cimparato.csbm.domain.file.FileOperationType;
+import com.cimparato.csbm.domain.file.FileUploadStatus;
+import com.cimparato.csbm.domain.model.CloudService;
+import com.cimparato.csbm.domain.model.FileUpload;
+import com.cimparato.csbm.domain.model.JobExecution;
+import com.cimparato.csbm.domain.model.ServiceFileRelation;
+import com.cimparato.csbm.dto.jobexecution.JobStatusDTO;
+import com.cimparato.csbm.mapper.CloudServiceMapperImpl;
+import com.cimparato.csbm.mapper.ProcessingErrorMapperImpl;
+import com.cimparato.csbm.repository.CloudServiceRepository;
+import com.cimparato.csbm.repository.FileUploadRepository;
+import com.cimparato.csbm.repository.ServiceFileRelationRepository;
+import com.cimparato.csbm.service.JobExecutionService;
+import com.cimparato.csbm.service.file.ingestion.CopyIngestionService;
+import com.cimparato.csbm.service.file.parser.FileParserStrategy;
+import com.cimparato.csbm.service.file.parser.impl.CloudServiceCsvLineMapper;
+import com.cimparato.csbm.service.file.parser.impl.CloudServiceCsvParser;
+import com.cimparato.csbm.service.file.storage.FileStorageService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@DataJpaTest(properties = {
+        "app.file-processing.parallelism=2",
+        "app.file-processing.parallel-threshold-bytes=0"
+})
+@ActiveProfiles("test")
+@Import({
+        FileProcessorService.class,
+        FileProcessingBatchWriter.class,
+        FileParserStrategy.class,
+        CloudServiceCsvParser.class,
+        CloudServiceCsvLineMapper.class,
+        CloudServiceMapperImpl.class,
+        ProcessingErrorMapperImpl.class,
+        FileProcessorServiceChunksIT.TestConfig.class
+})
+class FileProcessorServiceChunksIT {
+
+    private static final String JOB_ID = "job-chunks";
+
+    @TempDir
+    Path tempDir;
+
+    @MockBean
+    private JobExecutionService jobExecutionService;
+
+    @MockBean
+    private FileStorageService fileStorageService;
+
+    @MockBean
+    private FileProcessingTaskExecutor fileProcessingTaskExecutor;
+
+    @MockBean
+    private CopyIngestionService copyIngestionService;
+
+    @MockBean
+    private DomainEventPublisher eventPublisher;
+
+    @Autowired
+    private FileProcessorService fileProcessorService;
+
+    @Autowired
+    private FileUploadRepository fileUploadRepository;
+
+    @Autowired
+    private CloudServiceRepository cloudServiceRepository;
+
+    @Autowired
+    private ServiceFileRelationRepository serviceFileRelationRepository;
+
+    private FileUpload fileUpload;
+
+    @BeforeEach
+    void setUp() {
+        fileUpload = fileUploadRepository.save(FileUpload.builder()
+                .filename("services.csv")
+                .fileHash("chunks-hash")
+                .uploadDate(LocalDateTime.now())
+                .uploadedBy("testuser")
+                .status(FileUploadStatus.PENDING)
+                .build());
+
+        JobExecution job = JobExecution.builder()
+                .jobId(JOB_ID)
+                .status(JobStatus.PENDING)
+                .startTime(LocalDateTime.now())
+                .fileUpload(fileUpload)
+                .filePath("services.csv")
+                .build();
+
+        when(jobExecutionService.getJobExecutionById(JOB_ID)).thenReturn(job);
+        when(jobExecutionService.updateJobStatus(eq(JOB_ID), eq(JobStatus.COMPLETED), any())).thenReturn(job);
+
+        doAnswer(invocation -> {
+            invocation.<Runnable>getArgument(0).run();
+            return null;
+        }).when(fileProcessingTaskExecutor).executeWithJobId(any(Runnable.class), anyString());
+    }
+
+    @Test
+    @DisplayName("Verifica che con un servizio ripetuto in due porzioni vinca l'ultima riga e la CREATE resti sulla prima")
+    void testDuplicatedKeyAcrossChunksLastLineWins() throws IOException {
+
+        // arrange
+        // CUST001/PEC compare nella prima porzione (riga 2) e nella seconda (riga 5): la seconda porzione viene
+        // scritta per prima, per cui la riga 2 viene scritta dopo la riga 5 e non deve sovrascriverla
+        Path file = Files.writeString(tempDir.resolve("services.csv"), """
+                customer_id,service_type,activation_date,expiration_date,amount,status
+                CUST001,PEC,2023-01-01,2030-01-01,10.00,ACTIVE
+                CUST002,HOSTING,2023-02-15,2030-02-15,120.50,ACTIVE
+                CUST003,SPID,2023-03-01,2030-03-01,15.00,ACTIVE
+                CUST001,PEC,2023-01-01,2031-01-01,99.00,ACTIVE
+                """);
+        when(fileStorageService.loadFileAsResource(anyString())).thenReturn(new FileSystemResource(file));
+
+        // act
+        fileProcessorService.scheduleFileProcessing(new JobCreatedEvent(JobStatusDTO.builder().jobId(JOB_ID).build()));
+
+        // assert
+        verify(jobExecutionService, never()).updateJobStatus(eq(JOB_ID), eq(JobStatus.FAILED), any());
+
+        CloudService service = cloudServiceRepository.findByCustomerIdAndServiceType("CUST001", "PEC").orElseThrow();
+        assertThat(service.getAmount()).isEqualByComparingTo(new BigDecimal("99.00"));
+        assertThat(service.getExpirationDate()).isEqualTo(LocalDate.of(2031, 1, 1));
+        assertThat(service.getLastLineNumber()).isEqualTo(5);
+
+        List<ServiceFileRelation> relations = serviceFileRelationRepository.findAll().stream()
+                .filter(relation -> relation.getFileUpload().getId().equals(fileUpload.getId()))
+                .filter(relation -> relation.getService().getId().equals(service.getId()))
+                .toList();
+        assertThat(relations)
+                .extracting(ServiceFileRelation::getLineNumber, ServiceFileRelation::getOperationType)
+                .containsExactlyInAnyOrder(
+                        tuple(2, FileOperationType.CREATE),
+                        tuple(5, FileOperationType.UPDATE));
+
+        FileUpload processed = fileUploadRepository.findById(fileUpload.getId()).orElseThrow();
+        assertThat(processed.getStatus()).isEqualTo(FileUploadStatus.COMPLETED);
+        assertThat(processed.getValidRecords()).isEqualTo(4);
+    }
+
+    @TestConfiguration
+    static class TestConfig {
+        @Bean
+        public FileChunkTaskExecutor fileChunkTaskExecutor() {
+            return new ReverseOrderChunkExecutor(2);
+        }
+    }
+
+    /**
+     * Esegue le porzioni nel thread del test, dall'ultima alla prima, una volta ricevute tutte: rende
+     * deterministico il caso in cui una riga successiva dello stesso file viene scritta prima di una precedente.
+     */
+    static class ReverseOrderChunkExecutor extends FileChunkTaskExecutor {
+
+        private final int chunkCount;
+        private final Deque<Runnable> pending = new ArrayDeque<>();
+
+        ReverseOrderChunkExecutor(int chunkCount) {
+            super(1);
+            this.chunkCount = chunkCount;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            pending.push(task);
+            if (pending.size() == chunkCount) {
+                while (!pending.isEmpty()) {
+                    pending.pop().run();
+                }
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.cimparato.csbm.service.file;
 
+import com.cimparato.csbm.config.async.FileChunkTaskExecutor;
 import com.cimparato.csbm.config.async.FileProcessingTaskExecutor;
 import com.cimparato.csbm.config.properties.AppProperties;
 import com.cimparato.csbm.domain.enumeration.JobStatus;
@@ -7,21 +8,27 @@ import com.cimparato.csbm.domain.event.DomainEventPublisher;
 import com.cimparato.csbm.domain.event.FileProcessingCompletedEvent;
 import com.cimparato.csbm.domain.event.JobCreatedEvent;
 import com.cimparato.csbm.domain.file.FileUploadStatus;
+import com.cimparato.csbm.domain.enumeration.CloudServiceStatus;
+import com.cimparato.csbm.domain.enumeration.CloudServiceType;
+import com.cimparato.csbm.domain.file.FileOperationType;
 import com.cimparato.csbm.domain.model.CloudService;
 import com.cimparato.csbm.domain.model.FileUpload;
 import com.cimparato.csbm.domain.model.JobExecution;
 import com.cimparato.csbm.domain.model.ProcessingError;
+import com.cimparato.csbm.domain.model.ServiceFileRelation;
 import com.cimparato.csbm.dto.cloudservice.CloudServiceDTO;
 import com.cimparato.csbm.dto.jobexecution.JobStatusDTO;
 import com.cimparato.csbm.mapper.CloudServiceMapper;
 import com.cimparato.csbm.mapper.ProcessingErrorMapper;
 import com.cimparato.csbm.repository.*;
-import com.cimparato.csbm.service.CloudServiceService;
+import com.cimparato.csbm.repository.projection.CloudServiceUpsertResult;
 import com.cimparato.csbm.service.JobExecutionService;
+import com.cimparato.csbm.service.file.ingestion.CopyIngestionService;
 import com.cimparato.csbm.service.file.parser.FileParser;
 import com.cimparato.csbm.service.file.parser.FileParserStrategy;
 import com.cimparato.csbm.service.file.storage.FileStorageService;
 import com.cimparato.csbm.web.rest.errors.FileStorageException;
+import jakarta.persistence.EntityManager;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -37,18 +44,22 @@ import org.springframework.core.io.ByteArrayResource;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
+import java.math.BigDecimal;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 import java.util.function.Consumer;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(SpringExtension.class)
 @ActiveProfiles("test")
-@Import({FileProcessorService.class})
+@Import({FileProcessorService.class, FileProcessingBatchWriter.class})
 class FileProcessorServiceIT {
 
     @MockBean
@@ -57,9 +68,6 @@ class FileProcessorServiceIT {
     @MockBean
     private FileStorageService fileStorageService;
 
-    @MockBean
-    private CloudServiceService cloudServiceService;
-
     @MockBean
     private FileUploadRepository fileUploadRepository;
 
@@ -90,6 +98,15 @@ class FileProcessorServiceIT {
     @MockBean
     private FileProcessingTaskExecutor fileProcessingTaskExecutor;
 
+    @MockBean
+    private FileChunkTaskExecutor fileChunkTaskExecutor;
+
+    @MockBean
+    private CopyIngestionService copyIngestionService;
+
+    @MockBean
+    private EntityManager entityManager;
+
     @Autowired
     private FileProcessorService fileProcessorService;
 
@@ -236,6 +253,121 @@ class FileProcessorServiceIT {
         verify(eventPublisher).publish(any(FileProcessingCompletedEvent.class));
     }
 
+    @Test
+    @DisplayName("Verifica che l'upsert del batch determini il tipo di operazione CREATE/UPDATE di ogni riga")
+    void testBatchUpsertResolvesOperationTypePerRow() {
+
+        // arrange
+        FileParser<CloudServiceDTO> mockParser = mock(FileParser.class);
+        when(fileParserStrategy.getParser(anyString(), eq(CloudServiceDTO.class)))
+                .thenReturn(mockParser);
+
+        when(fileUploadRepository.save(any(FileUpload.class))).thenReturn(fileUpload);
+        when(jobExecutionService.updateJobStatus(eq(jobId), eq(JobStatus.COMPLETED), isNull()))
+                .thenReturn(jobExecutionCompleted);
+
+        // la stessa coppia CUST001/PEC compare due volte: la prima riga crea il servizio, la seconda lo aggiorna
+        doAnswer(invocation -> {
+            Consumer<CloudServiceDTO> processor = invocation.getArgument(1);
+            processor.accept(buildDto("CUST001", CloudServiceType.PEC, 2));
+            processor.accept(buildDto("CUST002", CloudServiceType.HOSTING, 3));
+            processor.accept(buildDto("CUST001", CloudServiceType.PEC, 4));
+            return null;
+        }).when(mockParser).parse(any(), any());
+
+        when(cloudServiceMapper.toEntity(any(CloudServiceDTO.class))).thenReturn(new CloudService());
+        when(cloudServiceRepository.upsertAll(anyList())).thenReturn(List.of(
+                new CloudServiceUpsertResult(10L, "CUST001", "PEC", true),
+                new CloudServiceUpsertResult(20L, "CUST002", "HOSTING", false)
+        ));
+
+        // act
+        fileProcessorService.scheduleFileProcessing(jobCreatedEvent);
+
+        // assert
+        verify(cloudServiceRepository, times(1)).upsertAll(anyList());
+        verify(entityManager, atLeastOnce()).flush();
+        verify(entityManager, atLeastOnce()).clear();
+        verify(cloudServiceRepository, never()).findByCustomerIdAndServiceType(anyString(), anyString());
+
+        ArgumentCaptor<List<ServiceFileRelation>> relationsCaptor = ArgumentCaptor.forClass(List.class);
+        verify(serviceFileRelationRepository).saveAll(relationsCaptor.capture());
+
+        List<ServiceFileRelation> relations = relationsCaptor.getValue();
+        assertThat(relations).extracting(ServiceFileRelation::getLineNumber).containsExactly(2, 3, 4);
+        assertThat(relations).extracting(ServiceFileRelation::getOperationType).containsExactly(
+                FileOperationType.CREATE, FileOperationType.UPDATE, FileOperationType.UPDATE);
+        verify(jobExecutionService).updateJobStatus(eq(jobId), eq(JobStatus.COMPLETED), any());
+    }
+
+    @Test
+    @DisplayName("Verifica che il fallimento di un batch registri come errore tutti i suoi record")
+    void testFailedBatchRecordsAllRowsAsErrors() {
+
+        // arrange
+        FileParser<CloudServiceDTO> mockParser = mock(FileParser.class);
+        when(fileParserStrategy.getParser(anyString(), eq(CloudServiceDTO.class)))
+                .thenReturn(mockParser);
+
+        when(fileUploadRepository.save(any(FileUpload.class))).thenReturn(fileUpload);
+        when(jobExecutionService.updateJobStatus(eq(jobId), eq(JobStatus.COMPLETED), isNull()))
+                .thenReturn(jobExecutionCompleted);
+
+        doAnswer(invocation -> {
+            Consumer<CloudServiceDTO> processor = invocation.getArgument(1);
+            processor.accept(buildDto("CUST001", CloudServiceType.PEC, 2));
+            processor.accept(buildDto("CUST002", CloudServiceType.HOSTING, 3));
+            return null;
+        }).when(mockParser).parse(any(), any());
+
+        when(cloudServiceMapper.toEntity(any(CloudServiceDTO.class))).thenReturn(new CloudService());
+        when(cloudServiceRepository.upsertAll(anyList())).thenThrow(new RuntimeException("deadlock detected"));
+        when(processingErrorMapper.toEntity(any())).thenReturn(mock(ProcessingError.class));
+
+        // act
+        fileProcessorService.scheduleFileProcessing(jobCreatedEvent);
+
+        // assert
+        verify(serviceFileRelationRepository, never()).saveAll(anyList());
+        verify(processingErrorMapper, times(2)).toEntity(any());
+        assertThat(fileUpload.getValidRecords()).isZero();
+        assertThat(fileUpload.getInvalidRecords()).isEqualTo(2);
+        verify(jobExecutionService).updateJobStatus(eq(jobId), eq(JobStatus.COMPLETED), any());
+    }
+
+    @Test
+    @DisplayName("Verifica che oltre la soglia configurata il file venga caricato tramite COPY")
+    void testCopyIngestionUsedAboveThreshold() {
+
+        // arrange
+        FileParser<CloudServiceDTO> mockParser = mock(FileParser.class);
+        when(fileParserStrategy.getParser(anyString(), eq(CloudServiceDTO.class)))
+                .thenReturn(mockParser);
+
+        when(fileUploadRepository.save(any(FileUpload.class))).thenReturn(fileUpload);
+        when(jobExecutionService.updateJobStatus(eq(jobId), eq(JobStatus.COMPLETED), isNull()))
+                .thenReturn(jobExecutionCompleted);
+
+        when(copyIngestionService.isSupported()).thenReturn(true);
+        when(copyIngestionService.ingest(eq(mockParser), any(), eq(fileUpload))).thenReturn(2);
+
+        appProperties.getFileProcessing().setCopyIngestionThresholdBytes(1);
+
+        try {
+            // act
+            fileProcessorService.scheduleFileProcessing(jobCreatedEvent);
+        } finally {
+            appProperties.getFileProcessing().setCopyIngestionThresholdBytes(0);
+        }
+
+        // assert
+        verify(copyIngestionService).ingest(eq(mockParser), any(), eq(fileUpload));
+        verify(mockParser, never()).parse(any(), any());
+        verify(cloudServiceRepository, never()).upsertAll(anyList());
+        assertThat(fileUpload.getValidRecords()).isEqualTo(2);
+        verify(jobExecutionService).updateJobStatus(eq(jobId), eq(JobStatus.COMPLETED), any());
+    }
+
     @Test
     @DisplayName("Verifica che lo stato del job venga aggiornato a FAILED in caso di errore")
     void testJobStatusUpdatedToFailedOnError() throws Exception {
@@ -261,6 +393,18 @@ class FileProcessorServiceIT {
         verify(fileUploadRepository).save(any(FileUpload.class));
     }
 
+    private CloudServiceDTO buildDto(String customerId, CloudServiceType serviceType, int lineNumber) {
+        CloudServiceDTO dto = new CloudServiceDTO();
+        dto.setCustomerId(customerId);
+        dto.setServiceType(serviceType);
+        dto.setActivationDate(LocalDate.of(2023, 1, 1));
+        dto.setExpirationDate(LocalDate.of(2026, 1, 1));
+        dto.setAmount(new BigDecimal("29.99"));
+        dto.setStatus(CloudServiceStatus.ACTIVE);
+        dto.setLineNumber(lineNumber);
+        return dto;
+    }
+
     @TestConfiguration
     static class TestConfig {
         @Bean
@@ -11,6 +11,8 @@ import com.cimparato.csbm.mapper.FileUploadMapper;
 import com.cimparato.csbm.repository.FileUploadRepository;
 import com.cimparato.csbm.service.JobExecutionService;
 import com.cimparato.csbm.service.file.storage.FileStorageService;
+import com.cimparato.csbm.service.file.storage.FirstBlockInspector;
+import com.cimparato.csbm.service.file.storage.StagedFile;
 import com.cimparato.csbm.service.file.validator.FileValidator;
 import com.cimparato.csbm.util.FileUtil;
 import com.cimparato.csbm.web.rest.errors.DuplicateFileException;
@@ -32,6 +34,7 @@ import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.util.HashSet;
 import java.util.Optional;
@@ -109,7 +112,9 @@ class FileUploadServiceDuplicateIT {
         existingFileUpload.getJobExecutions().add(jobExecution);
 
         // mock per validazione
-        when(fileValidator.validate(any(MultipartFile.class)))
+        when(fileValidator.validateMetadata(any(MultipartFile.class)))
+                .thenReturn(new ValidationResult());
+        when(fileValidator.validateCompressedContent(anyString(), any(Path.class)))
                 .thenReturn(new ValidationResult());
 
         // mock per JobExecution
@@ -117,7 +122,9 @@ class FileUploadServiceDuplicateIT {
                 .thenReturn(jobExecution);
 
         // mock per FileStorage
-        when(fileStorageService.storeFile(any(MultipartFile.class), anyString()))
+        when(fileStorageService.stageFile(any(MultipartFile.class), any(FirstBlockInspector.class)))
+                .thenReturn(new StagedFile(Path.of("uploads", ".upload-1.tmp"), "test.csv", fileHash, testFile.getSize()));
+        when(fileStorageService.commitStagedFile(any(StagedFile.class), anyString()))
                 .thenReturn("stored_file_path");
     }
 
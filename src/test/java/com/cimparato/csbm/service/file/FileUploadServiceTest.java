@@ -13,6 +13,8 @@ import com.cimparato.csbm.mapper.FileUploadMapper;
 import com.cimparato.csbm.repository.FileUploadRepository;
 import com.cimparato.csbm.service.JobExecutionService;
 import com.cimparato.csbm.service.file.storage.FileStorageService;
+import com.cimparato.csbm.service.file.storage.FirstBlockInspector;
+import com.cimparato.csbm.service.file.storage.StagedFile;
 import com.cimparato.csbm.service.file.validator.FileValidator;
 import com.cimparato.csbm.web.rest.errors.FileProcessingException;
 import com.cimparato.csbm.web.rest.errors.FileValidationException;
@@ -32,11 +34,13 @@ import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -74,6 +78,7 @@ class FileUploadServiceTest {
     private ValidationResult validationResult;
     private FileUpload newFileUpload;
     private JobExecution jobExecution;
+    private StagedFile stagedFile;
 
     @BeforeEach
     void setUp() {
@@ -102,8 +107,14 @@ class FileUploadServiceTest {
                 .fileUpload(newFileUpload)
                 .build();
 
+        stagedFile = new StagedFile(Path.of("uploads", ".upload-1.tmp"), "test.csv", "abc123", 12);
+
         // mock per validazione
-        when(fileValidator.validate(any(MultipartFile.class)))
+        when(fileValidator.validateMetadata(any(MultipartFile.class)))
+                .thenReturn(validationResult);
+        when(fileValidator.validateContent(anyString(), any(byte[].class), anyInt()))
+                .thenReturn(validationResult);
+        when(fileValidator.validateCompressedContent(anyString(), any(Path.class)))
                 .thenReturn(validationResult);
 
         // mock per repository
@@ -116,8 +127,15 @@ class FileUploadServiceTest {
         when(jobExecutionService.createJob(any(FileUpload.class), anyString()))
                 .thenReturn(jobExecution);
 
-        // mock per FileStorage
-        when(fileStorageService.storeFile(any(MultipartFile.class), anyString()))
+        // mock per FileStorage: il primo blocco viene passato all'inspector come farebbe lo storage reale
+        when(fileStorageService.stageFile(any(MultipartFile.class), any(FirstBlockInspector.class)))
+                .thenAnswer(invocation -> {
+                    FirstBlockInspector inspector = invocation.getArgument(1);
+                    byte[] content = validFile.getBytes();
+                    inspector.inspect(content, content.length);
+                    return stagedFile;
+                });
+        when(fileStorageService.commitStagedFile(any(StagedFile.class), anyString()))
                 .thenReturn("stored_file_path");
     }
 
@@ -144,7 +162,29 @@ class FileUploadServiceTest {
         fileUploadService.uploadFile(validFile, username);
 
         // assert
-        verify(fileStorageService).storeFile(eq(validFile), eq("job123"));
+        verify(fileStorageService).stageFile(eq(validFile), any(FirstBlockInspector.class));
+        verify(fileStorageService).commitStagedFile(eq(stagedFile), eq("job123"));
+        verify(fileStorageService, never()).discardStagedFile(any());
+    }
+
+    @Test
+    @DisplayName("Verifica che l'intestazione venga validata sul primo blocco letto durante il salvataggio")
+    void testContentValidatedOnFirstBlock() {
+
+        // arrange
+        ValidationResult invalidHeader = new ValidationResult();
+        invalidHeader.addError("Invalid CSV header length: expected 6 columns, found 1");
+
+        when(fileValidator.validateContent(anyString(), any(byte[].class), anyInt()))
+                .thenReturn(invalidHeader);
+
+        // act & assert
+        FileValidationException exception = assertThrows(FileValidationException.class,
+                () -> fileUploadService.uploadFile(validFile, username));
+
+        assertEquals("Invalid CSV header length: expected 6 columns, found 1", exception.getMessage());
+        verify(fileStorageService, never()).commitStagedFile(any(), anyString());
+        verify(fileUploadRepository, never()).save(any(FileUpload.class));
     }
 
     @Test
@@ -205,7 +245,7 @@ class FileUploadServiceTest {
         invalidResult.addError("Invalid file format");
         invalidResult.addError("File too large");
 
-        when(fileValidator.validate(any(MultipartFile.class)))
+        when(fileValidator.validateMetadata(any(MultipartFile.class)))
                 .thenReturn(invalidResult);
 
         // act & assert
@@ -221,7 +261,7 @@ class FileUploadServiceTest {
     void testFileStorageErrorThrowsException() {
 
         // arrange
-        when(fileStorageService.storeFile(any(MultipartFile.class), anyString()))
+        when(fileStorageService.commitStagedFile(any(StagedFile.class), anyString()))
                 .thenThrow(new RuntimeException("Storage error"));
 
         // act & assert
@@ -230,6 +270,7 @@ class FileUploadServiceTest {
         });
 
         assertTrue(exception.getMessage().contains("Could not process file"));
+        verify(fileStorageService).discardStagedFile(stagedFile);
     }
 
     @Test
@@ -245,6 +286,7 @@ class FileUploadServiceTest {
                 () -> fileUploadService.uploadFile(validFile, username));
 
         assertTrue(exception.getMessage().contains("Could not process file"));
+        verify(fileStorageService).discardStagedFile(stagedFile);
     }
 
     @TestConfiguration
@@ -12,6 +12,8 @@ import com.cimparato.csbm.mapper.FileUploadMapper;
 import com.cimparato.csbm.repository.FileUploadRepository;
 import com.cimparato.csbm.service.JobExecutionService;
 import com.cimparato.csbm.service.file.storage.FileStorageService;
+import com.cimparato.csbm.service.file.storage.FirstBlockInspector;
+import com.cimparato.csbm.service.file.storage.StagedFile;
 import com.cimparato.csbm.service.file.validator.FileValidator;
 import com.cimparato.csbm.util.FileUtil;
 import org.junit.jupiter.api.BeforeEach;
@@ -31,6 +33,7 @@ import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.util.Optional;
 import java.util.UUID;
@@ -67,7 +70,7 @@ class FileUploadServiceTransactionIT {
     private String username = "testuser";
 
     @BeforeEach
-    void setUp() {
+    void setUp() throws IOException {
         validFile = new MockMultipartFile(
                 "file",
                 "test.csv",
@@ -79,7 +82,9 @@ class FileUploadServiceTransactionIT {
         reset(fileValidator, fileStorageService, jobExecutionService, eventPublisher);
 
         // mock per validazione
-        when(fileValidator.validate(any(MultipartFile.class)))
+        when(fileValidator.validateMetadata(any(MultipartFile.class)))
+                .thenReturn(new ValidationResult());
+        when(fileValidator.validateCompressedContent(anyString(), any(Path.class)))
                 .thenReturn(new ValidationResult());
 
         // mock per JobExecution
@@ -92,7 +97,10 @@ class FileUploadServiceTransactionIT {
                 .thenReturn(jobExecution);
 
         // mock per FileStorage
-        when(fileStorageService.storeFile(any(MultipartFile.class), anyString()))
+        when(fileStorageService.stageFile(any(MultipartFile.class), any(FirstBlockInspector.class)))
+                .thenReturn(new StagedFile(Path.of("uploads", ".upload-1.tmp"), "test.csv",
+                        FileUtil.calculateFileHash(validFile), validFile.getSize()));
+        when(fileStorageService.commitStagedFile(any(StagedFile.class), anyString()))
                 .thenReturn("stored_file_path");
     }
 
@@ -102,7 +110,7 @@ class FileUploadServiceTransactionIT {
     void testTransactionRollbackOnError() throws IOException {
 
         // arrange
-        when(fileStorageService.storeFile(any(MultipartFile.class), anyString()))
+        when(fileStorageService.commitStagedFile(any(StagedFile.class), anyString()))
                 .thenThrow(new RuntimeException("Storage error"));
 
         // calcola l'hash del file per verificare che non sia presente dopo il rollback
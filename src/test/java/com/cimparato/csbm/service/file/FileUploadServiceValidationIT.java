@@ -10,12 +10,15 @@ import com.cimparato.csbm.mapper.FileUploadMapper;
 import com.cimparato.csbm.repository.FileUploadRepository;
 import com.cimparato.csbm.service.JobExecutionService;
 import com.cimparato.csbm.service.file.storage.FileStorageService;
+import com.cimparato.csbm.service.file.storage.FirstBlockInspector;
+import com.cimparato.csbm.service.file.storage.StagedFile;
 import com.cimparato.csbm.service.file.validator.FileValidator;
 import com.cimparato.csbm.service.file.validator.impl.CloudServiceCsvHeaderRuleFile;
 import com.cimparato.csbm.service.file.validator.impl.FileExtensionRuleFile;
 import com.cimparato.csbm.service.file.validator.impl.FileNotEmptyRuleFile;
 import com.cimparato.csbm.util.FileUtil;
 import com.cimparato.csbm.web.rest.errors.FileValidationException;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -30,6 +33,7 @@ import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.Optional;
 
@@ -55,6 +59,20 @@ class FileUploadServiceValidationIT {
     @MockBean
     private FileUploadRepository fileUploadRepository;
 
+    @BeforeEach
+    void setUp() {
+        // lo storage mockato passa comunque il primo blocco all'inspector, così che le regole sul contenuto vengano applicate
+        when(fileStorageService.stageFile(any(MultipartFile.class), any(FirstBlockInspector.class)))
+                .thenAnswer(invocation -> {
+                    MultipartFile file = invocation.getArgument(0);
+                    FirstBlockInspector inspector = invocation.getArgument(1);
+                    byte[] content = file.getBytes();
+                    inspector.inspect(content, content.length);
+                    return new StagedFile(Path.of("uploads", ".upload-1.tmp"), file.getOriginalFilename(),
+                            FileUtil.calculateFileHash(file), file.getSize());
+                });
+    }
+
     @Test
     @DisplayName("Verifica che un file null generi un'eccezione di validazione")
     void testNullFileThrowsFileValidationException() {
@@ -164,7 +182,7 @@ class FileUploadServiceValidationIT {
                         .build()
         );
 
-        when(fileStorageService.storeFile(any(), anyString())).thenReturn("path/to/file.csv");
+        when(fileStorageService.commitStagedFile(any(), anyString())).thenReturn("path/to/file.csv");
 
         // act
         FileUploadJobDTO result = fileUploadService.uploadFile(validFile, "testUser");
@@ -179,7 +197,7 @@ class FileUploadServiceValidationIT {
         verify(fileUploadRepository).findByFileHash(any());
         verify(fileUploadRepository).save(any(FileUpload.class));
         verify(jobExecutionService).createJob(any(), eq("testUser"));
-        verify(fileStorageService).storeFile(any(), eq("test-job-id"));
+        verify(fileStorageService).commitStagedFile(any(), eq("test-job-id"));
     }
 
     @TestConfiguration
@@ -0,0 +1,363 @@
+package com.cimparato.csbm.service.file;
+
+import com.cimparato.csbm.config.properties.AppProperties;
+import com.cimparato.csbm.domain.enumeration.JobStatus;
+import com.cimparato.csbm.domain.file.UploadSessionStatus;
+import com.cimparato.csbm.domain.file.ValidationResult;
+import com.cimparato.csbm.domain.model.FileUpload;
+import com.cimparato.csbm.domain.model.JobExecution;
+import com.cimparato.csbm.domain.model.UploadSession;
+import com.cimparato.csbm.dto.fileupload.FileUploadJobDTO;
+import com.cimparato.csbm.dto.uploadsession.UploadSessionCreateDTO;
+import com.cimparato.csbm.dto.uploadsession.UploadSessionDTO;
+import com.cimparato.csbm.repository.UploadSessionRepository;
+import com.cimparato.csbm.service.JobExecutionService;
+import com.cimparato.csbm.service.file.storage.StagedFile;
+import com.cimparato.csbm.service.file.storage.impl.LocalFileStorageService;
+import com.cimparato.csbm.service.file.validator.FileValidator;
+import com.cimparato.csbm.util.FileUtil;
+import com.cimparato.csbm.web.rest.errors.FileValidationException;
+import com.cimparato.csbm.web.rest.errors.UploadOffsetMismatchException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class UploadSessionServiceTest {
+
+    private static final String USERNAME = "testuser";
+
+    @TempDir
+    Path uploadDir;
+
+    @Mock
+    private UploadSessionRepository uploadSessionRepository;
+
+    @Mock
+    private FileValidator fileValidator;
+
+    @Mock
+    private FileUploadService fileUploadService;
+
+    @Mock
+    private JobExecutionService jobExecutionService;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private AppProperties appProperties;
+    private LocalFileStorageService fileStorageService;
+    private UploadSessionService uploadSessionService;
+
+    // simula la tabella upload_sessions
+    private final Map<String, UploadSession> sessions = new HashMap<>();
+
+    private byte[] content;
+
+    @BeforeEach
+    void setUp() {
+        appProperties = new AppProperties();
+        AppProperties.FileProcessing fileProcessing = new AppProperties.FileProcessing();
+        fileProcessing.setUploadDir(uploadDir.toString());
+        fileProcessing.getChunkedUpload().setMaxChunkSizeBytes(1024);
+        appProperties.setFileProcessing(fileProcessing);
+
+        fileStorageService = new LocalFileStorageService(appProperties);
+        fileStorageService.init();
+
+        uploadSessionService = new UploadSessionService(uploadSessionRepository, fileStorageService, fileValidator,
+                fileUploadService, jobExecutionService, transactionManager, appProperties);
+
+        lenient().when(uploadSessionRepository.save(any(UploadSession.class))).thenAnswer(invocation -> {
+            UploadSession session = invocation.getArgument(0);
+            sessions.put(session.getUploadId(), session);
+            return session;
+        });
+        lenient().when(uploadSessionRepository.saveAndFlush(any(UploadSession.class))).thenAnswer(invocation -> {
+            UploadSession session = invocation.getArgument(0);
+            sessions.put(session.getUploadId(), session);
+            return session;
+        });
+        lenient().when(uploadSessionRepository.findById(anyString()))
+                .thenAnswer(invocation -> Optional.ofNullable(sessions.get(invocation.<String>getArgument(0))));
+
+        lenient().when(fileValidator.validateMetadata(anyString(), anyLong())).thenReturn(new ValidationResult());
+        lenient().when(fileValidator.validateContent(anyString(), any(byte[].class), anyInt())).thenReturn(new ValidationResult());
+        lenient().when(fileValidator.validateCompressedContent(anyString(), any(Path.class))).thenReturn(new ValidationResult());
+
+        StringBuilder csv = new StringBuilder("customer_id,service_type,activation_date,expiration_date,amount,status\n");
+        for (int i = 0; i < 100; i++) {
+            csv.append("CUST").append(i).append(",PEC,2023-01-01,2030-01-01,29.99,ACTIVE\n");
+        }
+        content = csv.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    @DisplayName("Verifica che un file caricato a porzioni abbia lo stesso hash del caricamento multipart")
+    void testChunkedUploadComputesSameHash() throws IOException {
+
+        // arrange
+        when(fileUploadService.registerStagedFile(anyString(), any(StagedFile.class), eq(USERNAME)))
+                .thenReturn(new FileUploadJobDTO("test.csv", "hash", "job123", JobStatus.PENDING));
+
+        UploadSessionDTO session = uploadSessionService.createSession(
+                new UploadSessionCreateDTO("test.csv", content.length), USERNAME);
+
+        // act
+        uploadAll(session.getUploadId(), 0, 700);
+        FileUploadJobDTO result = uploadSessionService.completeSession(session.getUploadId(), USERNAME);
+
+        // assert
+        ArgumentCaptor<StagedFile> stagedFileCaptor = ArgumentCaptor.forClass(StagedFile.class);
+        verify(fileUploadService).registerStagedFile(eq("test.csv"), stagedFileCaptor.capture(), eq(USERNAME));
+
+        StagedFile stagedFile = stagedFileCaptor.getValue();
+        MockMultipartFile multipartFile = new MockMultipartFile("file", "test.csv", "text/csv", content);
+        assertEquals(FileUtil.calculateFileHash(multipartFile), stagedFile.fileHash());
+        assertArrayEquals(content, Files.readAllBytes(stagedFile.path()));
+
+        assertEquals("job123", result.getJobId());
+        assertEquals(UploadSessionStatus.COMPLETED, sessions.get(session.getUploadId()).getStatus());
+    }
+
+    @Test
+    @DisplayName("Verifica che una porzione con offset diverso dai byte ricevuti venga rifiutata con l'offset atteso")
+    void testChunkWithWrongOffsetIsRejected() {
+
+        // arrange
+        UploadSessionDTO session = uploadSessionService.createSession(
+                new UploadSessionCreateDTO("test.csv", content.length), USERNAME);
+        uploadSessionService.writeChunk(session.getUploadId(), 0, 0, chunk(0, 500), USERNAME);
+
+        // act & assert
+        UploadOffsetMismatchException exception = assertThrows(UploadOffsetMismatchException.class,
+                () -> uploadSessionService.writeChunk(session.getUploadId(), 2, 1000, chunk(1000, 500), USERNAME));
+
+        assertEquals(500, exception.getExpectedOffset());
+        assertEquals(500, uploadSessionService.getSession(session.getUploadId(), USERNAME).getReceivedBytes());
+    }
+
+    @Test
+    @DisplayName("Verifica che una porzione confermata nel frattempo da un'altra istanza venga rifiutata con l'offset salvato")
+    void testConcurrentChunkFromAnotherInstanceIsRejected() {
+
+        // arrange
+        UploadSessionDTO session = uploadSessionService.createSession(
+                new UploadSessionCreateDTO("test.csv", content.length), USERNAME);
+        String uploadId = session.getUploadId();
+        uploadSessionService.writeChunk(uploadId, 0, 0, chunk(0, 500), USERNAME);
+
+        // un'altra istanza conferma la porzione successiva prima di questa
+        doAnswer(invocation -> {
+            UploadSession stale = invocation.getArgument(0);
+            sessions.put(uploadId, UploadSession.builder()
+                    .uploadId(uploadId)
+                    .filename(stale.getFilename())
+                    .totalSize(stale.getTotalSize())
+                    .receivedBytes(1000)
+                    .status(UploadSessionStatus.OPEN)
+                    .createdBy(USERNAME)
+                    .expiresAt(stale.getExpiresAt())
+                    .build());
+            throw new ObjectOptimisticLockingFailureException(UploadSession.class, uploadId);
+        }).when(uploadSessionRepository).save(any(UploadSession.class));
+
+        // act & assert
+        UploadOffsetMismatchException exception = assertThrows(UploadOffsetMismatchException.class,
+                () -> uploadSessionService.writeChunk(uploadId, 1, 500, chunk(500, 500), USERNAME));
+
+        assertEquals(1000, exception.getExpectedOffset());
+    }
+
+    @Test
+    @DisplayName("Verifica che un caricamento riprenda correttamente quando lo stato in memoria è andato perso")
+    void testUploadResumesAfterRestart() throws IOException {
+
+        // arrange
+        UploadSessionDTO session = uploadSessionService.createSession(
+                new UploadSessionCreateDTO("test.csv", content.length), USERNAME);
+        uploadSessionService.writeChunk(session.getUploadId(), 0, 0, chunk(0, 900), USERNAME);
+
+        // un nuovo servizio simula il riavvio dell'applicazione: il digest deve essere ricostruito dal file parziale
+        UploadSessionService restartedService = new UploadSessionService(uploadSessionRepository, fileStorageService,
+                fileValidator, fileUploadService, jobExecutionService, transactionManager, appProperties);
+        when(fileUploadService.registerStagedFile(anyString(), any(StagedFile.class), eq(USERNAME)))
+                .thenReturn(new FileUploadJobDTO("test.csv", "hash", "job123", JobStatus.PENDING));
+
+        // act
+        long offset = restartedService.getSession(session.getUploadId(), USERNAME).getReceivedBytes();
+        int index = 1;
+        while (offset < content.length) {
+            int length = (int) Math.min(1000, content.length - offset);
+            offset = restartedService.writeChunk(session.getUploadId(), index++, offset, chunk(offset, length), USERNAME)
+                    .getReceivedBytes();
+        }
+        restartedService.completeSession(session.getUploadId(), USERNAME);
+
+        // assert
+        ArgumentCaptor<StagedFile> stagedFileCaptor = ArgumentCaptor.forClass(StagedFile.class);
+        verify(fileUploadService).registerStagedFile(eq("test.csv"), stagedFileCaptor.capture(), eq(USERNAME));
+        MockMultipartFile multipartFile = new MockMultipartFile("file", "test.csv", "text/csv", content);
+        assertEquals(FileUtil.calculateFileHash(multipartFile), stagedFileCaptor.getValue().fileHash());
+    }
+
+    @Test
+    @DisplayName("Verifica che una porzione più grande della dimensione massima venga rifiutata")
+    void testOversizedChunkIsRejected() {
+
+        // arrange
+        UploadSessionDTO session = uploadSessionService.createSession(
+                new UploadSessionCreateDTO("test.csv", content.length), USERNAME);
+
+        // act & assert
+        assertThrows(FileValidationException.class,
+                () -> uploadSessionService.writeChunk(session.getUploadId(), 0, 0, chunk(0, 2000), USERNAME));
+
+        assertEquals(0, uploadSessionService.getSession(session.getUploadId(), USERNAME).getReceivedBytes());
+    }
+
+    @Test
+    @DisplayName("Verifica che il completamento di un caricamento incompleto venga rifiutato")
+    void testIncompleteUploadCannotBeCompleted() {
+
+        // arrange
+        UploadSessionDTO session = uploadSessionService.createSession(
+                new UploadSessionCreateDTO("test.csv", content.length), USERNAME);
+        uploadSessionService.writeChunk(session.getUploadId(), 0, 0, chunk(0, 500), USERNAME);
+
+        // act & assert
+        UploadOffsetMismatchException exception = assertThrows(UploadOffsetMismatchException.class,
+                () -> uploadSessionService.completeSession(session.getUploadId(), USERNAME));
+
+        assertEquals(500, exception.getExpectedOffset());
+        verify(fileUploadService, never()).registerStagedFile(anyString(), any(), anyString());
+    }
+
+    @Test
+    @DisplayName("Verifica che un'intestazione non valida chiuda il caricamento ed elimini i dati ricevuti")
+    void testInvalidHeaderAbortsUpload() throws IOException {
+
+        // arrange
+        ValidationResult invalidHeader = new ValidationResult();
+        invalidHeader.addError("Invalid CSV header");
+        when(fileValidator.validateContent(anyString(), any(byte[].class), anyInt())).thenReturn(invalidHeader);
+
+        UploadSessionDTO session = uploadSessionService.createSession(
+                new UploadSessionCreateDTO("test.csv", content.length), USERNAME);
+        uploadAll(session.getUploadId(), 0, 1000);
+
+        // act & assert
+        FileValidationException exception = assertThrows(FileValidationException.class,
+                () -> uploadSessionService.completeSession(session.getUploadId(), USERNAME));
+
+        assertEquals("Invalid CSV header", exception.getMessage());
+        assertEquals(UploadSessionStatus.ABORTED, sessions.get(session.getUploadId()).getStatus());
+        try (var files = Files.list(uploadDir)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    @DisplayName("Verifica che un completamento ripetuto restituisca il job già creato")
+    void testRepeatedCompleteReturnsExistingJob() {
+
+        // arrange
+        when(fileUploadService.registerStagedFile(anyString(), any(StagedFile.class), eq(USERNAME)))
+                .thenReturn(new FileUploadJobDTO("test.csv", "hash", "job123", JobStatus.PENDING));
+        when(jobExecutionService.getJobExecutionById("job123")).thenReturn(job("job123", JobStatus.PROCESSING));
+
+        UploadSessionDTO session = uploadSessionService.createSession(
+                new UploadSessionCreateDTO("test.csv", content.length), USERNAME);
+        uploadAll(session.getUploadId(), 0, 1000);
+        uploadSessionService.completeSession(session.getUploadId(), USERNAME);
+
+        // act
+        FileUploadJobDTO result = uploadSessionService.completeSession(session.getUploadId(), USERNAME);
+
+        // assert
+        assertEquals("job123", result.getJobId());
+        assertEquals(JobStatus.PROCESSING, result.getJobStatus());
+        verify(fileUploadService, times(1)).registerStagedFile(anyString(), any(), anyString());
+    }
+
+    @Test
+    @DisplayName("Verifica che un caricamento completato nel frattempo da un'altra istanza non crei un secondo job")
+    void testConcurrentCompleteFromAnotherInstanceReturnsExistingJob() {
+
+        // arrange
+        UploadSessionDTO session = uploadSessionService.createSession(
+                new UploadSessionCreateDTO("test.csv", content.length), USERNAME);
+        String uploadId = session.getUploadId();
+        uploadAll(uploadId, 0, 1000);
+        when(jobExecutionService.getJobExecutionById("job456")).thenReturn(job("job456", JobStatus.PENDING));
+
+        // un'altra istanza completa il caricamento prima di questa
+        doAnswer(invocation -> {
+            UploadSession stale = invocation.getArgument(0);
+            sessions.put(uploadId, UploadSession.builder()
+                    .uploadId(uploadId)
+                    .filename(stale.getFilename())
+                    .totalSize(stale.getTotalSize())
+                    .receivedBytes(stale.getTotalSize())
+                    .status(UploadSessionStatus.COMPLETED)
+                    .jobId("job456")
+                    .createdBy(USERNAME)
+                    .expiresAt(stale.getExpiresAt())
+                    .build());
+            throw new ObjectOptimisticLockingFailureException(UploadSession.class, uploadId);
+        }).when(uploadSessionRepository).saveAndFlush(any(UploadSession.class));
+
+        // act
+        FileUploadJobDTO result = uploadSessionService.completeSession(uploadId, USERNAME);
+
+        // assert
+        assertEquals("job456", result.getJobId());
+        assertEquals(UploadSessionStatus.COMPLETED, sessions.get(uploadId).getStatus());
+        verify(fileUploadService, never()).registerStagedFile(anyString(), any(), anyString());
+    }
+
+    private static JobExecution job(String jobId, JobStatus status) {
+        return JobExecution.builder()
+                .jobId(jobId)
+                .status(status)
+                .fileUpload(FileUpload.builder().filename("test.csv").fileHash("hash").build())
+                .build();
+    }
+
+    private void uploadAll(String uploadId, long from, int chunkSize) {
+        long offset = from;
+        int index = 0;
+        while (offset < content.length) {
+            int length = (int) Math.min(chunkSize, content.length - offset);
+            offset = uploadSessionService.writeChunk(uploadId, index++, offset, chunk(offset, length), USERNAME)
+                    .getReceivedBytes();
+        }
+    }
+
+    private ByteArrayInputStream chunk(long offset, int length) {
+        int from = (int) offset;
+        return new ByteArrayInputStream(Arrays.copyOfRange(content, from, Math.min(from + length, content.length)));
+    }
+}
@@ -0,0 +1,130 @@
+package com.cimparato.csbm.service.file.chunk;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileChunkSplitterTest {
+
+    private static final String HEADER = "customer_id,service_type,activation_date,expiration_date,amount,status\n";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("Verifica che le porzioni coprano l'intero file senza sovrapposizioni e tagliando su fine riga")
+    void testChunksAreContiguousAndLineAligned() throws IOException {
+
+        // arrange
+        StringBuilder content = new StringBuilder(HEADER);
+        for (int i = 0; i < 100; i++) {
+            content.append("CUST").append(i).append(",PEC,2023-01-01,2024-01-01,29.99,ACTIVE\n");
+        }
+        Path file = write(content.toString());
+
+        // act
+        List<FileChunk> chunks = FileChunkSplitter.split(file, 4);
+
+        // assert
+        assertEquals(4, chunks.size());
+        assertEquals(0, chunks.get(0).startOffset());
+        assertEquals(Files.size(file), chunks.get(chunks.size() - 1).endOffset());
+
+        StringBuilder rebuilt = new StringBuilder();
+        for (int i = 0; i < chunks.size(); i++) {
+            FileChunk chunk = chunks.get(i);
+            if (i > 0) {
+                assertEquals(chunks.get(i - 1).endOffset(), chunk.startOffset());
+            }
+            assertEquals(i == 0, chunk.containsHeader());
+
+            String text = read(file, chunk);
+            assertTrue(text.endsWith("\n"), "Ogni porzione deve terminare con un fine riga");
+            rebuilt.append(text);
+        }
+        assertEquals(content.toString(), rebuilt.toString());
+    }
+
+    @Test
+    @DisplayName("Verifica che ogni porzione conosca il numero della propria prima riga")
+    void testFirstLineNumbers() throws IOException {
+
+        // arrange
+        StringBuilder content = new StringBuilder(HEADER);
+        for (int i = 0; i < 50; i++) {
+            content.append("CUST").append(i).append(",PEC,2023-01-01,2024-01-01,29.99,ACTIVE\n");
+        }
+        Path file = write(content.toString());
+
+        // act
+        List<FileChunk> chunks = FileChunkSplitter.split(file, 3);
+
+        // assert
+        assertEquals(1, chunks.get(0).firstLineNumber());
+        for (FileChunk chunk : chunks.subList(1, chunks.size())) {
+            // l'intestazione è la riga 1, CUST0 la riga 2
+            String firstLine = read(file, chunk).lines().findFirst().orElseThrow();
+            int customerIndex = Integer.parseInt(firstLine.substring(4, firstLine.indexOf(',')));
+            assertEquals(customerIndex + 2, chunk.firstLineNumber());
+        }
+    }
+
+    @Test
+    @DisplayName("Verifica che un a capo all'interno di un campo quotato non venga usato come punto di taglio")
+    void testNoSplitInsideQuotedField() throws IOException {
+
+        // arrange
+        String quoted = "\"CUST\nWITH\nNEWLINES\",PEC,2023-01-01,2024-01-01,29.99,ACTIVE\n";
+        String content = HEADER + quoted.repeat(20);
+        Path file = write(content);
+
+        // act
+        List<FileChunk> chunks = FileChunkSplitter.split(file, 5);
+
+        // assert
+        assertTrue(chunks.size() > 1);
+        for (FileChunk chunk : chunks.subList(1, chunks.size())) {
+            assertTrue(read(file, chunk).startsWith("\"CUST\nWITH"), "La porzione deve iniziare con un record completo");
+
+            // la numerazione conta i record, non le righe fisiche
+            long precedingRecords = (chunk.startOffset() - HEADER.length()) / quoted.length();
+            assertEquals(precedingRecords + 2, chunk.firstLineNumber());
+        }
+    }
+
+    @Test
+    @DisplayName("Verifica che un file con meno righe delle porzioni richieste non generi porzioni vuote")
+    void testSmallFile() throws IOException {
+
+        // arrange
+        Path file = write(HEADER + "CUST001,PEC,2023-01-01,2024-01-01,29.99,ACTIVE\n");
+
+        // act
+        List<FileChunk> chunks = FileChunkSplitter.split(file, 8);
+
+        // assert
+        assertTrue(chunks.size() <= 2);
+        chunks.forEach(chunk -> assertTrue(chunk.length() > 0));
+    }
+
+    private Path write(String content) throws IOException {
+        Path file = tempDir.resolve("services.csv");
+        Files.writeString(file, content, StandardCharsets.UTF_8);
+        return file;
+    }
+
+    private String read(Path file, FileChunk chunk) throws IOException {
+        try (InputStream inputStream = new FileRangeInputStream(file, chunk)) {
+            return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
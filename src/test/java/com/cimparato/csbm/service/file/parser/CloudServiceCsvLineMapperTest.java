@@ -8,8 +8,12 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.io.StringReader;
 import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.util.List;
+import java.util.function.Supplier;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -300,4 +304,105 @@ class CloudServiceCsvLineMapperTest {
         assertEquals(new BigDecimal("29.99"), result.getAmount());
         assertEquals(CloudServiceStatus.ACTIVE, result.getStatus());
     }
+
+    @Test
+    @DisplayName("Verifica che la mappatura dal buffer produca gli stessi risultati ed errori di mapLine")
+    void testMapRecordMatchesMapLine() throws IOException {
+
+        // arrange
+        List<String> lines = List.of(
+                "CUST001,PEC,2023-01-01," + tomorrow + ",29.99,ACTIVE",
+                " CUST001 , pec , 2023-01-01 , " + tomorrow + " , 29.99 , active ",
+                "CUST001,Hosting,2023-01-01," + yesterday + ",1E+2,expired",
+                ",PEC,2023-01-01," + tomorrow + ",29.99,ACTIVE",
+                "CUST001,INVALID,2023-01-01," + tomorrow + ",29.99,ACTIVE",
+                "CUST001,PEC,2023-1-01," + tomorrow + ",29.99,ACTIVE",
+                "CUST001,PEC,2023-02-30," + tomorrow + ",29.99,ACTIVE",
+                "CUST001,PEC,2023-01-01," + yesterday + ",29.99,ACTIVE",
+                "CUST001,PEC,2023-01-01," + tomorrow + ",abc,ACTIVE",
+                "CUST001,PEC,2023-01-01," + tomorrow + ",-1,ACTIVE",
+                "CUST001,PEC,2023-01-01," + tomorrow + ",0.00,ACTIVE",
+                "CUST001,PEC,2023-01-01," + tomorrow + ",29.99,UNKNOWN",
+                "CUST001,PEC,2023-01-01",
+                "\"CUST,001\",PEC,2023-01-01," + tomorrow + ",29.99,ACTIVE"
+        );
+
+        try (CsvRecordReader reader = new CsvRecordReader(new StringReader(String.join("\n", lines)))) {
+            CsvRecord record;
+            int lineNumber = 0;
+            while ((record = reader.next()) != null) {
+                lineNumber++;
+                CsvRecord current = record;
+                String[] line = current.toArray();
+
+                // act
+                Object expected = mapOrMessage(() -> mapper.mapLine(line, 1, today));
+                Object actual = mapOrMessage(() -> mapper.mapRecord(current, 1, today));
+
+                // assert
+                assertEquals(expected, actual, "Risultato differente alla riga " + lineNumber);
+            }
+            assertEquals(lines.size(), lineNumber);
+        }
+    }
+
+    @Test
+    @DisplayName("Verifica che le date di scadenza vengano validate rispetto alla data di riferimento indicata")
+    void testReferenceDateIsUsedForStatusChecks() {
+
+        // arrange
+        String[] line = {"CUST001", "PEC", "2023-01-01", "2024-06-30", "29.99", "ACTIVE"};
+        LocalDate referenceDate = LocalDate.of(2024, 6, 30);
+
+        // act
+        CloudServiceDTO result = mapper.mapLine(line, 1, referenceDate);
+
+        // assert
+        assertEquals(LocalDate.of(2024, 6, 30), result.getExpirationDate());
+
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+                () -> mapper.mapLine(line, 1, referenceDate.plusDays(1)));
+        assertTrue(exception.getMessage().contains("expiration_date cannot be less than current day"));
+    }
+
+    @Test
+    @DisplayName("Verifica che date con offset o in formato diverso da yyyy-MM-dd non vengano accettate")
+    void testDateWithOffsetIsRejected() {
+
+        // arrange
+        String[] withOffset = {"CUST001", "PEC", "2023-01-01+01:00", tomorrow.toString(), "29.99", "ACTIVE"};
+        String[] invalidDay = {"CUST001", "PEC", "2023-02-29", tomorrow.toString(), "29.99", "ACTIVE"};
+
+        // act & assert
+        IllegalArgumentException offsetException = assertThrows(IllegalArgumentException.class,
+                () -> mapper.mapLine(withOffset, 1));
+        assertTrue(offsetException.getMessage().contains("Invalid activation_date format"));
+
+        IllegalArgumentException dayException = assertThrows(IllegalArgumentException.class,
+                () -> mapper.mapLine(invalidDay, 1));
+        assertTrue(dayException.getMessage().contains("Invalid activation_date format"));
+    }
+
+    @Test
+    @DisplayName("Verifica che service_type e status vengano riconosciuti indipendentemente dalle maiuscole")
+    void testEnumsAreCaseInsensitive() {
+
+        // arrange
+        String[] line = {"CUST001", "firma_digitale", "2023-01-01", tomorrow.toString(), "29.99", "Pending_Renewal"};
+
+        // act
+        CloudServiceDTO result = mapper.mapLine(line, 1);
+
+        // assert
+        assertEquals(CloudServiceType.FIRMA_DIGITALE, result.getServiceType());
+        assertEquals(CloudServiceStatus.PENDING_RENEWAL, result.getStatus());
+    }
+
+    private Object mapOrMessage(Supplier<CloudServiceDTO> mapping) {
+        try {
+            return mapping.get();
+        } catch (IllegalArgumentException e) {
+            return e.getMessage();
+        }
+    }
 }
@@ -0,0 +1,112 @@
+package com.cimparato.csbm.service.file.parser;
+
+import com.opencsv.CSVReader;
+import com.opencsv.exceptions.CsvMalformedLineException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CsvRecordReaderTest {
+
+    @Test
+    @DisplayName("Verifica che le righe semplici vengano lette come porzioni del buffer")
+    void testPlainLinesAreSliced() throws IOException {
+
+        // arrange
+        String csv = "CUST001,PEC,2023-01-01,2024-01-01,29.99,ACTIVE\nCUST002, HOSTING ,,2024-01-01,10,EXPIRED\n";
+
+        try (CsvRecordReader reader = new CsvRecordReader(new StringReader(csv))) {
+
+            // act
+            CsvRecord first = reader.next();
+
+            // assert
+            assertTrue(first.isSliced());
+            assertEquals(6, first.size());
+            assertEquals("PEC", first.get(1));
+
+            CsvRecord second = reader.next();
+            assertEquals(" HOSTING ", second.get(1));
+            assertEquals("HOSTING", new String(second.chars(), second.trimmedStart(1),
+                    second.trimmedEnd(1) - second.trimmedStart(1)));
+            assertEquals("", second.get(2));
+
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    @DisplayName("Verifica che il risultato coincida con CSVReader per righe quotate, escape e fine riga diversi")
+    void testSameResultAsOpenCsv() throws Exception {
+
+        // arrange
+        String csv = "customer_id,service_type\r\n" +
+                "\"CUST,001\",PEC\r\n" +
+                "\"CUST\n002\",\"HOST\"\"ING\"\n" +
+                "CUST\\\\003,PEC\r" +
+                "\n" +
+                "CUST004,PEC";
+
+        // act
+        List<String[]> expected = new ArrayList<>();
+        try (CSVReader reader = new CSVReader(new StringReader(csv))) {
+            String[] line;
+            while ((line = reader.readNext()) != null) {
+                expected.add(line);
+            }
+        }
+
+        List<String[]> actual = new ArrayList<>();
+        try (CsvRecordReader reader = new CsvRecordReader(new StringReader(csv))) {
+            CsvRecord record;
+            while ((record = reader.next()) != null) {
+                actual.add(record.toArray());
+            }
+        }
+
+        // assert
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(expected.get(i), actual.get(i), "Record " + i + " differente");
+        }
+    }
+
+    @Test
+    @DisplayName("Verifica che un campo quotato non chiuso a fine file generi un errore")
+    void testUnterminatedQuote() {
+
+        // arrange
+        String csv = "CUST001,\"PEC\n";
+
+        // act & assert
+        assertThrows(CsvMalformedLineException.class, () -> {
+            try (CsvRecordReader reader = new CsvRecordReader(new StringReader(csv))) {
+                reader.next();
+            }
+        });
+    }
+
+    @Test
+    @DisplayName("Verifica che righe più lunghe del buffer iniziale vengano lette per intero")
+    void testLongLine() throws IOException {
+
+        // arrange
+        String longValue = "X".repeat(100_000);
+
+        try (CsvRecordReader reader = new CsvRecordReader(new StringReader(longValue + ",PEC\n"))) {
+
+            // act
+            CsvRecord record = reader.next();
+
+            // assert
+            assertEquals(2, record.size());
+            assertEquals(longValue, record.get(0));
+        }
+    }
+}
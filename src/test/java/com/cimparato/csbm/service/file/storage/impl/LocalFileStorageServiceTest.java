@@ -0,0 +1,106 @@
+package com.cimparato.csbm.service.file.storage.impl;
+
+import com.cimparato.csbm.config.properties.AppProperties;
+import com.cimparato.csbm.service.file.storage.StagedFile;
+import com.cimparato.csbm.util.FileUtil;
+import com.cimparato.csbm.web.rest.errors.FileValidationException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalFileStorageServiceTest {
+
+    @TempDir
+    Path uploadDir;
+
+    private LocalFileStorageService storageService;
+
+    private MockMultipartFile file;
+
+    @BeforeEach
+    void setUp() {
+        AppProperties appProperties = new AppProperties();
+        AppProperties.FileProcessing fileProcessing = new AppProperties.FileProcessing();
+        fileProcessing.setUploadDir(uploadDir.toString());
+        appProperties.setFileProcessing(fileProcessing);
+
+        storageService = new LocalFileStorageService(appProperties);
+        storageService.init();
+
+        // contenuto più grande del primo blocco, per verificare anche la copia dei blocchi successivi
+        StringBuilder content = new StringBuilder("customer_id,service_type,activation_date,expiration_date,amount,status\n");
+        for (int i = 0; i < 5000; i++) {
+            content.append("CUST").append(i).append(",PEC,2023-01-01,2030-01-01,29.99,ACTIVE\n");
+        }
+        file = new MockMultipartFile("file", "test.csv", "text/csv", content.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    @DisplayName("Verifica che il file venga salvato in un'unica lettura con lo stesso hash calcolato da FileUtil")
+    void testStageFileComputesHashWhileCopying() throws IOException {
+
+        // act
+        int[] inspectedLength = new int[1];
+        StagedFile stagedFile = storageService.stageFile(file, (block, length) -> inspectedLength[0] = length);
+
+        // assert
+        assertEquals(FileUtil.calculateFileHash(file), stagedFile.fileHash());
+        assertEquals(file.getSize(), stagedFile.size());
+        assertEquals(64 * 1024, inspectedLength[0]);
+        assertArrayEquals(file.getBytes(), Files.readAllBytes(stagedFile.path()));
+    }
+
+    @Test
+    @DisplayName("Verifica che il commit sposti il file temporaneo nella posizione definitiva")
+    void testCommitStagedFileMovesFile() throws IOException {
+
+        // arrange
+        StagedFile stagedFile = storageService.stageFile(file, null);
+
+        // act
+        String storedFile = storageService.commitStagedFile(stagedFile, "job123");
+
+        // assert
+        assertEquals("job123_test.csv", storedFile);
+        assertFalse(Files.exists(stagedFile.path()));
+        assertArrayEquals(file.getBytes(), Files.readAllBytes(uploadDir.resolve(storedFile)));
+    }
+
+    @Test
+    @DisplayName("Verifica che un errore dell'inspector non lasci file temporanei nella directory di upload")
+    void testInspectorFailureRemovesStagedFile() throws IOException {
+
+        // act & assert
+        assertThrows(FileValidationException.class, () -> storageService.stageFile(file, (block, length) -> {
+            throw new FileValidationException("Invalid header");
+        }));
+
+        try (Stream<Path> files = Files.list(uploadDir)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    @DisplayName("Verifica che un file temporaneo scartato venga eliminato")
+    void testDiscardStagedFileDeletesFile() {
+
+        // arrange
+        StagedFile stagedFile = storageService.stageFile(file, null);
+
+        // act
+        storageService.discardStagedFile(stagedFile);
+
+        // assert
+        assertFalse(Files.exists(stagedFile.path()));
+    }
+}
@@ -53,6 +53,17 @@ public class FileExtensionRuleFileTest {
         assertTrue(result, "File with allowed extension should be accepted");
     }
 
+    @Test
+    @DisplayName("Verifica che un file csv compresso con gzip o zstd venga accettato")
+    void compressedAllowedExtensionShouldBeAccepted() {
+
+        // act & assert
+        assertTrue(rule.validateMetadata("test.csv.gz", 100), "Gzip compressed CSV should be accepted");
+        assertTrue(rule.validateMetadata("test.CSV.ZST", 100), "Zstd compressed CSV should be accepted");
+        assertFalse(rule.validateMetadata("test.txt.gz", 100), "Compressed TXT file should be rejected");
+        assertFalse(rule.validateMetadata("test.gz", 100), "Compressed file without extension should be rejected");
+    }
+
     @Test
     @DisplayName("Verifica che un file con estensione non consentita venga rifiutato")
     void disallowedExtensionShouldBeRejected() {
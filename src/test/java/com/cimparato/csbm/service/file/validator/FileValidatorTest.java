@@ -4,24 +4,38 @@ import com.cimparato.csbm.domain.file.ValidationResult;
 import com.cimparato.csbm.service.file.validator.impl.CloudServiceCsvHeaderRuleFile;
 import com.cimparato.csbm.service.file.validator.impl.FileExtensionRuleFile;
 import com.cimparato.csbm.service.file.validator.impl.FileNotEmptyRuleFile;
+import com.github.luben.zstd.ZstdOutputStream;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
 class FileValidatorTest {
 
+    @TempDir
+    Path tempDir;
+
     @Mock
     private FileNotEmptyRuleFile notEmptyRule;
 
@@ -149,4 +163,72 @@ class FileValidatorTest {
         assertTrue(result.getErrors().isEmpty(), "Non dovrebbero esserci errori per un file valido");
     }
 
+    @Test
+    @DisplayName("Verifica che la validazione dei metadati non applichi le regole sul contenuto")
+    void testValidateMetadataSkipsContentRules() {
+
+        // arrange
+        when(headerRule.isContentRule()).thenReturn(true);
+        when(notEmptyRule.validate(testFile)).thenReturn(true);
+        when(extensionRule.validate(testFile)).thenReturn(true);
+
+        // act
+        ValidationResult result = fileValidator.validateMetadata(testFile);
+
+        // assert
+        assertTrue(result.isValid(), "Validation should pass when all metadata rules pass");
+        verify(headerRule, never()).validate(testFile);
+        verify(headerRule, never()).validateContent(any(InputStream.class));
+    }
+
+    @Test
+    @DisplayName("Verifica che la validazione del primo blocco applichi solo le regole sul contenuto")
+    void testValidateContentAppliesOnlyContentRules() {
+
+        // arrange
+        byte[] firstBlock = "wrong,header".getBytes();
+        when(headerRule.isContentRule()).thenReturn(true);
+        when(headerRule.validateContent(any(InputStream.class))).thenReturn(false);
+        when(headerRule.getErrorMessage()).thenReturn("Invalid header");
+
+        // act
+        ValidationResult result = fileValidator.validateContent("test.csv", firstBlock, firstBlock.length);
+
+        // assert
+        assertFalse(result.isValid(), "Validation should fail when the header rule fails");
+        assertEquals("Invalid header", result.getErrors().get(0));
+        verify(notEmptyRule, never()).validate(any());
+        verify(extensionRule, never()).validate(any());
+    }
+
+    @Test
+    @DisplayName("Verifica che l'intestazione di un file compresso venga decompressa dal file scritto su disco")
+    void testValidateCompressedContentReadsStagedFile() throws IOException {
+
+        // arrange: il primo blocco compresso è più grande del primo blocco letto durante l'upload
+        FileValidator validator = new FileValidator(List.of(new CloudServiceCsvHeaderRuleFile()));
+        Random random = new Random(42);
+        StringBuilder csv = new StringBuilder("customer_id,service_type,activation_date,expiration_date,amount,status\n");
+        for (int i = 0; i < 50_000; i++) {
+            csv.append("CUST").append(random.nextInt(1_000_000)).append(",PEC,2023-01-01,2030-01-01,")
+                    .append(random.nextInt(10_000)).append(".00,ACTIVE\n");
+        }
+        Path file = tempDir.resolve("services.csv.zst");
+        try (OutputStream out = new ZstdOutputStream(Files.newOutputStream(file))) {
+            out.write(csv.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        byte[] firstBlock = Arrays.copyOf(Files.readAllBytes(file), 4096);
+        Path truncated = Files.write(tempDir.resolve("truncated.csv.zst"), firstBlock);
+
+        // act
+        ValidationResult result = validator.validateCompressedContent("services.csv.zst", file);
+        ValidationResult truncatedResult = validator.validateCompressedContent("services.csv.zst", truncated);
+
+        // assert
+        assertTrue(result.isValid(), "The header should be read from the compressed file");
+        assertFalse(truncatedResult.isValid(), "A truncated compressed file should be rejected");
+        assertTrue(validator.validateContent("services.csv.zst", firstBlock, firstBlock.length).isValid(),
+                "Compressed files are not validated on the first block");
+    }
+
 }
@@ -1,18 +1,15 @@
 package com.cimparato.csbm.service.notification;
 
 import com.cimparato.csbm.config.properties.AppProperties;
-import com.cimparato.csbm.config.properties.KafkaAppProperties;
 import com.cimparato.csbm.domain.enumeration.CloudServiceStatus;
 import com.cimparato.csbm.domain.enumeration.CloudServiceType;
+import com.cimparato.csbm.domain.model.UpsellingWatermark;
 import com.cimparato.csbm.domain.notification.NotificationType;
 import com.cimparato.csbm.dto.cloudservice.CloudServiceDTO;
 import com.cimparato.csbm.dto.notification.NotificationDTO;
 import com.cimparato.csbm.service.CloudServiceService;
-import com.cimparato.csbm.service.notification.factory.KafkaNotification;
-import com.cimparato.csbm.service.notification.handler.impl.KafkaNotificationHandler;
+import com.cimparato.csbm.service.notification.outbox.NotificationOutbox;
 import com.cimparato.csbm.service.notification.rule.impl.ActiveServiceOlderThanNotificationRule;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -25,11 +22,17 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -39,16 +42,16 @@ class ActiveServiceOlderThanNotificationRuleTest {
     private AppProperties appProperties;
 
     @Mock
-    private KafkaAppProperties kafkaAppProperties;
+    private CloudServiceService cloudServiceService;
 
     @Mock
-    private CloudServiceService cloudServiceService;
+    private NotificationOutbox notificationOutbox;
 
     @Mock
-    private KafkaNotificationHandler kafkaNotificationHandler;
+    private NotificationOutbox.Writer writer;
 
     @Mock
-    private ObjectMapper mapper;
+    private UpsellingWatermarkService upsellingWatermarkService;
 
     @Mock
     private AppProperties.Rule rule;
@@ -62,14 +65,8 @@ class ActiveServiceOlderThanNotificationRuleTest {
     @Mock
     private AppProperties.Notification notification;
 
-    @Mock
-    private KafkaAppProperties.TopicConfig topicConfig;
-
     @Captor
-    private ArgumentCaptor<KafkaNotification> notificationCaptor;
-
-    @Captor
-    private ArgumentCaptor<Object> payloadCaptor;
+    private ArgumentCaptor<NotificationDTO> notificationCaptor;
 
     private ActiveServiceOlderThanNotificationRule notificationRule;
 
@@ -85,18 +82,16 @@ class ActiveServiceOlderThanNotificationRuleTest {
         when(email.getSubject()).thenReturn("Long-term Active Service");
         when(email.getContent()).thenReturn("Customer has active service for more than 3 years");
 
-        when(kafkaAppProperties.getTopic()).thenReturn(topicConfig);
-        when(topicConfig.getNotification()).thenReturn("notifications");
-
         notificationRule = new ActiveServiceOlderThanNotificationRule(
                 appProperties,
-                kafkaAppProperties,
                 cloudServiceService,
-                kafkaNotificationHandler,
-                mapper
+                notificationOutbox,
+                upsellingWatermarkService
         );
 
         notificationRule.init();
+
+        when(notificationOutbox.openWriter(anyString(), any())).thenReturn(writer);
     }
 
     @Test
@@ -124,37 +119,22 @@ class ActiveServiceOlderThanNotificationRuleTest {
         oldServices.add(service1);
         oldServices.add(service2);
 
-        when(cloudServiceService.getActiveServicesOlderThan(any(LocalDate.class))).thenReturn(oldServices);
-
-        try {
-            when(mapper.writeValueAsString(payloadCaptor.capture())).thenReturn("{\"test\":\"value\"}");
-        } catch (JsonProcessingException e) {
-            fail("JSON serialization failed", e);
-        }
+        stubActiveServicesOlderThan(oldServices);
 
         // act
         notificationRule.checkAndQueueNotifications();
 
         // assert
-        verify(cloudServiceService).getActiveServicesOlderThan(any(LocalDate.class));
-        verify(kafkaNotificationHandler, times(2)).handle(notificationCaptor.capture());
+        verify(cloudServiceService).forEachCustomerWithUnnotifiedActiveServicesOlderThan(any(LocalDate.class), any());
+        verify(writer, times(2)).add(notificationCaptor.capture());
+        verify(writer).close();
 
-        // verifica che siano state inviate il numero corretto di notifiche
-        List<KafkaNotification> capturedNotifications = notificationCaptor.getAllValues();
+        // verifica che sia stato scritto nell'outbox il numero corretto di notifiche
+        List<NotificationDTO> capturedNotifications = notificationCaptor.getAllValues();
         assertEquals(2, capturedNotifications.size());
 
-        // verifica che le notifiche siano state inviate al topic corretto
-        for (KafkaNotification notification : capturedNotifications) {
-            assertEquals("notifications", notification.getTopic());
-        }
-
-        // verifica che i payload contengano i dati corretti
-        List<Object> capturedPayloads = payloadCaptor.getAllValues();
-        assertEquals(2, capturedPayloads.size());
-
-        for (Object payload : capturedPayloads) {
-            assertTrue(payload instanceof NotificationDTO);
-            NotificationDTO dto = (NotificationDTO) payload;
+        // verifica che le notifiche contengano i dati corretti
+        for (NotificationDTO dto : capturedNotifications) {
             assertEquals("marketing@example.com", dto.getRecipient());
             assertTrue(dto.getCustomerId().equals("CUST001") || dto.getCustomerId().equals("CUST003"));
         }
@@ -165,14 +145,14 @@ class ActiveServiceOlderThanNotificationRuleTest {
     void testDoesNotIdentifyServicesLessThanConfiguredYears() {
 
         // arrange
-        when(cloudServiceService.getActiveServicesOlderThan(any(LocalDate.class))).thenReturn(Collections.emptyList());
+        stubActiveServicesOlderThan(Collections.emptyList());
 
         // act
         notificationRule.checkAndQueueNotifications();
 
         // assert
-        verify(cloudServiceService).getActiveServicesOlderThan(any(LocalDate.class));
-        verify(kafkaNotificationHandler, never()).handle(any());
+        verify(cloudServiceService).forEachCustomerWithUnnotifiedActiveServicesOlderThan(any(LocalDate.class), any());
+        verify(writer, never()).add(any());
     }
 
     @Test
@@ -188,25 +168,16 @@ class ActiveServiceOlderThanNotificationRuleTest {
         service.setAmount(BigDecimal.valueOf(29.99));
         service.setStatus(CloudServiceStatus.ACTIVE);
 
-        when(cloudServiceService.getActiveServicesOlderThan(any(LocalDate.class))).thenReturn(List.of(service));
-
-        try {
-            when(mapper.writeValueAsString(payloadCaptor.capture())).thenReturn("{\"test\":\"value\"}");
-        } catch (Exception e) {
-            fail("Mock setup failed", e);
-        }
+        stubActiveServicesOlderThan(List.of(service));
 
         // act
         notificationRule.checkAndQueueNotifications();
 
         // assert
-        verify(kafkaNotificationHandler).handle(notificationCaptor.capture());
+        verify(writer).add(notificationCaptor.capture());
 
         // verifica il contenuto della notifica
-        Object capturedPayload = payloadCaptor.getValue();
-        assertTrue(capturedPayload instanceof NotificationDTO);
-
-        NotificationDTO dto = (NotificationDTO) capturedPayload;
+        NotificationDTO dto = notificationCaptor.getValue();
         assertEquals("CUST001", dto.getCustomerId());
         assertEquals("marketing@example.com", dto.getRecipient());
         assertTrue(dto.getContent().contains("CUST001") ||
@@ -214,7 +185,7 @@ class ActiveServiceOlderThanNotificationRuleTest {
     }
 
     @Test
-    @DisplayName("Verifica che la regola invii correttamente una notifica di tipo EMAIL")
+    @DisplayName("Verifica che la regola scriva nell'outbox una notifica di tipo EMAIL")
     void testSendsEmailNotification() {
 
         // arrange
@@ -226,36 +197,24 @@ class ActiveServiceOlderThanNotificationRuleTest {
         service.setAmount(BigDecimal.valueOf(29.99));
         service.setStatus(CloudServiceStatus.ACTIVE);
 
-        when(cloudServiceService.getActiveServicesOlderThan(any(LocalDate.class))).thenReturn(List.of(service));
-
-        try {
-            when(mapper.writeValueAsString(payloadCaptor.capture())).thenReturn("{\"test\":\"value\"}");
-        } catch (JsonProcessingException e) {
-            fail("JSON serialization failed", e);
-        }
+        stubActiveServicesOlderThan(List.of(service));
 
         // act
         notificationRule.checkAndQueueNotifications();
 
         // assert
-        verify(kafkaNotificationHandler).handle(notificationCaptor.capture());
+        verify(writer).add(notificationCaptor.capture());
 
-        // Verifica che la notifica sia stata inviata al topic corretto
-        KafkaNotification capturedNotification = notificationCaptor.getValue();
-        assertEquals("notifications", capturedNotification.getTopic());
-
-        // Verifica che il payload contenga i dati corretti
-        Object capturedPayload = payloadCaptor.getValue();
-        assertTrue(capturedPayload instanceof NotificationDTO);
-
-        NotificationDTO dto = (NotificationDTO) capturedPayload;
+        // Verifica che la notifica contenga i dati corretti
+        NotificationDTO dto = notificationCaptor.getValue();
+        assertEquals("system@example.com", dto.getSender());
         assertEquals(NotificationType.EMAIL, dto.getType());
         assertEquals("marketing@example.com", dto.getRecipient());
     }
 
     @Test
-    @DisplayName("Verifica che la regola gestisca correttamente gli errori di serializzazione")
-    void testHandlesSerializationErrors() throws Exception {
+    @DisplayName("Verifica che un errore di scrittura nell'outbox interrompa la regola e chiuda il writer")
+    void testPropagatesOutboxWriteErrors() {
 
         // arrange
         CloudServiceDTO service = new CloudServiceDTO();
@@ -263,39 +222,72 @@ class ActiveServiceOlderThanNotificationRuleTest {
         service.setServiceType(CloudServiceType.PEC);
         service.setActivationDate(LocalDate.of(2018, 1, 15));
 
-        when(cloudServiceService.getActiveServicesOlderThan(any(LocalDate.class))).thenReturn(List.of(service));
-
-        when(mapper.writeValueAsString(any())).thenThrow(new JsonProcessingException("Test serialization error") {});
+        stubActiveServicesOlderThan(List.of(service));
 
-        // act
-        notificationRule.checkAndQueueNotifications();
+        // simula un errore durante la scrittura nell'outbox
+        doThrow(new RuntimeException("Test outbox failure")).when(writer).add(any());
 
-        // assert
-        verify(kafkaNotificationHandler, never()).handle(any());
+        // act & assert: l'errore viene gestito da NotificationManager, che prosegue con le altre regole
+        assertThrows(RuntimeException.class, () -> notificationRule.checkAndQueueNotifications());
+        verify(writer).close();
     }
 
     @Test
-    @DisplayName("Verifica che la regola gestisca correttamente gli errori di invio della notifica")
-    void testHandlesNotificationSendingErrors() {
+    @DisplayName("Verifica che la regola scriva una sola notifica riepilogativa per cliente e ne registri i watermark")
+    void testQueuesOneDigestPerCustomerAndAdvancesWatermarks() {
 
         // arrange
-        CloudServiceDTO service = new CloudServiceDTO();
-        service.setCustomerId("CUST001");
-        service.setServiceType(CloudServiceType.PEC);
-        service.setActivationDate(LocalDate.of(2018, 1, 15));
+        when(email.getContent()).thenReturn(null);
+        notificationRule.init();
 
-        when(cloudServiceService.getActiveServicesOlderThan(any(LocalDate.class))).thenReturn(List.of(service));
+        CloudServiceDTO pec = new CloudServiceDTO();
+        pec.setCustomerId("CUST001");
+        pec.setServiceType(CloudServiceType.PEC);
+        pec.setActivationDate(LocalDate.of(2018, 1, 15));
 
-        try {
-            when(mapper.writeValueAsString(any())).thenReturn("{\"test\":\"value\"}");
-        } catch (JsonProcessingException e) {
-            fail("JSON serialization failed", e);
-        }
+        CloudServiceDTO hosting = new CloudServiceDTO();
+        hosting.setCustomerId("CUST001");
+        hosting.setServiceType(CloudServiceType.HOSTING);
+        hosting.setActivationDate(LocalDate.of(2019, 3, 1));
 
-        // simula un errore durante l'invio della notifica
-        doThrow(new RuntimeException("Test notification error")).when(kafkaNotificationHandler).handle(any());
+        stubActiveServicesOlderThan(List.of(pec, hosting));
+
+        // act
+        notificationRule.checkAndQueueNotifications();
+
+        // assert
+        verify(writer).add(notificationCaptor.capture());
+        NotificationDTO digest = notificationCaptor.getValue();
+        assertEquals("CUST001", digest.getCustomerId());
+        assertTrue(digest.getContent().contains("`PEC` active since 2018-01-15"));
+        assertTrue(digest.getContent().contains("`HOSTING` active since 2019-03-01"));
+
+        // i watermark vengono registrati nella transazione di scrittura del blocco che contiene la notifica
+        ArgumentCaptor<Consumer<Collection<NotificationDTO>>> onEnqueue = ArgumentCaptor.forClass(Consumer.class);
+        verify(notificationOutbox).openWriter(anyString(), onEnqueue.capture());
+        verify(upsellingWatermarkService, never()).advance(any());
+
+        onEnqueue.getValue().accept(List.of(digest));
+
+        ArgumentCaptor<Collection<UpsellingWatermark>> watermarks = ArgumentCaptor.forClass(Collection.class);
+        verify(upsellingWatermarkService).advance(watermarks.capture());
+        assertEquals(List.of(CloudServiceType.PEC, CloudServiceType.HOSTING),
+                watermarks.getValue().stream().map(UpsellingWatermark::getServiceType).toList());
+        assertEquals(List.of(LocalDate.of(2018, 1, 15), LocalDate.of(2019, 3, 1)),
+                watermarks.getValue().stream().map(UpsellingWatermark::getActivationDate).toList());
+    }
 
-        // act & assert
-        assertDoesNotThrow(() -> notificationRule.checkAndQueueNotifications());
+    // simula la query, che restituisce i servizi ordinati per cliente, raggruppandoli per cliente
+    private void stubActiveServicesOlderThan(List<CloudServiceDTO> services) {
+        when(cloudServiceService.forEachCustomerWithUnnotifiedActiveServicesOlderThan(any(LocalDate.class), any()))
+                .thenAnswer(invocation -> {
+                    BiConsumer<String, List<CloudServiceDTO>> action = invocation.getArgument(1);
+                    Map<String, List<CloudServiceDTO>> byCustomer = new LinkedHashMap<>();
+                    services.forEach(service -> byCustomer
+                            .computeIfAbsent(service.getCustomerId(), customerId -> new ArrayList<>())
+                            .add(service));
+                    byCustomer.forEach(action);
+                    return byCustomer.size();
+                });
     }
 }
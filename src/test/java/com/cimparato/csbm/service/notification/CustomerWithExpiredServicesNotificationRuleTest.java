@@ -4,16 +4,11 @@ import com.cimparato.csbm.config.properties.AppProperties;
 import com.cimparato.csbm.config.properties.KafkaAppProperties;
 import com.cimparato.csbm.domain.enumeration.CloudServiceType;
 import com.cimparato.csbm.domain.notification.NotificationType;
-import com.cimparato.csbm.dto.cloudservice.CustomerWithExpiredServicesDTO;
 import com.cimparato.csbm.dto.cloudservice.ServiceWithExpirationDTO;
 import com.cimparato.csbm.dto.notification.NotificationDTO;
-import com.cimparato.csbm.messaging.KafkaProducer;
 import com.cimparato.csbm.service.CloudServiceService;
-import com.cimparato.csbm.service.notification.factory.KafkaNotification;
-import com.cimparato.csbm.service.notification.handler.impl.KafkaNotificationHandler;
+import com.cimparato.csbm.service.notification.outbox.NotificationOutbox;
 import com.cimparato.csbm.service.notification.rule.impl.ExpiredServicesNotificationRule;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -22,18 +17,17 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.kafka.support.SendResult;
 
-import java.lang.reflect.Field;
 import java.time.LocalDate;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
 
-import static org.assertj.core.api.Fail.fail;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -49,10 +43,10 @@ class CustomerWithExpiredServicesNotificationRuleTest {
     private CloudServiceService cloudServiceService;
 
     @Mock
-    private KafkaNotificationHandler kafkaNotificationHandler;
+    private NotificationOutbox notificationOutbox;
 
     @Mock
-    private ObjectMapper mapper;
+    private NotificationOutbox.Writer writer;
 
     @Mock
     private AppProperties.Rule rule;
@@ -70,7 +64,7 @@ class CustomerWithExpiredServicesNotificationRuleTest {
     private KafkaAppProperties.TopicConfig topicConfig;
 
     @Captor
-    private ArgumentCaptor<KafkaNotification> notificationCaptor;
+    private ArgumentCaptor<NotificationDTO> notificationCaptor;
 
     private ExpiredServicesNotificationRule notificationRule;
 
@@ -86,18 +80,18 @@ class CustomerWithExpiredServicesNotificationRuleTest {
         when(alert.getContent()).thenReturn("Customer has expired services");
 
         when(kafkaAppProperties.getTopic()).thenReturn(topicConfig);
-        when(topicConfig.getNotification()).thenReturn("notifications");
         when(topicConfig.getAlertCustomerExpired()).thenReturn("alerts.customer_expired");
 
         notificationRule = new ExpiredServicesNotificationRule(
                 appProperties,
                 kafkaAppProperties,
                 cloudServiceService,
-                kafkaNotificationHandler,
-                mapper
+                notificationOutbox
         );
 
         notificationRule.init();
+
+        when(notificationOutbox.openWriter(anyString())).thenReturn(writer);
     }
 
     @Test
@@ -116,44 +110,20 @@ class CustomerWithExpiredServicesNotificationRuleTest {
         );
         customersMap.put("CUST004", expiredServices);
 
-        CustomerWithExpiredServicesDTO dto = new CustomerWithExpiredServicesDTO(customersMap);
-        when(cloudServiceService.getCustomersWithMaxExpiredServices(5)).thenReturn(dto);
-
-        try {
-            when(mapper.writeValueAsString(any())).thenAnswer(invocation -> {
-                // Cattura l'oggetto che viene serializzato
-                Object obj = invocation.getArgument(0);
-                return "{\"test\":\"value\"}"; // Valore fittizio per il test
-            });
-        } catch (JsonProcessingException e) {
-            fail("JSON serialization failed", e);
-        }
+        stubCustomersWithMaxExpiredServices(customersMap);
 
         // act
         notificationRule.checkAndQueueNotifications();
 
         // assert
-        verify(cloudServiceService).getCustomersWithMaxExpiredServices(5);
-
-        verify(kafkaNotificationHandler).handle(notificationCaptor.capture());
+        verify(cloudServiceService).forEachCustomerWithMaxExpiredServices(eq(5), any());
 
-        KafkaNotification capturedNotification = notificationCaptor.getValue();
-        assertEquals("CUST004", capturedNotification.getPartitionKey());
-        assertEquals("notifications", capturedNotification.getTopic());
+        verify(writer).add(notificationCaptor.capture());
+        verify(writer).close();
 
         // Verifica che il contenuto della notifica includa informazioni sui servizi scaduti
-        ArgumentCaptor<Object> payloadCaptor = ArgumentCaptor.forClass(Object.class);
-        try {
-            verify(mapper).writeValueAsString(payloadCaptor.capture());
-        } catch (JsonProcessingException e) {
-            fail("JSON serialization failed", e);
-        }
-
-        Object serializedPayload = payloadCaptor.getValue();
-        assertTrue(serializedPayload instanceof NotificationDTO,
-                "Il payload dovrebbe essere un NotificationDTO");
-
-        NotificationDTO notificationDTO = (NotificationDTO) serializedPayload;
+        NotificationDTO notificationDTO = notificationCaptor.getValue();
+        assertEquals("CUST004", notificationDTO.getCustomerId());
         assertTrue(notificationDTO.getContent().contains("CUST004"),
                 "Il contenuto della notifica dovrebbe menzionare il cliente CUST004");
         assertTrue(notificationDTO.getContent().contains("6 expired services"),
@@ -161,19 +131,44 @@ class CustomerWithExpiredServicesNotificationRuleTest {
     }
 
     @Test
-    @DisplayName("Verifica che la regola non chiami l'handler con clienti che abbiano meno servizi scaduti del limite configurato")
+    @DisplayName("Verifica che la regola non scriva notifiche per clienti che abbiano meno servizi scaduti del limite configurato")
     void testDoesNotIdentifyCustomersWithLessExpiredServices() {
 
         // arrange
-        CustomerWithExpiredServicesDTO dto = new CustomerWithExpiredServicesDTO(new HashMap<>());
-        when(cloudServiceService.getCustomersWithMaxExpiredServices(5)).thenReturn(dto);
+        stubCustomersWithMaxExpiredServices(new HashMap<>());
 
         // act
         notificationRule.checkAndQueueNotifications();
 
         // assert
-        verify(cloudServiceService).getCustomersWithMaxExpiredServices(5);
-        verify(kafkaNotificationHandler, never()).handle(any());
+        verify(cloudServiceService).forEachCustomerWithMaxExpiredServices(eq(5), any());
+        verify(writer, never()).add(any());
+    }
+
+    @Test
+    @DisplayName("Verifica che la regola valutata sui clienti interessati da un file non esegua la ricerca sull'intera tabella")
+    void testEvaluatesOnlyAffectedCustomers() {
+
+        // arrange
+        Set<String> affectedCustomers = Set.of("CUST001", "CUST004");
+        Map<String, Set<ServiceWithExpirationDTO>> customersMap = new HashMap<>();
+        customersMap.put("CUST004", Set.of(
+                new ServiceWithExpirationDTO(CloudServiceType.HOSTING, LocalDate.of(2021, 4, 22))
+        ));
+        when(cloudServiceService.forEachCustomerWithMaxExpiredServices(eq(5), eq(affectedCustomers), any()))
+                .thenAnswer(invocation -> {
+                    BiConsumer<String, Set<ServiceWithExpirationDTO>> action = invocation.getArgument(2);
+                    customersMap.forEach(action);
+                    return customersMap.size();
+                });
+
+        // act
+        notificationRule.checkAndQueueNotifications(affectedCustomers);
+
+        // assert
+        verify(cloudServiceService, never()).forEachCustomerWithMaxExpiredServices(anyInt(), any());
+        verify(writer).add(notificationCaptor.capture());
+        assertEquals("CUST004", notificationCaptor.getValue().getCustomerId());
     }
 
     @Test
@@ -187,31 +182,16 @@ class CustomerWithExpiredServicesNotificationRuleTest {
                 new ServiceWithExpirationDTO(CloudServiceType.FIRMA_DIGITALE, LocalDate.of(2023, 6, 22))
         ));
 
-        CustomerWithExpiredServicesDTO dto = new CustomerWithExpiredServicesDTO(customersMap);
-        when(cloudServiceService.getCustomersWithMaxExpiredServices(5)).thenReturn(dto);
-
-        ArgumentCaptor<Object> payloadCaptor = ArgumentCaptor.forClass(Object.class);
-
-        try {
-            // Configura il mock per restituire un JSON che include il contenuto della notifica
-            when(mapper.writeValueAsString(payloadCaptor.capture())).thenReturn("{\"test\":\"value\"}");
-        } catch (JsonProcessingException e) {
-            fail("Mock setup failed", e);
-        }
+        stubCustomersWithMaxExpiredServices(customersMap);
 
         // act
         notificationRule.checkAndQueueNotifications();
 
         // assert
-        verify(kafkaNotificationHandler).handle(notificationCaptor.capture());
-
-        // Verifica che l'oggetto passato a writeValueAsString sia un NotificationDTO
-        Object serializedPayload = payloadCaptor.getValue();
-        assertTrue(serializedPayload instanceof NotificationDTO,
-                "Il payload dovrebbe essere un NotificationDTO");
+        verify(writer).add(notificationCaptor.capture());
 
         // Verifica il contenuto della notifica
-        NotificationDTO notificationDTO = (NotificationDTO) serializedPayload;
+        NotificationDTO notificationDTO = notificationCaptor.getValue();
         assertTrue(notificationDTO.getContent().contains("CUST004"),
                 "Il contenuto della notifica dovrebbe menzionare il cliente CUST004");
         assertTrue(notificationDTO.getContent().contains("2 expired services") ||
@@ -228,7 +208,7 @@ class CustomerWithExpiredServicesNotificationRuleTest {
     }
 
     @Test
-    @DisplayName("Verifica che la regola invii correttamente una notifica di tipo KAFKA")
+    @DisplayName("Verifica che la regola scriva nell'outbox una notifica di tipo KAFKA")
     void testSendsKafkaNotification() {
 
         // arrange
@@ -237,34 +217,16 @@ class CustomerWithExpiredServicesNotificationRuleTest {
                 new ServiceWithExpirationDTO(CloudServiceType.HOSTING, LocalDate.of(2021, 4, 22))
         ));
 
-        CustomerWithExpiredServicesDTO dto = new CustomerWithExpiredServicesDTO(customersMap);
-        when(cloudServiceService.getCustomersWithMaxExpiredServices(5)).thenReturn(dto);
-
-        ArgumentCaptor<Object> payloadCaptor = ArgumentCaptor.forClass(Object.class);
-
-        try {
-            when(mapper.writeValueAsString(payloadCaptor.capture())).thenReturn("{\"test\":\"value\"}");
-        } catch (JsonProcessingException e) {
-            fail("JSON serialization failed", e);
-        }
+        stubCustomersWithMaxExpiredServices(customersMap);
 
         // act
         notificationRule.checkAndQueueNotifications();
 
         // assert
-        verify(kafkaNotificationHandler).handle(notificationCaptor.capture());
-
-        KafkaNotification capturedNotification = notificationCaptor.getValue();
-        assertNotNull(capturedNotification, "La notifica non dovrebbe essere null");
-
-        assertEquals(notificationRule.getNotificationTopic(), capturedNotification.getTopic(),
-                "La notifica dovrebbe essere inviata al topic notifications");
-
-        Object serializedPayload = payloadCaptor.getValue();
-        assertTrue(serializedPayload instanceof NotificationDTO,
-                "Il payload dovrebbe essere un NotificationDTO");
+        verify(writer).add(notificationCaptor.capture());
 
-        NotificationDTO notificationDTO = (NotificationDTO) serializedPayload;
+        NotificationDTO notificationDTO = notificationCaptor.getValue();
+        assertNotNull(notificationDTO, "La notifica non dovrebbe essere null");
         assertEquals(NotificationType.KAFKA, notificationDTO.getType(),
                 "La notifica dovrebbe essere di tipo KAFKA");
 
@@ -274,8 +236,8 @@ class CustomerWithExpiredServicesNotificationRuleTest {
     }
 
     @Test
-    @DisplayName("Verifica che la regola gestisca correttamente gli errori di serializzazione")
-    void testHandlesSerializationErrors() throws Exception {
+    @DisplayName("Verifica che un errore di scrittura nell'outbox interrompa la regola e chiuda il writer")
+    void testPropagatesOutboxWriteErrors() {
 
         // arrange
         Map<String, Set<ServiceWithExpirationDTO>> customersMap = new HashMap<>();
@@ -283,74 +245,21 @@ class CustomerWithExpiredServicesNotificationRuleTest {
                 new ServiceWithExpirationDTO(CloudServiceType.HOSTING, LocalDate.of(2021, 4, 22))
         ));
 
-        CustomerWithExpiredServicesDTO dto = new CustomerWithExpiredServicesDTO(customersMap);
-        when(cloudServiceService.getCustomersWithMaxExpiredServices(5)).thenReturn(dto);
+        stubCustomersWithMaxExpiredServices(customersMap);
 
-        when(mapper.writeValueAsString(any())).thenThrow(new JsonProcessingException("Test serialization error") {});
+        // simula un errore durante la scrittura nell'outbox
+        doThrow(new RuntimeException("Test outbox failure")).when(writer).add(any());
 
-        // act
-        notificationRule.checkAndQueueNotifications();
-
-        // assert
-        verify(kafkaNotificationHandler, never()).handle(any());
+        // act & assert: l'errore viene gestito da NotificationManager, che prosegue con le altre regole
+        assertThrows(RuntimeException.class, () -> notificationRule.checkAndQueueNotifications());
+        verify(writer).close();
     }
 
-    @Test
-    @DisplayName("Verifica che la regola gestisca correttamente gli errori di invio della notifica")
-    void testHandlesNotificationSendingErrors() throws Exception {
-
-        // arrange
-        Map<String, Set<ServiceWithExpirationDTO>> customersMap = new HashMap<>();
-        customersMap.put("CUST004", Set.of(
-                new ServiceWithExpirationDTO(CloudServiceType.HOSTING, LocalDate.of(2021, 4, 22))
-        ));
-
-        CustomerWithExpiredServicesDTO dto = new CustomerWithExpiredServicesDTO(customersMap);
-        when(cloudServiceService.getCustomersWithMaxExpiredServices(5)).thenReturn(dto);
-
-        when(mapper.writeValueAsString(any())).thenReturn("{\"test\":\"value\"}");
-
-        // simula un errore durante l'invio
-        CompletableFuture<SendResult<String, String>> failedFuture = new CompletableFuture<>();
-        failedFuture.completeExceptionally(new RuntimeException("Test send failure"));
-
-        // Crea un mock del KafkaProducer
-        KafkaProducer mockProducer = mock(KafkaProducer.class);
-        when(mockProducer.send(anyString(), anyString(), anyString())).thenReturn(failedFuture);
-
-        // Crea un nuovo KafkaNotificationHandler con il mock del KafkaProducer
-        KafkaNotificationHandler testHandler = new KafkaNotificationHandler(mockProducer);
-
-        // spia sul nuovo handler per verificare che saveForRetry venga chiamato
-        KafkaNotificationHandler spyHandler = spy(testHandler);
-
-        // sostituisce temporaneamente il KafkaNotificationHandler nella regola
-        Field handlerField = ExpiredServicesNotificationRule.class.getDeclaredField("kafkaNotificationHandler");
-        handlerField.setAccessible(true);
-        Object originalHandler = handlerField.get(notificationRule);
-        handlerField.set(notificationRule, spyHandler);
-
-        try {
-
-            // act
-            notificationRule.checkAndQueueNotifications();
-
-            // attende un po' per dare tempo al callback di essere eseguito
-            Thread.sleep(100);
-
-            // assert
-            // verifica che il metodo send sia stato chiamato con i parametri corretti
-            verify(mockProducer).send(
-                    eq(notificationRule.getNotificationTopic()),
-                    eq("CUST004"),
-                    anyString()
-            );
-
-            // verifica che saveForRetry sia stato chiamato con una KafkaNotification
-            verify(spyHandler).saveForRetry(any(KafkaNotification.class), any(Throwable.class));
-        } finally {
-            // Ripristina i componenti originali
-            handlerField.set(notificationRule, originalHandler);
-        }
+    private void stubCustomersWithMaxExpiredServices(Map<String, Set<ServiceWithExpirationDTO>> customersMap) {
+        when(cloudServiceService.forEachCustomerWithMaxExpiredServices(eq(5), any())).thenAnswer(invocation -> {
+            BiConsumer<String, Set<ServiceWithExpirationDTO>> action = invocation.getArgument(1);
+            customersMap.forEach(action);
+            return customersMap.size();
+        });
     }
 }
@@ -0,0 +1,111 @@
+package com.cimparato.csbm.service.notification;
+
+import com.cimparato.csbm.config.properties.KafkaAppProperties;
+import com.cimparato.csbm.dto.notification.NotificationDTO;
+import com.cimparato.csbm.messaging.KafkaBatchPublisher;
+import com.cimparato.csbm.messaging.KafkaProducer;
+import com.cimparato.csbm.service.notification.factory.BaseNotification;
+import com.cimparato.csbm.service.notification.factory.KafkaNotification;
+import com.cimparato.csbm.service.notification.handler.impl.KafkaNotificationHandler;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.support.SendResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class KafkaNotificationHandlerTest {
+
+    @Mock
+    private KafkaProducer kafkaProducer;
+
+    @Mock
+    private SendResult<String, NotificationDTO> sendResult;
+
+    private KafkaNotificationHandler kafkaNotificationHandler;
+
+    @BeforeEach
+    void setUp() {
+        KafkaAppProperties kafkaAppProperties = new KafkaAppProperties();
+        kafkaAppProperties.setProducer(new KafkaAppProperties.ProducerConfig());
+        kafkaAppProperties.getProducer().getBatch().setFlushTimeoutMs(100);
+
+        kafkaNotificationHandler = new KafkaNotificationHandler(kafkaProducer,
+                new KafkaBatchPublisher(kafkaProducer, kafkaAppProperties));
+    }
+
+    @Test
+    @DisplayName("Verifica che il gruppo attenda le conferme e passi a onFailure gli invii falliti o non confermati")
+    void testHandleBatchReportsFailedAndUnconfirmedSends() {
+
+        // arrange
+        KafkaNotification sent = notification("CUST001");
+        KafkaNotification failed = notification("CUST002");
+        KafkaNotification unconfirmed = notification("CUST003");
+
+        when(kafkaProducer.send(eq("alerts"), eq("CUST001"), any()))
+                .thenReturn(CompletableFuture.completedFuture(sendResult));
+        when(kafkaProducer.send(eq("alerts"), eq("CUST002"), any()))
+                .thenReturn(CompletableFuture.failedFuture(new RuntimeException("broker unavailable")));
+        when(kafkaProducer.send(eq("alerts"), eq("CUST003"), any()))
+                .thenReturn(new CompletableFuture<>());
+
+        List<BaseNotification> failures = new ArrayList<>();
+        List<Exception> errors = new ArrayList<>();
+
+        // act
+        kafkaNotificationHandler.handleBatch(List.of(sent, failed, unconfirmed), (message, e) -> {
+            failures.add(message);
+            errors.add(e);
+        });
+
+        // assert
+        assertEquals(List.of(failed, unconfirmed), failures);
+        assertEquals("broker unavailable", errors.get(0).getCause().getMessage());
+        assertEquals("Kafka notification not confirmed in time", errors.get(1).getMessage());
+        verify(kafkaProducer).flush();
+    }
+
+    @Test
+    @DisplayName("Verifica che un errore nella preparazione di un invio non interrompa gli altri invii del gruppo")
+    void testHandleBatchContinuesAfterPreparationError() {
+
+        // arrange
+        KafkaNotification invalid = notification("CUST001");
+        KafkaNotification valid = notification("CUST002");
+
+        when(kafkaProducer.send(anyString(), eq("CUST001"), any())).thenThrow(new IllegalStateException("producer closed"));
+        when(kafkaProducer.send(anyString(), eq("CUST002"), any()))
+                .thenReturn(CompletableFuture.completedFuture(sendResult));
+
+        List<BaseNotification> failures = new ArrayList<>();
+
+        // act
+        kafkaNotificationHandler.handleBatch(List.of(invalid, valid), (message, e) -> failures.add(message));
+
+        // assert
+        assertEquals(List.of(invalid), failures);
+        verify(kafkaProducer, times(2)).send(anyString(), anyString(), any());
+    }
+
+    private static KafkaNotification notification(String customerId) {
+        return KafkaNotification.builder()
+                .customerId(customerId)
+                .topic("alerts")
+                .partitionKey(customerId)
+                .payload(NotificationDTO.builder().customerId(customerId).build())
+                .build();
+    }
+}
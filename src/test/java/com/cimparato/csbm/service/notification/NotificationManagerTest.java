@@ -6,6 +6,7 @@ import com.cimparato.csbm.domain.event.FileProcessingCompletedEvent;
 import com.cimparato.csbm.domain.notification.NotificationType;
 import com.cimparato.csbm.dto.fileupload.FileUploadJobDTO;
 import com.cimparato.csbm.dto.notification.NotificationDTO;
+import com.cimparato.csbm.service.CloudServiceService;
 import com.cimparato.csbm.service.notification.factory.EmailNotification;
 import com.cimparato.csbm.service.notification.factory.KafkaNotification;
 import com.cimparato.csbm.service.notification.factory.NotificationFactory;
@@ -20,8 +21,12 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 
@@ -40,6 +45,9 @@ class NotificationManagerTest {
     @Mock
     private NotificationTaskExecutor notificationExecutor;
 
+    @Mock
+    private CloudServiceService cloudServiceService;
+
     @Mock
     private NotificationHandler emailHandler;
 
@@ -60,7 +68,8 @@ class NotificationManagerTest {
                 notificationHandlerStrategy,
                 notificationFactory,
                 notificationRules,
-                notificationExecutor
+                notificationExecutor,
+                cloudServiceService
         );
     }
 
@@ -100,6 +109,32 @@ class NotificationManagerTest {
         verify(kafkaHandler).handle(kafkaNotification);
     }
 
+    @Test
+    @DisplayName("Verifica che un gruppo di notifiche usi un solo handler e che un errore non interrompa le altre")
+    void testNotifyUsersResolvesHandlerOnceAndReportsFailures() {
+
+        // arrange
+        NotificationDTO first = NotificationDTO.builder().type(NotificationType.EMAIL).customerId("CUST001").build();
+        NotificationDTO second = NotificationDTO.builder().type(NotificationType.EMAIL).customerId("CUST002").build();
+        EmailNotification failingNotification = mock(EmailNotification.class);
+
+        when(notificationHandlerStrategy.getHandler(NotificationType.EMAIL)).thenReturn(emailHandler);
+        when(notificationFactory.createNotification(NotificationType.EMAIL, first)).thenReturn(failingNotification);
+        when(notificationFactory.createNotification(NotificationType.EMAIL, second)).thenReturn(emailNotification);
+        doThrow(new IllegalStateException("Mail server unavailable")).when(emailHandler).handle(failingNotification);
+        doCallRealMethod().when(emailHandler).handleBatch(anyList(), any());
+
+        Map<NotificationDTO, Exception> failures = new HashMap<>();
+
+        // act
+        notificationManager.notifyUsers(NotificationType.EMAIL, List.of(first, second), failures::put);
+
+        // assert
+        verify(notificationHandlerStrategy, times(1)).getHandler(NotificationType.EMAIL);
+        verify(emailHandler).handle(emailNotification);
+        assertEquals(Set.of(first), failures.keySet());
+    }
+
     @Test
     @DisplayName("Verifica che l'evento FileProcessingCompletedEvent attivi l'elaborazione asincrona delle notifiche")
     void testFileProcessingCompletedEventTriggersAsyncNotificationProcessing() {
@@ -131,4 +166,39 @@ class NotificationManagerTest {
         verify(notificationExecutor).executeWithFileHash(any(Runnable.class), eq("abc123"));
         verify(notificationRules).size();
     }
+
+    @Test
+    @DisplayName("Verifica che le regole vengano valutate solo per i clienti interessati dal file elaborato")
+    void testFileProcessingCompletedEventEvaluatesRulesForAffectedCustomers() {
+
+        NotificationRule rule = mock(NotificationRule.class);
+        NotificationManager manager = new NotificationManager(notificationHandlerStrategy, notificationFactory,
+                List.of(rule), notificationExecutor, cloudServiceService);
+
+        doAnswer(invocation -> {
+            Runnable runnable = invocation.getArgument(0);
+            runnable.run();
+            return null;
+        }).when(notificationExecutor).executeWithFileHash(any(Runnable.class), anyString());
+
+        // arrange
+        Set<String> affectedCustomers = Set.of("CUST001", "CUST004");
+        when(cloudServiceService.getCustomerIdsByFileUpload(42L)).thenReturn(affectedCustomers);
+
+        FileUploadJobDTO jobDTO = FileUploadJobDTO.builder()
+                .fileHash("abc123")
+                .filename("test.csv")
+                .jobId("job-123")
+                .jobStatus(JobStatus.COMPLETED)
+                .build();
+
+        FileProcessingCompletedEvent event = new FileProcessingCompletedEvent(jobDTO, 42L);
+
+        // act
+        manager.notificationEventListener(event);
+
+        // assert
+        verify(rule).checkAndQueueNotifications(affectedCustomers);
+        verify(rule, never()).checkAndQueueNotifications();
+    }
 }
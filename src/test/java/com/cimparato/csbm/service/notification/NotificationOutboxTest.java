@@ -0,0 +1,215 @@
+package com.cimparato.csbm.service.notification;
+
+import com.cimparato.csbm.config.properties.AppProperties;
+import com.cimparato.csbm.config.properties.KafkaAppProperties;
+import com.cimparato.csbm.domain.model.Notification;
+import com.cimparato.csbm.domain.notification.NotificationStatus;
+import com.cimparato.csbm.domain.notification.NotificationType;
+import com.cimparato.csbm.dto.notification.NotificationDTO;
+import com.cimparato.csbm.mapper.NotificationMapper;
+import com.cimparato.csbm.messaging.KafkaBatchPublisher;
+import com.cimparato.csbm.messaging.KafkaProducer;
+import com.cimparato.csbm.service.notification.outbox.NotificationOutbox;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.support.SendResult;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class NotificationOutboxTest {
+
+    @Mock
+    private NotificationService notificationService;
+
+    @Mock
+    private NotificationMapper notificationMapper;
+
+    @Mock
+    private KafkaProducer kafkaProducer;
+
+    @Mock
+    private SendResult<String, NotificationDTO> sendResult;
+
+    private NotificationOutbox notificationOutbox;
+
+    @BeforeEach
+    void setUp() {
+        AppProperties appProperties = new AppProperties();
+        appProperties.setNotification(new AppProperties.Notification());
+        AppProperties.Outbox outbox = appProperties.getNotification().getOutbox();
+        outbox.setWriteBatchSize(2);
+        outbox.setRelayBatchSize(3);
+        outbox.setMaxAttempts(2);
+        outbox.setLeaseSeconds(60);
+
+        KafkaAppProperties kafkaAppProperties = new KafkaAppProperties();
+        kafkaAppProperties.getTopic().setNotification("notifications");
+        kafkaAppProperties.setProducer(new KafkaAppProperties.ProducerConfig());
+        kafkaAppProperties.getProducer().getBatch().setFlushTimeoutMs(1000);
+
+        notificationOutbox = new NotificationOutbox(notificationService, notificationMapper,
+                new KafkaBatchPublisher(kafkaProducer, kafkaAppProperties), appProperties, kafkaAppProperties);
+
+        lenient().when(notificationMapper.toDto(any(Notification.class))).thenAnswer(invocation -> {
+            Notification notification = invocation.getArgument(0);
+            return NotificationDTO.builder()
+                    .type(notification.getType())
+                    .customerId(notification.getCustomerId())
+                    .build();
+        });
+    }
+
+    @Test
+    @DisplayName("Verifica che il writer scriva nell'outbox ogni N notifiche e le rimanenti alla chiusura")
+    void testWriterEnqueuesInBatches() {
+
+        // arrange
+        List<List<NotificationDTO>> enqueued = new ArrayList<>();
+        when(notificationService.enqueue(anyCollection())).thenAnswer(invocation -> {
+            Collection<NotificationDTO> notifications = invocation.getArgument(0);
+            enqueued.add(List.copyOf(notifications));
+            return notifications.size();
+        });
+
+        // act
+        NotificationOutbox.Writer writer = notificationOutbox.openWriter("test");
+        for (int i = 0; i < 5; i++) {
+            writer.add(NotificationDTO.builder().customerId("CUST00" + i).build());
+        }
+        writer.close();
+
+        // assert
+        assertEquals(List.of(2, 2, 1), enqueued.stream().map(List::size).toList());
+        assertEquals(5, writer.getWritten());
+    }
+
+    @Test
+    @DisplayName("Verifica che il relay segni come SENT le notifiche confermate e registri il tentativo per le altre")
+    void testRelayBatchMarksSentAndFailedNotifications() {
+
+        // arrange
+        Notification first = pending(1L, "CUST001", 0);
+        Notification second = pending(2L, "CUST002", 0);
+        Notification third = pending(3L, "CUST003", 1);
+        when(notificationService.claimPending(eq(3), any(LocalDateTime.class))).thenReturn(List.of(first, second, third));
+        when(notificationService.completeRelay(anyList(), any(LocalDateTime.class))).thenReturn(3);
+
+        when(kafkaProducer.send(eq("notifications"), anyString(), any()))
+                .thenReturn(CompletableFuture.completedFuture(sendResult))
+                .thenReturn(CompletableFuture.failedFuture(new RuntimeException("broker unavailable")))
+                .thenReturn(CompletableFuture.failedFuture(new RuntimeException("broker unavailable")));
+
+        // act
+        NotificationOutbox.RelayResult result = notificationOutbox.relayBatch();
+
+        // assert
+        assertEquals(1, result.sent());
+        assertEquals(2, result.failed());
+        assertEquals(0, result.unconfirmed());
+        assertEquals(3, result.claimed());
+
+        ArgumentCaptor<LocalDateTime> leaseUntil = ArgumentCaptor.forClass(LocalDateTime.class);
+        verify(notificationService).claimPending(eq(3), leaseUntil.capture());
+        ArgumentCaptor<List<Notification>> completed = ArgumentCaptor.forClass(List.class);
+        verify(notificationService).completeRelay(completed.capture(), eq(leaseUntil.getValue()));
+        assertEquals(List.of(first, second, third), completed.getValue());
+
+        assertEquals(NotificationStatus.SENT, first.getStatus());
+        assertNotNull(first.getSentAt());
+        assertEquals(0, first.getRetryCount());
+        assertNull(first.getNextAttemptAt());
+
+        // il primo fallimento lascia la notifica in attesa di un nuovo tentativo
+        assertEquals(NotificationStatus.PENDING, second.getStatus());
+        assertEquals(1, second.getRetryCount());
+        assertEquals("broker unavailable", second.getErrorMessage());
+        assertNull(second.getNextAttemptAt());
+
+        // raggiunto il numero massimo di tentativi la notifica passa in stato FAILED
+        assertEquals(NotificationStatus.FAILED, third.getStatus());
+        assertEquals(2, third.getRetryCount());
+
+        verify(kafkaProducer).send("notifications", "CUST001", NotificationDTO.builder()
+                .type(NotificationType.EMAIL).customerId("CUST001").build());
+    }
+
+    @Test
+    @DisplayName("Verifica che le notifiche non confermate entro l'attesa non vengano registrate né conteggiate come tentativo")
+    void testRelayBatchLeavesUnconfirmedNotificationsToTheLease() {
+
+        // arrange
+        Notification confirmed = pending(1L, "CUST001", 0);
+        Notification unconfirmed = pending(2L, "CUST002", 0);
+        LocalDateTime leaseUntil = LocalDateTime.now().plusMinutes(1);
+        unconfirmed.setNextAttemptAt(leaseUntil);
+        when(notificationService.claimPending(eq(3), any(LocalDateTime.class))).thenReturn(List.of(confirmed, unconfirmed));
+        when(notificationService.completeRelay(anyList(), any(LocalDateTime.class))).thenReturn(1);
+
+        when(kafkaProducer.send(eq("notifications"), anyString(), any()))
+                .thenReturn(CompletableFuture.completedFuture(sendResult))
+                .thenReturn(new CompletableFuture<>());
+
+        // act
+        NotificationOutbox.RelayResult result = notificationOutbox.relayBatch();
+
+        // assert
+        assertEquals(1, result.sent());
+        assertEquals(0, result.failed());
+        assertEquals(1, result.unconfirmed());
+        assertEquals(2, result.claimed());
+
+        ArgumentCaptor<List<Notification>> completed = ArgumentCaptor.forClass(List.class);
+        verify(notificationService).completeRelay(completed.capture(), any(LocalDateTime.class));
+        assertEquals(List.of(confirmed), completed.getValue());
+
+        // la notifica resta PENDING con il lease, senza tentativi registrati
+        assertEquals(NotificationStatus.PENDING, unconfirmed.getStatus());
+        assertEquals(0, unconfirmed.getRetryCount());
+        assertNull(unconfirmed.getErrorMessage());
+        assertEquals(leaseUntil, unconfirmed.getNextAttemptAt());
+    }
+
+    @Test
+    @DisplayName("Verifica che il relay non pubblichi nulla quando l'outbox è vuoto")
+    void testRelayBatchWithEmptyOutbox() {
+
+        // arrange
+        when(notificationService.claimPending(eq(3), any(LocalDateTime.class))).thenReturn(List.of());
+
+        // act
+        NotificationOutbox.RelayResult result = notificationOutbox.relayBatch();
+
+        // assert
+        assertEquals(0, result.claimed());
+        verifyNoInteractions(kafkaProducer);
+        verify(notificationService, never()).completeRelay(any(), any());
+    }
+
+    private static Notification pending(Long id, String customerId, int retryCount) {
+        Notification notification = new Notification();
+        notification.setId(id);
+        notification.setType(NotificationType.EMAIL);
+        notification.setCustomerId(customerId);
+        notification.setContent("content");
+        notification.setStatus(NotificationStatus.PENDING);
+        notification.setRetryCount(retryCount);
+        return notification;
+    }
+}
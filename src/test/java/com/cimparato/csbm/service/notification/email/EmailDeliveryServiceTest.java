@@ -0,0 +1,257 @@
+package com.cimparato.csbm.service.notification.email;
+
+import com.cimparato.csbm.config.async.EmailDeliveryTaskExecutor;
+import com.cimparato.csbm.config.properties.AppProperties;
+import com.cimparato.csbm.service.notification.factory.EmailNotification;
+import com.cimparato.csbm.web.rest.errors.EmailNotificationException;
+import com.icegreen.greenmail.junit5.GreenMailExtension;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import jakarta.mail.internet.MimeMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.boot.autoconfigure.mail.MailProperties;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class EmailDeliveryServiceTest {
+
+    @RegisterExtension
+    static GreenMailExtension greenMail = new GreenMailExtension(ServerSetupTest.SMTP);
+
+    private AppProperties appProperties;
+
+    private EmailDeliveryTaskExecutor emailDeliveryExecutor;
+
+    private SmtpTransportPool transportPool;
+
+    @BeforeEach
+    void setUp() {
+        appProperties = new AppProperties();
+        appProperties.setNotification(new AppProperties.Notification());
+        AppProperties.EmailDelivery emailDelivery = appProperties.getNotification().getEmailDelivery();
+        emailDelivery.setPoolSize(2);
+        emailDelivery.setBatchSize(3);
+        emailDelivery.setBorrowTimeoutSeconds(5);
+        emailDelivery.setSendTimeoutSeconds(10);
+
+        emailDeliveryExecutor = new EmailDeliveryTaskExecutor(emailDelivery.getPoolSize());
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (transportPool != null) {
+            transportPool.destroy();
+        }
+        emailDeliveryExecutor.shutdown();
+    }
+
+    @Test
+    @DisplayName("Verifica che le email vengano inviate in blocchi, ciascuno su una connessione del pool")
+    void testDeliversEmailsInBatchesOverPooledConnections() throws Exception {
+
+        // arrange
+        transportPool = spy(new SmtpTransportPool(mailProperties(ServerSetupTest.SMTP.getPort()), appProperties));
+        EmailDeliveryService emailDeliveryService = new EmailDeliveryService(transportPool, emailDeliveryExecutor, appProperties);
+
+        List<EmailNotification> emails = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            emails.add(email("marketing" + i + "@domain.com"));
+        }
+
+        // act
+        Map<EmailNotification, Exception> failures = deliver(emailDeliveryService, emails);
+
+        // assert
+        assertTrue(failures.isEmpty());
+        MimeMessage[] received = greenMail.getReceivedMessages();
+        assertEquals(7, received.length);
+        assertEquals("Upselling Opportunity", received[0].getSubject());
+
+        // 7 email in blocchi da 3: una connessione per blocco, poi restituita al pool
+        verify(transportPool, times(3)).borrow();
+        verify(transportPool, times(3)).release(any());
+        verify(transportPool, never()).discard(any());
+    }
+
+    @Test
+    @DisplayName("Verifica che un'email rifiutata non interrompa l'invio delle altre sulla stessa connessione")
+    void testFailedEmailDoesNotStopTheBatch() {
+
+        // arrange
+        transportPool = spy(new SmtpTransportPool(mailProperties(ServerSetupTest.SMTP.getPort()), appProperties));
+        EmailDeliveryService emailDeliveryService = new EmailDeliveryService(transportPool, emailDeliveryExecutor, appProperties);
+
+        EmailNotification withoutRecipient = email("");
+        List<EmailNotification> emails = List.of(email("first@domain.com"), withoutRecipient, email("third@domain.com"));
+
+        // act
+        Map<EmailNotification, Exception> failures = deliver(emailDeliveryService, emails);
+
+        // assert
+        assertEquals(1, failures.size());
+        assertInstanceOf(EmailNotificationException.class, failures.get(withoutRecipient));
+        assertEquals(2, greenMail.getReceivedMessages().length);
+        verify(transportPool, never()).discard(any());
+    }
+
+    @Test
+    @DisplayName("Verifica che le email vengano restituite come non inviate se il server SMTP non è raggiungibile")
+    void testServerUnavailable() {
+
+        // arrange
+        transportPool = new SmtpTransportPool(mailProperties(1), appProperties);
+        EmailDeliveryService emailDeliveryService = new EmailDeliveryService(transportPool, emailDeliveryExecutor, appProperties);
+
+        List<EmailNotification> emails = List.of(email("first@domain.com"), email("second@domain.com"));
+
+        // act
+        Map<EmailNotification, Exception> failures = deliver(emailDeliveryService, emails);
+
+        // assert
+        assertEquals(2, failures.size());
+        failures.values().forEach(e -> assertInstanceOf(EmailNotificationException.class, e));
+        assertEquals(0, greenMail.getReceivedMessages().length);
+    }
+
+    @Test
+    @DisplayName("Verifica che l'invio asincrono si completi con errore se l'email non viene inviata")
+    void testDeliverAsync() {
+
+        // arrange
+        transportPool = new SmtpTransportPool(mailProperties(ServerSetupTest.SMTP.getPort()), appProperties);
+        EmailDeliveryService emailDeliveryService = new EmailDeliveryService(transportPool, emailDeliveryExecutor, appProperties);
+
+        // act & assert
+        assertDoesNotThrow(() -> emailDeliveryService.deliverAsync(email("first@domain.com")).join());
+        assertThrows(Exception.class, () -> emailDeliveryService.deliverAsync(email("")).join());
+        assertEquals(1, greenMail.getReceivedMessages().length);
+    }
+
+    @Test
+    @DisplayName("Verifica che l'invio di una singola email fallisca allo scadere dell'attesa")
+    void testDeliverSingleEmailTimesOut() throws Exception {
+
+        // arrange
+        appProperties.getNotification().getEmailDelivery().setSendTimeoutSeconds(1);
+        transportPool = spy(new SmtpTransportPool(mailProperties(ServerSetupTest.SMTP.getPort()), appProperties));
+        CountDownLatch connectionAvailable = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            connectionAvailable.await(10, TimeUnit.SECONDS);
+            return invocation.callRealMethod();
+        }).when(transportPool).borrow();
+        EmailDeliveryService emailDeliveryService = new EmailDeliveryService(transportPool, emailDeliveryExecutor, appProperties);
+
+        // act & assert
+        try {
+            assertThrows(EmailNotificationException.class, () -> emailDeliveryService.deliver(email("first@domain.com")));
+        } finally {
+            connectionAvailable.countDown();
+        }
+    }
+
+    @Test
+    @DisplayName("Verifica che l'invio di un gruppo attenda l'esito dei blocchi ancora in corso allo scadere dell'attesa")
+    void testBatchDeliveryWaitsForInProgressEmails() throws Exception {
+
+        // arrange
+        appProperties.getNotification().getEmailDelivery().setSendTimeoutSeconds(1);
+        transportPool = spy(new SmtpTransportPool(mailProperties(ServerSetupTest.SMTP.getPort()), appProperties));
+        CountDownLatch connectionAvailable = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            connectionAvailable.await(10, TimeUnit.SECONDS);
+            return invocation.callRealMethod();
+        }).when(transportPool).borrow();
+        EmailDeliveryService emailDeliveryService = new EmailDeliveryService(transportPool, emailDeliveryExecutor, appProperties);
+
+        EmailNotification sent = email("first@domain.com");
+        EmailNotification withoutRecipient = email("");
+        Map<EmailNotification, Exception> failures = Collections.synchronizedMap(new IdentityHashMap<>());
+        releaseAfterSendTimeout(connectionAvailable);
+
+        // act
+        int failed = emailDeliveryService.deliver(List.of(sent, withoutRecipient), failures::put);
+
+        // assert: l'esito di ogni email è noto al ritorno del metodo
+        assertEquals(1, failed);
+        assertEquals(1, failures.size());
+        assertInstanceOf(EmailNotificationException.class, failures.get(withoutRecipient));
+        assertEquals(1, greenMail.getReceivedMessages().length);
+    }
+
+    @Test
+    @DisplayName("Verifica che i gruppi rifiutati dall'executor con la coda piena risultino non inviati")
+    void testRejectedBatchesAreReportedAsFailed() throws Exception {
+
+        // arrange
+        appProperties.getNotification().getEmailDelivery().setSendTimeoutSeconds(1);
+        transportPool = spy(new SmtpTransportPool(mailProperties(ServerSetupTest.SMTP.getPort()), appProperties));
+        CountDownLatch connectionAvailable = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            connectionAvailable.await(10, TimeUnit.SECONDS);
+            return invocation.callRealMethod();
+        }).when(transportPool).borrow();
+        EmailDeliveryService emailDeliveryService = new EmailDeliveryService(transportPool, emailDeliveryExecutor, appProperties);
+
+        // 2 thread e 8 posti in coda: degli 11 gruppi da 3 email l'ultimo viene rifiutato
+        List<EmailNotification> emails = new ArrayList<>();
+        for (int i = 0; i < 33; i++) {
+            emails.add(email("marketing" + i + "@domain.com"));
+        }
+        Map<EmailNotification, Exception> failures = Collections.synchronizedMap(new IdentityHashMap<>());
+        releaseAfterSendTimeout(connectionAvailable);
+
+        // act
+        int failed = emailDeliveryService.deliver(emails, failures::put);
+
+        // assert
+        assertEquals(3, failed);
+        assertEquals(3, failures.size());
+        emails.subList(30, 33).forEach(email -> assertInstanceOf(EmailNotificationException.class, failures.get(email)));
+        assertEquals(30, greenMail.getReceivedMessages().length);
+    }
+
+    private static Map<EmailNotification, Exception> deliver(EmailDeliveryService emailDeliveryService,
+                                                             List<EmailNotification> emails) {
+        Map<EmailNotification, Exception> failures = Collections.synchronizedMap(new IdentityHashMap<>());
+        int failed = emailDeliveryService.deliver(emails, failures::put);
+        assertEquals(failures.size(), failed);
+        return failures;
+    }
+
+    // rende disponibili le connessioni dopo lo scadere dell'attesa di 1 secondo
+    private static void releaseAfterSendTimeout(CountDownLatch connectionAvailable) {
+        CompletableFuture.runAsync(connectionAvailable::countDown,
+                CompletableFuture.delayedExecutor(2, TimeUnit.SECONDS));
+    }
+
+    private static MailProperties mailProperties(int port) {
+        MailProperties mailProperties = new MailProperties();
+        mailProperties.setHost("localhost");
+        mailProperties.setPort(port);
+        mailProperties.getProperties().put("mail.smtp.connectiontimeout", "1000");
+        mailProperties.getProperties().put("mail.smtp.timeout", "5000");
+        return mailProperties;
+    }
+
+    private static EmailNotification email(String recipient) {
+        return EmailNotification.builder()
+                .sender("noreply@domain.com")
+                .recipient(recipient)
+                .subject("Upselling Opportunity")
+                .content("Customer active since 2020")
+                .build();
+    }
+}
@@ -3,10 +3,12 @@ package com.cimparato.csbm.service.report;
 import com.cimparato.csbm.domain.enumeration.CloudServiceType;
 import com.cimparato.csbm.dto.report.SummaryReportDTO;
 import com.cimparato.csbm.service.report.impl.JasperReportGenerator;
+import com.cimparato.csbm.service.report.impl.JasperTemplateRegistry;
 import com.cimparato.csbm.web.rest.errors.ReportGenerationException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import net.sf.jasperreports.engine.JREmptyDataSource;
 import net.sf.jasperreports.engine.JasperCompileManager;
+import net.sf.jasperreports.engine.JasperExportManager;
 import net.sf.jasperreports.engine.JasperFillManager;
 import net.sf.jasperreports.engine.JasperReport;
 import org.junit.jupiter.api.BeforeEach;
@@ -25,6 +27,7 @@ import java.math.BigDecimal;
 import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.anyString;
@@ -46,7 +49,7 @@ class JasperReportGeneratorTest {
 
     @BeforeEach
     void setUp() {
-        reportGenerator = new JasperReportGenerator(resourceLoader, objectMapper);
+        reportGenerator = new JasperReportGenerator(new JasperTemplateRegistry(resourceLoader), objectMapper);
     }
 
     @Test
@@ -106,6 +109,47 @@ class JasperReportGeneratorTest {
         }
     }
 
+    @Test
+    @DisplayName("Verifica che il template venga compilato una sola volta e che il file del template venga chiuso")
+    void testCompilesTemplateOnce() throws Exception {
+
+        // arrange
+        SummaryReportDTO summaryReport = createTestSummaryReport();
+
+        AtomicBoolean closed = new AtomicBoolean();
+        InputStream template = new ByteArrayInputStream("<jasperReport></jasperReport>".getBytes()) {
+            @Override
+            public void close() {
+                closed.set(true);
+            }
+        };
+        when(resourceLoader.getResource("classpath:reports/summary_report.jrxml")).thenReturn(resource);
+        when(resource.getInputStream()).thenReturn(template);
+
+        JasperReport mockReport = mock(JasperReport.class);
+
+        try (MockedStatic<JasperCompileManager> jasperCompileManager = mockStatic(JasperCompileManager.class);
+             MockedStatic<JasperFillManager> jasperFillManager = mockStatic(JasperFillManager.class);
+             MockedStatic<JasperExportManager> jasperExportManager = mockStatic(JasperExportManager.class)) {
+
+            jasperCompileManager.when(() -> JasperCompileManager.compileReport(any(InputStream.class)))
+                    .thenReturn(mockReport);
+            jasperFillManager.when(() -> JasperFillManager.fillReport(eq(mockReport), any(Map.class), any(JREmptyDataSource.class)))
+                    .thenReturn(null);
+            jasperExportManager.when(() -> JasperExportManager.exportReportToPdf(any()))
+                    .thenReturn("PDF content".getBytes());
+
+            // act
+            reportGenerator.generatePdf(summaryReport);
+            reportGenerator.generatePdf(summaryReport);
+
+            // assert
+            jasperCompileManager.verify(() -> JasperCompileManager.compileReport(any(InputStream.class)), times(1));
+            jasperFillManager.verify(() -> JasperFillManager.fillReport(eq(mockReport), any(Map.class), any(JREmptyDataSource.class)), times(2));
+            assertTrue(closed.get());
+        }
+    }
+
     private SummaryReportDTO createTestSummaryReport() {
         SummaryReportDTO report = new SummaryReportDTO();
 
@@ -0,0 +1,261 @@
+package com.cimparato.csbm.service.report;
+
+import com.cimparato.csbm.config.properties.AppProperties;
+import com.cimparato.csbm.domain.enumeration.JobStatus;
+import com.cimparato.csbm.domain.event.FileProcessingCompletedEvent;
+import com.cimparato.csbm.dto.fileupload.FileUploadJobDTO;
+import com.cimparato.csbm.dto.report.SummaryReportDTO;
+import com.cimparato.csbm.web.rest.errors.ReportGenerationException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReportCacheTest {
+
+    @TempDir
+    Path pdfDir;
+
+    private AppProperties appProperties;
+
+    private ReportCache reportCache;
+
+    @BeforeEach
+    void setUp() {
+        appProperties = new AppProperties();
+        appProperties.getReport().getCache().setPdfDir(pdfDir.toString());
+        reportCache = new ReportCache(new ObjectMapper(), appProperties);
+    }
+
+    @Test
+    @DisplayName("Verifica che il report venga rigenerato solo dopo il completamento dell'elaborazione di un file")
+    void testReportIsRegeneratedOnlyAfterFileProcessingCompleted() {
+
+        // arrange
+        AtomicInteger generations = new AtomicInteger();
+
+        // act
+        ReportSnapshot first = reportCache.getSummary(() -> report(generations.incrementAndGet()));
+        ReportSnapshot cached = reportCache.getSummary(() -> report(generations.incrementAndGet()));
+
+        reportCache.onFileProcessingCompleted(new FileProcessingCompletedEvent(FileUploadJobDTO.builder()
+                .fileHash("hash")
+                .filename("services.csv")
+                .jobId("job-1")
+                .jobStatus(JobStatus.COMPLETED)
+                .build()));
+        ReportSnapshot regenerated = reportCache.getSummary(() -> report(generations.incrementAndGet()));
+
+        // assert
+        assertSame(first, cached);
+        assertEquals(2, generations.get());
+        assertNotSame(first, regenerated);
+        assertNotEquals(first.getEtag(), regenerated.getEtag());
+    }
+
+    @Test
+    @DisplayName("Verifica che l'ETag dipenda solo dal contenuto del report")
+    void testEtagDependsOnContent() {
+
+        // arrange
+        appProperties.getReport().getCache().setMaxAgeSeconds(0);
+        reportCache = new ReportCache(new ObjectMapper(), appProperties);
+
+        // act: con la cache disabilitata ogni richiesta rigenera il report
+        ReportSnapshot first = reportCache.getSummary(() -> report(1));
+        ReportSnapshot second = reportCache.getSummary(() -> report(1));
+
+        // assert
+        assertNotSame(first, second);
+        assertEquals(first.getEtag(), second.getEtag());
+        assertTrue(first.getEtag().startsWith("\"") && first.getEtag().endsWith("\""));
+        assertNotEquals(first.getEtag(), first.getPdfEtag());
+    }
+
+    @Test
+    @DisplayName("Verifica che richieste contemporanee attendano un'unica generazione del report e del PDF")
+    void testConcurrentRequestsAreCoalesced() throws Exception {
+
+        // arrange
+        int requests = 8;
+        AtomicInteger generations = new AtomicInteger();
+        AtomicInteger pdfGenerations = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(requests);
+
+        try {
+            // act
+            List<Future<byte[]>> responses = new ArrayList<>();
+            for (int i = 0; i < requests; i++) {
+                responses.add(executor.submit(() -> {
+                    ReportSnapshot snapshot = reportCache.getSummary(() -> {
+                        generations.incrementAndGet();
+                        started.countDown();
+                        await(release);
+                        return report(1);
+                    });
+                    return readPdf(snapshot, (report, out) -> {
+                        pdfGenerations.incrementAndGet();
+                        write(out, new byte[]{1, 2, 3});
+                    });
+                }));
+            }
+
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            release.countDown();
+
+            // assert
+            for (Future<byte[]> response : responses) {
+                assertArrayEquals(new byte[]{1, 2, 3}, response.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, generations.get());
+            assertEquals(1, pdfGenerations.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("Verifica che una generazione fallita venga ritentata alla richiesta successiva")
+    void testFailedGenerationIsRetried() {
+
+        // act & assert
+        assertThrows(ReportGenerationException.class, () -> reportCache.getSummary(() -> {
+            throw new ReportGenerationException("Database unavailable");
+        }));
+
+        ReportSnapshot snapshot = reportCache.getSummary(() -> report(1));
+        assertEquals(1L, snapshot.getReport().getActiveServicesByType().get("PEC"));
+
+        assertThrows(ReportGenerationException.class, () -> snapshot.openPdf((report, out) -> {
+            throw new ReportGenerationException("Template not found");
+        }));
+        assertArrayEquals(new byte[]{1}, readPdf(snapshot, (report, out) -> write(out, new byte[]{1})));
+    }
+
+    @Test
+    @DisplayName("Verifica che un report con troppi clienti non venga conservato in cache")
+    void testLargeReportIsNotCached() {
+
+        // arrange
+        appProperties.getReport().getCache().setMaxCachedCustomers(1);
+        reportCache = new ReportCache(new ObjectMapper(), appProperties);
+        SummaryReportDTO large = report(1);
+        large.setAverageSpendingPerCustomer(Map.of(
+                "CUST001", new BigDecimal("29.99"),
+                "CUST002", new BigDecimal("9.99")));
+        AtomicInteger generations = new AtomicInteger();
+
+        // act
+        ReportSnapshot first = reportCache.getSummary(() -> {
+            generations.incrementAndGet();
+            return large;
+        });
+        ReportSnapshot second = reportCache.getSummary(() -> {
+            generations.incrementAndGet();
+            return large;
+        });
+
+        // assert: il report viene rigenerato, con lo stesso ETag
+        assertEquals(2, generations.get());
+        assertNotSame(first, second);
+        assertEquals(first.getEtag(), second.getEtag());
+    }
+
+    @Test
+    @DisplayName("Verifica che il PDF venga conservato su disco e che i PDF delle versioni precedenti vengano eliminati")
+    void testPdfIsStoredOnDisk() throws Exception {
+
+        // arrange
+        AtomicInteger pdfGenerations = new AtomicInteger();
+        ReportSnapshot first = reportCache.getSummary(() -> report(1));
+
+        // act
+        byte[] pdf = readPdf(first, (report, out) -> {
+            pdfGenerations.incrementAndGet();
+            write(out, new byte[]{1, 2, 3});
+        });
+        List<Path> firstFiles = listFiles();
+        byte[] stored = Files.readAllBytes(firstFiles.get(0));
+
+        reportCache.invalidate();
+        ReportSnapshot second = reportCache.getSummary(() -> report(2));
+        readPdf(second, (report, out) -> write(out, new byte[]{4, 5, 6}));
+
+        // assert
+        assertArrayEquals(new byte[]{1, 2, 3}, pdf);
+        assertEquals(1, firstFiles.size());
+        assertArrayEquals(new byte[]{1, 2, 3}, stored);
+        List<Path> secondFiles = listFiles();
+        assertEquals(1, secondFiles.size());
+        assertNotEquals(firstFiles.get(0), secondFiles.get(0));
+
+        // il PDF eliminato dalla versione successiva viene riscritto alla richiesta
+        assertArrayEquals(new byte[]{7}, readPdf(first, (report, out) -> {
+            pdfGenerations.incrementAndGet();
+            write(out, new byte[]{7});
+        }));
+        assertEquals(2, pdfGenerations.get());
+    }
+
+    private List<Path> listFiles() throws IOException {
+        try (Stream<Path> files = Files.list(pdfDir)) {
+            return files.toList();
+        }
+    }
+
+    private static byte[] readPdf(ReportSnapshot snapshot, BiConsumer<SummaryReportDTO, OutputStream> pdfWriter) {
+        try (InputStream in = snapshot.openPdf(pdfWriter)) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void write(OutputStream out, byte[] bytes) {
+        try {
+            out.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static SummaryReportDTO report(long activePec) {
+        return new SummaryReportDTO(
+                Map.of("PEC", activePec),
+                Map.of("CUST001", new BigDecimal("29.99")),
+                List.of("CUST004"),
+                List.of());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
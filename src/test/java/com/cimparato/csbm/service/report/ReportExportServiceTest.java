@@ -0,0 +1,86 @@
+package com.cimparato.csbm.service.report;
+
+import com.cimparato.csbm.repository.projection.CustomerAverageSpend;
+import com.cimparato.csbm.service.CloudServiceService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ReportExportServiceTest {
+
+    @Mock
+    private ReportService reportService;
+
+    @Mock
+    private CloudServiceService cloudServiceService;
+
+    @Mock
+    private PdfGenerator pdfGenerator;
+
+    private ReportExportService reportExportService;
+
+    @BeforeEach
+    void setUp() {
+        reportExportService = new ReportExportService(reportService, cloudServiceService, pdfGenerator, new ObjectMapper());
+
+        doAnswer(invocation -> {
+            Consumer<Stream<CustomerAverageSpend>> reader = invocation.getArgument(0);
+            reader.accept(Stream.of(
+                    new CustomerAverageSpend("CUST001", new BigDecimal("75.25")),
+                    new CustomerAverageSpend("CUST,\"002\"", new BigDecimal("29.99"))));
+            return null;
+        }).when(cloudServiceService).readAverageSpendPerCustomer(any());
+    }
+
+    @Test
+    @DisplayName("Verifica che l'esportazione CSV scriva una riga per cliente con i campi quotati quando necessario")
+    void testWritesCsv() {
+
+        // arrange
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // act
+        long exported = reportExportService.writeAverageSpend(ReportExportFormat.CSV, out);
+
+        // assert
+        assertEquals(2, exported);
+        assertEquals("""
+                customer_id,average_amount
+                CUST001,75.25
+                "CUST,""002""\",29.99
+                """, out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    @DisplayName("Verifica che l'esportazione NDJSON scriva un oggetto JSON per cliente")
+    void testWritesNdjson() {
+
+        // arrange
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // act
+        long exported = reportExportService.writeAverageSpend(ReportExportFormat.NDJSON, out);
+
+        // assert
+        assertEquals(2, exported);
+        assertEquals("""
+                {"customerId":"CUST001","averageAmount":75.25}
+                {"customerId":"CUST,\\"002\\"","averageAmount":29.99}
+                """, out.toString(StandardCharsets.UTF_8));
+    }
+}
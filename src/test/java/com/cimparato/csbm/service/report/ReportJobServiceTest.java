@@ -0,0 +1,330 @@
+package com.cimparato.csbm.service.report;
+
+import com.cimparato.csbm.config.async.ReportGenerationTaskExecutor;
+import com.cimparato.csbm.config.properties.AppProperties;
+import com.cimparato.csbm.domain.enumeration.JobStatus;
+import com.cimparato.csbm.domain.enumeration.ReportJobType;
+import com.cimparato.csbm.domain.model.ReportJob;
+import com.cimparato.csbm.dto.report.ReportJobDTO;
+import com.cimparato.csbm.repository.ReportJobRepository;
+import com.cimparato.csbm.web.rest.errors.ReportJobNotReadyException;
+import com.cimparato.csbm.web.rest.errors.ResourceNotFoundException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ReportJobServiceTest {
+
+    @TempDir
+    Path artifactDir;
+
+    @Mock
+    private ReportJobRepository reportJobRepository;
+
+    @Mock
+    private ReportExportService reportExportService;
+
+    @Mock
+    private ReportGenerationTaskExecutor reportGenerationExecutor;
+
+    private final Map<String, ReportJob> jobs = new HashMap<>();
+
+    private ReportJobService reportJobService;
+
+    @BeforeEach
+    void setUp() {
+        AppProperties appProperties = new AppProperties();
+        appProperties.getReport().getJobs().setArtifactDir(artifactDir.toString());
+        appProperties.getReport().getJobs().setArtifactTtlHours(24);
+        appProperties.getReport().getJobs().setTimeoutMinutes(30);
+
+        reportJobService = new ReportJobService(reportJobRepository, reportExportService, reportGenerationExecutor,
+                appProperties);
+
+        // repository in memoria
+        lenient().when(reportJobRepository.save(any(ReportJob.class))).thenAnswer(invocation -> {
+            ReportJob job = invocation.getArgument(0);
+            jobs.put(job.getJobId(), job);
+            return job;
+        });
+        lenient().when(reportJobRepository.findById(anyString()))
+                .thenAnswer(invocation -> Optional.ofNullable(jobs.get(invocation.<String>getArgument(0))));
+        // gli aggiornamenti condizionati modificano il job solo se è nello stato atteso
+        lenient().when(reportJobRepository.markProcessing(anyString(), any(), any(), any())).thenAnswer(invocation -> {
+            ReportJob job = jobs.get(invocation.<String>getArgument(0));
+            if (job == null || job.getStatus() != invocation.getArgument(2)) {
+                return 0;
+            }
+            job.setStatus(invocation.getArgument(3));
+            job.setStartTime(invocation.getArgument(1));
+            return 1;
+        });
+        lenient().when(reportJobRepository.markCompleted(anyString(), any(), anyString(), anyLong(), any(), any(), any()))
+                .thenAnswer(invocation -> {
+                    ReportJob job = jobs.get(invocation.<String>getArgument(0));
+                    if (job == null || job.getStatus() != invocation.getArgument(5)) {
+                        return 0;
+                    }
+                    job.setStatus(invocation.getArgument(6));
+                    job.setEndTime(invocation.getArgument(1));
+                    job.setFilePath(invocation.getArgument(2));
+                    job.setFileSize(invocation.getArgument(3));
+                    job.setExpiresAt(invocation.getArgument(4));
+                    return 1;
+                });
+        lenient().when(reportJobRepository.markFailed(anyString(), any(), any(), anyString(), any(), any()))
+                .thenAnswer(invocation -> {
+                    ReportJob job = jobs.get(invocation.<String>getArgument(0));
+                    if (job == null || job.getStatus() != invocation.getArgument(1)) {
+                        return 0;
+                    }
+                    setFailed(job, invocation.getArgument(5), invocation.getArgument(2), invocation.getArgument(3),
+                            invocation.getArgument(4));
+                    return 1;
+                });
+        lenient().when(reportJobRepository.markStale(anyString(), any(), any(), any(), anyString(), any(), any()))
+                .thenAnswer(invocation -> {
+                    ReportJob job = jobs.get(invocation.<String>getArgument(0));
+                    if (job == null || job.getStatus() != invocation.getArgument(1)
+                            || !job.getStartTime().isBefore(invocation.getArgument(2))) {
+                        return 0;
+                    }
+                    setFailed(job, invocation.getArgument(6), invocation.getArgument(3), invocation.getArgument(4),
+                            invocation.getArgument(5));
+                    return 1;
+                });
+
+        // i job vengono eseguiti nel thread del test
+        lenient().doAnswer(invocation -> {
+            invocation.<Runnable>getArgument(0).run();
+            return null;
+        }).when(reportGenerationExecutor).execute(any(Runnable.class));
+    }
+
+    @Test
+    @DisplayName("Verifica che il report richiesto venga generato su file e sia scaricabile a job completato")
+    void testSubmitGeneratesDownloadableArtifact() throws IOException {
+
+        // arrange
+        doAnswer(invocation -> {
+            invocation.<OutputStream>getArgument(1).write("customer_id,average_amount\n".getBytes(StandardCharsets.UTF_8));
+            return 0L;
+        }).when(reportExportService).writeAverageSpend(eq(ReportExportFormat.CSV), any());
+
+        // act
+        ReportJobDTO submitted = reportJobService.submit(ReportJobType.AVERAGE_SPEND_CSV, "analyst");
+        ReportJobDTO job = reportJobService.getJob(submitted.getJobId(), "analyst");
+        ReportArtifact artifact = reportJobService.getArtifact(submitted.getJobId(), "analyst");
+
+        // assert
+        assertEquals(JobStatus.COMPLETED, job.getStatus());
+        assertNotNull(job.getEndTime());
+        assertEquals(27L, job.getFileSize());
+        assertEquals("text/csv", artifact.contentType());
+        assertEquals("report-" + submitted.getJobId() + ".csv", artifact.filename());
+        assertEquals("customer_id,average_amount\n", Files.readString(artifact.path()));
+        // il file parziale viene rinominato al termine della generazione
+        try (var files = Files.list(artifactDir)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    @DisplayName("Verifica che un errore di generazione registri il job come fallito ed elimini il file parziale")
+    void testGenerationFailure() throws IOException {
+
+        // arrange
+        doThrow(new RuntimeException("database unavailable"))
+                .when(reportExportService).writeSummaryReportPdf(any());
+
+        // act
+        ReportJobDTO submitted = reportJobService.submit(ReportJobType.SUMMARY_PDF, "analyst");
+        ReportJobDTO job = reportJobService.getJob(submitted.getJobId(), "analyst");
+
+        // assert
+        assertEquals(JobStatus.FAILED, job.getStatus());
+        assertEquals("Report generation failed: database unavailable", job.getErrorMessage());
+        ReportJobNotReadyException exception = assertThrows(ReportJobNotReadyException.class,
+                () -> reportJobService.getArtifact(submitted.getJobId(), "analyst"));
+        assertEquals(JobStatus.FAILED, exception.getStatus());
+        try (var files = Files.list(artifactDir)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    @DisplayName("Verifica che un job rifiutato dall'executor saturo venga registrato come fallito")
+    void testSubmitRejectedWhenExecutorSaturated() {
+
+        // arrange
+        doThrow(new RejectedExecutionException("saturated")).when(reportGenerationExecutor).execute(any(Runnable.class));
+
+        // act
+        ReportJobDTO job = reportJobService.submit(ReportJobType.SUMMARY_PDF, "analyst");
+
+        // assert
+        assertEquals(JobStatus.FAILED, job.getStatus());
+        assertEquals("System overloaded. Please try again later.", job.getErrorMessage());
+        verifyNoInteractions(reportExportService);
+    }
+
+    @Test
+    @DisplayName("Verifica che un job non sia visibile agli altri utenti")
+    void testJobNotVisibleToOtherUsers() {
+
+        // arrange
+        ReportJobDTO submitted = reportJobService.submit(ReportJobType.AVERAGE_SPEND_NDJSON, "analyst");
+
+        // act & assert
+        assertThrows(ResourceNotFoundException.class, () -> reportJobService.getJob(submitted.getJobId(), "other"));
+        assertThrows(ResourceNotFoundException.class, () -> reportJobService.getArtifact(submitted.getJobId(), "other"));
+    }
+
+    @Test
+    @DisplayName("Verifica che i job scaduti vengano eliminati insieme al report generato")
+    void testDeleteExpiredJobs() throws IOException {
+
+        // arrange
+        Path artifact = Files.writeString(artifactDir.resolve("job-1.pdf"), "%PDF");
+        ReportJob expired = ReportJob.builder()
+                .jobId("job-1")
+                .reportType(ReportJobType.SUMMARY_PDF)
+                .status(JobStatus.COMPLETED)
+                .createdBy("analyst")
+                .filePath(artifact.toString())
+                .expiresAt(LocalDateTime.now().minusMinutes(1))
+                .build();
+        when(reportJobRepository.findByExpiresAtBefore(any())).thenReturn(List.of(expired));
+
+        // act
+        int deleted = reportJobService.deleteExpiredJobs();
+
+        // assert
+        assertEquals(1, deleted);
+        assertFalse(Files.exists(artifact));
+        verify(reportJobRepository).delete(expired);
+    }
+
+    @Test
+    @DisplayName("Verifica che i job non completati entro il timeout vengano registrati come falliti")
+    void testFailStaleJobs() throws IOException {
+
+        // arrange
+        Path partial = Files.writeString(artifactDir.resolve("job-2.csv.part"), "customer_id");
+        ReportJob stale = staleJob("job-2", JobStatus.PROCESSING);
+        jobs.put(stale.getJobId(), stale);
+        when(reportJobRepository.findByStatusInAndStartTimeBefore(any(), any())).thenReturn(List.of(copy(stale)));
+
+        // act
+        int failed = reportJobService.failStaleJobs();
+
+        // assert
+        assertEquals(1, failed);
+        assertEquals(JobStatus.FAILED, jobs.get("job-2").getStatus());
+        assertEquals("Report generation not completed within 30 minutes", jobs.get("job-2").getErrorMessage());
+        assertFalse(Files.exists(partial));
+    }
+
+    @Test
+    @DisplayName("Verifica che un job avviato dopo la lettura dei job bloccati non venga registrato come fallito")
+    void testFailStaleJobsSkipsJobStartedMeanwhile() throws IOException {
+
+        // arrange: il job era PENDING da due ore e la generazione è iniziata dopo la lettura
+        ReportJob stale = staleJob("job-3", JobStatus.PENDING);
+        jobs.put(stale.getJobId(), stale);
+        when(reportJobRepository.findByStatusInAndStartTimeBefore(any(), any())).thenReturn(List.of(copy(stale)));
+        stale.setStatus(JobStatus.PROCESSING);
+        stale.setStartTime(LocalDateTime.now());
+        Path partial = Files.writeString(artifactDir.resolve("job-3.csv.part"), "customer_id");
+
+        // act
+        int failed = reportJobService.failStaleJobs();
+
+        // assert
+        assertEquals(0, failed);
+        assertEquals(JobStatus.PROCESSING, jobs.get("job-3").getStatus());
+        assertTrue(Files.exists(partial));
+    }
+
+    @Test
+    @DisplayName("Verifica che la generazione non sovrascriva un job registrato come fallito durante l'elaborazione")
+    void testGenerationDoesNotOverwriteFailedJob() throws IOException {
+
+        // arrange: la pulizia registra il job come fallito mentre il report viene scritto
+        doAnswer(invocation -> {
+            ReportJob job = jobs.values().iterator().next();
+            setFailed(job, JobStatus.FAILED, LocalDateTime.now(), "Report generation not completed within 30 minutes",
+                    LocalDateTime.now().plusHours(24));
+            invocation.<OutputStream>getArgument(1).write("customer_id,average_amount\n".getBytes(StandardCharsets.UTF_8));
+            return 0L;
+        }).when(reportExportService).writeAverageSpend(eq(ReportExportFormat.CSV), any());
+
+        // act
+        ReportJobDTO submitted = reportJobService.submit(ReportJobType.AVERAGE_SPEND_CSV, "analyst");
+        ReportJobDTO job = reportJobService.getJob(submitted.getJobId(), "analyst");
+
+        // assert
+        assertEquals(JobStatus.FAILED, job.getStatus());
+        assertEquals("Report generation not completed within 30 minutes", job.getErrorMessage());
+        assertNull(job.getFileSize());
+        // il report generato viene eliminato perché non sarà mai scaricato
+        try (var files = Files.list(artifactDir)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    private static ReportJob staleJob(String jobId, JobStatus status) {
+        return ReportJob.builder()
+                .jobId(jobId)
+                .reportType(ReportJobType.AVERAGE_SPEND_CSV)
+                .status(status)
+                .createdBy("analyst")
+                .startTime(LocalDateTime.now().minusHours(2))
+                .expiresAt(LocalDateTime.now().plusHours(22))
+                .build();
+    }
+
+    // la lettura dei job bloccati restituisce entità distinte da quelle salvate
+    private static ReportJob copy(ReportJob job) {
+        return ReportJob.builder()
+                .jobId(job.getJobId())
+                .reportType(job.getReportType())
+                .status(job.getStatus())
+                .createdBy(job.getCreatedBy())
+                .startTime(job.getStartTime())
+                .expiresAt(job.getExpiresAt())
+                .build();
+    }
+
+    private static void setFailed(ReportJob job, JobStatus status, LocalDateTime endTime, String errorMessage,
+                                  LocalDateTime expiresAt) {
+        job.setStatus(status);
+        job.setEndTime(endTime);
+        job.setErrorMessage(errorMessage);
+        job.setExpiresAt(expiresAt);
+    }
+}
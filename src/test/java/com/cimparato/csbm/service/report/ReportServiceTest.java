@@ -32,11 +32,14 @@ class ReportServiceTest {
     @Mock
     private PdfGenerator pdfGenerator;
 
+    @Mock
+    private ReportCache reportCache;
+
     private ReportService reportService;
 
     @BeforeEach
     void setUp() {
-        reportService = new ReportService(cloudServiceRepository, cloudServiceService, pdfGenerator);
+        reportService = new ReportService(cloudServiceRepository, cloudServiceService, pdfGenerator, reportCache);
     }
 
     @Test
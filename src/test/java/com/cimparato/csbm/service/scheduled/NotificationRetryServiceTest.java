@@ -0,0 +1,201 @@
+package com.cimparato.csbm.service.scheduled;
+
+import com.cimparato.csbm.config.async.NotificationRetryTaskExecutor;
+import com.cimparato.csbm.config.properties.AppProperties;
+import com.cimparato.csbm.config.properties.KafkaAppProperties;
+import com.cimparato.csbm.domain.model.Notification;
+import com.cimparato.csbm.domain.notification.NotificationStatus;
+import com.cimparato.csbm.domain.notification.NotificationType;
+import com.cimparato.csbm.dto.notification.NotificationDTO;
+import com.cimparato.csbm.mapper.NotificationMapper;
+import com.cimparato.csbm.service.notification.NotificationManager;
+import com.cimparato.csbm.service.notification.NotificationService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class NotificationRetryServiceTest {
+
+    @Mock
+    private NotificationService notificationService;
+
+    @Mock
+    private NotificationManager notificationManager;
+
+    @Mock
+    private NotificationMapper notificationMapper;
+
+    @Mock
+    private NotificationRetryTaskExecutor notificationRetryExecutor;
+
+    private NotificationRetryService notificationRetryService;
+
+    @BeforeEach
+    void setUp() {
+        AppProperties appProperties = new AppProperties();
+        appProperties.setNotification(new AppProperties.Notification());
+        AppProperties.NotificationRetry retry = appProperties.getNotification().getRetry();
+        retry.setBatchSize(10);
+        retry.setSendTimeoutSeconds(1);
+        retry.setParallelism(Map.of(NotificationType.EMAIL, 1, NotificationType.KAFKA, 4));
+
+        KafkaAppProperties.BackoffConfig backoff = new KafkaAppProperties.BackoffConfig();
+        backoff.setDelay(1000);
+        backoff.setMultiplier(2);
+        KafkaAppProperties.RetryConfig consumerRetry = new KafkaAppProperties.RetryConfig();
+        consumerRetry.setAttempts(3);
+        consumerRetry.setBackoff(backoff);
+        KafkaAppProperties kafkaAppProperties = new KafkaAppProperties();
+        kafkaAppProperties.setConsumer(new KafkaAppProperties.ConsumerConfig());
+        kafkaAppProperties.getConsumer().setRetry(consumerRetry);
+
+        notificationRetryService = new NotificationRetryService(notificationService, notificationManager,
+                notificationMapper, notificationRetryExecutor, appProperties, kafkaAppProperties);
+
+        lenient().when(notificationMapper.toDto(any(Notification.class))).thenAnswer(invocation -> {
+            Notification notification = invocation.getArgument(0);
+            return NotificationDTO.builder()
+                    .type(notification.getType())
+                    .customerId(notification.getCustomerId())
+                    .build();
+        });
+    }
+
+    @Test
+    @DisplayName("Verifica che gli esiti dei nuovi tentativi vengano registrati con un'unica scrittura")
+    void testRetriesClaimedNotificationsAndSavesOutcomesOnce() {
+
+        // arrange
+        Notification email = claimed(1L, NotificationType.EMAIL, "CUST001", 1);
+        Notification kafka = claimed(2L, NotificationType.KAFKA, "CUST002", 2);
+        when(notificationService.claimFailed(eq(10), eq(3), any(LocalDateTime.class))).thenReturn(List.of(email, kafka));
+        when(notificationManager.notifyUserAsync(any(NotificationDTO.class), eq(notificationRetryExecutor)))
+                .thenAnswer(invocation -> "CUST001".equals(invocation.<NotificationDTO>getArgument(0).getCustomerId())
+                        ? CompletableFuture.completedFuture(null)
+                        : CompletableFuture.failedFuture(new RuntimeException("broker unavailable")));
+        when(notificationService.completeRetries(any(), any(LocalDateTime.class))).thenReturn(2);
+
+        // act
+        LocalDateTime before = LocalDateTime.now();
+        notificationRetryService.retryNotificationsJob();
+
+        // assert
+        ArgumentCaptor<LocalDateTime> leaseCaptor = ArgumentCaptor.forClass(LocalDateTime.class);
+        verify(notificationService).claimFailed(eq(10), eq(3), leaseCaptor.capture());
+        verify(notificationService).completeRetries(eq(List.of(email, kafka)), eq(leaseCaptor.getValue()));
+
+        assertEquals(NotificationStatus.SENT, email.getStatus());
+        assertNotNull(email.getSentAt());
+        assertNull(email.getNextAttemptAt());
+
+        // secondo tentativo fallito: il prossimo viene programmato dopo delay * multiplier
+        assertEquals(NotificationStatus.FAILED, kafka.getStatus());
+        assertEquals("broker unavailable", kafka.getErrorMessage());
+        assertFalse(kafka.getNextAttemptAt().isBefore(before.plusSeconds(2)));
+    }
+
+    @Test
+    @DisplayName("Verifica che il numero di invii contemporanei per canale non superi quello configurato")
+    void testLimitsConcurrentSendsPerChannel() throws Exception {
+
+        // arrange
+        when(notificationService.claimFailed(anyInt(), anyInt(), any(LocalDateTime.class))).thenReturn(List.of(
+                claimed(1L, NotificationType.EMAIL, "CUST001", 1),
+                claimed(2L, NotificationType.EMAIL, "CUST002", 1)));
+
+        CompletableFuture<Void> firstSend = new CompletableFuture<>();
+        when(notificationManager.notifyUserAsync(any(NotificationDTO.class), any()))
+                .thenReturn(firstSend)
+                .thenReturn(CompletableFuture.completedFuture(null));
+
+        // act
+        CompletableFuture<Void> job = CompletableFuture.runAsync(() -> notificationRetryService.retryNotificationsJob());
+
+        // assert
+        Thread.sleep(200);
+        verify(notificationManager, times(1)).notifyUserAsync(any(NotificationDTO.class), any());
+
+        firstSend.complete(null);
+        job.get(5, TimeUnit.SECONDS);
+        verify(notificationManager, times(2)).notifyUserAsync(any(NotificationDTO.class), any());
+    }
+
+    @Test
+    @DisplayName("Verifica che per gli invii non completati entro l'attesa non venga registrato alcun esito")
+    void testLeavesRunningSendsToTheLease() {
+
+        // arrange
+        Notification completed = claimed(1L, NotificationType.KAFKA, "CUST001", 1);
+        Notification running = claimed(2L, NotificationType.KAFKA, "CUST002", 1);
+        LocalDateTime leaseUntil = LocalDateTime.now().plusMinutes(5);
+        running.setNextAttemptAt(leaseUntil);
+        when(notificationService.claimFailed(eq(10), eq(3), any(LocalDateTime.class))).thenReturn(List.of(completed, running));
+        when(notificationManager.notifyUserAsync(any(NotificationDTO.class), eq(notificationRetryExecutor)))
+                .thenReturn(CompletableFuture.completedFuture(null))
+                .thenReturn(new CompletableFuture<>());
+        when(notificationService.completeRetries(any(), any(LocalDateTime.class))).thenReturn(1);
+
+        // act
+        notificationRetryService.retryNotificationsJob();
+
+        // assert
+        verify(notificationService).completeRetries(eq(List.of(completed)), any(LocalDateTime.class));
+        assertEquals(NotificationStatus.SENT, completed.getStatus());
+
+        // l'invio in corso resta in PROCESSING fino alla scadenza del lease
+        assertEquals(NotificationStatus.PROCESSING, running.getStatus());
+        assertNull(running.getErrorMessage());
+        assertEquals(leaseUntil, running.getNextAttemptAt());
+    }
+
+    @Test
+    @DisplayName("Verifica che l'attesa fra i tentativi cresca in modo esponenziale")
+    void testBackoffIsExponential() {
+        assertEquals(Duration.ofSeconds(1), notificationRetryService.backoff(1));
+        assertEquals(Duration.ofSeconds(2), notificationRetryService.backoff(2));
+        assertEquals(Duration.ofSeconds(4), notificationRetryService.backoff(3));
+    }
+
+    @Test
+    @DisplayName("Verifica che il job non registri esiti quando non ci sono notifiche da ritentare")
+    void testNoNotificationsToRetry() {
+
+        // arrange
+        when(notificationService.claimFailed(anyInt(), anyInt(), any(LocalDateTime.class))).thenReturn(List.of());
+
+        // act
+        notificationRetryService.retryNotificationsJob();
+
+        // assert
+        verifyNoInteractions(notificationManager);
+        verify(notificationService, never()).completeRetries(any(), any());
+    }
+
+    private static Notification claimed(Long id, NotificationType type, String customerId, int retryCount) {
+        Notification notification = new Notification();
+        notification.setId(id);
+        notification.setType(type);
+        notification.setCustomerId(customerId);
+        notification.setContent("content");
+        notification.setStatus(NotificationStatus.PROCESSING);
+        notification.setRetryCount(retryCount);
+        return notification;
+    }
+}
@@ -0,0 +1,103 @@
+package com.cimparato.csbm.util;
+
+import com.github.luben.zstd.ZstdOutputStream;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileCompressionTest {
+
+    private static final String HEADER = "customer_id,service_type,activation_date,expiration_date,amount,status";
+
+    @Test
+    @DisplayName("Verifica che la compressione venga riconosciuta dal suffisso del nome del file")
+    void testFromFilename() {
+        assertEquals(FileCompression.NONE, FileCompression.fromFilename("services.csv"));
+        assertEquals(FileCompression.GZIP, FileCompression.fromFilename("services.csv.gz"));
+        assertEquals(FileCompression.ZSTD, FileCompression.fromFilename("services.CSV.ZST"));
+        assertEquals(FileCompression.NONE, FileCompression.fromFilename(null));
+
+        assertEquals("services.csv", FileCompression.stripSuffix("services.csv.gz"));
+        assertEquals("services.csv", FileCompression.stripSuffix("services.csv"));
+    }
+
+    @Test
+    @DisplayName("Verifica che i file gzip e zstd vengano decompressi in streaming")
+    void testDecompress() throws IOException {
+
+        // arrange
+        byte[] content = csvContent(1000);
+
+        // act & assert
+        assertArrayEquals(content, readAll(FileCompression.GZIP.decompress(new ByteArrayInputStream(gzip(content)))));
+        assertArrayEquals(content, readAll(FileCompression.ZSTD.decompress(new ByteArrayInputStream(zstd(content)))));
+    }
+
+    @Test
+    @DisplayName("Verifica che l'intestazione venga letta dal solo primo blocco del file compresso")
+    void testDecompressHeadFromTruncatedBlock() throws IOException {
+
+        // arrange: contenuto poco comprimibile, così che il primo blocco contenga solo una parte del file
+        byte[] content = csvContent(50_000);
+        byte[] gzipped = gzip(content);
+        byte[] zstded = zstd(content);
+        int blockLength = 4096;
+        assertTrue(gzipped.length > blockLength && zstded.length > blockLength);
+
+        // act & assert
+        for (var compressed : new byte[][]{gzipped, zstded}) {
+            FileCompression compression = compressed == gzipped ? FileCompression.GZIP : FileCompression.ZSTD;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    compression.decompressHead(compressed, blockLength), StandardCharsets.UTF_8))) {
+                assertEquals(HEADER, reader.readLine());
+                while (reader.readLine() != null) {
+                    // la lettura oltre la fine del blocco termina senza errori
+                }
+            }
+        }
+    }
+
+    private static byte[] csvContent(int rows) {
+        Random random = new Random(42);
+        StringBuilder csv = new StringBuilder(HEADER).append('\n');
+        for (int i = 0; i < rows; i++) {
+            csv.append("CUST").append(random.nextInt(1_000_000)).append(",PEC,2023-01-01,2030-01-01,")
+                    .append(random.nextInt(10_000)).append('.').append(random.nextInt(100)).append(",ACTIVE\n");
+        }
+        return csv.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(content);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] zstd(byte[] content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new ZstdOutputStream(bytes)) {
+            out.write(content);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        try (inputStream) {
+            return inputStream.readAllBytes();
+        }
+    }
+}
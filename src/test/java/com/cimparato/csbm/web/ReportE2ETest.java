@@ -11,6 +11,7 @@ import com.cimparato.csbm.dto.report.SummaryReportDTO;
 import com.cimparato.csbm.repository.CloudServiceRepository;
 import com.cimparato.csbm.repository.FileUploadRepository;
 import com.cimparato.csbm.repository.JobExecutionRepository;
+import com.cimparato.csbm.service.report.ReportCache;
 import com.cimparato.csbm.service.report.ReportService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -19,6 +20,7 @@ import org.junit.jupiter.api.io.TempDir;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.kafka.test.context.EmbeddedKafka;
 import org.springframework.security.test.context.support.WithMockUser;
@@ -38,6 +40,7 @@ import java.util.UUID;
 
 import static org.hamcrest.Matchers.*;
 import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 @SpringBootTest
@@ -65,6 +68,9 @@ public class ReportE2ETest {
     @Autowired
     private ReportService reportService;
 
+    @Autowired
+    private ReportCache reportCache;
+
     @BeforeEach
     void setUp() {
 
@@ -73,6 +79,9 @@ public class ReportE2ETest {
         jobExecutionRepository.deleteAll();
         fileUploadRepository.deleteAll();
 
+        // i dati vengono scritti direttamente sul database, senza l'evento di completamento dell'elaborazione
+        reportCache.invalidate();
+
         // configura la directory di upload per i test
         System.setProperty("app.file-processing.upload-dir", tempDir.toString());
     }
@@ -172,6 +181,98 @@ public class ReportE2ETest {
     }
 
 
+    @Test
+    @WithMockUser(username = "testuser", roles = {"data_analyst"})
+    @DisplayName("Verifica che il report non modificato venga rivalidato con l'ETag e rigenerato dopo l'invalidazione")
+    void testReportIsRevalidatedWithEtag() throws Exception {
+
+        // 1. Prepara i dati di test
+        prepareTestData();
+
+        // 2. La prima richiesta restituisce il report con il suo ETag
+        String etag = mockMvc.perform(MockMvcRequestBuilders.get("/v1/report/summary")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(HttpHeaders.ETAG))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        // 3. Con lo stesso ETag il report non viene restituito
+        mockMvc.perform(MockMvcRequestBuilders.get("/v1/report/summary")
+                        .header(HttpHeaders.IF_NONE_MATCH, etag)
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotModified());
+
+        String pdfEtag = mockMvc.perform(MockMvcRequestBuilders.get("/v1/report/summary/pdf")
+                        .accept(MediaType.APPLICATION_PDF))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertNotEquals(etag, pdfEtag);
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/v1/report/summary/pdf")
+                        .header(HttpHeaders.IF_NONE_MATCH, pdfEtag)
+                        .accept(MediaType.APPLICATION_PDF))
+                .andExpect(status().isNotModified());
+
+        // 4. Dopo una modifica dei dati segnalata alla cache, il report viene rigenerato con un nuovo ETag
+        cloudServiceRepository.deleteAll();
+        reportCache.invalidate();
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/v1/report/summary")
+                        .header(HttpHeaders.IF_NONE_MATCH, etag)
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, not(etag)))
+                .andExpect(jsonPath("$.data.activeServicesByType").isEmpty());
+    }
+
+    @Test
+    @WithMockUser(username = "testuser", roles = {"data_analyst"})
+    @DisplayName("Verifica che la spesa media per cliente e il PDF vengano esportati in streaming")
+    void testStreamingExports() throws Exception {
+
+        // 1. Prepara i dati di test
+        prepareTestData();
+
+        // 2. Esportazione CSV, ordinata per cliente
+        MvcResult csv = mockMvc.perform(MockMvcRequestBuilders.get("/v1/report/average-spend/export")
+                        .param("format", "CSV"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        String content = mockMvc.perform(asyncDispatch(csv))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Type", startsWith("text/csv")))
+                .andReturn().getResponse().getContentAsString();
+
+        String[] lines = content.split("\n");
+        assertEquals("customer_id,average_amount", lines[0]);
+        assertTrue(lines[1].startsWith("CUST001,75.2"));
+        assertTrue(lines[2].startsWith("CUST002,29.99"));
+
+        // 3. Esportazione NDJSON: un oggetto JSON per cliente
+        MvcResult ndjson = mockMvc.perform(MockMvcRequestBuilders.get("/v1/report/average-spend/export")
+                        .param("format", "NDJSON"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        String ndjsonContent = mockMvc.perform(asyncDispatch(ndjson))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        assertEquals(lines.length - 1, ndjsonContent.split("\n").length);
+        assertTrue(ndjsonContent.startsWith("{\"customerId\":\"CUST001\""));
+
+        // 4. PDF in streaming
+        MvcResult pdf = mockMvc.perform(MockMvcRequestBuilders.get("/v1/report/summary/pdf/stream"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        byte[] pdfContent = mockMvc.perform(asyncDispatch(pdf))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Type", MediaType.APPLICATION_PDF_VALUE))
+                .andReturn().getResponse().getContentAsByteArray();
+        assertEquals("%PDF", new String(pdfContent, 0, 4));
+    }
+
     private void prepareTestData() {
 
 